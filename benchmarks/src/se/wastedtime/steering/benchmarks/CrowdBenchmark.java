@@ -0,0 +1,61 @@
+package se.wastedtime.steering.benchmarks;
+
+import com.badlogic.gdx.math.RandomXS128;
+import org.openjdk.jmh.annotations.*;
+import se.wastedtime.steering.ai.SpatialHashGrid;
+import se.wastedtime.steering.crowd.CrowdKernels;
+import se.wastedtime.steering.crowd.CrowdStore;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Structure of arrays crowd arriving at random targets, compare with {@link SteeringBenchmark}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CrowdBenchmark {
+
+    private static final float STEP = 1f / 45f;
+    private static final float SIZE = 200f;
+
+    @Param({"1000", "10000", "100000"})
+    int agents;
+
+    private CrowdStore store;
+    private SpatialHashGrid grid;
+    private long tick;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        RandomXS128 random = new RandomXS128(1);
+        store = new CrowdStore(agents);
+        for (int i = 0; i < agents; i++) {
+            int index = store.add(random.nextFloat() * SIZE, random.nextFloat() * SIZE);
+            store.getTargetX()[index] = random.nextFloat() * SIZE;
+            store.getTargetY()[index] = random.nextFloat() * SIZE;
+        }
+        store.setLimits(0, agents, 0.3f, 5f, 20f);
+        store.setWorldBounds(SIZE, SIZE);
+        grid = new SpatialHashGrid(0, 0, 2f, (int) (SIZE / 2f), (int) (SIZE / 2f));
+    }
+
+    @Benchmark
+    public void arrive() {
+        CrowdKernels.arrive(store, 0, store.size(), 0.1f, 1f, 0.1f, 1f);
+        store.integrate(STEP);
+    }
+
+    @Benchmark
+    public void arriveSeparationWander() {
+        int size = store.size();
+        grid.update(store.getPositionX(), store.getPositionY(), store.getBoundingRadius(), size);
+        CrowdKernels.arrive(store, 0, size, 0.1f, 1f, 0.1f, 1f);
+        CrowdKernels.separation(store, grid, 0, size, 1f, 0.5f, 1f);
+        CrowdKernels.wander(store, 0, size, tick++, 1, 0.2f, 0.2f);
+        store.integrate(STEP);
+    }
+}
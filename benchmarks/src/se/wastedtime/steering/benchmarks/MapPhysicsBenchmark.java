@@ -0,0 +1,67 @@
+package se.wastedtime.steering.benchmarks;
+
+import com.badlogic.gdx.maps.tiled.TiledMap;
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.physics.box2d.Box2D;
+import com.badlogic.gdx.physics.box2d.World;
+import org.openjdk.jmh.annotations.*;
+import se.wastedtime.steering.MapBodyManager;
+import se.wastedtime.steering.simulation.Simulation;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Static body creation from synthetic maps of growing size
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class MapPhysicsBenchmark {
+
+    /**
+     * map width and height in tiles, a tenth of the tiles is covered by a rectangle
+     */
+    @Param({"50", "200", "500", "1000"})
+    int size;
+
+    private TiledMap map;
+    private World world;
+    private MapBodyManager mapBodyManager;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Box2D.init();
+        map = SyntheticMaps.create(size, size * size / 10, 1);
+    }
+
+    @Setup(Level.Invocation)
+    public void createWorld() {
+        world = new World(new Vector2(0, 0), true);
+        mapBodyManager = new MapBodyManager(world, Simulation.PIXELS_PER_METER, null);
+    }
+
+    @TearDown(Level.Invocation)
+    public void disposeWorld() {
+        world.dispose();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        map.dispose();
+    }
+
+    @Benchmark
+    public MapBodyManager createPhysics() {
+        mapBodyManager.createPhysics(map, "physics", "synthetic");
+        return mapBodyManager;
+    }
+
+    @Benchmark
+    public MapBodyManager createMergedPhysics() {
+        mapBodyManager.createMergedPhysics(map, "physics", MapBodyManager.DEFAULT_REGION_SIZE);
+        return mapBodyManager;
+    }
+}
@@ -0,0 +1,113 @@
+package se.wastedtime.steering.benchmarks;
+
+import com.badlogic.gdx.math.Vector2;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import se.wastedtime.steering.PhysicsUtils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The PhysicsUtils vector helpers over a batch of points
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PhysicsUtilsBenchmark {
+
+    private static final int POINTS = 1024;
+    private static final float DISTANCE = 0.5f;
+
+    private final Vector2[] starts = new Vector2[POINTS];
+    private final Vector2[] targets = new Vector2[POINTS];
+    private final Vector2 out = new Vector2();
+
+    private final float[] x = new float[POINTS];
+    private final float[] y = new float[POINTS];
+    private final float[] targetX = new float[POINTS];
+    private final float[] targetY = new float[POINTS];
+    private final float[] outX = new float[POINTS];
+    private final float[] outY = new float[POINTS];
+
+    @Setup
+    public void setUp() {
+        for (int i = 0; i < POINTS; i++) {
+            starts[i] = new Vector2((i * 7919) % 50, (i * 104729) % 50);
+            targets[i] = new Vector2((i * 31) % 50, (i * 17) % 50);
+            x[i] = starts[i].x;
+            y[i] = starts[i].y;
+            targetX[i] = targets[i].x;
+            targetY[i] = targets[i].y;
+        }
+    }
+
+    @Benchmark
+    public void addDistanceToTarget(Blackhole blackhole) {
+        for (int i = 0; i < POINTS; i++) {
+            blackhole.consume(PhysicsUtils.addDistance(starts[i], targets[i], DISTANCE));
+        }
+    }
+
+    @Benchmark
+    public void addDistance(Blackhole blackhole) {
+        for (int i = 0; i < POINTS; i++) {
+            blackhole.consume(PhysicsUtils.addDistance(starts[i], DISTANCE));
+        }
+    }
+
+    @Benchmark
+    public void subDistanceToTarget(Blackhole blackhole) {
+        for (int i = 0; i < POINTS; i++) {
+            blackhole.consume(PhysicsUtils.subDistance(starts[i], targets[i], DISTANCE));
+        }
+    }
+
+    @Benchmark
+    public void subDistance(Blackhole blackhole) {
+        for (int i = 0; i < POINTS; i++) {
+            blackhole.consume(PhysicsUtils.subDistance(starts[i], DISTANCE));
+        }
+    }
+
+    @Benchmark
+    public float addDistanceToTargetOut() {
+        float sum = 0;
+        for (int i = 0; i < POINTS; i++) {
+            sum += PhysicsUtils.addDistance(starts[i], targets[i], DISTANCE, out).x;
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public float addDistanceOut() {
+        float sum = 0;
+        for (int i = 0; i < POINTS; i++) {
+            sum += PhysicsUtils.addDistance(starts[i], DISTANCE, out).x;
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public float[] addDistanceToTargetBatch() {
+        PhysicsUtils.addDistance(x, y, targetX, targetY, DISTANCE, outX, outY, POINTS);
+        return outX;
+    }
+
+    @Benchmark
+    public float[] addDistanceBatch() {
+        PhysicsUtils.addDistance(x, y, DISTANCE, outX, outY, POINTS);
+        return outX;
+    }
+
+    @Benchmark
+    public float vectorToAngle() {
+        float sum = 0;
+        for (int i = 0; i < POINTS; i++) {
+            sum += PhysicsUtils.vectorToAngle(starts[i]);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,51 @@
+package se.wastedtime.steering.benchmarks;
+
+import com.badlogic.gdx.maps.tiled.TiledMap;
+import org.openjdk.jmh.annotations.*;
+import se.wastedtime.steering.simulation.ShardedSimulation;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full step of a {@link ShardedSimulation} with a growing number of shards, 1 is a single world
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShardedStepBenchmark {
+
+    private static final float STEP = 1f / 45f;
+
+    @Param({"10000", "100000"})
+    int agents;
+
+    /**
+     * shards along each axis
+     */
+    @Param({"1", "2", "4"})
+    int shards;
+
+    private TiledMap map;
+    private ShardedSimulation simulation;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        map = SyntheticMaps.create(200, 2000, 1);
+        simulation = new ShardedSimulation(map, "synthetic", null, shards, shards);
+        SyntheticMaps.populate(simulation, agents, 1);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        simulation.dispose();
+        map.dispose();
+    }
+
+    @Benchmark
+    public void step() {
+        simulation.step(STEP);
+    }
+}
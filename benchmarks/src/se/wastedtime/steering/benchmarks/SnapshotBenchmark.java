@@ -0,0 +1,73 @@
+package se.wastedtime.steering.benchmarks;
+
+import com.badlogic.gdx.maps.tiled.TiledMap;
+import org.openjdk.jmh.annotations.*;
+import se.wastedtime.steering.simulation.Simulation;
+import se.wastedtime.steering.simulation.SimulationSnapshot;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spawning agents through the spawn logic compared to restoring them from a {@link SimulationSnapshot}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class SnapshotBenchmark {
+
+    private static final float STEP = 1f / 60f;
+
+    @Param({"1000", "10000"})
+    int agents;
+
+    private TiledMap map;
+    private Simulation source;
+    private final SimulationSnapshot snapshot = new SimulationSnapshot();
+    private Simulation simulation;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        map = SyntheticMaps.create(200, 400, 1);
+        source = new Simulation(map, "synthetic", null);
+        SyntheticMaps.populate(source, agents, 1);
+        source.step(STEP);
+        snapshot.capture(source);
+    }
+
+    @Setup(Level.Invocation)
+    public void createSimulation() {
+        simulation = new Simulation(map, "synthetic", null);
+    }
+
+    @TearDown(Level.Invocation)
+    public void disposeSimulation() {
+        simulation.dispose();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        source.dispose();
+        map.dispose();
+    }
+
+    @Benchmark
+    public Simulation populate() {
+        SyntheticMaps.populate(simulation, agents, 1);
+        return simulation;
+    }
+
+    @Benchmark
+    public Simulation restore() {
+        snapshot.restore(simulation);
+        return simulation;
+    }
+
+    @Benchmark
+    public SimulationSnapshot capture() {
+        snapshot.capture(source);
+        return snapshot;
+    }
+}
@@ -0,0 +1,66 @@
+package se.wastedtime.steering.benchmarks;
+
+import com.badlogic.gdx.maps.tiled.TiledMap;
+import com.badlogic.gdx.utils.Array;
+import org.openjdk.jmh.annotations.*;
+import se.wastedtime.steering.entities.Character;
+import se.wastedtime.steering.simulation.AgentUpdatePipeline;
+import se.wastedtime.steering.simulation.Simulation;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Steering update of a population arriving at random targets, without the physics step
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SteeringBenchmark {
+
+    private static final float STEP = 1f / 45f;
+
+    @Param({"1000", "10000", "100000"})
+    int agents;
+
+    private TiledMap map;
+    private Simulation simulation;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        map = SyntheticMaps.create(200, 0, 1);
+        simulation = new Simulation(map, "synthetic", null);
+        SyntheticMaps.populate(simulation, agents, 1);
+        // give the bodies some velocity so the steering isn't trivially zero
+        simulation.step(STEP);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        simulation.dispose();
+        map.dispose();
+    }
+
+    @Benchmark
+    public void update() {
+        Array<Character> characters = simulation.getAgents();
+        for (int i = 0; i < characters.size; i++) {
+            characters.get(i).update(STEP);
+        }
+        simulation.getWorld().clearForces();
+    }
+
+    @Benchmark
+    public void calculateSteeringParallel() {
+        AgentUpdatePipeline pipeline = simulation.getPipeline();
+        pipeline.snapshot(simulation.getAgents());
+        pipeline.calculateSteering();
+    }
+
+    @Benchmark
+    public void step() {
+        simulation.step(STEP);
+    }
+}
@@ -0,0 +1,92 @@
+package se.wastedtime.steering.benchmarks;
+
+import com.badlogic.gdx.ai.steer.behaviors.Arrive;
+import com.badlogic.gdx.maps.MapLayer;
+import com.badlogic.gdx.maps.MapProperties;
+import com.badlogic.gdx.maps.objects.RectangleMapObject;
+import com.badlogic.gdx.maps.tiled.TiledMap;
+import com.badlogic.gdx.math.RandomXS128;
+import se.wastedtime.steering.Box2DLocation;
+import se.wastedtime.steering.entities.Character;
+import se.wastedtime.steering.simulation.ShardedSimulation;
+import se.wastedtime.steering.simulation.Simulation;
+
+/**
+ * Builds maps and populations for the benchmarks without loading any files
+ */
+final class SyntheticMaps {
+
+    static final int TILE_SIZE = 32;
+
+    private SyntheticMaps() {
+    }
+
+    /**
+     * Creates a map with a "physics" object layer of tile aligned rectangles
+     *
+     * @param size       width and height in tiles
+     * @param rectangles number of collision rectangles
+     * @param seed       seed for the rectangle placement
+     */
+    static TiledMap create(int size, int rectangles, long seed) {
+        TiledMap map = new TiledMap();
+        MapProperties properties = map.getProperties();
+        properties.put("width", size);
+        properties.put("height", size);
+        properties.put("tilewidth", TILE_SIZE);
+        properties.put("tileheight", TILE_SIZE);
+
+        MapLayer physics = new MapLayer();
+        physics.setName("physics");
+        physics.getProperties().put("material", "physics");
+
+        RandomXS128 random = new RandomXS128(seed);
+        for (int i = 0; i < rectangles; i++) {
+            int x = random.nextInt(size);
+            int y = random.nextInt(size);
+            int width = 1 + random.nextInt(3);
+            int height = 1 + random.nextInt(3);
+            physics.getObjects().add(new RectangleMapObject(x * TILE_SIZE, y * TILE_SIZE,
+                    width * TILE_SIZE, height * TILE_SIZE));
+        }
+
+        map.getLayers().add(physics);
+        return map;
+    }
+
+    /**
+     * Spawns agents arriving at random targets
+     */
+    static void populate(Simulation simulation, int agents, long seed) {
+        populate(simulation::spawn, simulation.getWidth(), simulation.getHeight(), agents, seed);
+    }
+
+    /**
+     * Spawns the same agents as {@link #populate(Simulation, int, long)} into the shards
+     */
+    static void populate(ShardedSimulation simulation, int agents, long seed) {
+        populate(simulation::spawn, simulation.getWidth(), simulation.getHeight(), agents, seed);
+    }
+
+    private static void populate(Spawner spawner, float width, float height, int agents, long seed) {
+        RandomXS128 random = new RandomXS128(seed);
+
+        for (int i = 0; i < agents; i++) {
+            Character character = spawner.spawn(random.nextFloat() * width, random.nextFloat() * height);
+            character.setMaxLinearSpeed(3f);
+            character.setMaxLinearAcceleration(50f);
+
+            Box2DLocation target = new Box2DLocation();
+            target.getPosition().set(random.nextFloat() * width, random.nextFloat() * height);
+
+            character.setSteeringBehavior(new Arrive<>(character, target)
+                    .setTimeToTarget(0.1f)
+                    .setArrivalTolerance(0.001f)
+                    .setDecelerationRadius(1));
+        }
+    }
+
+    private interface Spawner {
+        Character spawn(float x, float y);
+    }
+}
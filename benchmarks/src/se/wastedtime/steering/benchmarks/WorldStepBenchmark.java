@@ -0,0 +1,51 @@
+package se.wastedtime.steering.benchmarks;
+
+import com.badlogic.gdx.maps.tiled.TiledMap;
+import org.openjdk.jmh.annotations.*;
+import se.wastedtime.steering.simulation.Simulation;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Box2D world step with a moving population and static map geometry
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WorldStepBenchmark {
+
+    private static final float STEP = 1f / 45f;
+
+    @Param({"1000", "10000", "100000"})
+    int agents;
+
+    private TiledMap map;
+    private Simulation simulation;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        map = SyntheticMaps.create(200, 2000, 1);
+        simulation = new Simulation(map, "synthetic", null);
+        SyntheticMaps.populate(simulation, agents, 1);
+    }
+
+    @Setup(Level.Iteration)
+    public void steer() {
+        // apply steering once so the bodies keep moving during the iteration
+        simulation.step(STEP);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        simulation.dispose();
+        map.dispose();
+    }
+
+    @Benchmark
+    public void worldStep() {
+        simulation.getWorld().step(STEP, Simulation.VELOCITY_ITERATIONS, Simulation.POSITION_ITERATIONS);
+    }
+}
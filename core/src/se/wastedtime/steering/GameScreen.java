@@ -1,40 +1,129 @@
 package se.wastedtime.steering;
 
 import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.Input;
 import com.badlogic.gdx.Screen;
-import com.badlogic.gdx.ai.steer.behaviors.Arrive;
+import com.badlogic.gdx.ai.sched.LoadBalancingScheduler;
+import com.badlogic.gdx.assets.AssetManager;
+import com.badlogic.gdx.files.FileHandle;
 import com.badlogic.gdx.graphics.GL20;
 import com.badlogic.gdx.graphics.OrthographicCamera;
-import com.badlogic.gdx.graphics.g2d.SpriteBatch;
 import com.badlogic.gdx.maps.tiled.TiledMap;
 import com.badlogic.gdx.maps.tiled.TmxMapLoader;
 import com.badlogic.gdx.math.Vector2;
-import com.badlogic.gdx.physics.box2d.Box2D;
 import com.badlogic.gdx.physics.box2d.Box2DDebugRenderer;
 import com.badlogic.gdx.physics.box2d.World;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.TimeUtils;
 import com.badlogic.gdx.utils.viewport.StretchViewport;
 import se.wastedtime.steering.entities.Character;
+import se.wastedtime.steering.map.RegionStreamer;
+import se.wastedtime.steering.profiling.Profiler;
+import se.wastedtime.steering.profiling.ProfilerOverlay;
+import se.wastedtime.steering.simulation.DemoScene;
+import se.wastedtime.steering.simulation.Lockstep;
+import se.wastedtime.steering.simulation.Replay;
+import se.wastedtime.steering.simulation.Simulation;
+import se.wastedtime.steering.simulation.SimulationClock;
+import se.wastedtime.steering.simulation.SteeringLod;
+
+import java.io.IOException;
 
 public class GameScreen implements Screen {
 
-    SpriteBatch batch;
-
-    String map = "maps/first.tmx";
+    /**
+     * Time per frame for searching requested paths, in nanoseconds
+     */
+    public static final long PATHFINDING_BUDGET = TimeUtils.millisToNanos(2);
+
+    public static final String MAP = "maps/first.tmx";
+    public static final String MATERIALS = "materials.json";
+    /**
+     * WorldUnits per pixel of the map
+     */
+    public static final float UNIT_SCALE = 1f / 32f;
+    /**
+     * File the profiler report is written to with F4
+     */
+    public static final String PROFILE_FILE = "profile.txt";
+
+    private static final String TAG = "game";
+
+    private final AssetManager assets;
     private StretchViewport viewport;
     private OrthographicCamera camera;
     private MapRenderer mapRenderer;
     private TiledMap loadedTileMap;
     private Box2DDebugRenderer physicsDebugRenderer;
-    private MapBodyManager mapBodyManager;
+    private Simulation simulation;
     private World world;
     private final Character character;
     private final Character target;
+    private final Array<Character> sprites = new Array<>();
+    private final SimulationClock clock;
+    private final LoadBalancingScheduler scheduler;
+    private RegionStreamer streamer;
+    private final Vector2 mouse = new Vector2();
+    private final Lockstep lockstep;
+    private final FileHandle replayFile;
+
+    private final SteeringLod lod = new SteeringLod();
+    private final Profiler profiler = new Profiler();
+    private final ProfilerOverlay overlay = new ProfilerOverlay(profiler);
+    private boolean showOverlay;
+    private final int renderBeforeSection = profiler.addSection("render before");
+    private final int spritesSection = profiler.addSection("sprites");
+    private final int renderAfterSection = profiler.addSection("render after");
+    private final int debugRenderSection = profiler.addSection("debug render");
+    private final int nearCounter = profiler.addCounter("near agents");
+    private final int midCounter = profiler.addCounter("mid agents");
+    private final int farCounter = profiler.addCounter("far agents");
 
     public GameScreen() {
-        batch = new SpriteBatch();
+        this(SimulationClock.DEFAULT_TICK_RATE);
+    }
+
+    /**
+     * @param tickRate simulation steps per second, independent of the frame rate
+     */
+    public GameScreen(int tickRate) {
+        this(tickRate, false);
+    }
+
+    /**
+     * @param tickRate  simulation steps per second, independent of the frame rate
+     * @param streaming true to only keep the regions around the camera loaded
+     */
+    public GameScreen(int tickRate, boolean streaming) {
+        this(new TmxMapLoader().load(MAP), tickRate, streaming);
+    }
+
+    private GameScreen(TiledMap map, int tickRate, boolean streaming) {
+        this(null, map, new MapRenderer(map, UNIT_SCALE, streaming),
+                new Simulation(map, MAP, Gdx.files.internal(MATERIALS)), tickRate, streaming, null);
+    }
 
-        loadedTileMap = new TmxMapLoader().load(map);
-        mapRenderer = new MapRenderer(loadedTileMap, 1f / 32f);
+    /**
+     * Shows a map loaded ahead of time, see {@link LoadingScreen}
+     *
+     * @param assets      asset manager the map was loaded with, disposed with the screen, may be null
+     * @param map         the loaded map
+     * @param mapRenderer renderer of the map
+     * @param simulation  simulation of the map
+     * @param tickRate    simulation steps per second, independent of the frame rate
+     * @param streaming   true if the renderer was created for streaming, not supported while recording
+     * @param replayFile  file the session is recorded to on dispose, null to not record
+     */
+    GameScreen(AssetManager assets, TiledMap map, MapRenderer mapRenderer, Simulation simulation,
+               int tickRate, boolean streaming, FileHandle replayFile) {
+        if (streaming && replayFile != null)
+            throw new IllegalArgumentException("Streaming can't be recorded, the loaded regions depend on the camera");
+        this.assets = assets;
+        this.replayFile = replayFile;
+        clock = new SimulationClock(tickRate, SimulationClock.DEFAULT_MAX_STEPS_PER_FRAME);
+
+        loadedTileMap = map;
+        this.mapRenderer = mapRenderer;
 
         camera = new OrthographicCamera();
         viewport = new StretchViewport(30f, 20f, camera);
@@ -46,23 +135,31 @@ public class GameScreen implements Screen {
         /*
         Physics
          */
-        Box2D.init();
-        world = new World(new Vector2(0, 0), true);
-        mapBodyManager = new MapBodyManager(world, 32f, Gdx.files.internal("materials.json"));
-        mapBodyManager.createPhysics(loadedTileMap, "physics", map);
+        this.simulation = simulation;
+        world = simulation.getWorld();
+        simulation.setProfiler(profiler);
+        if (streaming)
+            streamer = new RegionStreamer(loadedTileMap, UNIT_SCALE, simulation.getMapBodyManager(),
+                    simulation.getCollisionGeometry(), simulation.getRegionBodies(), mapRenderer.getChunkCache());
 
         physicsDebugRenderer = new Box2DDebugRenderer();
 
-        character = new Character(world);
-
-        target = new Character(world, new Vector2(10, 10));
-
-        final Arrive<Vector2> arriveSB = new Arrive<>(character, target)
-                .setTimeToTarget(0.1f)
-                .setArrivalTolerance(0.001f)
-                .setDecelerationRadius(1);
-
-        character.setSteeringBehavior(arriveSB);
+        DemoScene.populate(simulation);
+        character = simulation.getAgents().get(DemoScene.PLAYER);
+        target = simulation.getAgents().get(DemoScene.TARGET);
+        sprites.add(character);
+        sprites.add(target);
+
+        // recording pins everything that isn't reproducible, including the level of detail
+        if (replayFile != null) {
+            lockstep = new Lockstep(simulation, new Replay(MAP, tickRate, TimeUtils.millis()), false);
+        } else {
+            lockstep = null;
+            simulation.getPipeline().setLod(lod);
+        }
+
+        scheduler = new LoadBalancingScheduler(100);
+        scheduler.add(simulation.getPathRequestScheduler(), 1, 0);
     }
 
     @Override
@@ -74,33 +171,70 @@ public class GameScreen implements Screen {
     public void render(float delta) {
         viewport.apply();
 
-//        if (Gdx.input.isKeyPressed(Input.Keys.Q))
-        character.update(delta);
+        // before stepping, the agents need the bodies around them
+        if (streamer != null)
+            streamer.update(camera.position.x, camera.position.y, simulation.getAgents());
+
+        lod.setFocus(camera.position.x, camera.position.y,
+                camera.viewportWidth * camera.zoom / 2f, camera.viewportHeight * camera.zoom / 2f);
 
-        Vector2 mouse = new Vector2(Gdx.input.getX(), Gdx.input.getY());
+        int steps = clock.advance(delta);
+        for (int i = 0; i < steps; i++) {
+            if (lockstep != null)
+                lockstep.step();
+            else
+                simulation.step(clock.getStepTime());
+        }
+        float alpha = clock.getAlpha();
 
-        Vector2 unproj = viewport.unproject(mouse);
+        Vector2 unproj = viewport.unproject(mouse.set(Gdx.input.getX(), Gdx.input.getY()));
 
-        System.out.println(character.getPosition() + "||" + target.getPosition());
+        if (lockstep != null) {
+            // the paths are searched by the lockstep, before the tick the click is executed in
+            if (Gdx.input.justTouched())
+                lockstep.moveTo(DemoScene.PLAYER, unproj.x, unproj.y);
+        } else {
+            if (Gdx.input.justTouched())
+                character.requestPath(simulation.getPathRequestScheduler(), unproj);
+
+            simulation.getPathRequestScheduler().setFocus(camera.position.x, camera.position.y);
+            scheduler.run(PATHFINDING_BUDGET);
+        }
 
         Gdx.gl.glClearColor(0, 0, 0, 1);
         Gdx.gl.glClear(GL20.GL_COLOR_BUFFER_BIT);
 
-        batch.setProjectionMatrix(camera.combined);
         CameraUtil.boundary(camera, loadedTileMap);
         camera.update();
 
         mapRenderer.setView(camera);
+        profiler.begin(renderBeforeSection);
         mapRenderer.renderBefore();
+        profiler.end(renderBeforeSection);
 
-        batch.begin();
-        batch.end();
+        profiler.begin(spritesSection);
+        mapRenderer.renderSorted(sprites, alpha);
+        profiler.end(spritesSection);
 
+        profiler.begin(renderAfterSection);
         mapRenderer.renderAfter();
+        profiler.end(renderAfterSection);
 
-        world.step(1f / 45f, 8, 3);
-
+        profiler.begin(debugRenderSection);
         physicsDebugRenderer.render(world, camera.combined);
+        profiler.end(debugRenderSection);
+
+        profiler.setCounter(nearCounter, lod.getCount(SteeringLod.NEAR));
+        profiler.setCounter(midCounter, lod.getCount(SteeringLod.MID));
+        profiler.setCounter(farCounter, lod.getCount(SteeringLod.FAR));
+        profiler.endFrame();
+
+        if (Gdx.input.isKeyJustPressed(Input.Keys.F3))
+            showOverlay = !showOverlay;
+        if (Gdx.input.isKeyJustPressed(Input.Keys.F4))
+            profiler.dump(Gdx.files.local(PROFILE_FILE));
+        if (showOverlay)
+            overlay.render(Gdx.graphics.getWidth(), Gdx.graphics.getHeight());
 
     }
 
@@ -126,6 +260,19 @@ public class GameScreen implements Screen {
 
     @Override
     public void dispose() {
-        batch.dispose();
+        if (lockstep != null) {
+            try {
+                lockstep.getReplay().write(replayFile);
+            } catch (IOException e) {
+                Gdx.app.error(TAG, "Couldn't write the replay to " + replayFile.path(), e);
+            }
+        }
+        mapRenderer.dispose();
+        overlay.dispose();
+        if (streamer != null)
+            streamer.dispose();
+        simulation.dispose();
+        if (assets != null)
+            assets.dispose();
     }
 }
@@ -0,0 +1,129 @@
+package se.wastedtime.steering;
+
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.graphics.g2d.TextureRegion;
+import com.badlogic.gdx.maps.ImageResolver;
+import com.badlogic.gdx.maps.tiled.TiledMap;
+import com.badlogic.gdx.maps.tiled.TiledMapTile;
+import com.badlogic.gdx.maps.tiled.TiledMapTileSet;
+import com.badlogic.gdx.maps.tiled.TmxMapLoader;
+import com.badlogic.gdx.maps.tiled.tiles.StaticTiledMapTile;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.GdxRuntimeException;
+import com.badlogic.gdx.utils.SerializationException;
+import com.badlogic.gdx.utils.XmlReader.Element;
+
+/**
+ * TmxMapLoader that doesn't need a GL context.
+ * Images are skipped, the tiles of the tilesets get a region of their size without a texture.
+ * The cells, layers, objects and properties, including the properties of the tiles, are loaded as usual,
+ * so a map loaded headless has the same blocked tiles as one loaded for rendering.
+ * Animations are loaded as their first frame.
+ */
+public class HeadlessTmxMapLoader extends TmxMapLoader {
+
+    private static final ImageResolver NO_IMAGES = name -> null;
+
+    @Override
+    public TiledMap load(String fileName, Parameters parameters) {
+        this.convertObjectToTileSpace = parameters.convertObjectToTileSpace;
+        this.flipY = parameters.flipY;
+
+        FileHandle tmxFile = resolve(fileName);
+        root = xml.parse(tmxFile);
+        return loadTilemap(root, tmxFile, NO_IMAGES);
+    }
+
+    @Override
+    protected void loadTileSet(TiledMap map, Element element, FileHandle tmxFile, ImageResolver imageResolver) {
+        if (!element.getName().equals("tileset"))
+            return;
+
+        int firstgid = element.getIntAttribute("firstgid", 1);
+        String source = element.getAttribute("source", null);
+        if (source != null) {
+            try {
+                element = xml.parse(getRelativeFileHandle(tmxFile, source));
+            } catch (SerializationException e) {
+                throw new GdxRuntimeException("Error parsing external tileset.", e);
+            }
+        }
+
+        int tileWidth = element.getIntAttribute("tilewidth", 0);
+        int tileHeight = element.getIntAttribute("tileheight", 0);
+
+        TiledMapTileSet tileset = new TiledMapTileSet();
+        tileset.setName(element.get("name", null));
+        tileset.getProperties().put("firstgid", firstgid);
+
+        Element image = element.getChildByName("image");
+        if (image != null) {
+            int spacing = element.getIntAttribute("spacing", 0);
+            int margin = element.getIntAttribute("margin", 0);
+            int columns = (image.getIntAttribute("width", 0) - 2 * margin + spacing) / (tileWidth + spacing);
+            int rows = (image.getIntAttribute("height", 0) - 2 * margin + spacing) / (tileHeight + spacing);
+            int count = element.getIntAttribute("tilecount", columns * rows);
+            for (int i = 0; i < count; i++) {
+                putTile(tileset, firstgid + i, tileWidth, tileHeight);
+            }
+        }
+
+        Array<Element> tileElements = element.getChildrenByName("tile");
+        for (Element tileElement : tileElements) {
+            int id = firstgid + tileElement.getIntAttribute("id", 0);
+            TiledMapTile tile = tileset.getTile(id);
+            if (tile == null) {
+                // image collection, every tile has its own image
+                Element tileImage = tileElement.getChildByName("image");
+                tile = putTile(tileset, id, tileImage != null ? tileImage.getIntAttribute("width", 0) : tileWidth,
+                        tileImage != null ? tileImage.getIntAttribute("height", 0) : tileHeight);
+            }
+
+            Element objectGroup = tileElement.getChildByName("objectgroup");
+            if (objectGroup != null) {
+                for (Element objectElement : objectGroup.getChildrenByName("object")) {
+                    loadObject(map, tile, objectElement);
+                }
+            }
+            Element properties = tileElement.getChildByName("properties");
+            if (properties != null)
+                loadProperties(tile.getProperties(), properties);
+        }
+
+        Element properties = element.getChildByName("properties");
+        if (properties != null)
+            loadProperties(tileset.getProperties(), properties);
+        map.getTileSets().addTileSet(tileset);
+    }
+
+    private static TiledMapTile putTile(TiledMapTileSet tileset, int id, int width, int height) {
+        TiledMapTile tile = new StaticTiledMapTile(new SizedRegion(width, height));
+        tile.setId(id);
+        tileset.putTile(id, tile);
+        return tile;
+    }
+
+    /**
+     * Region without a texture, only knows its size for tile objects scaled to it
+     */
+    private static final class SizedRegion extends TextureRegion {
+
+        private final int width;
+        private final int height;
+
+        SizedRegion(int width, int height) {
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public int getRegionWidth() {
+            return width;
+        }
+
+        @Override
+        public int getRegionHeight() {
+            return height;
+        }
+    }
+}
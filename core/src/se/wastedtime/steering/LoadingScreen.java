@@ -0,0 +1,206 @@
+package se.wastedtime.steering;
+
+import com.badlogic.gdx.Game;
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.Screen;
+import com.badlogic.gdx.assets.AssetManager;
+import com.badlogic.gdx.assets.loaders.resolvers.InternalFileHandleResolver;
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.graphics.OrthographicCamera;
+import com.badlogic.gdx.graphics.glutils.ShapeRenderer;
+import com.badlogic.gdx.maps.tiled.TiledMap;
+import com.badlogic.gdx.maps.tiled.TmxMapLoader;
+import com.badlogic.gdx.utils.TimeUtils;
+import se.wastedtime.steering.map.ChunkCacheLoader;
+import se.wastedtime.steering.simulation.SimulationLoader;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Loads the map and its simulation while drawing a progress bar, then switches to the {@link GameScreen}.
+ * <p>
+ * The {@link AssetManager} parses the tmx file and decodes the tileset images on its own thread, only the
+ * texture upload runs on the render thread, within a time budget per frame. The materials and the collision
+ * are loaded by a {@link SimulationLoader} on another thread, the static bodies and the navigation graph are
+ * then built in time-sliced batches as well. The chunks of the {@link MapRenderer} are prepared on the same
+ * thread by a {@link ChunkCacheLoader}, the render thread only uploads them within the budget.
+ */
+public class LoadingScreen implements Screen {
+
+    /**
+     * Time per frame for uploading textures and chunks and creating bodies, in milliseconds
+     */
+    public static final int LOAD_BUDGET = 12;
+
+    /**
+     * Share of the progress bar for loading the map
+     */
+    private static final float MAP_PROGRESS = 0.5f;
+
+    /**
+     * Share of the progress bar for loading the chunks, the rest is for the simulation
+     */
+    private static final float CHUNK_PROGRESS = 0.2f;
+
+    private final Game game;
+    private final int tickRate;
+    private final boolean streaming;
+    private final FileHandle replayFile;
+
+    private final AssetManager assets = new AssetManager();
+    private final ExecutorService executor;
+    private final OrthographicCamera camera = new OrthographicCamera();
+    private final ShapeRenderer shapes = new ShapeRenderer();
+
+    private TiledMap map;
+    private MapRenderer mapRenderer;
+    private ChunkCacheLoader chunkLoader;
+    private boolean chunksLoaded;
+    private SimulationLoader simulationLoader;
+    private boolean done;
+
+    /**
+     * @param game      game to show the {@link GameScreen} in once loaded
+     * @param tickRate  simulation steps per second
+     * @param streaming true to only keep the regions around the camera loaded
+     */
+    public LoadingScreen(Game game, int tickRate, boolean streaming) {
+        this(game, tickRate, streaming, null);
+    }
+
+    /**
+     * @param game       game to show the {@link GameScreen} in once loaded
+     * @param tickRate   simulation steps per second
+     * @param streaming  true to only keep the regions around the camera loaded, ignored while recording
+     * @param replayFile file the session is recorded to, null to not record
+     */
+    public LoadingScreen(Game game, int tickRate, boolean streaming, FileHandle replayFile) {
+        this.game = game;
+        this.tickRate = tickRate;
+        this.streaming = streaming && replayFile == null;
+        this.replayFile = replayFile;
+
+        executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "simulation-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        assets.setLoader(TiledMap.class, new TmxMapLoader(new InternalFileHandleResolver()));
+        assets.load(GameScreen.MAP, TiledMap.class);
+    }
+
+    @Override
+    public void show() {
+
+    }
+
+    @Override
+    public void render(float delta) {
+        if (!done)
+            load();
+        if (done) {
+            game.setScreen(new GameScreen(assets, map, mapRenderer, simulationLoader.getSimulation(), tickRate, streaming,
+                    replayFile));
+            dispose();
+            return;
+        }
+
+        Gdx.gl.glClearColor(0, 0, 0, 1);
+        Gdx.gl.glClear(GL20.GL_COLOR_BUFFER_BIT);
+
+        float width = camera.viewportWidth * 0.6f;
+        float height = camera.viewportHeight * 0.02f;
+        float x = (camera.viewportWidth - width) / 2f;
+        float y = (camera.viewportHeight - height) / 2f;
+
+        shapes.setProjectionMatrix(camera.combined);
+        shapes.begin(ShapeRenderer.ShapeType.Line);
+        shapes.rect(x, y, width, height);
+        shapes.end();
+        shapes.begin(ShapeRenderer.ShapeType.Filled);
+        shapes.rect(x, y, width * getProgress(), height);
+        shapes.end();
+    }
+
+    /**
+     * Runs the next loading step, one per frame so the progress is drawn in between
+     */
+    private void load() {
+        if (map == null) {
+            if (!assets.update(LOAD_BUDGET))
+                return;
+
+            map = assets.get(GameScreen.MAP, TiledMap.class);
+            simulationLoader = new SimulationLoader(map, GameScreen.MAP, Gdx.files.internal(GameScreen.MATERIALS), executor);
+        } else if (mapRenderer == null) {
+            // the chunks are prepared after the collision, the streamer loads them when streaming
+            mapRenderer = new MapRenderer(map, GameScreen.UNIT_SCALE, streaming, false);
+            if (!streaming)
+                chunkLoader = new ChunkCacheLoader(mapRenderer.getChunkCache(), executor);
+            chunksLoaded = streaming;
+        } else {
+            long budget = TimeUtils.millisToNanos(LOAD_BUDGET);
+            if (!chunksLoaded) {
+                // shares the frame with the simulation until all chunks are uploaded
+                budget /= 2;
+                chunksLoaded = chunkLoader.update(budget);
+            }
+            done = simulationLoader.update(budget) && chunksLoaded;
+        }
+    }
+
+    /**
+     * @return loading progress from 0 to 1
+     */
+    public float getProgress() {
+        if (simulationLoader == null)
+            return assets.getProgress() * MAP_PROGRESS;
+        if (mapRenderer == null)
+            return MAP_PROGRESS;
+        float chunks = chunkLoader != null ? chunkLoader.getProgress() : 1f;
+        return MAP_PROGRESS + chunks * CHUNK_PROGRESS
+                + simulationLoader.getProgress() * (1f - MAP_PROGRESS - CHUNK_PROGRESS);
+    }
+
+    @Override
+    public void resize(int width, int height) {
+        camera.setToOrtho(false, width, height);
+    }
+
+    @Override
+    public void pause() {
+
+    }
+
+    @Override
+    public void resume() {
+
+    }
+
+    @Override
+    public void hide() {
+
+    }
+
+    /**
+     * Stops loading, everything already loaded is disposed unless it was handed to the {@link GameScreen}
+     */
+    @Override
+    public void dispose() {
+        shapes.dispose();
+        executor.shutdownNow();
+        if (done)
+            return;
+
+        if (chunkLoader != null)
+            chunkLoader.cancel();
+        if (simulationLoader != null)
+            simulationLoader.cancel();
+        if (mapRenderer != null)
+            mapRenderer.dispose();
+        assets.dispose();
+    }
+}
@@ -1,17 +1,31 @@
 package se.wastedtime.steering;
 
+import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.files.FileHandle;
 import com.badlogic.gdx.maps.*;
 import com.badlogic.gdx.maps.objects.*;
 import com.badlogic.gdx.maps.tiled.TiledMap;
 import com.badlogic.gdx.math.Circle;
+import com.badlogic.gdx.math.Polygon;
+import com.badlogic.gdx.math.Polyline;
 import com.badlogic.gdx.math.Rectangle;
 import com.badlogic.gdx.math.Vector2;
 import com.badlogic.gdx.physics.box2d.*;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.FloatArray;
+import com.badlogic.gdx.utils.IntArray;
 import com.badlogic.gdx.utils.JsonReader;
 import com.badlogic.gdx.utils.JsonValue;
+import com.badlogic.gdx.utils.LongMap;
+import com.badlogic.gdx.utils.ObjectIntMap;
 import com.badlogic.gdx.utils.ObjectMap;
+import se.wastedtime.steering.map.CollisionGeometry;
+import se.wastedtime.steering.map.RectangleMerger;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -30,15 +44,42 @@ import java.util.List;
  * }
  * </pre>
  * In case no material property is found, it'll get a default one.
+ * <p>
+ * {@link #createMergedPhysics(TiledMap, String, float)} builds the same collision with far fewer
+ * bodies and fixtures, which loads faster and keeps the broadphase small on maps with many shapes.
  *
  * @author David Saltares Márquez david.saltares at gmail.com
  */
 public class MapBodyManager {
 
+    /**
+     * Edge length of the regions of {@link #createMergedPhysics(TiledMap, String, float)} in pixels
+     */
+    public static final float DEFAULT_REGION_SIZE = 512f;
+
+    /**
+     * Appended to the map file name for the collision cache
+     */
+    public static final String CACHE_SUFFIX = ".collision";
+
     private World world;
     private float units;
     private List<Body> bodies = new ArrayList<>();
     private ObjectMap<String, FixtureDef> materials = new ObjectMap<>();
+    private Array<BodyListener> listeners = new Array<>();
+
+    /**
+     * Notified about the static bodies created and destroyed by the manager
+     */
+    public interface BodyListener {
+
+        void bodyCreated(Body body);
+
+        /**
+         * Called before the body is destroyed, it's already removed from {@link #getBodies()}
+         */
+        void bodyDestroyed(Body body);
+    }
 
     /**
      * @param world         box2D world to work with.
@@ -50,6 +91,8 @@ public class MapBodyManager {
         this.world = world;
         this.units = unitsPerPixel;
 
+        loadDefaultMaterials();
+
         if (materialsFile != null) {
             loadMaterialsFile(materialsFile);
         }
@@ -61,17 +104,7 @@ public class MapBodyManager {
      */
     public void createPhysics(TiledMap map, String layerName, String mapName) {
 
-        MapLayer layer = null;
-
-        for (MapLayer mapLayer : map.getLayers()) {
-            if (mapLayer instanceof MapGroupLayer) {
-                MapGroupLayer group = (MapGroupLayer) mapLayer;
-                layer = group.getLayers().get(layerName);
-            }
-        }
-
-        if (layer == null)
-            layer = map.getLayers().get(layerName);
+        MapLayer layer = findLayer(map, layerName);
         if (layer == null) {
             return;
         }
@@ -127,24 +160,440 @@ public class MapBodyManager {
 
             body.createFixture(fixtureDef);
             bodies.add(body);
+            for (BodyListener listener : listeners) {
+                listener.bodyCreated(body);
+            }
 
             fixtureDef.shape = null;
             shape.dispose();
         }
     }
 
+    /**
+     * Creates the static bodies of a layer merged by region, see {@link #buildGeometry(TiledMap, String, float)}
+     *
+     * @param map        map to be used to create the static bodies.
+     * @param layerName  name of the layer that contains the shapes.
+     * @param regionSize edge length of a region in pixels.
+     */
+    public void createMergedPhysics(TiledMap map, String layerName, float regionSize) {
+        createBodies(buildGeometry(map, layerName, regionSize));
+    }
+
+    /**
+     * Like {@link #createMergedPhysics(TiledMap, String, float)}, but keeps the geometry in a cache file
+     * next to the map. The cache is rebuilt when the map file, the layer, the region size or the
+     * materials change. Maps that aren't files, like generated ones, are built without a cache.
+     *
+     * @param map        map to be used to create the static bodies.
+     * @param layerName  name of the layer that contains the shapes.
+     * @param mapName    path of the map file, the cache is named after it.
+     * @param regionSize edge length of a region in pixels.
+     */
+    public void createCachedPhysics(TiledMap map, String layerName, String mapName, float regionSize) {
+        createBodies(loadGeometry(map, layerName, mapName, regionSize));
+    }
+
+    /**
+     * Reads the geometry from the cache next to the map, or builds and caches it if the cache is missing or stale.
+     * Doesn't touch the world, it can be called from any thread.
+     *
+     * @see #createCachedPhysics(TiledMap, String, String, float)
+     */
+    public CollisionGeometry loadGeometry(TiledMap map, String layerName, String mapName, float regionSize) {
+        Path source = Paths.get(mapName);
+        if (!Files.isRegularFile(source))
+            return buildGeometry(map, layerName, regionSize);
+
+        Path cache = source.resolveSibling(source.getFileName() + CACHE_SUFFIX);
+        long stamp;
+        try {
+            stamp = cacheStamp(source, layerName, regionSize);
+        } catch (IOException e) {
+            Gdx.app.error("MapBodyManager", "Couldn't stamp " + source + ", building the collision without the cache", e);
+            return buildGeometry(map, layerName, regionSize);
+        }
+
+        try {
+            CollisionGeometry geometry = CollisionGeometry.read(cache, stamp);
+            if (geometry != null)
+                return geometry;
+        } catch (IOException e) {
+            Gdx.app.error("MapBodyManager", "Couldn't read the collision cache " + cache + ", building it again", e);
+        }
+
+        CollisionGeometry geometry = buildGeometry(map, layerName, regionSize);
+        try {
+            geometry.write(cache, stamp);
+        } catch (IOException e) {
+            // a read-only install still works, it just builds the geometry every time
+            Gdx.app.error("MapBodyManager", "Couldn't write the collision cache " + cache, e);
+        }
+        return geometry;
+    }
+
+    /**
+     * Identifies everything the geometry is built from
+     */
+    private long cacheStamp(Path source, String layerName, float regionSize) throws IOException {
+        long stamp = Files.size(source);
+        stamp = stamp * 31 + Files.getLastModifiedTime(source).toMillis();
+        stamp = stamp * 31 + layerName.hashCode();
+        stamp = stamp * 31 + Float.floatToIntBits(regionSize);
+        stamp = stamp * 31 + Float.floatToIntBits(units);
+
+        Array<String> names = materials.keys().toArray();
+        names.sort();
+        for (String name : names) {
+            FixtureDef fixtureDef = materials.get(name);
+            stamp = stamp * 31 + name.hashCode();
+            stamp = stamp * 31 + Float.floatToIntBits(fixtureDef.density);
+            stamp = stamp * 31 + Float.floatToIntBits(fixtureDef.friction);
+            stamp = stamp * 31 + Float.floatToIntBits(fixtureDef.restitution);
+            stamp = stamp * 31 + fixtureDef.filter.categoryBits;
+            stamp = stamp * 31 + fixtureDef.filter.maskBits;
+        }
+        return stamp;
+    }
+
+    /**
+     * Converts the shapes of a layer into collision geometry merged by region.
+     * <p>
+     * The map is split into square regions and every region gets a single static body holding all
+     * shapes inside it. Rectangles of the same material are merged with a {@link RectangleMerger},
+     * rectangles crossing a region border are split along it. The other shapes become one fixture each.
+     * Doesn't touch the world, it can be called from any thread as long as the materials aren't changed.
+     *
+     * @param map        map to read the shapes from.
+     * @param layerName  name of the layer that contains the shapes.
+     * @param regionSize edge length of a region in pixels.
+     * @return the geometry, empty if there is no such layer
+     */
+    public CollisionGeometry buildGeometry(TiledMap map, String layerName, float regionSize) {
+        if (regionSize <= 0)
+            throw new IllegalArgumentException("regionSize must be positive: " + regionSize);
+
+        CollisionGeometry geometry = new CollisionGeometry(regionSize);
+        MapLayer layer = findLayer(map, layerName);
+        if (layer == null) {
+            return geometry;
+        }
+
+        String layerMaterial = layer.getProperties().get("material", String.class);
+        if (layerMaterial != null && !materials.containsKey(layerMaterial)) {
+            Gdx.app.error("MapBodyManager", "No material '" + layerMaterial + "' for layer '" + layerName + "', no collision created");
+            return geometry;
+        }
+
+        byte flags = layerMaterial != null ? CollisionGeometry.LINE_OF_SIGHT : 0;
+        LongMap<Integer> regions = new LongMap<>();
+        ObjectIntMap<String> materialIndices = new ObjectIntMap<>();
+        ObjectMap<String, LongMap<FloatArray>> rectangles = new ObjectMap<>();
+        float[] vertices = new float[10];
+
+        for (MapObject object : layer.getObjects()) {
+            if (object instanceof TextureMapObject) {
+                continue;
+            }
+
+            String material = layerMaterial != null ? layerMaterial
+                    : object.getProperties().get("material", "default", String.class);
+            if (!materials.containsKey(material)) {
+                continue;
+            }
+
+            if (object instanceof RectangleMapObject) {
+                Rectangle rectangle = ((RectangleMapObject) object).getRectangle();
+                if (layerMaterial == null && material.equalsIgnoreCase("npc")) {
+                    // hollow rectangle, the outline is closed by repeating the first corner
+                    float left = rectangle.x / units, bottom = rectangle.y / units;
+                    float right = (rectangle.x + rectangle.width) / units, top = (rectangle.y + rectangle.height) / units;
+                    vertices[0] = left;
+                    vertices[1] = bottom;
+                    vertices[2] = left;
+                    vertices[3] = top;
+                    vertices[4] = right;
+                    vertices[5] = top;
+                    vertices[6] = right;
+                    vertices[7] = bottom;
+                    vertices[8] = left;
+                    vertices[9] = bottom;
+                    geometry.addFixture(region(geometry, regions, flags, rectangle.x, rectangle.y, regionSize),
+                            CollisionGeometry.CHAIN, material(geometry, materialIndices, material), vertices, 0, 10);
+                } else {
+                    splitRectangle(rectangles, material, rectangle, regionSize);
+                }
+                continue;
+            }
+
+            byte type;
+            float[] shapeVertices;
+            float x, y;
+            if (object instanceof PolygonMapObject) {
+                Polygon polygon = ((PolygonMapObject) object).getPolygon();
+                shapeVertices = toWorldUnits(polygon.getTransformedVertices());
+                type = CollisionGeometry.POLYGON;
+                x = polygon.getX();
+                y = polygon.getY();
+            } else if (object instanceof PolylineMapObject) {
+                Polyline polyline = ((PolylineMapObject) object).getPolyline();
+                shapeVertices = toWorldUnits(polyline.getTransformedVertices());
+                type = CollisionGeometry.CHAIN;
+                x = polyline.getX();
+                y = polyline.getY();
+            } else if (object instanceof CircleMapObject) {
+                Circle circle = ((CircleMapObject) object).getCircle();
+                shapeVertices = new float[]{circle.x / units, circle.y / units, circle.radius / units};
+                type = CollisionGeometry.CIRCLE;
+                x = circle.x;
+                y = circle.y;
+            } else {
+                continue;
+            }
+
+            geometry.addFixture(region(geometry, regions, flags, x, y, regionSize), type,
+                    material(geometry, materialIndices, material), shapeVertices, 0, shapeVertices.length);
+        }
+
+        RectangleMerger merger = new RectangleMerger();
+        FloatArray merged = new FloatArray();
+        for (ObjectMap.Entry<String, LongMap<FloatArray>> material : rectangles) {
+            int materialIndex = material(geometry, materialIndices, material.key);
+            for (LongMap.Entry<FloatArray> region : material.value) {
+                merged.clear();
+                merger.merge(region.value, merged);
+
+                int body = region(geometry, regions, flags, merged.get(0), merged.get(1), regionSize);
+                for (int i = 0; i < merged.size; i += 4) {
+                    vertices[0] = merged.get(i) / units;
+                    vertices[1] = merged.get(i + 1) / units;
+                    vertices[2] = (merged.get(i) + merged.get(i + 2)) / units;
+                    vertices[3] = (merged.get(i + 1) + merged.get(i + 3)) / units;
+                    geometry.addFixture(body, CollisionGeometry.BOX, materialIndex, vertices, 0, 4);
+                }
+            }
+        }
+
+        return geometry;
+    }
+
+    /**
+     * Adds the bodies of the geometry to the world.
+     * The shapes and the definitions are reused for all fixtures.
+     *
+     * @param geometry geometry from {@link #buildGeometry(TiledMap, String, float)} or the cache
+     * @return the created bodies, indexed like the bodies of the geometry
+     */
+    public Body[] createBodies(CollisionGeometry geometry) {
+        Body[] created = new Body[geometry.getBodyCount()];
+        createBodies(geometry, created, 0, created.length);
+        return created;
+    }
+
+    /**
+     * Adds a range of the bodies of the geometry to the world, to spread the creation over several frames
+     *
+     * @param geometry geometry from {@link #buildGeometry(TiledMap, String, float)} or the cache
+     * @param out      array the created bodies are stored in, indexed like the bodies of the geometry
+     * @param from     index of the first body to create
+     * @param to       index after the last body to create
+     */
+    public void createBodies(CollisionGeometry geometry, Body[] out, int from, int to) {
+        BodyBuilder builder = new BodyBuilder();
+        for (int i = from; i < to; i++) {
+            out[i] = builder.build(geometry, i);
+        }
+        builder.dispose();
+
+        for (int i = from; i < to; i++) {
+            bodies.add(out[i]);
+            for (BodyListener listener : listeners) {
+                listener.bodyCreated(out[i]);
+            }
+        }
+    }
+
+    /**
+     * Adds a single body of the geometry to the world again after it was unloaded.
+     * Listeners aren't notified, the collision of the map doesn't change.
+     *
+     * @param geometry geometry the body belongs to
+     * @param index    index of the body in the geometry
+     * @return the created body
+     * @see #unloadBody(Body)
+     */
+    public Body loadBody(CollisionGeometry geometry, int index) {
+        BodyBuilder builder = new BodyBuilder();
+        Body body = builder.build(geometry, index);
+        builder.dispose();
+        bodies.add(body);
+        return body;
+    }
+
+    /**
+     * Adds several bodies of the geometry to the world again after they were unloaded, sharing the shapes.
+     * Listeners aren't notified, the collision of the map doesn't change.
+     *
+     * @param geometry geometry the bodies belong to
+     * @param indices  indices of the bodies in the geometry
+     * @see #loadBody(CollisionGeometry, int)
+     */
+    public void loadBodies(CollisionGeometry geometry, IntArray indices) {
+        loadBodies(geometry, indices, null);
+    }
+
+    /**
+     * Adds several bodies of the geometry to the world again after they were unloaded, sharing the shapes.
+     * Listeners aren't notified, the collision of the map doesn't change.
+     *
+     * @param geometry geometry the bodies belong to
+     * @param indices  indices of the bodies in the geometry
+     * @param out      array the created bodies are stored in, indexed like the bodies of the geometry, or null
+     * @see #loadBody(CollisionGeometry, int)
+     */
+    public void loadBodies(CollisionGeometry geometry, IntArray indices, Body[] out) {
+        BodyBuilder builder = new BodyBuilder();
+        for (int i = 0; i < indices.size; i++) {
+            Body body = builder.build(geometry, indices.items[i]);
+            bodies.add(body);
+            if (out != null)
+                out[indices.items[i]] = body;
+        }
+        builder.dispose();
+    }
+
+    /**
+     * Removes a body from the world to save memory while nothing is near it, without notifying the listeners.
+     * Only use it for bodies that are loaded again with {@link #loadBody(CollisionGeometry, int)}
+     * before anything needs to collide with them.
+     *
+     * @param body body created by the manager
+     */
+    public void unloadBody(Body body) {
+        if (bodies.remove(body))
+            world.destroyBody(body);
+    }
+
+    private float[] toWorldUnits(float[] vertices) {
+        float[] worldVertices = new float[vertices.length];
+        for (int i = 0; i < vertices.length; ++i) {
+            worldVertices[i] = vertices[i] / units;
+        }
+        return worldVertices;
+    }
+
+    private MapLayer findLayer(TiledMap map, String layerName) {
+        MapLayer layer = null;
+
+        for (MapLayer mapLayer : map.getLayers()) {
+            if (mapLayer instanceof MapGroupLayer) {
+                MapGroupLayer group = (MapGroupLayer) mapLayer;
+                layer = group.getLayers().get(layerName);
+            }
+        }
+
+        if (layer == null)
+            layer = map.getLayers().get(layerName);
+        return layer;
+    }
+
+    private static long regionKey(float x, float y, float regionSize) {
+        long regionX = (long) Math.floor(x / regionSize);
+        long regionY = (long) Math.floor(y / regionSize);
+        return regionX << 32 | regionY & 0xFFFFFFFFL;
+    }
+
+    /**
+     * @return index of the body of the region containing the point, added on first use
+     */
+    private static int region(CollisionGeometry geometry, LongMap<Integer> regions, byte flags,
+                              float x, float y, float regionSize) {
+        long key = regionKey(x, y, regionSize);
+        Integer body = regions.get(key);
+        if (body == null) {
+            body = geometry.addBody((int) (key >> 32), (int) key, flags);
+            regions.put(key, body);
+        }
+        return body;
+    }
+
+    /**
+     * @return index of the material in the geometry, added on first use
+     */
+    private int material(CollisionGeometry geometry, ObjectIntMap<String> materialIndices, String name) {
+        int index = materialIndices.get(name, -1);
+        if (index == -1) {
+            index = geometry.addMaterial(materials.get(name));
+            materialIndices.put(name, index);
+        }
+        return index;
+    }
+
+    /**
+     * Adds the parts of the rectangle in each region to the rectangles of the region and material
+     */
+    private static void splitRectangle(ObjectMap<String, LongMap<FloatArray>> rectangles, String material,
+                                       Rectangle rectangle, float regionSize) {
+        LongMap<FloatArray> regions = rectangles.get(material);
+        if (regions == null) {
+            regions = new LongMap<>();
+            rectangles.put(material, regions);
+        }
+
+        float right = rectangle.x + rectangle.width;
+        float top = rectangle.y + rectangle.height;
+        float y = rectangle.y;
+        while (y < top) {
+            float nextY = Math.min(top, ((float) Math.floor(y / regionSize) + 1) * regionSize);
+            float x = rectangle.x;
+            while (x < right) {
+                float nextX = Math.min(right, ((float) Math.floor(x / regionSize) + 1) * regionSize);
+                long key = regionKey(x, y, regionSize);
+                FloatArray region = regions.get(key);
+                if (region == null) {
+                    region = new FloatArray();
+                    regions.put(key, region);
+                }
+                region.add(x, y, nextX - x, nextY - y);
+                x = nextX;
+            }
+            y = nextY;
+        }
+    }
+
     /**
      * Destroys every static body that has been created using the manager.
      */
     public void destroyPhysics() {
-        for (Body body : bodies) {
-            world.destroyBody(body);
+        while (!bodies.isEmpty()) {
+            destroyBody(bodies.get(bodies.size() - 1));
+        }
+    }
+
+    /**
+     * Destroys a static body that has been created using the manager.
+     *
+     * @param body body to destroy
+     */
+    public void destroyBody(Body body) {
+        if (!bodies.remove(body))
+            return;
+
+        for (BodyListener listener : listeners) {
+            listener.bodyDestroyed(body);
         }
+        world.destroyBody(body);
+    }
 
-        bodies.clear();
+    public void addBodyListener(BodyListener listener) {
+        listeners.add(listener);
     }
 
-    private void loadMaterialsFile(FileHandle materialsFile) {
+    public void removeBodyListener(BodyListener listener) {
+        listeners.removeValue(listener, true);
+    }
+
+    private void loadDefaultMaterials() {
 
         FixtureDef fixtureDef = new FixtureDef();
         fixtureDef.density = 1.0f;
@@ -159,7 +608,11 @@ public class MapBodyManager {
         fixtureDef.restitution = 0.0f;
         fixtureDef.filter.maskBits = -1;
         materials.put("physics", fixtureDef);
+    }
+
+    private void loadMaterialsFile(FileHandle materialsFile) {
 
+        FixtureDef fixtureDef;
 
         try {
             JsonReader reader = new JsonReader();
@@ -193,6 +646,25 @@ public class MapBodyManager {
         materials.put(name, fixtureDef);
     }
 
+    public World getWorld() {
+        return world;
+    }
+
+    /**
+     * @return the static bodies created by the manager
+     */
+    public List<Body> getBodies() {
+        return bodies;
+    }
+
+    /**
+     * @param name material name from the materials file or a default material
+     * @return the FixtureDef of the material, or null if there is none with this name
+     */
+    public FixtureDef getMaterial(String name) {
+        return materials.get(name);
+    }
+
     /**
      * Creates a hollow Rectangle using a ChainShape from a rectangle
      *
@@ -263,4 +735,74 @@ public class MapBodyManager {
         chain.createChain(worldVertices);
         return chain;
     }
-}
\ No newline at end of file
+
+    /**
+     * Creates bodies from collision geometry, reusing the definitions and shapes
+     */
+    private final class BodyBuilder {
+
+        private final BodyDef bodyDef = new BodyDef();
+        private final FixtureDef fixtureDef = new FixtureDef();
+        private final PolygonShape polygon = new PolygonShape();
+        private final CircleShape circle = new CircleShape();
+        private final Vector2 center = new Vector2();
+
+        BodyBuilder() {
+            bodyDef.type = BodyDef.BodyType.StaticBody;
+        }
+
+        Body build(CollisionGeometry geometry, int index) {
+            Body body = world.createBody(bodyDef);
+            if ((geometry.getBodyFlags(index) & CollisionGeometry.LINE_OF_SIGHT) != 0)
+                body.setUserData("LOS");
+
+            float[] vertices = geometry.getVertices();
+            for (int i = 0; i < geometry.getBodyFixtureCount(index); i++) {
+                int fixture = geometry.getBodyFixture(index, i);
+                int offset = geometry.getVertexOffset(fixture);
+                Shape shape;
+                switch (geometry.getFixtureType(fixture)) {
+                    case CollisionGeometry.BOX: {
+                        float halfWidth = (vertices[offset + 2] - vertices[offset]) * 0.5f;
+                        float halfHeight = (vertices[offset + 3] - vertices[offset + 1]) * 0.5f;
+                        polygon.setAsBox(halfWidth, halfHeight,
+                                center.set(vertices[offset] + halfWidth, vertices[offset + 1] + halfHeight), 0f);
+                        shape = polygon;
+                        break;
+                    }
+                    case CollisionGeometry.POLYGON:
+                        polygon.set(vertices, offset, geometry.getVertexCount(fixture));
+                        shape = polygon;
+                        break;
+                    case CollisionGeometry.CIRCLE:
+                        circle.setPosition(center.set(vertices[offset], vertices[offset + 1]));
+                        circle.setRadius(vertices[offset + 2]);
+                        shape = circle;
+                        break;
+                    case CollisionGeometry.CHAIN: {
+                        // a chain shape can only be created once
+                        ChainShape chain = new ChainShape();
+                        chain.createChain(vertices, offset, geometry.getVertexCount(fixture));
+                        shape = chain;
+                        break;
+                    }
+                    default:
+                        continue;
+                }
+
+                geometry.getMaterial(geometry.getFixtureMaterial(fixture), fixtureDef);
+                fixtureDef.shape = shape;
+                body.createFixture(fixtureDef);
+                fixtureDef.shape = null;
+                if (shape != polygon && shape != circle)
+                    shape.dispose();
+            }
+            return body;
+        }
+
+        void dispose() {
+            polygon.dispose();
+            circle.dispose();
+        }
+    }
+}
@@ -2,83 +2,334 @@ package se.wastedtime.steering;
 
 
 import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.graphics.Color;
+import com.badlogic.gdx.graphics.g2d.Batch;
+import com.badlogic.gdx.graphics.g2d.TextureRegion;
 import com.badlogic.gdx.maps.MapGroupLayer;
 import com.badlogic.gdx.maps.MapLayer;
+import com.badlogic.gdx.maps.MapLayers;
+import com.badlogic.gdx.maps.MapObject;
+import com.badlogic.gdx.maps.objects.TextureMapObject;
 import com.badlogic.gdx.maps.tiled.TiledMap;
 import com.badlogic.gdx.maps.tiled.TiledMapTileLayer;
 import com.badlogic.gdx.maps.tiled.renderers.OrthogonalTiledMapRenderer;
-import sun.rmi.runtime.Log;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.ObjectMap;
+import com.badlogic.gdx.utils.Pool;
+import se.wastedtime.steering.map.ChunkCacheLoader;
+import se.wastedtime.steering.map.ObjectLayerIndex;
+import se.wastedtime.steering.map.RegionStreamer;
+import se.wastedtime.steering.map.TileChunkCache;
 
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
-import java.util.logging.LogManager;
-import java.util.logging.Logger;
 
 /**
  * MapRenderer to split the TiledMap into layers.
  * The layers before the player layer are added to the firstRenderLayers List
  * the layers after are added to the lastRenderLayers
+ * <p>
+ * Tile layers are pre-baked into a {@link TileChunkCache} and only the visible chunks are drawn.
+ * Layers with the "dynamic" property set are still rendered tile by tile every frame.
+ * A streaming renderer starts with an empty cache, the chunks are loaded by a {@link RegionStreamer}.
+ * <p>
+ * The texture objects of object layers are indexed in an {@link ObjectLayerIndex}, only the objects
+ * overlapping the view are drawn. Objects of the player layer and of layers with the "ysort" property
+ * are drawn by {@link #renderSorted(Array, float)} together with the sprites, sorted by their y coordinate.
  */
 public class MapRenderer extends OrthogonalTiledMapRenderer {
 
+    public static final String DYNAMIC_PROPERTY = "dynamic";
+    public static final String YSORT_PROPERTY = "ysort";
+    public static final String DEFAULT_PLAYER_LAYER = "player";
+
+    /**
+     * Draws higher sprites first, so sprites further down overlap them
+     */
+    private static final Comparator<SortEntry> SORT_ORDER = (a, b) -> Float.compare(b.y, a.y);
+
+    private final Array<MapLayer> layers = new Array<>();
     private List<MapLayer> firstRenderLayers = new ArrayList<>();
     private List<MapLayer> lastRenderLayers = new ArrayList<>();
+    private final Array<MapLayer> sortedLayers = new Array<>();
+    private String playerLayer;
     private boolean firstRun = false;
-    boolean switchList = false;
+    private final TileChunkCache chunkCache;
+    private final ObjectMap<MapLayer, ObjectLayerIndex> objectIndices = new ObjectMap<>();
+
+    private final Array<TextureMapObject> visibleObjects = new Array<>();
+    private final Array<SortEntry> sortEntries = new Array<>();
+    private final Pool<SortEntry> sortEntryPool = new Pool<SortEntry>() {
+        @Override
+        protected SortEntry newObject() {
+            return new SortEntry();
+        }
+    };
+    private final Color color = new Color();
 
     public MapRenderer(TiledMap map, float unitScale) {
+        this(map, unitScale, false);
+    }
+
+    /**
+     * @param streaming true to only cache the chunks loaded by a {@link RegionStreamer}
+     */
+    public MapRenderer(TiledMap map, float unitScale, boolean streaming) {
+        this(map, unitScale, streaming, true);
+    }
+
+    /**
+     * @param streaming  true to only cache the chunks loaded by a {@link RegionStreamer}
+     * @param loadChunks false to leave the chunks of a non-streaming renderer to a {@link ChunkCacheLoader}
+     */
+    public MapRenderer(TiledMap map, float unitScale, boolean streaming, boolean loadChunks) {
         super(map, unitScale);
 
-        for (MapLayer layer : map.getLayers()) {
-            if (layer instanceof MapGroupLayer) {
-                MapGroupLayer mapGroupLayer = (MapGroupLayer) layer;
-                for (MapLayer mapLayer : mapGroupLayer.getLayers()) {
-                    addLayer(mapLayer);
-                }
-            } else
-                addLayer(layer);
+        addLayers(map.getLayers());
+
+        Array<TiledMapTileLayer> staticLayers = new Array<>();
+        for (MapLayer layer : layers) {
+            Object dynamic = layer.getProperties().get(DYNAMIC_PROPERTY);
+            if (layer instanceof TiledMapTileLayer) {
+                if (!Boolean.TRUE.equals(dynamic) && !"true".equals(dynamic))
+                    staticLayers.add((TiledMapTileLayer) layer);
+            } else if (layer.getObjects().getCount() > 0) {
+                objectIndices.put(layer, new ObjectLayerIndex(layer, unitScale, ObjectLayerIndex.DEFAULT_CELL_SIZE));
+            }
+        }
+        if (streaming) {
+            int maxChunks = RegionStreamer.maxLoadedRegions(RegionStreamer.DEFAULT_UNLOAD_RADIUS) * Math.max(1, staticLayers.size);
+            chunkCache = new TileChunkCache(staticLayers, unitScale, TileChunkCache.DEFAULT_CHUNK_SIZE, maxChunks);
+        } else {
+            chunkCache = new TileChunkCache(staticLayers, unitScale, TileChunkCache.DEFAULT_CHUNK_SIZE, loadChunks);
+        }
+
+        repartition(DEFAULT_PLAYER_LAYER);
+    }
+
+    private void addLayers(MapLayers mapLayers) {
+        for (MapLayer layer : mapLayers) {
+            if (layer instanceof MapGroupLayer)
+                addLayers(((MapGroupLayer) layer).getLayers());
+            else
+                layers.add(layer);
         }
     }
 
-    private void addLayer(MapLayer layer) {
-        if (layer.isVisible()) {
-            if (layer.getName().equalsIgnoreCase("player"))
+    /**
+     * Splits the layers again, the layers from the player layer on are rendered by {@link #renderAfter()}.
+     * Visibility is checked while rendering, hidden layers can be shown without repartitioning.
+     *
+     * @param playerLayer name of the layer the sprites are drawn on, compared ignoring case
+     */
+    public void repartition(String playerLayer) {
+        this.playerLayer = playerLayer;
+        firstRenderLayers.clear();
+        lastRenderLayers.clear();
+        sortedLayers.clear();
+
+        boolean switchList = false;
+        for (MapLayer layer : layers) {
+            if (layer.getName().equalsIgnoreCase(playerLayer))
                 switchList = true;
             if (!switchList) {
-                Gdx.app.log("map", "Adding layer '{}' to firstRenderLayers" + layer.getName());
+                Gdx.app.debug("map", "Adding layer '" + layer.getName() + "' to firstRenderLayers");
                 firstRenderLayers.add(layer);
             } else {
-                Gdx.app.log("map", "Adding layer '{}' to lastRenderLayers" + layer.getName());
+                Gdx.app.debug("map", "Adding layer '" + layer.getName() + "' to lastRenderLayers");
                 lastRenderLayers.add(layer);
             }
+            if (isSorted(layer))
+                sortedLayers.add(layer);
+        }
+
+        if (!switchList)
+            Gdx.app.log("map", "No layer named '" + playerLayer + "', all layers are rendered before the sprites");
+    }
+
+    private boolean isSorted(MapLayer layer) {
+        if (!objectIndices.containsKey(layer))
+            return false;
+        Object ysort = layer.getProperties().get(YSORT_PROPERTY);
+        return layer.getName().equalsIgnoreCase(playerLayer) || Boolean.TRUE.equals(ysort) || "true".equals(ysort);
+    }
+
+    /**
+     * Re-reads the objects of an object layer after they were moved, added or removed
+     */
+    public void rebuildObjectLayer(MapLayer layer) {
+        ObjectLayerIndex index = objectIndices.get(layer);
+        if (index != null) {
+            index.rebuild();
+        } else if (layers.contains(layer, true) && !(layer instanceof TiledMapTileLayer)) {
+            objectIndices.put(layer, new ObjectLayerIndex(layer, unitScale, ObjectLayerIndex.DEFAULT_CELL_SIZE));
+            if (isSorted(layer))
+                repartition(playerLayer);
         }
     }
 
     public void renderBefore() {
+        renderLayers(firstRenderLayers);
+        firstRun = true;
+    }
+
+    /**
+     * Draws the sprites and the visible objects of the sorted layers ordered by y, between
+     * {@link #renderBefore()} and {@link #renderAfter()}
+     *
+     * @param sprites sprites on the player layer
+     * @param alpha   interpolation between the last two simulation steps
+     */
+    public void renderSorted(Array<? extends SortedSprite> sprites, float alpha) {
+        for (MapLayer layer : sortedLayers) {
+            if (!layer.isVisible())
+                continue;
+
+            visibleObjects.clear();
+            objectIndices.get(layer).query(viewBounds, visibleObjects);
+            for (int i = 0; i < visibleObjects.size; i++) {
+                TextureMapObject object = visibleObjects.get(i);
+                SortEntry entry = sortEntryPool.obtain();
+                entry.object = object;
+                entry.opacity = layer.getOpacity();
+                entry.y = object.getY() * unitScale;
+                sortEntries.add(entry);
+            }
+        }
+        for (int i = 0; i < sprites.size; i++) {
+            SortedSprite sprite = sprites.get(i);
+            SortEntry entry = sortEntryPool.obtain();
+            entry.sprite = sprite;
+            entry.y = sprite.getSortY(alpha);
+            sortEntries.add(entry);
+        }
+
+        // stable, objects with the same y keep the layer order and are drawn below the sprites
+        sortEntries.sort(SORT_ORDER);
+
         beginRender();
-        firstRenderLayers.forEach(l -> {
-            if (l instanceof TiledMapTileLayer)
-                renderTileLayer((TiledMapTileLayer) l);
+        for (int i = 0; i < sortEntries.size; i++) {
+            SortEntry entry = sortEntries.get(i);
+            if (entry.sprite != null)
+                entry.sprite.draw(batch, alpha);
             else
-                l.getObjects().forEach(this::renderObject);
-        });
+                renderObject(entry.object, entry.opacity);
+        }
         endRender();
-        firstRun = true;
+
+        sortEntryPool.freeAll(sortEntries);
+        sortEntries.clear();
     }
 
     public void renderAfter() {
         if (!firstRun)
             Gdx.app.log("map","Wrong MapRenderer order");
 
+        renderLayers(lastRenderLayers);
+    }
+
+    private void renderLayers(List<MapLayer> layers) {
         beginRender();
-        lastRenderLayers.forEach(l -> {
-            if (l instanceof TiledMapTileLayer)
-                renderTileLayer((TiledMapTileLayer) l);
-            else
-                l.getObjects().forEach(this::renderObject);
-        });
+        for (MapLayer layer : layers) {
+            if (!layer.isVisible())
+                continue;
+
+            if (layer instanceof TiledMapTileLayer) {
+                TiledMapTileLayer tileLayer = (TiledMapTileLayer) layer;
+                if (chunkCache.contains(tileLayer)) {
+                    // the cached chunks are drawn by the sprite cache, the batch has to be flushed first
+                    batch.end();
+                    chunkCache.renderStatic(tileLayer, batch.getProjectionMatrix(), viewBounds);
+                    batch.begin();
+                    chunkCache.renderAnimated(tileLayer, batch, viewBounds);
+                } else {
+                    renderTileLayer(tileLayer);
+                }
+            } else if (!sortedLayers.contains(layer, true)) {
+                ObjectLayerIndex index = objectIndices.get(layer);
+                if (index == null)
+                    continue;
+
+                visibleObjects.clear();
+                index.query(viewBounds, visibleObjects);
+                for (int i = 0; i < visibleObjects.size; i++) {
+                    renderObject(visibleObjects.get(i), layer.getOpacity());
+                }
+            }
+        }
         endRender();
     }
-}
 
+    /**
+     * Draws texture objects, the batch renderer ignores all objects
+     */
+    @Override
+    public void renderObject(MapObject object) {
+        if (object instanceof TextureMapObject)
+            renderObject((TextureMapObject) object, 1f);
+    }
+
+    private void renderObject(TextureMapObject object, float layerOpacity) {
+        if (!object.isVisible())
+            return;
+
+        TextureRegion region = object.getTextureRegion();
+        if (region == null)
+            return;
 
+        Color batchColor = batch.getColor();
+        color.set(batchColor);
+        batch.setColor(object.getColor().r, object.getColor().g, object.getColor().b,
+                object.getColor().a * object.getOpacity() * layerOpacity);
+        batch.draw(region, object.getX() * unitScale, object.getY() * unitScale,
+                object.getOriginX() * unitScale, object.getOriginY() * unitScale,
+                region.getRegionWidth() * unitScale, region.getRegionHeight() * unitScale,
+                object.getScaleX(), object.getScaleY(), object.getRotation());
+        batch.setColor(color);
+    }
+
+    public TileChunkCache getChunkCache() {
+        return chunkCache;
+    }
+
+    /**
+     * @return the index of an object layer, null for tile layers and layers without objects
+     */
+    public ObjectLayerIndex getObjectIndex(MapLayer layer) {
+        return objectIndices.get(layer);
+    }
+
+    @Override
+    public void dispose() {
+        chunkCache.dispose();
+        super.dispose();
+    }
+
+    /**
+     * Something drawn on the player layer, ordered by y with the objects of the sorted layers
+     */
+    public interface SortedSprite {
+
+        /**
+         * @param alpha interpolation between the last two simulation steps
+         * @return y coordinate in WorldUnits the sprite is ordered by, usually where it stands
+         */
+        float getSortY(float alpha);
+
+        void draw(Batch batch, float alpha);
+    }
+
+    private static class SortEntry implements Pool.Poolable {
+        float y;
+        float opacity;
+        TextureMapObject object;
+        SortedSprite sprite;
+
+        @Override
+        public void reset() {
+            object = null;
+            sprite = null;
+        }
+    }
+}
@@ -14,14 +14,33 @@ public class PhysicsUtils {
      * @return {@link Vector2} with the distance added
      */
     public static Vector2 addDistance(Vector2 start, Vector2 target, float distance) {
+        return addDistance(start, target, distance, new Vector2());
+    }
 
-        start = start.cpy();
-
-        double angle = Math.atan2(target.y - start.y, target.x - start.x);
-        float x = (float) (distance * Math.cos(angle));
-        float y = (float) (distance * Math.sin(angle));
-
-        return start.add(x, y);
+    /**
+     * Adds a distance to a Vector on a line to the target Vector without allocating
+     * All vectors in WorldUnits
+     *
+     * @param start    start
+     * @param target   target
+     * @param distance distance to add
+     * @param out      vector to store the result in, may be start or target
+     * @return out with the distance added
+     */
+    public static Vector2 addDistance(Vector2 start, Vector2 target, float distance, Vector2 out) {
+        float dx = target.x - start.x;
+        float dy = target.y - start.y;
+        float len2 = dx * dx + dy * dy;
+        float x = start.x;
+        float y = start.y;
+
+        if (len2 == 0) {
+            // same as atan2(0, 0) = 0
+            return out.set(x + distance, y);
+        }
+
+        float scale = distance / (float) Math.sqrt(len2);
+        return out.set(x + dx * scale, y + dy * scale);
     }
 
     /**
@@ -33,15 +52,29 @@ public class PhysicsUtils {
      * @return {@link Vector2} with the distance added
      */
     public static Vector2 addDistance(Vector2 point, float distance) {
+        return addDistance(point, distance, new Vector2());
+    }
 
-        point = point.cpy();
-
-        double angle = Math.atan2(point.y, point.x);
-        float x = (float) (distance * Math.cos(angle));
-        float y = (float) (distance * Math.sin(angle));
+    /**
+     * Adds a distance to a Vector without allocating
+     * Vector in WorldUnits
+     *
+     * @param point    point
+     * @param distance distance to add
+     * @param out      vector to store the result in, may be point
+     * @return out with the distance added
+     */
+    public static Vector2 addDistance(Vector2 point, float distance, Vector2 out) {
+        float x = point.x;
+        float y = point.y;
+        float len2 = x * x + y * y;
 
-        return point.add(x, y);
+        if (len2 == 0) {
+            return out.set(distance, 0);
+        }
 
+        float scale = 1f + distance / (float) Math.sqrt(len2);
+        return out.set(x * scale, y * scale);
     }
 
     /**
@@ -54,14 +87,21 @@ public class PhysicsUtils {
      * @return {@link Vector2} with the distance subtracted
      */
     public static Vector2 subDistance(Vector2 start, Vector2 target, float distance) {
-        start = start.cpy();
-
-        double angle = Math.atan2(target.y - start.y, target.x - start.x);
-        float x = (float) (distance * Math.cos(angle));
-        float y = (float) (distance * Math.sin(angle));
-
-        return start.sub(x, y);
+        return addDistance(start, target, -distance, new Vector2());
+    }
 
+    /**
+     * Subtracts a distance from a Vector on a line to the target Vector without allocating
+     * All vectors in WorldUnits
+     *
+     * @param start    start
+     * @param target   target
+     * @param distance distance to subtract
+     * @param out      vector to store the result in, may be start or target
+     * @return out with the distance subtracted
+     */
+    public static Vector2 subDistance(Vector2 start, Vector2 target, float distance, Vector2 out) {
+        return addDistance(start, target, -distance, out);
     }
 
     /**
@@ -73,14 +113,100 @@ public class PhysicsUtils {
      * @return {@link Vector2} with the distance subtracted
      */
     public static Vector2 subDistance(Vector2 point, float distance) {
-        point = point.cpy();
+        return addDistance(point, -distance, new Vector2());
+    }
+
+    /**
+     * Subtracts a distance from a Vector without allocating
+     * Vector in WorldUnits
+     *
+     * @param point    start
+     * @param distance distance to subtract
+     * @param out      vector to store the result in, may be point
+     * @return out with the distance subtracted
+     */
+    public static Vector2 subDistance(Vector2 point, float distance, Vector2 out) {
+        return addDistance(point, -distance, out);
+    }
+
+    /**
+     * Adds a distance to many points on a line to their targets
+     * All coordinates in WorldUnits, the out arrays may be the input arrays
+     *
+     * @param x        x coordinates of the start points
+     * @param y        y coordinates of the start points
+     * @param targetX  x coordinates of the targets
+     * @param targetY  y coordinates of the targets
+     * @param distance distance to add, negative to subtract
+     * @param outX     x coordinates of the results
+     * @param outY     y coordinates of the results
+     * @param count    number of points
+     */
+    public static void addDistance(float[] x, float[] y, float[] targetX, float[] targetY, float distance,
+                                   float[] outX, float[] outY, int count) {
+        for (int i = 0; i < count; i++) {
+            float px = x[i];
+            float py = y[i];
+            float dx = targetX[i] - px;
+            float dy = targetY[i] - py;
+            float len2 = dx * dx + dy * dy;
+
+            if (len2 == 0) {
+                outX[i] = px + distance;
+                outY[i] = py;
+            } else {
+                float scale = distance / (float) Math.sqrt(len2);
+                outX[i] = px + dx * scale;
+                outY[i] = py + dy * scale;
+            }
+        }
+    }
 
-        double angle = Math.atan2(point.y, point.x);
-        float x = (float) (distance * Math.cos(angle));
-        float y = (float) (distance * Math.sin(angle));
+    /**
+     * Adds a distance to many points
+     * All coordinates in WorldUnits, the out arrays may be the input arrays
+     *
+     * @param x        x coordinates of the points
+     * @param y        y coordinates of the points
+     * @param distance distance to add, negative to subtract
+     * @param outX     x coordinates of the results
+     * @param outY     y coordinates of the results
+     * @param count    number of points
+     */
+    public static void addDistance(float[] x, float[] y, float distance, float[] outX, float[] outY, int count) {
+        for (int i = 0; i < count; i++) {
+            float px = x[i];
+            float py = y[i];
+            float len2 = px * px + py * py;
+
+            if (len2 == 0) {
+                outX[i] = distance;
+                outY[i] = 0;
+            } else {
+                float scale = 1f + distance / (float) Math.sqrt(len2);
+                outX[i] = px * scale;
+                outY[i] = py * scale;
+            }
+        }
+    }
 
-        return point.sub(x, y);
+    /**
+     * Subtracts a distance from many points on a line to their targets
+     *
+     * @see #addDistance(float[], float[], float[], float[], float, float[], float[], int)
+     */
+    public static void subDistance(float[] x, float[] y, float[] targetX, float[] targetY, float distance,
+                                   float[] outX, float[] outY, int count) {
+        addDistance(x, y, targetX, targetY, -distance, outX, outY, count);
+    }
 
+    /**
+     * Subtracts a distance from many points
+     *
+     * @see #addDistance(float[], float[], float, float[], float[], int)
+     */
+    public static void subDistance(float[] x, float[] y, float distance, float[] outX, float[] outY, int count) {
+        addDistance(x, y, -distance, outX, outY, count);
     }
 
     public static float vectorToAngle(Vector2 vector) {
@@ -88,8 +214,8 @@ public class PhysicsUtils {
     }
 
     public static Vector2 angleToVector(Vector2 outVector, float angle) {
-        outVector.x = -(float) Math.sin(outVector.x);
-        outVector.y = (float) Math.cos(outVector.y);
+        outVector.x = -(float) Math.sin(angle);
+        outVector.y = (float) Math.cos(angle);
         return outVector;
     }
 
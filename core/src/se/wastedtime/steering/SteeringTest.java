@@ -4,6 +4,7 @@ import com.badlogic.gdx.ApplicationAdapter;
 import com.badlogic.gdx.Game;
 import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.Screen;
+import com.badlogic.gdx.files.FileHandle;
 import com.badlogic.gdx.graphics.GL20;
 import com.badlogic.gdx.graphics.OrthographicCamera;
 import com.badlogic.gdx.graphics.g2d.SpriteBatch;
@@ -14,14 +15,48 @@ import com.badlogic.gdx.physics.box2d.Box2D;
 import com.badlogic.gdx.physics.box2d.Box2DDebugRenderer;
 import com.badlogic.gdx.physics.box2d.World;
 import com.badlogic.gdx.utils.viewport.StretchViewport;
+import se.wastedtime.steering.simulation.SimulationClock;
 
 public class SteeringTest extends Game {
 
     private Screen currentScreen;
+    private final int tickRate;
+    private final boolean streaming;
+    private final FileHandle replayFile;
+
+    public SteeringTest() {
+        this(SimulationClock.DEFAULT_TICK_RATE);
+    }
+
+    /**
+     * @param tickRate simulation steps per second
+     */
+    public SteeringTest(int tickRate) {
+        this(tickRate, false);
+    }
+
+    /**
+     * @param tickRate  simulation steps per second
+     * @param streaming true to only keep the regions around the camera loaded
+     */
+    public SteeringTest(int tickRate, boolean streaming) {
+        this(tickRate, streaming, null);
+    }
+
+    /**
+     * @param tickRate   simulation steps per second
+     * @param streaming  true to only keep the regions around the camera loaded
+     * @param replayFile file the session is recorded to, null to not record
+     */
+    public SteeringTest(int tickRate, boolean streaming, FileHandle replayFile) {
+        this.tickRate = tickRate;
+        this.streaming = streaming;
+        this.replayFile = replayFile;
+    }
 
     @Override
     public void create() {
-        currentScreen = new GameScreen();
+        currentScreen = new LoadingScreen(this, tickRate, streaming, replayFile);
         this.setScreen(currentScreen);
     }
 
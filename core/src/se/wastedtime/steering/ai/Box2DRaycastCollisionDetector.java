@@ -0,0 +1,230 @@
+package se.wastedtime.steering.ai;
+
+import com.badlogic.gdx.ai.utils.Collision;
+import com.badlogic.gdx.ai.utils.Ray;
+import com.badlogic.gdx.ai.utils.RaycastCollisionDetector;
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.physics.box2d.BodyDef;
+import com.badlogic.gdx.physics.box2d.Filter;
+import com.badlogic.gdx.physics.box2d.Fixture;
+import com.badlogic.gdx.physics.box2d.RayCastCallback;
+import com.badlogic.gdx.physics.box2d.World;
+
+import java.util.Arrays;
+
+/**
+ * {@link RaycastCollisionDetector} casting rays into a Box2D {@link World}, for
+ * {@link com.badlogic.gdx.ai.steer.behaviors.RaycastObstacleAvoidance}.
+ * <p>
+ * Fixtures are filtered like Box2D filters contacts: the ray collides with a fixture when the
+ * category and mask bits of the query filter and the fixture accept each other. Sensors are
+ * ignored, and by default every body that isn't static.
+ * <p>
+ * Results are cached until {@link #newTick()}, keyed on the ray start and end quantized to
+ * {@link #getQuantum()}. Agents casting almost the same whiskers in a tick share one Box2D query,
+ * the returned collision is the one of the first ray cast with that key.
+ * <p>
+ * Box2D raycasts are not thread-safe, the world keeps the callback of the running query. Queries of all
+ * detectors are serialized on the {@link World} they cast into. Casting from the parallel steering phase
+ * is fine, the world isn't stepped meanwhile.
+ */
+public class Box2DRaycastCollisionDetector implements RaycastCollisionDetector<Vector2> {
+
+    public static final float DEFAULT_QUANTUM = 1f / 32f;
+
+    private static final int CACHE_SIZE = 4096;
+    private static final int MAX_PROBES = 8;
+
+    private final World world;
+    private final short categoryBits;
+    private final short maskBits;
+    private boolean staticOnly = true;
+
+    private final float inverseQuantum;
+    private final float quantum;
+
+    private final int[] keys = new int[CACHE_SIZE * 4];
+    private final int[] stamps = new int[CACHE_SIZE];
+    private final boolean[] hits = new boolean[CACHE_SIZE];
+    private final float[] points = new float[CACHE_SIZE * 2];
+    private final float[] normals = new float[CACHE_SIZE * 2];
+    private int tick = 1;
+
+    private long queries;
+    private long cacheHits;
+
+    private final ClosestHitCallback callback = new ClosestHitCallback();
+
+    /**
+     * @param world  world to cast the rays into
+     * @param filter category and mask bits of the rays, e.g. the filter of a material
+     */
+    public Box2DRaycastCollisionDetector(World world, Filter filter) {
+        this(world, filter.categoryBits, filter.maskBits, DEFAULT_QUANTUM);
+    }
+
+    /**
+     * @param world        world to cast the rays into
+     * @param categoryBits category of the rays
+     * @param maskBits     categories the rays collide with
+     * @param quantum      cache key resolution in WorldUnits
+     */
+    public Box2DRaycastCollisionDetector(World world, short categoryBits, short maskBits, float quantum) {
+        this.world = world;
+        this.categoryBits = categoryBits;
+        this.maskBits = maskBits;
+        this.quantum = quantum;
+        this.inverseQuantum = 1f / quantum;
+    }
+
+    @Override
+    public boolean collides(Ray<Vector2> ray) {
+        synchronized (world) {
+            return cast(ray) >= 0;
+        }
+    }
+
+    @Override
+    public boolean findCollision(Collision<Vector2> outputCollision, Ray<Vector2> inputRay) {
+        synchronized (world) {
+            int slot = cast(inputRay);
+            if (slot < 0)
+                return false;
+
+            outputCollision.point.set(points[slot * 2], points[slot * 2 + 1]);
+            outputCollision.normal.set(normals[slot * 2], normals[slot * 2 + 1]);
+            return true;
+        }
+    }
+
+    /**
+     * @return cache slot holding the hit, or -1 without a hit
+     */
+    private int cast(Ray<Vector2> ray) {
+        Vector2 start = ray.start;
+        Vector2 end = ray.end;
+        queries++;
+
+        int startX = quantize(start.x);
+        int startY = quantize(start.y);
+        int endX = quantize(end.x);
+        int endY = quantize(end.y);
+
+        int hash = startX * 73856093 ^ startY * 19349663 ^ endX * 83492791 ^ endY * 50331653;
+        int slot = (hash ^ (hash >>> 16)) & (CACHE_SIZE - 1);
+        int freeSlot = slot;
+
+        for (int probe = 0; probe < MAX_PROBES; probe++) {
+            int current = (slot + probe) & (CACHE_SIZE - 1);
+            if (stamps[current] != tick) {
+                freeSlot = current;
+                break;
+            }
+
+            int key = current * 4;
+            if (keys[key] == startX && keys[key + 1] == startY && keys[key + 2] == endX && keys[key + 3] == endY) {
+                cacheHits++;
+                return hits[current] ? current : -1;
+            }
+        }
+
+        // not cached, the free slot or the first probed one gets overwritten
+        int key = freeSlot * 4;
+        keys[key] = startX;
+        keys[key + 1] = startY;
+        keys[key + 2] = endX;
+        keys[key + 3] = endY;
+        stamps[freeSlot] = tick;
+
+        callback.hit = false;
+        if (!start.epsilonEquals(end, 0))
+            world.rayCast(callback, start, end);
+
+        hits[freeSlot] = callback.hit;
+        if (callback.hit) {
+            points[freeSlot * 2] = callback.pointX;
+            points[freeSlot * 2 + 1] = callback.pointY;
+            normals[freeSlot * 2] = callback.normalX;
+            normals[freeSlot * 2 + 1] = callback.normalY;
+            return freeSlot;
+        }
+        return -1;
+    }
+
+    private int quantize(float value) {
+        return (int) Math.floor(value * inverseQuantum);
+    }
+
+    /**
+     * Invalidates the cached results, call once per world step
+     */
+    public void newTick() {
+        synchronized (world) {
+            tick++;
+            if (tick == 0) {
+                // stamps wrapped around, make sure no stale entry matches
+                Arrays.fill(stamps, 0);
+                tick = 1;
+            }
+        }
+    }
+
+    /**
+     * @param staticOnly whether only static bodies are hit, true by default
+     */
+    public void setStaticOnly(boolean staticOnly) {
+        this.staticOnly = staticOnly;
+    }
+
+    public boolean isStaticOnly() {
+        return staticOnly;
+    }
+
+    public float getQuantum() {
+        return quantum;
+    }
+
+    /**
+     * @return number of rays cast since creation
+     */
+    public long getQueries() {
+        return queries;
+    }
+
+    /**
+     * @return number of rays answered from the cache since creation
+     */
+    public long getCacheHits() {
+        return cacheHits;
+    }
+
+    private final class ClosestHitCallback implements RayCastCallback {
+
+        boolean hit;
+        float pointX;
+        float pointY;
+        float normalX;
+        float normalY;
+
+        @Override
+        public float reportRayFixture(Fixture fixture, Vector2 point, Vector2 normal, float fraction) {
+            if (fixture.isSensor())
+                return -1;
+            if (staticOnly && fixture.getBody().getType() != BodyDef.BodyType.StaticBody)
+                return -1;
+
+            Filter filter = fixture.getFilterData();
+            if ((filter.categoryBits & maskBits) == 0 || (filter.maskBits & categoryBits) == 0)
+                return -1;
+
+            hit = true;
+            pointX = point.x;
+            pointY = point.y;
+            normalX = normal.x;
+            normalY = normal.y;
+
+            // clip the ray, later reports are closer
+            return fraction;
+        }
+    }
+}
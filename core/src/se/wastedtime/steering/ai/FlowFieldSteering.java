@@ -0,0 +1,124 @@
+package se.wastedtime.steering.ai;
+
+import com.badlogic.gdx.ai.steer.Limiter;
+import com.badlogic.gdx.ai.steer.Steerable;
+import com.badlogic.gdx.ai.steer.SteeringAcceleration;
+import com.badlogic.gdx.ai.steer.SteeringBehavior;
+import com.badlogic.gdx.math.Vector2;
+import se.wastedtime.steering.pathfinding.FlowField;
+import se.wastedtime.steering.pathfinding.FlowFieldCache;
+import se.wastedtime.steering.pathfinding.NavigationGraph;
+
+/**
+ * Steers along the {@link FlowField} towards a goal, sampling the tile under the owner.
+ * <p>
+ * The desired velocity is the flow direction at full speed, within the goal tile it arrives
+ * at the goal position. Agents sharing a goal share the field of the {@link FlowFieldCache},
+ * a sample is a lookup, so this is safe to calculate in parallel. If the field was evicted
+ * from the cache it is requested again and computed before the next step. Until then the owner
+ * only arrives in a straight line within the deceleration radius of the goal, further away it
+ * keeps its velocity instead of steering into a wall.
+ */
+public class FlowFieldSteering extends SteeringBehavior<Vector2> {
+
+    private final FlowFieldCache cache;
+    private final Vector2 goal = new Vector2();
+    private int goalX;
+    private int goalY;
+
+    private float arrivalTolerance = 0.1f;
+    private float decelerationRadius = 1f;
+    private float timeToTarget = 0.1f;
+
+    /**
+     * @param owner owner of the behavior
+     * @param cache cache providing the flow fields
+     * @param goal  goal position in WorldUnits
+     */
+    public FlowFieldSteering(Steerable<Vector2> owner, FlowFieldCache cache, Vector2 goal) {
+        super(owner);
+        this.cache = cache;
+        setGoal(goal);
+    }
+
+    /**
+     * Sets the goal and makes sure its field is cached, call from the thread updating the simulation
+     *
+     * @param goal goal position in WorldUnits
+     */
+    public FlowFieldSteering setGoal(Vector2 goal) {
+        NavigationGraph graph = cache.getGraph();
+        this.goal.set(goal);
+        goalX = (int) Math.floor(goal.x / graph.getTileWidth());
+        goalY = (int) Math.floor(goal.y / graph.getTileHeight());
+        if (goalX >= 0 && goalY >= 0 && goalX < graph.getWidth() && goalY < graph.getHeight())
+            cache.get(goalX, goalY);
+        return this;
+    }
+
+    @Override
+    protected SteeringAcceleration<Vector2> calculateRealSteering(SteeringAcceleration<Vector2> steering) {
+        Limiter limiter = getActualLimiter();
+        Vector2 position = owner.getPosition();
+        NavigationGraph graph = cache.getGraph();
+
+        FlowField field = cache.peek(goalX, goalY);
+        byte direction = field == null ? FlowField.NONE
+                : field.getDirection((int) Math.floor(position.x / graph.getTileWidth()), (int) Math.floor(position.y / graph.getTileHeight()));
+
+        Vector2 desired = steering.linear;
+        if (direction != FlowField.NONE) {
+            desired.set(FlowField.getDirectionX(direction), FlowField.getDirectionY(direction)).scl(limiter.getMaxLinearSpeed());
+        } else {
+            desired.set(goal).sub(position);
+            float distance = desired.len();
+            // a goal off the map has no field, the owner arrives in a straight line
+            boolean evicted = field == null && goalX >= 0 && goalY >= 0 && goalX < graph.getWidth() && goalY < graph.getHeight();
+            if (evicted)
+                cache.request(goalX, goalY);
+            if (distance <= arrivalTolerance || evicted && distance > decelerationRadius)
+                return steering.setZero();
+
+            float speed = limiter.getMaxLinearSpeed();
+            if (distance <= decelerationRadius)
+                speed *= distance / decelerationRadius;
+            desired.scl(speed / distance);
+        }
+
+        // match the desired velocity within timeToTarget
+        desired.sub(owner.getLinearVelocity()).scl(1f / timeToTarget).limit(limiter.getMaxLinearAcceleration());
+        steering.angular = 0;
+        return steering;
+    }
+
+    public Vector2 getGoal() {
+        return goal;
+    }
+
+    public float getArrivalTolerance() {
+        return arrivalTolerance;
+    }
+
+    public FlowFieldSteering setArrivalTolerance(float arrivalTolerance) {
+        this.arrivalTolerance = arrivalTolerance;
+        return this;
+    }
+
+    public float getDecelerationRadius() {
+        return decelerationRadius;
+    }
+
+    public FlowFieldSteering setDecelerationRadius(float decelerationRadius) {
+        this.decelerationRadius = decelerationRadius;
+        return this;
+    }
+
+    public float getTimeToTarget() {
+        return timeToTarget;
+    }
+
+    public FlowFieldSteering setTimeToTarget(float timeToTarget) {
+        this.timeToTarget = timeToTarget;
+        return this;
+    }
+}
@@ -0,0 +1,219 @@
+package se.wastedtime.steering.ai;
+
+import com.badlogic.gdx.maps.tiled.TiledMap;
+
+import java.util.Arrays;
+
+/**
+ * Uniform grid over the map indexing agents by position.
+ * <p>
+ * Agents are identified by their index and linked into per cell lists stored in primitive
+ * arrays. {@link #update(float[], float[], float[], int)} only relinks agents that changed
+ * their cell, so rebuilding it every tick costs little when most agents stay in their cell.
+ * Positions outside the grid are clamped to the border cells.
+ * <p>
+ * Updating is not thread-safe, reading the cells from many threads between updates is.
+ */
+public class SpatialHashGrid {
+
+    public static final int DEFAULT_TILES_PER_CELL = 2;
+
+    private static final int NONE = -1;
+
+    private final float originX;
+    private final float originY;
+    private final float cellSize;
+    private final float inverseCellSize;
+    private final int columns;
+    private final int rows;
+
+    private final int[] cellHead;
+    private int[] next = new int[0];
+    private int[] previous = new int[0];
+    private int[] cellOf = new int[0];
+    private int count;
+
+    private float maxBoundingRadius;
+
+    /**
+     * @param originX  left border in WorldUnits
+     * @param originY  bottom border in WorldUnits
+     * @param cellSize width and height of a cell in WorldUnits
+     * @param columns  number of cells along x
+     * @param rows     number of cells along y
+     */
+    public SpatialHashGrid(float originX, float originY, float cellSize, int columns, int rows) {
+        this.originX = originX;
+        this.originY = originY;
+        this.cellSize = cellSize;
+        this.inverseCellSize = 1f / cellSize;
+        this.columns = columns;
+        this.rows = rows;
+
+        cellHead = new int[columns * rows];
+        Arrays.fill(cellHead, NONE);
+    }
+
+    /**
+     * Creates a grid covering the tile grid of the map
+     *
+     * @param map            map with width, height, tilewidth and tileheight properties
+     * @param pixelsPerMeter conversion ratio from pixels to WorldUnits
+     * @param tilesPerCell   width and height of a cell in tiles
+     */
+    public static SpatialHashGrid fromMap(TiledMap map, float pixelsPerMeter, int tilesPerCell) {
+        int width = map.getProperties().get("width", Integer.class);
+        int height = map.getProperties().get("height", Integer.class);
+        int tileWidth = map.getProperties().get("tilewidth", Integer.class);
+
+        float cellSize = tilesPerCell * tileWidth / pixelsPerMeter;
+        return new SpatialHashGrid(0, 0, cellSize,
+                (width + tilesPerCell - 1) / tilesPerCell,
+                (height + tilesPerCell - 1) / tilesPerCell);
+    }
+
+    /**
+     * Moves the agents into the cells of their current position
+     * Agents at or after count are removed.
+     *
+     * @param x              x positions in WorldUnits, indexed by agent
+     * @param y              y positions in WorldUnits, indexed by agent
+     * @param boundingRadius bounding radius of the agents, may be null
+     * @param count          number of agents
+     */
+    public void update(float[] x, float[] y, float[] boundingRadius, int count) {
+        for (int i = count; i < this.count; i++) {
+            unlink(i);
+        }
+        ensureCapacity(count);
+        this.count = count;
+
+        float maxRadius = 0;
+        for (int i = 0; i < count; i++) {
+            int cell = cellIndex(x[i], y[i]);
+            if (cell != cellOf[i]) {
+                unlink(i);
+                link(i, cell);
+            }
+            if (boundingRadius != null && boundingRadius[i] > maxRadius)
+                maxRadius = boundingRadius[i];
+        }
+        maxBoundingRadius = maxRadius;
+    }
+
+    /**
+     * Moves a single agent, the agent has to be below {@link #getCount()}
+     */
+    public void update(int index, float x, float y) {
+        int cell = cellIndex(x, y);
+        if (cell != cellOf[index]) {
+            unlink(index);
+            link(index, cell);
+        }
+    }
+
+    /**
+     * Forgets every agent
+     */
+    public void clear() {
+        Arrays.fill(cellHead, NONE);
+        Arrays.fill(cellOf, 0, count, NONE);
+        count = 0;
+    }
+
+    private void link(int index, int cell) {
+        int head = cellHead[cell];
+        next[index] = head;
+        previous[index] = NONE;
+        if (head != NONE)
+            previous[head] = index;
+        cellHead[cell] = index;
+        cellOf[index] = cell;
+    }
+
+    private void unlink(int index) {
+        int cell = cellOf[index];
+        if (cell == NONE)
+            return;
+
+        int before = previous[index];
+        int after = next[index];
+        if (before != NONE)
+            next[before] = after;
+        else
+            cellHead[cell] = after;
+        if (after != NONE)
+            previous[after] = before;
+
+        cellOf[index] = NONE;
+    }
+
+    private void ensureCapacity(int size) {
+        if (cellOf.length >= size)
+            return;
+
+        int capacity = Math.max(size, cellOf.length + (cellOf.length >> 1));
+        next = Arrays.copyOf(next, capacity);
+        previous = Arrays.copyOf(previous, capacity);
+        int oldLength = cellOf.length;
+        cellOf = Arrays.copyOf(cellOf, capacity);
+        Arrays.fill(cellOf, oldLength, capacity, NONE);
+    }
+
+    /**
+     * @return column of the position, clamped to the grid
+     */
+    public int column(float x) {
+        int column = (int) ((x - originX) * inverseCellSize);
+        return column < 0 ? 0 : column >= columns ? columns - 1 : column;
+    }
+
+    /**
+     * @return row of the position, clamped to the grid
+     */
+    public int row(float y) {
+        int row = (int) ((y - originY) * inverseCellSize);
+        return row < 0 ? 0 : row >= rows ? rows - 1 : row;
+    }
+
+    public int cellIndex(float x, float y) {
+        return row(y) * columns + column(x);
+    }
+
+    /**
+     * @return first agent in the cell or -1
+     */
+    public int getFirst(int column, int row) {
+        return cellHead[row * columns + column];
+    }
+
+    /**
+     * @return agent after the given one in the same cell or -1
+     */
+    public int getNext(int index) {
+        return next[index];
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public float getCellSize() {
+        return cellSize;
+    }
+
+    /**
+     * @return largest bounding radius passed to the last update
+     */
+    public float getMaxBoundingRadius() {
+        return maxBoundingRadius;
+    }
+}
@@ -0,0 +1,96 @@
+package se.wastedtime.steering.ai;
+
+import com.badlogic.gdx.ai.steer.Proximity;
+import com.badlogic.gdx.ai.steer.Steerable;
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.utils.Array;
+
+/**
+ * {@link Proximity} backed by a {@link SpatialHashGrid}.
+ * <p>
+ * Like {@link com.badlogic.gdx.ai.steer.proximities.RadiusProximity} a neighbor is reported when
+ * it's closer than the detection radius plus its bounding radius, but only the cells around the
+ * owner are visited instead of every agent. The grid indices refer to the agents array, both
+ * are shared by the proximities of all agents and have to be updated together.
+ * Finding neighbors doesn't allocate.
+ *
+ * @param <T> type of the agents
+ */
+public class SpatialHashProximity<T extends Steerable<Vector2>> implements Proximity<Vector2> {
+
+    private Steerable<Vector2> owner;
+    private final SpatialHashGrid grid;
+    private final Array<T> agents;
+    private float radius;
+
+    /**
+     * @param owner  owner of this proximity
+     * @param grid   grid indexing the agents
+     * @param agents agents by grid index
+     * @param radius detection radius in WorldUnits
+     */
+    public SpatialHashProximity(Steerable<Vector2> owner, SpatialHashGrid grid, Array<T> agents, float radius) {
+        this.owner = owner;
+        this.grid = grid;
+        this.agents = agents;
+        this.radius = radius;
+    }
+
+    @Override
+    public Steerable<Vector2> getOwner() {
+        return owner;
+    }
+
+    @Override
+    public void setOwner(Steerable<Vector2> owner) {
+        this.owner = owner;
+    }
+
+    public float getRadius() {
+        return radius;
+    }
+
+    public void setRadius(float radius) {
+        this.radius = radius;
+    }
+
+    @Override
+    public int findNeighbors(ProximityCallback<Vector2> callback) {
+        Vector2 position = owner.getPosition();
+        float reach = radius + grid.getMaxBoundingRadius();
+
+        int minColumn = grid.column(position.x - reach);
+        int maxColumn = grid.column(position.x + reach);
+        int minRow = grid.row(position.y - reach);
+        int maxRow = grid.row(position.y + reach);
+
+        T[] items = agents.items;
+        int size = Math.min(agents.size, grid.getCount());
+        int neighborCount = 0;
+
+        for (int row = minRow; row <= maxRow; row++) {
+            for (int column = minColumn; column <= maxColumn; column++) {
+                for (int i = grid.getFirst(column, row); i != -1; i = grid.getNext(i)) {
+                    if (i >= size)
+                        continue;
+
+                    T agent = items[i];
+                    if (agent == owner)
+                        continue;
+
+                    Vector2 agentPosition = agent.getPosition();
+                    float dx = agentPosition.x - position.x;
+                    float dy = agentPosition.y - position.y;
+                    float range = radius + agent.getBoundingRadius();
+
+                    if (dx * dx + dy * dy < range * range) {
+                        if (callback.reportNeighbor(agent))
+                            neighborCount++;
+                    }
+                }
+            }
+        }
+
+        return neighborCount;
+    }
+}
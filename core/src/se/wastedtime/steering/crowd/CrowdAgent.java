@@ -0,0 +1,196 @@
+package se.wastedtime.steering.crowd;
+
+import com.badlogic.gdx.ai.steer.Steerable;
+import com.badlogic.gdx.ai.steer.SteeringAcceleration;
+import com.badlogic.gdx.ai.steer.SteeringBehavior;
+import com.badlogic.gdx.ai.utils.Location;
+import com.badlogic.gdx.math.Vector2;
+import se.wastedtime.steering.Box2DLocation;
+import se.wastedtime.steering.PhysicsUtils;
+
+/**
+ * {@link Steerable} view of one agent of a {@link CrowdStore}, to use the gdx-ai behaviors with crowd agents
+ * or as their target.
+ * <p>
+ * The view holds no state of the agent, only its index. Position and velocity are copied from the store
+ * into vectors owned by the view whenever they are requested, writing to those vectors doesn't change the
+ * agent. Angular motion isn't simulated by the store, the angular limits only exist for the behaviors.
+ * Update the index with {@link #setIndex(int)} when {@link CrowdStore#remove(int)} moved the agent.
+ */
+public class CrowdAgent implements Steerable<Vector2> {
+
+    private final CrowdStore store;
+    private int index;
+
+    private final Vector2 position = new Vector2();
+    private final Vector2 linearVelocity = new Vector2();
+    private final SteeringAcceleration<Vector2> steeringOutput = new SteeringAcceleration<>(new Vector2());
+    private SteeringBehavior<Vector2> steeringBehavior;
+
+    private boolean tagged;
+    private float maxAngularSpeed;
+    private float maxAngularAcceleration;
+    private float zeroLinearSpeedThreshold = 0.001f;
+
+    /**
+     * @param store store of the agent
+     * @param index index of the agent in the store
+     */
+    public CrowdAgent(CrowdStore store, int index) {
+        this.store = store;
+        this.index = index;
+    }
+
+    public CrowdStore getStore() {
+        return store;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public void setIndex(int index) {
+        this.index = index;
+    }
+
+    public SteeringBehavior<Vector2> getSteeringBehavior() {
+        return steeringBehavior;
+    }
+
+    public void setSteeringBehavior(SteeringBehavior<Vector2> steeringBehavior) {
+        this.steeringBehavior = steeringBehavior;
+    }
+
+    /**
+     * Calculates the steering behavior and adds its linear acceleration to the force of the agent,
+     * blending it with the kernels of the same step
+     *
+     * @return the steering output, zero without a steering behavior
+     */
+    public SteeringAcceleration<Vector2> calculateSteering() {
+        if (steeringBehavior == null)
+            return steeringOutput.setZero();
+
+        steeringBehavior.calculateSteering(steeringOutput);
+        store.getForceX()[index] += steeringOutput.linear.x;
+        store.getForceY()[index] += steeringOutput.linear.y;
+        return steeringOutput;
+    }
+
+    @Override
+    public Vector2 getPosition() {
+        return position.set(store.getPositionX()[index], store.getPositionY()[index]);
+    }
+
+    /**
+     * Moves the agent, the behaviors of the view can't do this, but it's handy to spawn or teleport it
+     */
+    public void setPosition(float x, float y) {
+        store.getPositionX()[index] = x;
+        store.getPositionY()[index] = y;
+    }
+
+    @Override
+    public float getOrientation() {
+        return store.getOrientation()[index];
+    }
+
+    @Override
+    public void setOrientation(float orientation) {
+        store.getOrientation()[index] = orientation;
+    }
+
+    @Override
+    public Vector2 getLinearVelocity() {
+        return linearVelocity.set(store.getVelocityX()[index], store.getVelocityY()[index]);
+    }
+
+    @Override
+    public float getAngularVelocity() {
+        return 0;
+    }
+
+    @Override
+    public float getBoundingRadius() {
+        return store.getBoundingRadius()[index];
+    }
+
+    @Override
+    public boolean isTagged() {
+        return tagged;
+    }
+
+    @Override
+    public void setTagged(boolean tagged) {
+        this.tagged = tagged;
+    }
+
+    @Override
+    public Location<Vector2> newLocation() {
+        return new Box2DLocation();
+    }
+
+    @Override
+    public float vectorToAngle(Vector2 vector) {
+        return PhysicsUtils.vectorToAngle(vector);
+    }
+
+    @Override
+    public Vector2 angleToVector(Vector2 outVector, float angle) {
+        return PhysicsUtils.angleToVector(outVector, angle);
+    }
+
+    //
+    // Limiter implementation
+    //
+
+    @Override
+    public float getMaxLinearSpeed() {
+        return store.getMaxLinearSpeed()[index];
+    }
+
+    @Override
+    public void setMaxLinearSpeed(float maxLinearSpeed) {
+        store.getMaxLinearSpeed()[index] = maxLinearSpeed;
+    }
+
+    @Override
+    public float getMaxLinearAcceleration() {
+        return store.getMaxLinearAcceleration()[index];
+    }
+
+    @Override
+    public void setMaxLinearAcceleration(float maxLinearAcceleration) {
+        store.getMaxLinearAcceleration()[index] = maxLinearAcceleration;
+    }
+
+    @Override
+    public float getMaxAngularSpeed() {
+        return maxAngularSpeed;
+    }
+
+    @Override
+    public void setMaxAngularSpeed(float maxAngularSpeed) {
+        this.maxAngularSpeed = maxAngularSpeed;
+    }
+
+    @Override
+    public float getMaxAngularAcceleration() {
+        return maxAngularAcceleration;
+    }
+
+    @Override
+    public void setMaxAngularAcceleration(float maxAngularAcceleration) {
+        this.maxAngularAcceleration = maxAngularAcceleration;
+    }
+
+    @Override
+    public float getZeroLinearSpeedThreshold() {
+        return zeroLinearSpeedThreshold;
+    }
+
+    @Override
+    public void setZeroLinearSpeedThreshold(float value) {
+        this.zeroLinearSpeedThreshold = value;
+    }
+}
@@ -0,0 +1,179 @@
+package se.wastedtime.steering.crowd;
+
+import com.badlogic.gdx.math.MathUtils;
+import se.wastedtime.steering.ai.SpatialHashGrid;
+
+/**
+ * Steering behaviors over a whole {@link CrowdStore} at once.
+ * <p>
+ * Each kernel loops over a range of agents and adds its weighted force to the accumulated force,
+ * so behaviors are blended by calling several kernels before {@link CrowdStore#integrate(float)}.
+ * The loops only read and write primitive arrays and write nothing but the agents of their own
+ * range, different ranges can run in parallel. Their results match the gdx-ai behaviors of the
+ * same name, without the per agent objects.
+ */
+public final class CrowdKernels {
+
+    private CrowdKernels() {
+    }
+
+    /**
+     * Accelerates towards the target at maximum acceleration, like {@link com.badlogic.gdx.ai.steer.behaviors.Seek}
+     *
+     * @param weight factor of the force
+     */
+    public static void seek(CrowdStore store, int from, int to, float weight) {
+        float[] positionX = store.getPositionX(), positionY = store.getPositionY();
+        float[] targetX = store.getTargetX(), targetY = store.getTargetY();
+        float[] forceX = store.getForceX(), forceY = store.getForceY();
+        float[] maxLinearAcceleration = store.getMaxLinearAcceleration();
+
+        for (int i = from; i < to; i++) {
+            float dx = targetX[i] - positionX[i];
+            float dy = targetY[i] - positionY[i];
+            float length2 = dx * dx + dy * dy;
+            // zero length stays zero instead of NaN
+            float scale = weight * maxLinearAcceleration[i] / (float) Math.sqrt(Math.max(length2, 0.000001f));
+            forceX[i] += dx * scale;
+            forceY[i] += dy * scale;
+        }
+    }
+
+    /**
+     * Slows down inside the deceleration radius to stop at the target,
+     * like {@link com.badlogic.gdx.ai.steer.behaviors.Arrive}
+     *
+     * @param arrivalTolerance   distance to the target counting as arrived
+     * @param decelerationRadius distance to the target to start slowing down at
+     * @param timeToTarget       time to reach the target speed in seconds
+     * @param weight             factor of the force
+     */
+    public static void arrive(CrowdStore store, int from, int to, float arrivalTolerance,
+                              float decelerationRadius, float timeToTarget, float weight) {
+        float[] positionX = store.getPositionX(), positionY = store.getPositionY();
+        float[] velocityX = store.getVelocityX(), velocityY = store.getVelocityY();
+        float[] targetX = store.getTargetX(), targetY = store.getTargetY();
+        float[] forceX = store.getForceX(), forceY = store.getForceY();
+        float[] maxLinearSpeed = store.getMaxLinearSpeed();
+        float[] maxLinearAcceleration = store.getMaxLinearAcceleration();
+        float inverseTimeToTarget = 1f / timeToTarget;
+
+        for (int i = from; i < to; i++) {
+            float dx = targetX[i] - positionX[i];
+            float dy = targetY[i] - positionY[i];
+            float distance = (float) Math.sqrt(dx * dx + dy * dy);
+            if (distance <= arrivalTolerance)
+                continue;
+
+            float speed = maxLinearSpeed[i];
+            if (distance <= decelerationRadius)
+                speed *= distance / decelerationRadius;
+
+            // target velocity minus current velocity, reached in timeToTarget
+            float scale = speed / distance;
+            float ax = (dx * scale - velocityX[i]) * inverseTimeToTarget;
+            float ay = (dy * scale - velocityY[i]) * inverseTimeToTarget;
+
+            float acceleration2 = ax * ax + ay * ay;
+            float maxAcceleration = maxLinearAcceleration[i];
+            if (acceleration2 > maxAcceleration * maxAcceleration) {
+                float limit = maxAcceleration / (float) Math.sqrt(acceleration2);
+                ax *= limit;
+                ay *= limit;
+            }
+            forceX[i] += ax * weight;
+            forceY[i] += ay * weight;
+        }
+    }
+
+    /**
+     * Pushes away from the neighbors closer than the radius, stronger the closer they are,
+     * like {@link com.badlogic.gdx.ai.steer.behaviors.Separation} with an inverse square law.
+     * The grid has to be updated with the positions of the store beforehand.
+     *
+     * @param grid             grid indexing the agents of the store
+     * @param radius           detection radius in WorldUnits
+     * @param decayCoefficient strength of the repulsion
+     * @param weight           factor of the force
+     */
+    public static void separation(CrowdStore store, SpatialHashGrid grid, int from, int to,
+                                  float radius, float decayCoefficient, float weight) {
+        float[] positionX = store.getPositionX(), positionY = store.getPositionY();
+        float[] forceX = store.getForceX(), forceY = store.getForceY();
+        float[] maxLinearAcceleration = store.getMaxLinearAcceleration();
+        float radius2 = radius * radius;
+        int count = Math.min(store.size(), grid.getCount());
+
+        for (int i = from; i < to; i++) {
+            float x = positionX[i], y = positionY[i];
+            int minColumn = grid.column(x - radius), maxColumn = grid.column(x + radius);
+            int minRow = grid.row(y - radius), maxRow = grid.row(y + radius);
+            float maxAcceleration = maxLinearAcceleration[i];
+
+            float sumX = 0, sumY = 0;
+            for (int row = minRow; row <= maxRow; row++) {
+                for (int column = minColumn; column <= maxColumn; column++) {
+                    for (int j = grid.getFirst(column, row); j != -1; j = grid.getNext(j)) {
+                        if (j == i || j >= count)
+                            continue;
+
+                        float dx = x - positionX[j];
+                        float dy = y - positionY[j];
+                        float distance2 = dx * dx + dy * dy;
+                        if (distance2 >= radius2 || distance2 == 0)
+                            continue;
+
+                        float strength = Math.min(decayCoefficient / distance2, maxAcceleration);
+                        float scale = strength / (float) Math.sqrt(distance2);
+                        sumX += dx * scale;
+                        sumY += dy * scale;
+                    }
+                }
+            }
+            forceX[i] += sumX * weight;
+            forceY[i] += sumY * weight;
+        }
+    }
+
+    /**
+     * Randomly turns the wander angle a bit every step and accelerates towards it,
+     * a simplified {@link com.badlogic.gdx.ai.steer.behaviors.Wander} without the wander circle.
+     * The random numbers come from a hash of the seed, the agent and the tick, so the result doesn't
+     * depend on the order or the thread the ranges are processed in.
+     *
+     * @param tick       current step, changes the random numbers every step
+     * @param seed       seed of the random numbers
+     * @param wanderRate maximum change of the wander angle per step in radians
+     * @param weight     factor of the force
+     */
+    public static void wander(CrowdStore store, int from, int to, long tick, long seed, float wanderRate, float weight) {
+        float[] orientation = store.getOrientation();
+        float[] wanderAngle = store.getWanderAngle();
+        float[] forceX = store.getForceX(), forceY = store.getForceY();
+        float[] maxLinearAcceleration = store.getMaxLinearAcceleration();
+        long base = seed ^ tick * 0x9E3779B97F4A7C15L;
+
+        for (int i = from; i < to; i++) {
+            float angle = wanderAngle[i] + randomTriangle(base + i) * wanderRate;
+            wanderAngle[i] = angle;
+
+            float direction = orientation[i] + angle;
+            float acceleration = maxLinearAcceleration[i] * weight;
+            forceX[i] += -MathUtils.sin(direction) * acceleration;
+            forceY[i] += MathUtils.cos(direction) * acceleration;
+        }
+    }
+
+    /**
+     * @return random number between -1 and 1, more likely around 0
+     */
+    private static float randomTriangle(long value) {
+        // splitmix64 finalizer
+        value = (value ^ value >>> 30) * 0xBF58476D1CE4E5B9L;
+        value = (value ^ value >>> 27) * 0x94D049BB133111EBL;
+        value ^= value >>> 31;
+        float a = (value & 0xFFFFFF) / (float) (1 << 24);
+        float b = (value >>> 40) / (float) (1 << 24);
+        return a - b;
+    }
+}
@@ -0,0 +1,299 @@
+package se.wastedtime.steering.crowd;
+
+import com.badlogic.gdx.math.MathUtils;
+
+import java.util.Arrays;
+
+/**
+ * Structure of arrays state of a large crowd without Box2D bodies.
+ * <p>
+ * Every attribute of the agents is a primitive array indexed by agent, so the {@link CrowdKernels}
+ * stream through memory instead of chasing a {@link se.wastedtime.steering.entities.Character} and
+ * its body per agent. Each step the kernels accumulate their forces, then {@link #integrate(float)}
+ * moves the agents and clears the forces again. The arrays are exposed for the kernels and grow
+ * when agents are added, don't keep a reference across {@link #add(float, float)}.
+ * <p>
+ * Removing an agent moves the last agent into its slot, indices are only stable until the next removal.
+ */
+public class CrowdStore {
+
+    private float[] positionX = new float[0];
+    private float[] positionY = new float[0];
+    private float[] velocityX = new float[0];
+    private float[] velocityY = new float[0];
+    private float[] orientation = new float[0];
+    private float[] forceX = new float[0];
+    private float[] forceY = new float[0];
+    private float[] targetX = new float[0];
+    private float[] targetY = new float[0];
+    private float[] wanderAngle = new float[0];
+    private float[] boundingRadius = new float[0];
+    private float[] maxLinearSpeed = new float[0];
+    private float[] maxLinearAcceleration = new float[0];
+
+    private int size;
+    private float worldWidth;
+    private float worldHeight;
+
+    public CrowdStore() {
+        this(16);
+    }
+
+    /**
+     * @param capacity number of agents to allocate the arrays for
+     */
+    public CrowdStore(int capacity) {
+        ensureCapacity(capacity);
+    }
+
+    /**
+     * Adds a resting agent targeting its own position
+     *
+     * @param x x position in WorldUnits
+     * @param y y position in WorldUnits
+     * @return index of the new agent
+     */
+    public int add(float x, float y) {
+        ensureCapacity(size + 1);
+        int index = size++;
+        positionX[index] = x;
+        positionY[index] = y;
+        velocityX[index] = 0;
+        velocityY[index] = 0;
+        orientation[index] = 0;
+        forceX[index] = 0;
+        forceY[index] = 0;
+        targetX[index] = x;
+        targetY[index] = y;
+        wanderAngle[index] = 0;
+        boundingRadius[index] = 0;
+        maxLinearSpeed[index] = 0;
+        maxLinearAcceleration[index] = 0;
+        return index;
+    }
+
+    /**
+     * Removes the agent by moving the last agent into its slot
+     *
+     * @return former index of the agent now at the given index, or -1 if the last agent was removed
+     */
+    public int remove(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("index can't be >= size: " + index + " >= " + size);
+
+        int last = --size;
+        if (index == last)
+            return -1;
+
+        positionX[index] = positionX[last];
+        positionY[index] = positionY[last];
+        velocityX[index] = velocityX[last];
+        velocityY[index] = velocityY[last];
+        orientation[index] = orientation[last];
+        forceX[index] = forceX[last];
+        forceY[index] = forceY[last];
+        targetX[index] = targetX[last];
+        targetY[index] = targetY[last];
+        wanderAngle[index] = wanderAngle[last];
+        boundingRadius[index] = boundingRadius[last];
+        maxLinearSpeed[index] = maxLinearSpeed[last];
+        maxLinearAcceleration[index] = maxLinearAcceleration[last];
+        return last;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Sets the limits of a range of agents
+     *
+     * @param from                  index of the first agent
+     * @param to                    index after the last agent
+     * @param boundingRadius        bounding radius in WorldUnits
+     * @param maxLinearSpeed        maximum speed in WorldUnits per second
+     * @param maxLinearAcceleration maximum acceleration in WorldUnits per second squared
+     */
+    public void setLimits(int from, int to, float boundingRadius, float maxLinearSpeed, float maxLinearAcceleration) {
+        Arrays.fill(this.boundingRadius, from, to, boundingRadius);
+        Arrays.fill(this.maxLinearSpeed, from, to, maxLinearSpeed);
+        Arrays.fill(this.maxLinearAcceleration, from, to, maxLinearAcceleration);
+    }
+
+    /**
+     * Sets the area the agents wrap around in, without bounds they move freely
+     *
+     * @param width  width in WorldUnits
+     * @param height height in WorldUnits
+     */
+    public void setWorldBounds(float width, float height) {
+        this.worldWidth = width;
+        this.worldHeight = height;
+    }
+
+    /**
+     * Applies the accumulated forces, truncated to the maximum acceleration, then moves the agents
+     * with their velocity truncated to the maximum speed. Moving agents face their velocity.
+     * The forces are cleared afterwards.
+     *
+     * @param deltaTime step length in seconds
+     */
+    public void integrate(float deltaTime) {
+        integrate(0, size, deltaTime);
+    }
+
+    /**
+     * Integrates a range of agents, ranges can be integrated in parallel
+     *
+     * @see #integrate(float)
+     */
+    public void integrate(int from, int to, float deltaTime) {
+        float[] positionX = this.positionX, positionY = this.positionY;
+        float[] velocityX = this.velocityX, velocityY = this.velocityY;
+        float[] forceX = this.forceX, forceY = this.forceY;
+        float[] maxLinearSpeed = this.maxLinearSpeed, maxLinearAcceleration = this.maxLinearAcceleration;
+
+        for (int i = from; i < to; i++) {
+            float ax = forceX[i], ay = forceY[i];
+            float acceleration2 = ax * ax + ay * ay;
+            float maxAcceleration = maxLinearAcceleration[i];
+            if (acceleration2 > maxAcceleration * maxAcceleration) {
+                float scale = maxAcceleration / (float) Math.sqrt(acceleration2);
+                ax *= scale;
+                ay *= scale;
+            }
+
+            float vx = velocityX[i] + ax * deltaTime;
+            float vy = velocityY[i] + ay * deltaTime;
+            float speed2 = vx * vx + vy * vy;
+            float maxSpeed = maxLinearSpeed[i];
+            if (speed2 > maxSpeed * maxSpeed) {
+                float scale = maxSpeed / (float) Math.sqrt(speed2);
+                vx *= scale;
+                vy *= scale;
+            }
+
+            velocityX[i] = vx;
+            velocityY[i] = vy;
+            positionX[i] += vx * deltaTime;
+            positionY[i] += vy * deltaTime;
+            forceX[i] = 0;
+            forceY[i] = 0;
+        }
+
+        // kept out of the loop above, atan2 and the branches would stop it from being vectorized
+        for (int i = from; i < to; i++) {
+            float vx = velocityX[i], vy = velocityY[i];
+            if (vx * vx + vy * vy > 0.000001f)
+                orientation[i] = MathUtils.atan2(-vx, vy);
+        }
+
+        if (worldWidth > 0 && worldHeight > 0)
+            wrapAround(from, to);
+    }
+
+    private void wrapAround(int from, int to) {
+        for (int i = from; i < to; i++) {
+            float x = positionX[i], y = positionY[i];
+            if (x < 0)
+                positionX[i] = x + worldWidth;
+            else if (x > worldWidth)
+                positionX[i] = x - worldWidth;
+            if (y < 0)
+                positionY[i] = y + worldHeight;
+            else if (y > worldHeight)
+                positionY[i] = y - worldHeight;
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (positionX.length >= capacity)
+            return;
+
+        capacity = Math.max(capacity, positionX.length + (positionX.length >> 1));
+        positionX = Arrays.copyOf(positionX, capacity);
+        positionY = Arrays.copyOf(positionY, capacity);
+        velocityX = Arrays.copyOf(velocityX, capacity);
+        velocityY = Arrays.copyOf(velocityY, capacity);
+        orientation = Arrays.copyOf(orientation, capacity);
+        forceX = Arrays.copyOf(forceX, capacity);
+        forceY = Arrays.copyOf(forceY, capacity);
+        targetX = Arrays.copyOf(targetX, capacity);
+        targetY = Arrays.copyOf(targetY, capacity);
+        wanderAngle = Arrays.copyOf(wanderAngle, capacity);
+        boundingRadius = Arrays.copyOf(boundingRadius, capacity);
+        maxLinearSpeed = Arrays.copyOf(maxLinearSpeed, capacity);
+        maxLinearAcceleration = Arrays.copyOf(maxLinearAcceleration, capacity);
+    }
+
+    /**
+     * @return number of agents
+     */
+    public int size() {
+        return size;
+    }
+
+    public float[] getPositionX() {
+        return positionX;
+    }
+
+    public float[] getPositionY() {
+        return positionY;
+    }
+
+    public float[] getVelocityX() {
+        return velocityX;
+    }
+
+    public float[] getVelocityY() {
+        return velocityY;
+    }
+
+    /**
+     * @return orientation in radians, the same convention as {@link se.wastedtime.steering.PhysicsUtils#vectorToAngle}
+     */
+    public float[] getOrientation() {
+        return orientation;
+    }
+
+    /**
+     * @return accumulated linear force of the current step, cleared by {@link #integrate(float)}
+     */
+    public float[] getForceX() {
+        return forceX;
+    }
+
+    public float[] getForceY() {
+        return forceY;
+    }
+
+    /**
+     * @return target position of seek and arrive
+     */
+    public float[] getTargetX() {
+        return targetX;
+    }
+
+    public float[] getTargetY() {
+        return targetY;
+    }
+
+    /**
+     * @return wander angle relative to the orientation, in radians
+     */
+    public float[] getWanderAngle() {
+        return wanderAngle;
+    }
+
+    public float[] getBoundingRadius() {
+        return boundingRadius;
+    }
+
+    public float[] getMaxLinearSpeed() {
+        return maxLinearSpeed;
+    }
+
+    public float[] getMaxLinearAcceleration() {
+        return maxLinearAcceleration;
+    }
+}
@@ -0,0 +1,81 @@
+package se.wastedtime.steering.entities;
+
+import com.badlogic.gdx.physics.box2d.BodyDef;
+import com.badlogic.gdx.physics.box2d.FixtureDef;
+import com.badlogic.gdx.physics.box2d.PolygonShape;
+import com.badlogic.gdx.physics.box2d.World;
+import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.Pool;
+
+/**
+ * Recycles {@link Character}s together with their bodies.
+ * <p>
+ * New characters are created from one body and fixture definition shared by the whole pool.
+ * A freed character deactivates its body instead of destroying it, {@link #obtain(float, float)}
+ * moves it to the spawn position and activates it again. Once the pool holds as many characters
+ * as are alive at most, spawning and despawning doesn't allocate anymore.
+ * <p>
+ * Freed characters still own a body in the world, they are destroyed with the world.
+ * Use the pool from the thread stepping the world.
+ */
+public class AgentPool extends Pool<Character> implements Disposable {
+
+    private final World world;
+    private final BodyDef bodyDef;
+    private final PolygonShape shape;
+    private final FixtureDef fixtureDef;
+
+    public AgentPool(World world) {
+        this(world, 16);
+    }
+
+    /**
+     * @param world           world to create the bodies in
+     * @param initialCapacity initial capacity of the free list
+     */
+    public AgentPool(World world, int initialCapacity) {
+        super(initialCapacity);
+        this.world = world;
+
+        bodyDef = Character.createBodyDef();
+        // created inactive, they are activated when they are spawned
+        bodyDef.active = false;
+        shape = Character.createShape();
+        fixtureDef = Character.createFixtureDef(shape);
+    }
+
+    @Override
+    protected Character newObject() {
+        return new Character(world, bodyDef, fixtureDef);
+    }
+
+    /**
+     * Creates inactive characters up front, e.g. while loading the level of a wave
+     *
+     * @param count number of characters to add to the free list
+     */
+    public void prewarm(int count) {
+        for (int i = 0; i < count; i++) {
+            free(newObject());
+        }
+    }
+
+    /**
+     * @param x x position in WorldUnits
+     * @param y y position in WorldUnits
+     * @return an active character at the position, reset like a new one
+     */
+    public Character obtain(float x, float y) {
+        Character character = obtain();
+        character.activate(x, y);
+        return character;
+    }
+
+    /**
+     * Disposes the shared shape, the bodies of the characters belong to the world
+     */
+    @Override
+    public void dispose() {
+        shape.dispose();
+    }
+}
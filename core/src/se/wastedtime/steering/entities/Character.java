@@ -4,18 +4,44 @@ import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.ai.steer.Steerable;
 import com.badlogic.gdx.ai.steer.SteeringAcceleration;
 import com.badlogic.gdx.ai.steer.SteeringBehavior;
+import com.badlogic.gdx.ai.steer.behaviors.FollowPath;
+import com.badlogic.gdx.ai.steer.utils.paths.LinePath;
 import com.badlogic.gdx.ai.utils.Location;
 import com.badlogic.gdx.graphics.g2d.Batch;
 import com.badlogic.gdx.graphics.g2d.TextureRegion;
 import com.badlogic.gdx.math.MathUtils;
 import com.badlogic.gdx.math.Vector2;
 import com.badlogic.gdx.physics.box2d.*;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.Pool;
 import se.wastedtime.steering.Box2DLocation;
+import se.wastedtime.steering.MapRenderer;
 import se.wastedtime.steering.PhysicsUtils;
-
-public class Character implements Steerable<Vector2> {
-
-    private final World world;
+import se.wastedtime.steering.pathfinding.PathListener;
+import se.wastedtime.steering.pathfinding.PathRequestScheduler;
+import se.wastedtime.steering.simulation.BodyStateSnapshot;
+import se.wastedtime.steering.simulation.Simulation;
+
+/**
+ * Box2D backed {@link Steerable}.
+ * <p>
+ * The steerable state (position, velocities, orientation) is a copy of the body taken by
+ * {@link #syncState()}, and every character calculates into its own steering output. So
+ * {@link #calculateSteering()} may run for many characters in parallel, as long as the
+ * behaviors only read other steerables and no thread touches the bodies meanwhile.
+ * Everything writing to the body has to run on the thread stepping the world.
+ * <p>
+ * Characters can be recycled through an {@link AgentPool}, a freed character keeps its body
+ * but deactivates it until it is spawned again with {@link #activate(float, float)}.
+ */
+public class Character implements Steerable<Vector2>, PathListener, MapRenderer.SortedSprite, Pool.Poolable {
+
+    /**
+     * Half the edge length of the box shaped body, in WorldUnits
+     */
+    public static final float HALF_SIZE = 0.3f;
+
+    private World world;
     TextureRegion region;
     Body body;
 
@@ -33,7 +59,26 @@ public class Character implements Steerable<Vector2> {
 
     private Vector2 initPos = new Vector2(5, 5);
 
-    private static final SteeringAcceleration<Vector2> steeringOutput = new SteeringAcceleration<>(new Vector2());
+    private final Vector2 previousPosition = new Vector2();
+    /**
+     * Interpolated position of the last {@link #getSortY(float)} or {@link #draw(Batch, float)}
+     */
+    private final Vector2 interpolatedPosition = new Vector2();
+    private float previousAngle;
+
+    private float worldWidth;
+    private float worldHeight;
+
+    private final SteeringAcceleration<Vector2> steeringOutput = new SteeringAcceleration<>(new Vector2());
+
+    private final Vector2 position = new Vector2();
+    private final Vector2 linearVelocity = new Vector2();
+    private float orientation;
+    private float angularVelocity;
+
+    private final Array<Vector2> pathWaypoints = new Array<>();
+    private LinePath<Vector2> path;
+    private FollowPath<Vector2, LinePath.LinePathParam> followPath;
 
     public Character(World world) {
         this.world = world;
@@ -46,17 +91,53 @@ public class Character implements Steerable<Vector2> {
         initBody();
     }
 
+    /**
+     * Creates the body from shared definitions, the definitions aren't changed or kept
+     *
+     * @param world      world to create the body in
+     * @param bodyDef    definition of the body, e.g. from {@link #createBodyDef()}
+     * @param fixtureDef definition of the only fixture, e.g. from {@link #createFixtureDef(Shape)}
+     */
+    public Character(World world, BodyDef bodyDef, FixtureDef fixtureDef) {
+        this.world = world;
+        createBody(bodyDef, fixtureDef);
+    }
+
     private void initBody() {
+        BodyDef bodyDef = createBodyDef();
+        bodyDef.position.set(initPos);
+
+        PolygonShape shape = createShape();
+        createBody(bodyDef, createFixtureDef(shape));
+        shape.dispose();
+    }
+
+    private void createBody(BodyDef bodyDef, FixtureDef fixtureDef) {
+        body = world.createBody(bodyDef);
+        body.setUserData(this);
+        body.createFixture(fixtureDef);
+
+        syncState();
+        savePreviousState();
+    }
+
+    public static BodyDef createBodyDef() {
         BodyDef bodyDef = new BodyDef();
         bodyDef.type = BodyDef.BodyType.DynamicBody;
-        bodyDef.position.set(initPos);
         bodyDef.fixedRotation = true;
+        return bodyDef;
+    }
 
+    /**
+     * @return the shape of the body, dispose it once the bodies are created
+     */
+    public static PolygonShape createShape() {
         PolygonShape shape = new PolygonShape();
+        shape.setAsBox(HALF_SIZE, HALF_SIZE);
+        return shape;
+    }
 
-        shape.setAsBox(0.3f, 0.3f);
-
-
+    public static FixtureDef createFixtureDef(Shape shape) {
         FixtureDef fixtureDef = new FixtureDef();
         fixtureDef.shape = shape;
         fixtureDef.density = 70;
@@ -65,12 +146,103 @@ public class Character implements Steerable<Vector2> {
         fixtureDef.filter.categoryBits = (short) 0x0001;
         fixtureDef.filter.maskBits = (short) 0x0007;
         fixtureDef.isSensor = false;
+        return fixtureDef;
+    }
+
+    /**
+     * Moves the body to the position and enables it, resting and facing along the x axis
+     * Writes to the body, call from the thread stepping the world
+     *
+     * @param x x position in WorldUnits
+     * @param y y position in WorldUnits
+     */
+    public void activate(float x, float y) {
+        body.setTransform(x, y, 0);
+        body.setLinearVelocity(0, 0);
+        body.setAngularVelocity(0);
+        body.setActive(true);
+        body.setAwake(true);
+
+        syncState();
+        savePreviousState();
+    }
 
+    /**
+     * @return the body of the character, write to it only from the thread stepping the world
+     */
+    public Body getBody() {
+        return body;
+    }
+
+    /**
+     * Moves the body into another world with the same state, e.g. when the character crosses into another shard.
+     * The previous state is kept, the interpolation doesn't notice. Call while neither world is stepped.
+     *
+     * @param world      world to move to
+     * @param bodyDef    definition of the new body, the transform, velocities and flags are overwritten
+     * @param fixtureDef definition of the only fixture, e.g. from {@link #createFixtureDef(Shape)}
+     */
+    public void transfer(World world, BodyDef bodyDef, FixtureDef fixtureDef) {
+        bodyDef.position.set(position);
+        bodyDef.angle = orientation;
+        bodyDef.linearVelocity.set(linearVelocity);
+        bodyDef.angularVelocity = angularVelocity;
+        bodyDef.awake = body.isAwake();
+        bodyDef.active = body.isActive();
+
+        this.world.destroyBody(body);
+        this.world = world;
         body = world.createBody(bodyDef);
         body.setUserData(this);
         body.createFixture(fixtureDef);
-        shape.dispose();
+    }
+
+    /**
+     * Destroys the body, the character can't be used anymore. Pooled characters keep their body instead.
+     */
+    public void destroy() {
+        world.destroyBody(body);
+    }
 
+    public World getWorld() {
+        return world;
+    }
+
+    /**
+     * Puts the body to sleep, e.g. while the agent is far from the camera
+     * Box2D wakes it up again on contact or when a force is applied.
+     */
+    public void sleep() {
+        if (body.isAwake())
+            body.setAwake(false);
+    }
+
+    /**
+     * @return false while the character is freed to a pool
+     */
+    public boolean isActive() {
+        return body.isActive();
+    }
+
+    /**
+     * Deactivates the body and clears the steering state, the limits and the region,
+     * like a newly created character. The body stays in the world to be activated again.
+     */
+    @Override
+    public void reset() {
+        body.setActive(false);
+
+        steeringBehavior = null;
+        steeringOutput.setZero();
+        pathWaypoints.clear();
+        tagged = false;
+        independentFacing = false;
+        boundingRadius = 0;
+        maxLinearSpeed = 0;
+        maxLinearAcceleration = 0;
+        maxAngularSpeed = 0;
+        maxAngularAcceleration = 0;
+        region = null;
     }
 
     public SteeringBehavior<Vector2> getSteeringBehavior() {
@@ -81,11 +253,91 @@ public class Character implements Steerable<Vector2> {
         this.steeringBehavior = steeringBehavior;
     }
 
+    /**
+     * Follows a path through the waypoints, e.g. found by a PathfindingService
+     * The path and the FollowPath behavior are reused, the waypoints must not change while following them
+     *
+     * @param waypoints at least two waypoints in WorldUnits
+     */
+    public void followPath(Array<Vector2> waypoints) {
+        if (followPath == null) {
+            path = new LinePath<>(waypoints, true);
+            followPath = new FollowPath<>(this, path, 0.5f)
+                    .setArrivalTolerance(0.1f)
+                    .setDecelerationRadius(1f)
+                    .setTimeToTarget(0.1f);
+        } else {
+            path.createPath(waypoints);
+        }
+
+        steeringBehavior = followPath;
+    }
+
+    /**
+     * Requests a path to the goal, the character follows it once the scheduler found it.
+     * A request still pending is cancelled, its search would write into the same waypoints.
+     *
+     * @param scheduler scheduler searching the path
+     * @param goal      goal position in WorldUnits
+     * @return false if there can't be a path to the goal
+     */
+    public boolean requestPath(PathRequestScheduler scheduler, Vector2 goal) {
+        scheduler.cancel(this);
+        return scheduler.request(this, position, goal, pathWaypoints);
+    }
+
+    @Override
+    public void pathFound(Array<Vector2> waypoints) {
+        followPath(waypoints);
+    }
+
+    @Override
+    public void pathNotFound() {
+        Gdx.app.log("Character", "No path found from " + position);
+    }
+
+    /**
+     * @return the path set by {@link #followPath(Array)}, null if none was set
+     */
+    public LinePath<Vector2> getPath() {
+        return path;
+    }
+
+    /**
+     * Updates a character outside of a {@link se.wastedtime.steering.simulation.Simulation}, call after each world step.
+     * Copies the state of the body and limits its speed like the simulation does, then calculates and applies the steering.
+     *
+     * @param deltaTime step length in seconds
+     */
     public void update(float deltaTime) {
-        if (steeringBehavior != null) {
-            // Calculate steering acceleration
-            steeringBehavior.calculateSteering(steeringOutput);
+        syncState();
+        limitSpeed();
+        calculateSteering();
+        applySteering(deltaTime);
+    }
+
+    /**
+     * Calculates the steering acceleration into this character's own output
+     * Only reads the state copied by {@link #syncState()}, safe to call concurrently for different characters
+     *
+     * @return the steering output, zero without a steering behavior
+     */
+    public SteeringAcceleration<Vector2> calculateSteering() {
+        if (steeringBehavior == null)
+            return steeringOutput.setZero();
+
+        // Calculate steering acceleration
+        return steeringBehavior.calculateSteering(steeringOutput);
+    }
 
+    /**
+     * Applies the output of the last {@link #calculateSteering()} to the body and wraps around
+     * Writes to the body, call from the thread stepping the world
+     *
+     * @param deltaTime step length in seconds
+     */
+    public void applySteering(float deltaTime) {
+        if (steeringBehavior != null) {
             /*
              * Here you might want to add a motor control layer filtering steering accelerations.
              *
@@ -98,25 +350,81 @@ public class Character implements Steerable<Vector2> {
             applySteering(steeringOutput, deltaTime);
         }
 
-        wrapAround(PhysicsUtils.pixelsToMeters(Gdx.graphics.getWidth()), PhysicsUtils.pixelsToMeters(Gdx.graphics.getHeight()));
+        if (worldWidth > 0 && worldHeight > 0)
+            wrapAround(worldWidth, worldHeight);
+        else
+            wrapAround(PhysicsUtils.pixelsToMeters(Gdx.graphics.getWidth()), PhysicsUtils.pixelsToMeters(Gdx.graphics.getHeight()));
     }
 
-    protected void applySteering(SteeringAcceleration<Vector2> steering, float deltaTime) {
-        boolean anyAccelerations = false;
+    /**
+     * Copies position, orientation and velocities from the body, call after each world step
+     */
+    public void syncState() {
+        position.set(body.getPosition());
+        orientation = body.getAngle();
+        linearVelocity.set(body.getLinearVelocity());
+        angularVelocity = body.getAngularVelocity();
+    }
+
+    /**
+     * Copies position, orientation and velocities from a snapshot of the body instead of the body itself
+     *
+     * @param state  state captured by a {@link se.wastedtime.steering.simulation.BodyStateSnapshot}
+     * @param offset offset of this character's body in the state
+     */
+    public void syncState(float[] state, int offset) {
+        position.set(state[offset + BodyStateSnapshot.X], state[offset + BodyStateSnapshot.Y]);
+        orientation = state[offset + BodyStateSnapshot.ANGLE];
+        linearVelocity.set(state[offset + BodyStateSnapshot.VELOCITY_X], state[offset + BodyStateSnapshot.VELOCITY_Y]);
+        angularVelocity = state[offset + BodyStateSnapshot.ANGULAR_VELOCITY];
+    }
+
+    /**
+     * Moves the body to a state laid out like a {@link se.wastedtime.steering.simulation.BodyStateSnapshot}
+     * and copies it, without a previous state to interpolate from. Call from the thread stepping the world.
+     *
+     * @param state  state to restore
+     * @param offset offset of this character's body in the state
+     */
+    public void restoreState(float[] state, int offset) {
+        body.setTransform(state[offset + BodyStateSnapshot.X], state[offset + BodyStateSnapshot.Y],
+                state[offset + BodyStateSnapshot.ANGLE]);
+        body.setLinearVelocity(state[offset + BodyStateSnapshot.VELOCITY_X], state[offset + BodyStateSnapshot.VELOCITY_Y]);
+        body.setAngularVelocity(state[offset + BodyStateSnapshot.ANGULAR_VELOCITY]);
+        syncState(state, offset);
+        savePreviousState();
+    }
+
+    public SteeringAcceleration<Vector2> getSteeringOutput() {
+        return steeringOutput;
+    }
+
+    /**
+     * Sets the area the character wraps around in, without bounds the screen size is used
+     *
+     * @param width  width in WorldUnits
+     * @param height height in WorldUnits
+     */
+    public void setWorldBounds(float width, float height) {
+        this.worldWidth = width;
+        this.worldHeight = height;
+    }
 
+    /**
+     * Applies the steering as force and torque, the speeds are limited after the world step, see {@link #limitSpeed()}
+     */
+    protected void applySteering(SteeringAcceleration<Vector2> steering, float deltaTime) {
         // Update position and linear velocity.
-        if (!steeringOutput.linear.isZero()) {
+        if (!steering.linear.isZero()) {
             // this method internally scales the force by deltaTime
-            body.applyForceToCenter(steeringOutput.linear, true);
-            anyAccelerations = true;
+            body.applyForceToCenter(steering.linear, true);
         }
 
         // Update orientation and angular velocity
         if (independentFacing) {
-            if (steeringOutput.angular != 0) {
+            if (steering.angular != 0) {
                 // this method internally scales the torque by deltaTime
-                body.applyTorque(steeringOutput.angular, true);
-                anyAccelerations = true;
+                body.applyTorque(steering.angular, true);
             }
         } else {
             // If we haven't got any velocity, then we can do nothing.
@@ -124,39 +432,110 @@ public class Character implements Steerable<Vector2> {
             if (!linVel.isZero(getZeroLinearSpeedThreshold())) {
                 float newOrientation = vectorToAngle(linVel);
                 body.setAngularVelocity((newOrientation - getAngularVelocity()) * deltaTime); // this is superfluous if independentFacing is always true
-                body.setTransform(body.getPosition(), newOrientation);
+                body.setTransform(position, newOrientation);
+                orientation = newOrientation;
             }
         }
+    }
+
+    /**
+     * Truncates the linear and angular speed to the limits, call after the world step and {@link #syncState()}.
+     * Forces applied before the step can't cap the speed the solver ends up with, so the limit is applied
+     * to the result instead. Only characters with a steering behavior are limited, the speeds are checked
+     * on the copied state and only written to the body when one is above its limit.
+     *
+     * @return true if a speed was truncated
+     */
+    public boolean limitSpeed() {
+        if (steeringBehavior == null)
+            return false;
+
+        boolean limited = false;
+        float speed2 = linearVelocity.len2();
+        if (speed2 > maxLinearSpeed * maxLinearSpeed) {
+            linearVelocity.scl(maxLinearSpeed / (float) Math.sqrt(speed2));
+            body.setLinearVelocity(linearVelocity);
+            limited = true;
+        }
 
-        if (anyAccelerations) {
-            // body.activate();
+        // without independent facing the orientation follows the velocity, the angular speed isn't steered
+        if (independentFacing && Math.abs(angularVelocity) > maxAngularSpeed) {
+            angularVelocity = Math.copySign(maxAngularSpeed, angularVelocity);
+            body.setAngularVelocity(angularVelocity);
+            limited = true;
+        }
+        return limited;
+    }
 
-            // TODO:
-            // Looks like truncating speeds here after applying forces doesn't work as expected.
-            // We should likely cap speeds form inside an InternalTickCallback, see
-            // http://www.bulletphysics.org/mediawiki-1.5.8/index.php/Simulation_Tick_Callbacks
+    /**
+     * Stores the current transform, call before each simulation step
+     * so the rendering can interpolate between the last two steps.
+     * Uses the state copied by {@link #syncState()}, everything moving the body
+     * outside of the world step updates that copy as well.
+     */
+    public void savePreviousState() {
+        previousPosition.set(position);
+        previousAngle = orientation;
+    }
 
-            // Cap the linear speed
-            Vector2 velocity = body.getLinearVelocity();
-            float currentSpeedSquare = velocity.len2();
-            float maxLinearSpeed = getMaxLinearSpeed();
-            if (currentSpeedSquare > maxLinearSpeed * maxLinearSpeed) {
-                body.setLinearVelocity(velocity.scl(maxLinearSpeed / (float) Math.sqrt(currentSpeedSquare)));
-            }
+    /**
+     * @param alpha interpolation factor between the previous and the current step
+     * @param out   vector to store the position in
+     * @return out
+     */
+    public Vector2 getInterpolatedPosition(float alpha, Vector2 out) {
+        out.x = previousPosition.x + (position.x - previousPosition.x) * alpha;
+        out.y = previousPosition.y + (position.y - previousPosition.y) * alpha;
+        return out;
+    }
 
-            // Cap the angular speed
-            float maxAngVelocity = getMaxAngularSpeed();
-            if (body.getAngularVelocity() > maxAngVelocity) {
-                body.setAngularVelocity(maxAngVelocity);
-            }
-        }
+    public float getInterpolatedAngle(float alpha) {
+        float delta = orientation - previousAngle;
+        // take the short way around when the angle wrapped between -PI and PI
+        if (delta > MathUtils.PI)
+            delta -= MathUtils.PI2;
+        else if (delta < -MathUtils.PI)
+            delta += MathUtils.PI2;
+        return previousAngle + delta * alpha;
+    }
+
+    /**
+     * @return interpolated bottom edge of the region, the center without a region
+     */
+    @Override
+    public float getSortY(float alpha) {
+        float y = getInterpolatedPosition(alpha, interpolatedPosition).y;
+        return region == null ? y : y - region.getRegionHeight() / Simulation.PIXELS_PER_METER / 2f;
+    }
+
+    /**
+     * Draws the region at the interpolated body transform, does nothing without a region
+     *
+     * @param batch batch in world units
+     * @param alpha interpolation factor between the previous and the current step
+     */
+    @Override
+    public void draw(Batch batch, float alpha) {
+        if (region == null)
+            return;
+
+        Vector2 center = getInterpolatedPosition(alpha, interpolatedPosition);
+        float width = region.getRegionWidth() / Simulation.PIXELS_PER_METER;
+        float height = region.getRegionHeight() / Simulation.PIXELS_PER_METER;
+
+        batch.draw(region, center.x - width / 2f, center.y - height / 2f, width / 2f, height / 2f,
+                width, height, 1f, 1f, getInterpolatedAngle(alpha) * MathUtils.radiansToDegrees);
+    }
+
+    public void setRegion(TextureRegion region) {
+        this.region = region;
     }
 
     // the display area is considered to wrap around from top to bottom
     // and from left to right
     protected void wrapAround(float maxX, float maxY) {
         float k = Float.POSITIVE_INFINITY;
-        Vector2 pos = body.getPosition();
+        Vector2 pos = position;
 
         if (pos.x > maxX) k = pos.x = 0.0f;
 
@@ -166,34 +545,39 @@ public class Character implements Steerable<Vector2> {
 
         if (pos.y > maxY) k = pos.y = 0.0f;
 
-        if (k != Float.POSITIVE_INFINITY) body.setTransform(pos, body.getAngle());
+        if (k != Float.POSITIVE_INFINITY) {
+            body.setTransform(pos, orientation);
+            // teleported, don't interpolate across the map
+            previousPosition.set(pos);
+        }
     }
 
     //-----------------------------//
 
     @Override
     public Vector2 getPosition() {
-        return body.getPosition();
+        return position;
     }
 
     @Override
     public float getOrientation() {
-        return body.getAngle();
+        return orientation;
     }
 
     @Override
     public void setOrientation(float orientation) {
-        body.setTransform(getPosition(), orientation);
+        body.setTransform(position, orientation);
+        this.orientation = orientation;
     }
 
     @Override
     public Vector2 getLinearVelocity() {
-        return body.getLinearVelocity();
+        return linearVelocity;
     }
 
     @Override
     public float getAngularVelocity() {
-        return body.getAngularVelocity();
+        return angularVelocity;
     }
 
     @Override
@@ -201,6 +585,21 @@ public class Character implements Steerable<Vector2> {
         return boundingRadius;
     }
 
+    public void setBoundingRadius(float boundingRadius) {
+        this.boundingRadius = boundingRadius;
+    }
+
+    /**
+     * @return true if the orientation is steered by torque, false if it follows the velocity
+     */
+    public boolean isIndependentFacing() {
+        return independentFacing;
+    }
+
+    public void setIndependentFacing(boolean independentFacing) {
+        this.independentFacing = independentFacing;
+    }
+
     @Override
     public boolean isTagged() {
         return tagged;
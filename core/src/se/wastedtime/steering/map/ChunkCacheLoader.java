@@ -0,0 +1,103 @@
+package se.wastedtime.steering.map;
+
+import com.badlogic.gdx.maps.tiled.TiledMapTileLayer;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.GdxRuntimeException;
+import com.badlogic.gdx.utils.TimeUtils;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Fills a {@link TileChunkCache} created without its chunks over several frames.
+ * <p>
+ * The chunks are prepared on an executor with {@link TileChunkCache#prepareChunk(TiledMapTileLayer, int, int, TileChunkCache.ChunkData)},
+ * {@link #update(long)} only uploads the prepared chunks within a time budget per call, on the GL thread.
+ */
+public class ChunkCacheLoader {
+
+    private final TileChunkCache chunkCache;
+    private final ConcurrentLinkedQueue<TileChunkCache.ChunkData> prepared = new ConcurrentLinkedQueue<>();
+    private final Future<?> prepareTask;
+    private final int chunkCount;
+    private int loaded;
+
+    /**
+     * Starts preparing the chunks of all layers of the cache on the executor
+     *
+     * @param chunkCache non-streaming cache without its chunks
+     * @param executor   executor to prepare the chunks on
+     */
+    public ChunkCacheLoader(TileChunkCache chunkCache, ExecutorService executor) {
+        if (chunkCache.isStreaming())
+            throw new IllegalArgumentException("The chunks of a streaming cache are loaded by a RegionStreamer");
+        this.chunkCache = chunkCache;
+
+        Array<TiledMapTileLayer> layers = new Array<>();
+        int count = 0;
+        for (TiledMapTileLayer layer : chunkCache.getLayers()) {
+            layers.add(layer);
+            count += chunkCache.getColumns(layer) * chunkCache.getRows(layer);
+        }
+        chunkCount = count;
+
+        prepareTask = executor.submit(() -> {
+            for (TiledMapTileLayer layer : layers) {
+                for (int chunkY = 0; chunkY < chunkCache.getRows(layer); chunkY++) {
+                    for (int chunkX = 0; chunkX < chunkCache.getColumns(layer); chunkX++) {
+                        if (Thread.currentThread().isInterrupted())
+                            return;
+                        prepared.add(chunkCache.prepareChunk(layer, chunkX, chunkY, new TileChunkCache.ChunkData()));
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Uploads the chunks prepared so far, call it from the GL thread
+     *
+     * @param budget time to spend uploading chunks, in nanoseconds
+     * @return true once all chunks are loaded
+     */
+    public boolean update(long budget) {
+        long deadline = TimeUtils.nanoTime() + budget;
+        TileChunkCache.ChunkData data;
+        while (loaded < chunkCount && (data = prepared.poll()) != null) {
+            chunkCache.loadChunk(data);
+            loaded++;
+            if (TimeUtils.nanoTime() >= deadline)
+                break;
+        }
+
+        // the task only ends early if preparing a chunk failed
+        if (loaded < chunkCount && prepareTask.isDone() && prepared.isEmpty()) {
+            try {
+                prepareTask.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new GdxRuntimeException("Interrupted while preparing the chunks", e);
+            } catch (ExecutionException e) {
+                throw new GdxRuntimeException("Couldn't prepare the chunks", e.getCause());
+            }
+        }
+        return loaded == chunkCount;
+    }
+
+    /**
+     * @return share of the loaded chunks
+     */
+    public float getProgress() {
+        return chunkCount == 0 ? 1f : loaded / (float) chunkCount;
+    }
+
+    /**
+     * Stops preparing chunks, the ones already loaded stay in the cache
+     */
+    public void cancel() {
+        prepareTask.cancel(true);
+        prepared.clear();
+    }
+}
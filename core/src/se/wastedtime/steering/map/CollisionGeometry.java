@@ -0,0 +1,439 @@
+package se.wastedtime.steering.map;
+
+import com.badlogic.gdx.math.Rectangle;
+import com.badlogic.gdx.physics.box2d.FixtureDef;
+import com.badlogic.gdx.utils.ByteArray;
+import com.badlogic.gdx.utils.FloatArray;
+import com.badlogic.gdx.utils.IntArray;
+import com.badlogic.gdx.utils.ShortArray;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Static collision of a map, converted to WorldUnits but not yet added to a world.
+ * <p>
+ * The geometry is a list of bodies, each covering one region of the map, and the fixtures of these
+ * bodies. Every fixture has a shape type, its vertices and an index into the material table, which
+ * holds the resolved fixture properties and filter bits. Creating the geometry doesn't touch Box2D,
+ * it can be built on any thread.
+ * <p>
+ * The geometry can be written to a binary file and mapped back in on the next start, which skips
+ * the traversal of the map objects and the shape conversion. The file starts with a stamp describing
+ * the source it was built from, a file with a different stamp or version is ignored.
+ */
+public class CollisionGeometry {
+
+    public static final byte POLYGON = 0;
+    /**
+     * Open chain, closed outlines repeat the first vertex at the end
+     */
+    public static final byte CHAIN = 1;
+    /**
+     * Vertices are the center and the radius
+     */
+    public static final byte CIRCLE = 2;
+    /**
+     * Axis aligned box, vertices are the bottom left and the top right corner
+     */
+    public static final byte BOX = 3;
+
+    /**
+     * Bodies with this flag get "LOS" as user data, like the bodies of a layer with a material
+     */
+    public static final byte LINE_OF_SIGHT = 1;
+
+    /**
+     * "SCOL"
+     */
+    private static final int MAGIC = 0x53434F4C;
+    public static final int VERSION = 2;
+    private static final int HEADER_SIZE = 4 + 4 + 8;
+
+    private final float regionSize;
+    private final IntArray bodyRegionX = new IntArray();
+    private final IntArray bodyRegionY = new IntArray();
+    private final ByteArray bodyFlags = new ByteArray();
+
+    private final FloatArray density = new FloatArray();
+    private final FloatArray friction = new FloatArray();
+    private final FloatArray restitution = new FloatArray();
+    private final ShortArray categoryBits = new ShortArray();
+    private final ShortArray maskBits = new ShortArray();
+
+    private final IntArray fixtureBody = new IntArray();
+    private final ByteArray fixtureType = new ByteArray();
+    private final ShortArray fixtureMaterial = new ShortArray();
+    private final IntArray fixtureVertexCount = new IntArray();
+    private final IntArray fixtureVertexOffset = new IntArray();
+    private final FloatArray vertices = new FloatArray();
+
+    /**
+     * Fixtures grouped by body, built on first use
+     */
+    private int[] bodyFixtureStart;
+    private int[] bodyFixtures;
+
+    /**
+     * @param regionSize edge length of the regions of the bodies in pixels
+     */
+    public CollisionGeometry(float regionSize) {
+        this.regionSize = regionSize;
+    }
+
+    /**
+     * @param regionX column of the region the body covers
+     * @param regionY row of the region the body covers
+     * @param flags   {@link #LINE_OF_SIGHT} or 0
+     * @return index of the new body
+     */
+    public int addBody(int regionX, int regionY, byte flags) {
+        bodyFixtures = null;
+        bodyRegionX.add(regionX);
+        bodyRegionY.add(regionY);
+        bodyFlags.add(flags);
+        return bodyRegionX.size - 1;
+    }
+
+    /**
+     * Copies the properties and filter bits of the fixture definition, the shape is ignored
+     *
+     * @return index of the new material
+     */
+    public int addMaterial(FixtureDef fixtureDef) {
+        if (density.size > Short.MAX_VALUE)
+            throw new IllegalStateException("Too many materials");
+        density.add(fixtureDef.density);
+        friction.add(fixtureDef.friction);
+        restitution.add(fixtureDef.restitution);
+        categoryBits.add(fixtureDef.filter.categoryBits);
+        maskBits.add(fixtureDef.filter.maskBits);
+        return density.size - 1;
+    }
+
+    /**
+     * @param body     index of the body from {@link #addBody(int, int, byte)}
+     * @param type     {@link #POLYGON}, {@link #CHAIN}, {@link #CIRCLE} or {@link #BOX}
+     * @param material index of the material from {@link #addMaterial(FixtureDef)}
+     * @param vertices x and y of the vertices in WorldUnits, see the shape types
+     */
+    public void addFixture(int body, byte type, int material, float[] vertices, int offset, int length) {
+        if (body < 0 || body >= bodyRegionX.size)
+            throw new IllegalArgumentException("No body " + body);
+        if (material < 0 || material >= density.size)
+            throw new IllegalArgumentException("No material " + material);
+
+        bodyFixtures = null;
+        fixtureBody.add(body);
+        fixtureType.add(type);
+        fixtureMaterial.add((short) material);
+        fixtureVertexOffset.add(this.vertices.size);
+        fixtureVertexCount.add(length);
+        this.vertices.addAll(vertices, offset, length);
+    }
+
+    /**
+     * Sets the properties and filter bits of the material on the fixture definition
+     */
+    public FixtureDef getMaterial(int material, FixtureDef out) {
+        out.density = density.get(material);
+        out.friction = friction.get(material);
+        out.restitution = restitution.get(material);
+        out.filter.categoryBits = categoryBits.get(material);
+        out.filter.maskBits = maskBits.get(material);
+        return out;
+    }
+
+    /**
+     * @return edge length of the regions of the bodies in pixels
+     */
+    public float getRegionSize() {
+        return regionSize;
+    }
+
+    public int getBodyCount() {
+        return bodyRegionX.size;
+    }
+
+    public int getBodyRegionX(int body) {
+        return bodyRegionX.get(body);
+    }
+
+    public int getBodyRegionY(int body) {
+        return bodyRegionY.get(body);
+    }
+
+    public byte getBodyFlags(int body) {
+        return bodyFlags.get(body);
+    }
+
+    /**
+     * @return number of fixtures of the body
+     */
+    public int getBodyFixtureCount(int body) {
+        groupFixtures();
+        return bodyFixtureStart[body + 1] - bodyFixtureStart[body];
+    }
+
+    /**
+     * @param body  index of the body
+     * @param index index of the fixture in the body, up to {@link #getBodyFixtureCount(int)}
+     * @return index of the fixture in the geometry
+     */
+    public int getBodyFixture(int body, int index) {
+        groupFixtures();
+        return bodyFixtures[bodyFixtureStart[body] + index];
+    }
+
+    /**
+     * Bounds of all fixtures of the body. Rectangles are split along the region borders,
+     * other shapes belong to the region of their first point and may reach into the next ones.
+     *
+     * @param body index of the body
+     * @param out  rectangle to store the bounds in, in WorldUnits
+     * @return out, empty at the origin for a body without fixtures
+     */
+    public Rectangle getBodyBounds(int body, Rectangle out) {
+        float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+        float[] vertices = this.vertices.items;
+        for (int i = 0, n = getBodyFixtureCount(body); i < n; i++) {
+            int fixture = getBodyFixture(body, i);
+            int offset = fixtureVertexOffset.get(fixture);
+            if (fixtureType.get(fixture) == CIRCLE) {
+                float radius = vertices[offset + 2];
+                minX = Math.min(minX, vertices[offset] - radius);
+                minY = Math.min(minY, vertices[offset + 1] - radius);
+                maxX = Math.max(maxX, vertices[offset] + radius);
+                maxY = Math.max(maxY, vertices[offset + 1] + radius);
+                continue;
+            }
+            // boxes are stored as two corners, polygons and chains as their points
+            for (int v = offset, end = offset + fixtureVertexCount.get(fixture); v < end; v += 2) {
+                minX = Math.min(minX, vertices[v]);
+                minY = Math.min(minY, vertices[v + 1]);
+                maxX = Math.max(maxX, vertices[v]);
+                maxY = Math.max(maxY, vertices[v + 1]);
+            }
+        }
+        if (minX > maxX)
+            return out.set(0, 0, 0, 0);
+        return out.set(minX, minY, maxX - minX, maxY - minY);
+    }
+
+    private void groupFixtures() {
+        if (bodyFixtures != null)
+            return;
+
+        // counting sort by body, the fixtures of a body keep their order
+        int[] start = new int[bodyRegionX.size + 1];
+        for (int i = 0; i < fixtureBody.size; i++) {
+            start[fixtureBody.items[i] + 1]++;
+        }
+        for (int i = 1; i < start.length; i++) {
+            start[i] += start[i - 1];
+        }
+        int[] next = new int[bodyRegionX.size];
+        System.arraycopy(start, 0, next, 0, next.length);
+        int[] fixtures = new int[fixtureBody.size];
+        for (int i = 0; i < fixtureBody.size; i++) {
+            fixtures[next[fixtureBody.items[i]]++] = i;
+        }
+        bodyFixtureStart = start;
+        bodyFixtures = fixtures;
+    }
+
+    public int getMaterialCount() {
+        return density.size;
+    }
+
+    public int getFixtureCount() {
+        return fixtureBody.size;
+    }
+
+    public int getFixtureBody(int fixture) {
+        return fixtureBody.get(fixture);
+    }
+
+    public byte getFixtureType(int fixture) {
+        return fixtureType.get(fixture);
+    }
+
+    public int getFixtureMaterial(int fixture) {
+        return fixtureMaterial.get(fixture);
+    }
+
+    /**
+     * @return index of the first vertex component of the fixture in {@link #getVertices()}
+     */
+    public int getVertexOffset(int fixture) {
+        return fixtureVertexOffset.get(fixture);
+    }
+
+    /**
+     * @return number of vertex components of the fixture, twice the number of vertices
+     */
+    public int getVertexCount(int fixture) {
+        return fixtureVertexCount.get(fixture);
+    }
+
+    /**
+     * @return vertices of all fixtures, valid up to {@link #getVertexOffset(int)} + {@link #getVertexCount(int)} of the last fixture
+     */
+    public float[] getVertices() {
+        return vertices.items;
+    }
+
+    /**
+     * Writes the geometry to a temporary file next to the target and moves it into place,
+     * a reader never sees a partly written file
+     *
+     * @param path  file to write
+     * @param stamp describes the source of the geometry, checked by {@link #read(Path, long)}
+     */
+    public void write(Path path, long stamp) throws IOException {
+        int bodies = bodyRegionX.size;
+        int materials = density.size;
+        int fixtures = fixtureBody.size;
+        int size = HEADER_SIZE + 4
+                + 4 + bodies * (4 + 4 + 1)
+                + 4 + materials * (4 + 4 + 4 + 2 + 2)
+                + 4 + fixtures * (4 + 1 + 2 + 4)
+                + 4 + vertices.size * 4;
+
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION).putLong(stamp);
+        buffer.putFloat(regionSize);
+
+        buffer.putInt(bodies);
+        buffer.asIntBuffer().put(bodyRegionX.items, 0, bodies);
+        buffer.position(buffer.position() + bodies * 4);
+        buffer.asIntBuffer().put(bodyRegionY.items, 0, bodies);
+        buffer.position(buffer.position() + bodies * 4);
+        buffer.put(bodyFlags.items, 0, bodies);
+
+        buffer.putInt(materials);
+        for (int i = 0; i < materials; i++) {
+            buffer.putFloat(density.items[i]).putFloat(friction.items[i]).putFloat(restitution.items[i]);
+            buffer.putShort(categoryBits.items[i]).putShort(maskBits.items[i]);
+        }
+
+        buffer.putInt(fixtures);
+        buffer.asIntBuffer().put(fixtureBody.items, 0, fixtures);
+        buffer.position(buffer.position() + fixtures * 4);
+        buffer.put(fixtureType.items, 0, fixtures);
+        buffer.asShortBuffer().put(fixtureMaterial.items, 0, fixtures);
+        buffer.position(buffer.position() + fixtures * 2);
+        buffer.asIntBuffer().put(fixtureVertexCount.items, 0, fixtures);
+        buffer.position(buffer.position() + fixtures * 4);
+
+        buffer.putInt(vertices.size);
+        buffer.asFloatBuffer().put(vertices.items, 0, vertices.size);
+        buffer.position(buffer.position() + vertices.size * 4);
+        buffer.flip();
+
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null)
+            Files.createDirectories(parent);
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Maps a file written by {@link #write(Path, long)} into memory and copies the geometry out of it
+     *
+     * @param path  file to read
+     * @param stamp expected stamp of the source
+     * @return the geometry, or null if there is no file or it was written for another source or version
+     * @throws IOException if the file can't be read or is truncated
+     */
+    public static CollisionGeometry read(Path path, long stamp) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // the header is read without mapping, a stale file isn't kept mapped and can be replaced right away
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining()) {
+                if (channel.read(header) < 0)
+                    return null;
+            }
+            header.flip();
+            if (header.getInt() != MAGIC || header.getInt() != VERSION || header.getLong() != stamp)
+                return null;
+
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, channel.size() - HEADER_SIZE);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            return read(buffer);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (RuntimeException e) {
+            // BufferUnderflowException and friends, the file is cut off or garbage
+            throw new IOException("Corrupt collision cache " + path, e);
+        }
+    }
+
+    private static CollisionGeometry read(ByteBuffer buffer) {
+        CollisionGeometry geometry = new CollisionGeometry(buffer.getFloat());
+
+        int bodies = buffer.getInt();
+        readInts(buffer, geometry.bodyRegionX, bodies);
+        readInts(buffer, geometry.bodyRegionY, bodies);
+        geometry.bodyFlags.setSize(bodies);
+        buffer.get(geometry.bodyFlags.items, 0, bodies);
+
+        int materials = buffer.getInt();
+        for (int i = 0; i < materials; i++) {
+            geometry.density.add(buffer.getFloat());
+            geometry.friction.add(buffer.getFloat());
+            geometry.restitution.add(buffer.getFloat());
+            geometry.categoryBits.add(buffer.getShort());
+            geometry.maskBits.add(buffer.getShort());
+        }
+
+        int fixtures = buffer.getInt();
+        readInts(buffer, geometry.fixtureBody, fixtures);
+        geometry.fixtureType.setSize(fixtures);
+        buffer.get(geometry.fixtureType.items, 0, fixtures);
+        geometry.fixtureMaterial.setSize(fixtures);
+        buffer.asShortBuffer().get(geometry.fixtureMaterial.items, 0, fixtures);
+        buffer.position(buffer.position() + fixtures * 2);
+        readInts(buffer, geometry.fixtureVertexCount, fixtures);
+
+        int offset = 0;
+        geometry.fixtureVertexOffset.setSize(fixtures);
+        for (int i = 0; i < fixtures; i++) {
+            if (geometry.fixtureBody.items[i] < 0 || geometry.fixtureBody.items[i] >= bodies
+                    || geometry.fixtureMaterial.items[i] < 0 || geometry.fixtureMaterial.items[i] >= materials
+                    || geometry.fixtureVertexCount.items[i] < 0)
+                throw new IllegalStateException("Invalid fixture " + i);
+            geometry.fixtureVertexOffset.items[i] = offset;
+            offset += geometry.fixtureVertexCount.items[i];
+        }
+
+        int vertexCount = buffer.getInt();
+        if (vertexCount != offset)
+            throw new IllegalStateException("Vertex count mismatch");
+        geometry.vertices.setSize(vertexCount);
+        buffer.asFloatBuffer().get(geometry.vertices.items, 0, vertexCount);
+
+        return geometry;
+    }
+
+    private static void readInts(ByteBuffer buffer, IntArray out, int count) {
+        out.setSize(count);
+        buffer.asIntBuffer().get(out.items, 0, count);
+        buffer.position(buffer.position() + count * 4);
+    }
+}
@@ -0,0 +1,254 @@
+package se.wastedtime.steering.map;
+
+import com.badlogic.gdx.graphics.g2d.TextureRegion;
+import com.badlogic.gdx.maps.MapLayer;
+import com.badlogic.gdx.maps.MapObject;
+import com.badlogic.gdx.maps.objects.TextureMapObject;
+import com.badlogic.gdx.math.MathUtils;
+import com.badlogic.gdx.math.Rectangle;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntArray;
+
+import java.util.Arrays;
+
+/**
+ * Uniform grid over the drawable objects of an object layer.
+ * <p>
+ * Only {@link TextureMapObject}s are indexed, shapes like the physics rectangles have nothing to draw.
+ * The bounds of every object are calculated once and the object is put into all cells it overlaps,
+ * a query only visits the cells overlapping the view. Objects spanning several cells are reported once.
+ * <p>
+ * The index doesn't notice changes to the layer, call {@link #rebuild()} after moving, adding or
+ * removing objects.
+ */
+public class ObjectLayerIndex {
+
+    /**
+     * Edge length of a cell in WorldUnits
+     */
+    public static final float DEFAULT_CELL_SIZE = 8f;
+
+    /**
+     * Upper bound of cells, the cell size is increased for layers with objects spread far apart
+     */
+    private static final int MAX_CELLS = 1 << 16;
+
+    private final MapLayer layer;
+    private final float unitScale;
+    private final float minCellSize;
+
+    private final Array<TextureMapObject> objects = new Array<>();
+    /**
+     * minX, minY, maxX, maxY per object, in WorldUnits
+     */
+    private float[] bounds = new float[0];
+
+    private float originX;
+    private float originY;
+    private float cellSize;
+    private int columns;
+    private int rows;
+    private IntArray[] cells = new IntArray[0];
+
+    private int[] marks = new int[0];
+    private int mark;
+    private final IntArray visible = new IntArray();
+
+    /**
+     * @param layer     object layer to index
+     * @param unitScale WorldUnits per pixel
+     * @param cellSize  edge length of a cell in WorldUnits
+     */
+    public ObjectLayerIndex(MapLayer layer, float unitScale, float cellSize) {
+        if (cellSize <= 0)
+            throw new IllegalArgumentException("cellSize must be positive: " + cellSize);
+        this.layer = layer;
+        this.unitScale = unitScale;
+        this.minCellSize = cellSize;
+        rebuild();
+    }
+
+    /**
+     * Re-reads the objects of the layer
+     */
+    public void rebuild() {
+        objects.clear();
+        for (MapObject object : layer.getObjects()) {
+            if (object instanceof TextureMapObject && ((TextureMapObject) object).getTextureRegion() != null)
+                objects.add((TextureMapObject) object);
+        }
+
+        int count = objects.size;
+        if (bounds.length < count * 4)
+            bounds = new float[count * 4];
+        if (marks.length < count)
+            marks = new int[count];
+        mark = 0;
+        Arrays.fill(marks, 0);
+
+        float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            calculateBounds(objects.get(i), i * 4);
+            minX = Math.min(minX, bounds[i * 4]);
+            minY = Math.min(minY, bounds[i * 4 + 1]);
+            maxX = Math.max(maxX, bounds[i * 4 + 2]);
+            maxY = Math.max(maxY, bounds[i * 4 + 3]);
+        }
+
+        if (count == 0) {
+            columns = 0;
+            rows = 0;
+            cells = new IntArray[0];
+            return;
+        }
+
+        originX = minX;
+        originY = minY;
+        cellSize = minCellSize;
+        float width = maxX - minX;
+        float height = maxY - minY;
+        while ((long) cellCount(width) * cellCount(height) > MAX_CELLS) {
+            cellSize *= 2;
+        }
+        columns = cellCount(width);
+        rows = cellCount(height);
+
+        cells = new IntArray[columns * rows];
+        for (int i = 0; i < count; i++) {
+            int fromX = column(bounds[i * 4]);
+            int fromY = row(bounds[i * 4 + 1]);
+            int toX = column(bounds[i * 4 + 2]);
+            int toY = row(bounds[i * 4 + 3]);
+            for (int y = fromY; y <= toY; y++) {
+                for (int x = fromX; x <= toX; x++) {
+                    int cell = y * columns + x;
+                    if (cells[cell] == null)
+                        cells[cell] = new IntArray(4);
+                    cells[cell].add(i);
+                }
+            }
+        }
+    }
+
+    /**
+     * Bounding box of the object as it is drawn, including scale and rotation around its origin
+     */
+    private void calculateBounds(TextureMapObject object, int offset) {
+        TextureRegion region = object.getTextureRegion();
+        float x = object.getX() * unitScale;
+        float y = object.getY() * unitScale;
+        float originX = object.getOriginX() * unitScale;
+        float originY = object.getOriginY() * unitScale;
+        float width = region.getRegionWidth() * unitScale;
+        float height = region.getRegionHeight() * unitScale;
+
+        // corners relative to the origin, like Batch.draw transforms them
+        float left = -originX * object.getScaleX();
+        float bottom = -originY * object.getScaleY();
+        float right = (width - originX) * object.getScaleX();
+        float top = (height - originY) * object.getScaleY();
+
+        float minX = Math.min(left, right), maxX = Math.max(left, right);
+        float minY = Math.min(bottom, top), maxY = Math.max(bottom, top);
+        if (object.getRotation() != 0) {
+            float cos = MathUtils.cosDeg(object.getRotation());
+            float sin = MathUtils.sinDeg(object.getRotation());
+            float x1 = left * cos - bottom * sin, y1 = left * sin + bottom * cos;
+            float x2 = left * cos - top * sin, y2 = left * sin + top * cos;
+            float x3 = right * cos - top * sin, y3 = right * sin + top * cos;
+            float x4 = right * cos - bottom * sin, y4 = right * sin + bottom * cos;
+            minX = Math.min(Math.min(x1, x2), Math.min(x3, x4));
+            maxX = Math.max(Math.max(x1, x2), Math.max(x3, x4));
+            minY = Math.min(Math.min(y1, y2), Math.min(y3, y4));
+            maxY = Math.max(Math.max(y1, y2), Math.max(y3, y4));
+        }
+
+        bounds[offset] = x + originX + minX;
+        bounds[offset + 1] = y + originY + minY;
+        bounds[offset + 2] = x + originX + maxX;
+        bounds[offset + 3] = y + originY + maxY;
+    }
+
+    private int cellCount(float extent) {
+        return (int) (extent / cellSize) + 1;
+    }
+
+    private int column(float x) {
+        return MathUtils.clamp((int) ((x - originX) / cellSize), 0, columns - 1);
+    }
+
+    private int row(float y) {
+        return MathUtils.clamp((int) ((y - originY) / cellSize), 0, rows - 1);
+    }
+
+    /**
+     * Collects the objects overlapping the view, in the order of the layer
+     *
+     * @param viewBounds visible area in WorldUnits
+     * @param out        array the visible objects are added to
+     * @return number of objects added
+     */
+    public int query(Rectangle viewBounds, Array<? super TextureMapObject> out) {
+        if (cells.length == 0)
+            return 0;
+
+        float viewRight = viewBounds.x + viewBounds.width;
+        float viewTop = viewBounds.y + viewBounds.height;
+        if (viewRight < originX || viewTop < originY
+                || viewBounds.x > originX + columns * cellSize || viewBounds.y > originY + rows * cellSize)
+            return 0;
+
+        if (++mark == 0) {
+            Arrays.fill(marks, 0);
+            mark = 1;
+        }
+
+        visible.clear();
+        int fromX = column(viewBounds.x);
+        int fromY = row(viewBounds.y);
+        int toX = column(viewRight);
+        int toY = row(viewTop);
+        for (int y = fromY; y <= toY; y++) {
+            for (int x = fromX; x <= toX; x++) {
+                IntArray cell = cells[y * columns + x];
+                if (cell == null)
+                    continue;
+
+                for (int i = 0; i < cell.size; i++) {
+                    int index = cell.items[i];
+                    if (marks[index] == mark)
+                        continue;
+                    marks[index] = mark;
+
+                    int offset = index * 4;
+                    if (bounds[offset] <= viewRight && bounds[offset + 2] >= viewBounds.x
+                            && bounds[offset + 1] <= viewTop && bounds[offset + 3] >= viewBounds.y)
+                        visible.add(index);
+                }
+            }
+        }
+
+        // the cells mix up the order, objects further down in the layer are drawn on top
+        visible.sort();
+        for (int i = 0; i < visible.size; i++) {
+            out.add(objects.get(visible.items[i]));
+        }
+        return visible.size;
+    }
+
+    public MapLayer getLayer() {
+        return layer;
+    }
+
+    /**
+     * @return number of indexed objects
+     */
+    public int getObjectCount() {
+        return objects.size;
+    }
+
+    public float getCellSize() {
+        return cellSize;
+    }
+}
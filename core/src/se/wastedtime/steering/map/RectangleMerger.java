@@ -0,0 +1,130 @@
+package se.wastedtime.steering.map;
+
+import com.badlogic.gdx.utils.FloatArray;
+
+import java.util.Arrays;
+
+/**
+ * Merges axis aligned rectangles into fewer rectangles covering the same area.
+ * <p>
+ * The edges of all rectangles split the plane into a grid of cells, every cell inside a rectangle is
+ * marked as covered. Covered cells are then greedily combined: a run of cells is grown to the right
+ * as far as possible and then upwards as long as the whole run is covered. Adjacent and overlapping
+ * rectangles end up in the same rectangle where their union allows it, the covered area stays exactly the same.
+ * <p>
+ * The grid has one cell per pair of distinct x and y edges, so the input should be split up into
+ * regions for large maps. Instances reuse their buffers between calls and are not thread-safe.
+ */
+public class RectangleMerger {
+
+    private float[] xs = new float[0];
+    private float[] ys = new float[0];
+    private boolean[] covered = new boolean[0];
+
+    /**
+     * @param rectangles x, y, width and height of each rectangle, empty rectangles are ignored
+     * @param out        array the merged rectangles are added to, in the same layout
+     * @return number of rectangles added
+     */
+    public int merge(FloatArray rectangles, FloatArray out) {
+        int count = rectangles.size / 4;
+        if (count == 0)
+            return 0;
+
+        xs = ensureCapacity(xs, count * 2);
+        ys = ensureCapacity(ys, count * 2);
+        int columns = edges(rectangles, 0, count, xs) - 1;
+        int rows = edges(rectangles, 1, count, ys) - 1;
+        if (columns <= 0 || rows <= 0)
+            return 0;
+
+        int cells = columns * rows;
+        if (covered.length < cells)
+            covered = new boolean[cells];
+        Arrays.fill(covered, 0, cells, false);
+
+        float[] items = rectangles.items;
+        for (int i = 0; i < count; i++) {
+            float x = items[i * 4], y = items[i * 4 + 1];
+            float width = items[i * 4 + 2], height = items[i * 4 + 3];
+            if (width <= 0 || height <= 0)
+                continue;
+
+            int fromX = Arrays.binarySearch(xs, 0, columns + 1, x);
+            int toX = Arrays.binarySearch(xs, 0, columns + 1, x + width);
+            int fromY = Arrays.binarySearch(ys, 0, rows + 1, y);
+            int toY = Arrays.binarySearch(ys, 0, rows + 1, y + height);
+            for (int row = fromY; row < toY; row++) {
+                Arrays.fill(covered, row * columns + fromX, row * columns + toX, true);
+            }
+        }
+
+        int added = 0;
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                if (!covered[row * columns + column])
+                    continue;
+
+                int endX = column + 1;
+                while (endX < columns && covered[row * columns + endX]) {
+                    endX++;
+                }
+
+                int endY = row + 1;
+                while (endY < rows && isCovered(endY, column, endX, columns)) {
+                    endY++;
+                }
+
+                // cells that are merged are cleared so they aren't merged again
+                for (int y = row; y < endY; y++) {
+                    Arrays.fill(covered, y * columns + column, y * columns + endX, false);
+                }
+
+                out.add(xs[column], ys[row], xs[endX] - xs[column], ys[endY] - ys[row]);
+                added++;
+            }
+        }
+        return added;
+    }
+
+    private boolean isCovered(int row, int fromColumn, int toColumn, int columns) {
+        for (int column = fromColumn; column < toColumn; column++) {
+            if (!covered[row * columns + column])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Collects the sorted distinct edges along one axis
+     *
+     * @param axis 0 for x, 1 for y
+     * @return number of distinct edges
+     */
+    private static int edges(FloatArray rectangles, int axis, int count, float[] edges) {
+        float[] items = rectangles.items;
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            float start = items[i * 4 + axis];
+            float length = items[i * 4 + 2 + axis];
+            if (items[i * 4 + 2] <= 0 || items[i * 4 + 3] <= 0)
+                continue;
+            edges[size++] = start;
+            edges[size++] = start + length;
+        }
+        if (size == 0)
+            return 0;
+
+        Arrays.sort(edges, 0, size);
+        int distinct = 1;
+        for (int i = 1; i < size; i++) {
+            if (edges[i] != edges[distinct - 1])
+                edges[distinct++] = edges[i];
+        }
+        return distinct;
+    }
+
+    private static float[] ensureCapacity(float[] array, int size) {
+        return array.length >= size ? array : new float[size];
+    }
+}
@@ -0,0 +1,385 @@
+package se.wastedtime.steering.map;
+
+import com.badlogic.gdx.ai.steer.Steerable;
+import com.badlogic.gdx.maps.MapProperties;
+import com.badlogic.gdx.maps.tiled.TiledMap;
+import com.badlogic.gdx.maps.tiled.TiledMapTileLayer;
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.physics.box2d.Body;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.IntArray;
+import com.badlogic.gdx.utils.Pool;
+import se.wastedtime.steering.MapBodyManager;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Keeps only the regions of the map around the camera in memory.
+ * <p>
+ * The map is split into square regions matching the chunks of a streaming {@link TileChunkCache} and
+ * the bodies of the {@link CollisionGeometry}. Regions within the load radius of the camera are
+ * prepared on a background thread and uploaded to the chunk cache on the next {@link #update}, regions
+ * beyond the unload radius release their chunks again. The gap between both radii keeps a region from
+ * being loaded and unloaded every frame at the border. Far regions are released before prepared ones
+ * are uploaded, a region that doesn't fit into the cache anymore stays loading and is uploaded later.
+ * <p>
+ * The static bodies of a region are kept in the world while the camera or an agent is near it, agents
+ * far from the camera still collide with the map. Bodies are recreated from the geometry on the main
+ * thread, which is cheap compared to the tile vertices.
+ * <p>
+ * Everything except the preparation of the chunks happens on the thread calling {@link #update}.
+ */
+public class RegionStreamer implements Disposable {
+
+    /**
+     * Regions around the region of the camera that are loaded
+     */
+    public static final int DEFAULT_LOAD_RADIUS = 2;
+    /**
+     * Regions further away from the region of the camera are unloaded
+     */
+    public static final int DEFAULT_UNLOAD_RADIUS = 3;
+
+    private static final byte UNLOADED = 0;
+    private static final byte LOADING = 1;
+    private static final byte LOADED = 2;
+
+    private final MapBodyManager mapBodyManager;
+    private final CollisionGeometry geometry;
+    private final TileChunkCache chunkCache;
+    private final Array<TiledMapTileLayer> layers = new Array<>();
+    private final int loadRadius;
+    private final int unloadRadius;
+
+    private final int columns;
+    private final int rows;
+    private final float regionWidth;
+    private final float regionHeight;
+
+    private final byte[] chunkState;
+    private final IntArray loadedChunks = new IntArray();
+
+    private final Body[] bodies;
+    /**
+     * Geometry bodies of each region
+     */
+    private final IntArray[] regionBodies;
+    private final boolean[] bodiesLoaded;
+    private final IntArray loadedBodies = new IntArray();
+    /**
+     * Regions marked with the current stamp are near an agent this update
+     */
+    private final int[] agentStamp;
+    private int stamp;
+
+    private final ExecutorService executor;
+    private final ConcurrentLinkedQueue<PreparedRegion> prepared = new ConcurrentLinkedQueue<>();
+    /**
+     * Prepared regions waiting for the upload, in the order they were prepared
+     */
+    private final Array<PreparedRegion> pending = new Array<>();
+    private final Pool<PreparedRegion> preparedPool = new Pool<PreparedRegion>() {
+        @Override
+        protected PreparedRegion newObject() {
+            return new PreparedRegion();
+        }
+    };
+
+    /**
+     * @param map            streamed map
+     * @param unitScale      WorldUnits per pixel
+     * @param mapBodyManager manager that created the bodies
+     * @param geometry       geometry the bodies were created from, its regions have to match the chunks
+     * @param bodies         bodies created from the geometry, indexed like its bodies, all of them in the world.
+     *                       The streamer keeps the array up to date, the bodies of unloaded regions are null
+     * @param chunkCache     streaming cache of the static tile layers
+     */
+    public RegionStreamer(TiledMap map, float unitScale, MapBodyManager mapBodyManager, CollisionGeometry geometry,
+                          Body[] bodies, TileChunkCache chunkCache) {
+        this(map, unitScale, mapBodyManager, geometry, bodies, chunkCache, DEFAULT_LOAD_RADIUS, DEFAULT_UNLOAD_RADIUS);
+    }
+
+    /**
+     * @param loadRadius   regions around the region of the camera that are loaded
+     * @param unloadRadius regions further away are unloaded, at least the load radius
+     */
+    public RegionStreamer(TiledMap map, float unitScale, MapBodyManager mapBodyManager, CollisionGeometry geometry,
+                          Body[] bodies, TileChunkCache chunkCache, int loadRadius, int unloadRadius) {
+        if (!chunkCache.isStreaming())
+            throw new IllegalArgumentException("The chunk cache isn't streaming");
+        if (loadRadius < 0 || unloadRadius < loadRadius)
+            throw new IllegalArgumentException("Invalid radii: " + loadRadius + ", " + unloadRadius);
+
+        MapProperties properties = map.getProperties();
+        int tileWidth = properties.get("tilewidth", Integer.class);
+        int tileHeight = properties.get("tileheight", Integer.class);
+        int chunkSize = chunkCache.getChunkSize();
+        if (tileWidth != tileHeight || geometry.getRegionSize() != chunkSize * tileWidth)
+            throw new IllegalArgumentException("Collision regions of " + geometry.getRegionSize()
+                    + " pixels don't match chunks of " + chunkSize + " tiles");
+
+        this.mapBodyManager = mapBodyManager;
+        this.geometry = geometry;
+        this.chunkCache = chunkCache;
+        this.loadRadius = loadRadius;
+        this.unloadRadius = unloadRadius;
+        for (TiledMapTileLayer layer : chunkCache.getLayers()) {
+            layers.add(layer);
+        }
+
+        columns = (properties.get("width", Integer.class) + chunkSize - 1) / chunkSize;
+        rows = (properties.get("height", Integer.class) + chunkSize - 1) / chunkSize;
+        regionWidth = chunkSize * tileWidth * unitScale;
+        regionHeight = chunkSize * tileHeight * unitScale;
+        chunkState = new byte[columns * rows];
+
+        this.bodies = bodies;
+        regionBodies = new IntArray[columns * rows];
+        bodiesLoaded = new boolean[columns * rows];
+        agentStamp = new int[columns * rows];
+        for (int i = 0; i < geometry.getBodyCount(); i++) {
+            int x = geometry.getBodyRegionX(i);
+            int y = geometry.getBodyRegionY(i);
+            // bodies of shapes outside the map are never unloaded
+            if (x < 0 || y < 0 || x >= columns || y >= rows)
+                continue;
+
+            int region = x + y * columns;
+            if (regionBodies[region] == null) {
+                regionBodies[region] = new IntArray(1);
+                bodiesLoaded[region] = true;
+                loadedBodies.add(region);
+            }
+            regionBodies[region].add(i);
+        }
+
+        executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "region-streamer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @return regions that can be loaded at the same time around the camera
+     */
+    public static int maxLoadedRegions(int unloadRadius) {
+        int edge = 2 * unloadRadius + 1;
+        return edge * edge;
+    }
+
+    /**
+     * Uploads the regions prepared since the last call, unloads the far regions and starts loading the near ones
+     *
+     * @param focusX x of the camera in WorldUnits
+     * @param focusY y of the camera in WorldUnits
+     * @param agents agents whose regions keep their bodies
+     */
+    public void update(float focusX, float focusY, Array<? extends Steerable<Vector2>> agents) {
+        int focusColumn = column(focusX);
+        int focusRow = row(focusY);
+
+        // far regions first, their cache slots are reused by the uploads
+        for (int i = loadedChunks.size - 1; i >= 0; i--) {
+            int index = loadedChunks.items[i];
+            int column = index % columns, row = index / columns;
+            if (distance(column, row, focusColumn, focusRow) > unloadRadius) {
+                unloadChunks(column, row);
+                chunkState[index] = UNLOADED;
+                loadedChunks.removeIndex(i);
+            }
+        }
+
+        PreparedRegion region;
+        while ((region = prepared.poll()) != null) {
+            pending.add(region);
+        }
+        for (int i = 0; i < pending.size; ) {
+            region = pending.get(i);
+            int index = region.column + region.row * columns;
+            if (distance(region.column, region.row, focusColumn, focusRow) > unloadRadius) {
+                if (region.uploaded > 0)
+                    unloadChunks(region.column, region.row);
+                chunkState[index] = UNLOADED;
+            } else if (upload(region)) {
+                chunkState[index] = LOADED;
+                loadedChunks.add(index);
+            } else {
+                // the cache is full, the region stays loading and the rest of its chunks is uploaded later
+                i++;
+                continue;
+            }
+            pending.removeIndex(i);
+            preparedPool.free(region);
+        }
+
+        for (int row = Math.max(0, focusRow - loadRadius); row <= Math.min(rows - 1, focusRow + loadRadius); row++) {
+            for (int column = Math.max(0, focusColumn - loadRadius); column <= Math.min(columns - 1, focusColumn + loadRadius); column++) {
+                int index = column + row * columns;
+                if (chunkState[index] != UNLOADED)
+                    continue;
+
+                chunkState[index] = LOADING;
+                PreparedRegion next = preparedPool.obtain();
+                next.column = column;
+                next.row = row;
+                executor.execute(next);
+            }
+        }
+
+        updateBodies(focusColumn, focusRow, agents);
+    }
+
+    /**
+     * @return false if the cache ran out of slots before all chunks of the region were uploaded
+     */
+    private boolean upload(PreparedRegion region) {
+        while (region.uploaded < region.count) {
+            if (!chunkCache.loadChunk(region.chunks.get(region.uploaded)))
+                return false;
+            region.uploaded++;
+        }
+        return true;
+    }
+
+    private void unloadChunks(int column, int row) {
+        for (TiledMapTileLayer layer : layers) {
+            if (chunkCache.hasChunk(layer, column, row))
+                chunkCache.unloadChunk(layer, column, row);
+        }
+    }
+
+    private void updateBodies(int focusColumn, int focusRow, Array<? extends Steerable<Vector2>> agents) {
+        stamp++;
+        for (int i = 0; i < agents.size; i++) {
+            Vector2 position = agents.get(i).getPosition();
+            int agentColumn = column(position.x), agentRow = row(position.y);
+            // the neighbors too, an agent at the border collides with both regions
+            for (int row = Math.max(0, agentRow - 1); row <= Math.min(rows - 1, agentRow + 1); row++) {
+                for (int column = Math.max(0, agentColumn - 1); column <= Math.min(columns - 1, agentColumn + 1); column++) {
+                    int index = column + row * columns;
+                    agentStamp[index] = stamp;
+                    if (!bodiesLoaded[index])
+                        loadBodies(index);
+                }
+            }
+        }
+
+        for (int row = Math.max(0, focusRow - loadRadius); row <= Math.min(rows - 1, focusRow + loadRadius); row++) {
+            for (int column = Math.max(0, focusColumn - loadRadius); column <= Math.min(columns - 1, focusColumn + loadRadius); column++) {
+                int index = column + row * columns;
+                if (!bodiesLoaded[index])
+                    loadBodies(index);
+            }
+        }
+
+        for (int i = loadedBodies.size - 1; i >= 0; i--) {
+            int index = loadedBodies.items[i];
+            if (agentStamp[index] == stamp || distance(index % columns, index / columns, focusColumn, focusRow) <= unloadRadius)
+                continue;
+
+            IntArray indices = regionBodies[index];
+            for (int j = 0; j < indices.size; j++) {
+                mapBodyManager.unloadBody(bodies[indices.items[j]]);
+                bodies[indices.items[j]] = null;
+            }
+            bodiesLoaded[index] = false;
+            loadedBodies.removeIndex(i);
+        }
+    }
+
+    private void loadBodies(int index) {
+        IntArray indices = regionBodies[index];
+        if (indices == null)
+            return;
+
+        for (int i = 0; i < indices.size; i++) {
+            bodies[indices.items[i]] = mapBodyManager.loadBody(geometry, indices.items[i]);
+        }
+        bodiesLoaded[index] = true;
+        loadedBodies.add(index);
+    }
+
+    private int column(float x) {
+        return Math.max(0, Math.min(columns - 1, (int) Math.floor(x / regionWidth)));
+    }
+
+    private int row(float y) {
+        return Math.max(0, Math.min(rows - 1, (int) Math.floor(y / regionHeight)));
+    }
+
+    private static int distance(int column, int row, int otherColumn, int otherRow) {
+        return Math.max(Math.abs(column - otherColumn), Math.abs(row - otherRow));
+    }
+
+    /**
+     * @return number of regions with loaded chunks
+     */
+    public int getLoadedRegions() {
+        return loadedChunks.size;
+    }
+
+    /**
+     * @return number of regions with bodies in the world
+     */
+    public int getLoadedBodyRegions() {
+        return loadedBodies.size;
+    }
+
+    /**
+     * @return bodies created from the geometry, indexed like its bodies, null while their region is unloaded
+     */
+    public Body[] getBodies() {
+        return bodies;
+    }
+
+    /**
+     * @return true if the chunks of the region containing the point are loaded
+     */
+    public boolean isLoaded(float x, float y) {
+        return chunkState[column(x) + row(y) * columns] == LOADED;
+    }
+
+    @Override
+    public void dispose() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Chunks of all layers of a region, prepared on the streaming thread
+     */
+    private final class PreparedRegion implements Runnable, Pool.Poolable {
+
+        int column;
+        int row;
+        final Array<TileChunkCache.ChunkData> chunks = new Array<>();
+        int count;
+        /**
+         * Chunks already put into the cache
+         */
+        int uploaded;
+
+        @Override
+        public void run() {
+            count = 0;
+            for (int i = 0; i < layers.size; i++) {
+                // layers can be smaller than the map
+                if (!chunkCache.hasChunk(layers.get(i), column, row))
+                    continue;
+                if (chunks.size <= count)
+                    chunks.add(new TileChunkCache.ChunkData());
+                chunkCache.prepareChunk(layers.get(i), column, row, chunks.get(count++));
+            }
+            prepared.add(this);
+        }
+
+        @Override
+        public void reset() {
+            count = 0;
+            uploaded = 0;
+        }
+    }
+}
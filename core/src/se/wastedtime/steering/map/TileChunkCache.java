@@ -0,0 +1,600 @@
+package se.wastedtime.steering.map;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.graphics.Color;
+import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.graphics.g2d.Batch;
+import com.badlogic.gdx.graphics.g2d.SpriteCache;
+import com.badlogic.gdx.graphics.g2d.TextureRegion;
+import com.badlogic.gdx.maps.tiled.TiledMapTile;
+import com.badlogic.gdx.maps.tiled.TiledMapTileLayer;
+import com.badlogic.gdx.maps.tiled.tiles.AnimatedTiledMapTile;
+import com.badlogic.gdx.math.Matrix4;
+import com.badlogic.gdx.math.Rectangle;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.FloatArray;
+import com.badlogic.gdx.utils.IntArray;
+import com.badlogic.gdx.utils.ObjectMap;
+
+/**
+ * Pre-baked geometry of static tile layers.
+ * <p>
+ * Every layer is split into square chunks, the static tiles of a chunk are put into a
+ * {@link SpriteCache} once on load. Rendering only draws the cached chunks overlapping the
+ * view, no vertices are rebuilt per frame. Animated tiles change their region every frame,
+ * they are kept per chunk and drawn with the batch like {@link com.badlogic.gdx.maps.tiled.renderers.OrthogonalTiledMapRenderer} does.
+ * <p>
+ * The layer opacity is baked in, changing cells or the opacity later on isn't reflected.
+ * <p>
+ * A streaming cache starts out empty and holds a fixed number of chunks. Chunks are prepared
+ * with {@link #prepareChunk(TiledMapTileLayer, int, int, ChunkData)} on any thread, uploaded with
+ * {@link #loadChunk(ChunkData)} and released with {@link #unloadChunk(TiledMapTileLayer, int, int)}
+ * on the GL thread. The memory of the cache doesn't grow with the map.
+ */
+public class TileChunkCache implements Disposable {
+
+    public static final int DEFAULT_CHUNK_SIZE = 16;
+
+    /**
+     * Floats per vertex: x, y, packed color, u, v
+     */
+    private static final int VERTEX_SIZE = 5;
+
+    private final SpriteCache cache;
+    private final float unitScale;
+    private final int chunkSize;
+    private final ObjectMap<TiledMapTileLayer, LayerChunks> layers = new ObjectMap<>();
+    private final boolean streaming;
+    /**
+     * Cache ids of the unused chunk slots of a streaming cache
+     */
+    private final IntArray freeSlots = new IntArray();
+
+    /**
+     * Two triangles of the last built tile, the corners are bottom left, top left, top right, bottom right
+     */
+    private final float[] vertices = new float[6 * VERTEX_SIZE];
+    private int renderedChunks;
+
+    /**
+     * Caches all chunks of the layers on creation
+     *
+     * @param layers     static tile layers to cache
+     * @param unitScale  WorldUnits per pixel
+     * @param chunkSize  edge length of a chunk in tiles
+     */
+    public TileChunkCache(Array<TiledMapTileLayer> layers, float unitScale, int chunkSize) {
+        this(layers, unitScale, chunkSize, true);
+    }
+
+    /**
+     * Creates a cache with room for all chunks of the layers
+     *
+     * @param layers     static tile layers to cache
+     * @param unitScale  WorldUnits per pixel
+     * @param chunkSize  edge length of a chunk in tiles
+     * @param loadChunks true to cache all chunks on creation, false to leave them to {@link #loadChunk(ChunkData)},
+     *                   see {@link ChunkCacheLoader}
+     */
+    public TileChunkCache(Array<TiledMapTileLayer> layers, float unitScale, int chunkSize, boolean loadChunks) {
+        this.unitScale = unitScale;
+        this.chunkSize = chunkSize;
+        this.streaming = false;
+
+        int staticTiles = 0;
+        for (TiledMapTileLayer layer : layers) {
+            staticTiles += countStaticTiles(layer);
+        }
+        // without indices a cache can hold more than 8191 tiles
+        cache = new SpriteCache(Math.max(1, staticTiles), false);
+
+        ChunkData data = new ChunkData();
+        for (TiledMapTileLayer layer : layers) {
+            LayerChunks chunks = new LayerChunks(layer, chunkSize, unitScale);
+            this.layers.put(layer, chunks);
+            if (!loadChunks)
+                continue;
+            for (int chunkY = 0; chunkY < chunks.rows; chunkY++) {
+                for (int chunkX = 0; chunkX < chunks.columns; chunkX++) {
+                    prepareChunk(layer, chunkX, chunkY, data);
+                    loadChunk(data);
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates a streaming cache, no chunk is loaded
+     *
+     * @param layers    static tile layers to stream
+     * @param unitScale WorldUnits per pixel
+     * @param chunkSize edge length of a chunk in tiles
+     * @param maxChunks number of chunks of all layers that can be loaded at the same time
+     */
+    public TileChunkCache(Array<TiledMapTileLayer> layers, float unitScale, int chunkSize, int maxChunks) {
+        if (maxChunks <= 0)
+            throw new IllegalArgumentException("maxChunks must be positive: " + maxChunks);
+        this.unitScale = unitScale;
+        this.chunkSize = chunkSize;
+        this.streaming = true;
+
+        for (TiledMapTileLayer layer : layers) {
+            this.layers.put(layer, new LayerChunks(layer, chunkSize, unitScale));
+        }
+
+        Texture texture = findTexture(layers);
+        int tilesPerChunk = chunkSize * chunkSize;
+        cache = new SpriteCache(Math.max(1, texture == null ? 1 : maxChunks * tilesPerChunk), false);
+        if (texture == null)
+            return;
+
+        // a cache can only be redefined with up to as many tiles as it was created with,
+        // every slot is reserved for a full chunk of degenerate triangles
+        float[] empty = new float[tilesPerChunk * 6 * VERTEX_SIZE];
+        for (int i = 0; i < maxChunks; i++) {
+            cache.beginCache();
+            cache.add(texture, empty, 0, empty.length);
+            freeSlots.add(cache.endCache());
+        }
+    }
+
+    private static Texture findTexture(Array<TiledMapTileLayer> layers) {
+        for (TiledMapTileLayer layer : layers) {
+            for (int y = 0; y < layer.getHeight(); y++) {
+                for (int x = 0; x < layer.getWidth(); x++) {
+                    TiledMapTileLayer.Cell cell = layer.getCell(x, y);
+                    if (cell != null && cell.getTile() != null && cell.getTile().getTextureRegion() != null)
+                        return cell.getTile().getTextureRegion().getTexture();
+                }
+            }
+        }
+        return null;
+    }
+
+    private static int countStaticTiles(TiledMapTileLayer layer) {
+        int count = 0;
+        for (int y = 0; y < layer.getHeight(); y++) {
+            for (int x = 0; x < layer.getWidth(); x++) {
+                TiledMapTileLayer.Cell cell = layer.getCell(x, y);
+                if (cell != null && cell.getTile() != null && !(cell.getTile() instanceof AnimatedTiledMapTile))
+                    count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Builds the vertices of a chunk, doesn't touch GL and can be called from any thread
+     * as long as the layer isn't changed at the same time
+     *
+     * @param layer  cached layer
+     * @param chunkX column of the chunk
+     * @param chunkY row of the chunk
+     * @param out    chunk data to fill, its previous content is discarded
+     * @return out
+     */
+    public ChunkData prepareChunk(TiledMapTileLayer layer, int chunkX, int chunkY, ChunkData out) {
+        LayerChunks chunks = layers.get(layer);
+        if (chunks == null)
+            throw new IllegalArgumentException("Layer isn't cached: " + layer.getName());
+        if (chunkX < 0 || chunkY < 0 || chunkX >= chunks.columns || chunkY >= chunks.rows)
+            throw new IllegalArgumentException("No chunk " + chunkX + ", " + chunkY);
+
+        out.reset();
+        out.layer = layer;
+        out.chunkX = chunkX;
+        out.chunkY = chunkY;
+
+        float color = Color.toFloatBits(1f, 1f, 1f, layer.getOpacity());
+        int fromX = chunkX * chunkSize;
+        int fromY = chunkY * chunkSize;
+        int toX = Math.min(layer.getWidth(), fromX + chunkSize) - 1;
+        int toY = Math.min(layer.getHeight(), fromY + chunkSize) - 1;
+
+        float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+
+        // top to bottom like the batch renderer, overlapping tiles are drawn in the same order
+        for (int y = toY; y >= fromY; y--) {
+            for (int x = fromX; x <= toX; x++) {
+                TiledMapTileLayer.Cell cell = layer.getCell(x, y);
+                if (cell == null || cell.getTile() == null)
+                    continue;
+
+                if (cell.getTile() instanceof AnimatedTiledMapTile) {
+                    out.animated.add(x + y * layer.getWidth());
+
+                    // the bounds are taken from the first frame
+                    TextureRegion frame = ((AnimatedTiledMapTile) cell.getTile()).getFrameTiles()[0].getTextureRegion();
+                    float x1 = chunks.tileX(x) + cell.getTile().getOffsetX() * unitScale;
+                    float y1 = chunks.tileY(y) + cell.getTile().getOffsetY() * unitScale;
+                    minX = Math.min(minX, x1);
+                    minY = Math.min(minY, y1);
+                    maxX = Math.max(maxX, x1 + frame.getRegionWidth() * unitScale);
+                    maxY = Math.max(maxY, y1 + frame.getRegionHeight() * unitScale);
+                } else {
+                    TextureRegion region = buildVertices(layer, cell, x, y, color, out.tile);
+                    out.add(region.getTexture());
+
+                    minX = Math.min(minX, out.tile[0]);
+                    minY = Math.min(minY, out.tile[1]);
+                    maxX = Math.max(maxX, out.tile[2 * VERTEX_SIZE]);
+                    maxY = Math.max(maxY, out.tile[2 * VERTEX_SIZE + 1]);
+                }
+            }
+        }
+
+        out.bounds.set(minX, minY, maxX - minX, maxY - minY);
+        return out;
+    }
+
+    /**
+     * Puts a prepared chunk into the cache, replacing the chunk if it is already loaded
+     *
+     * @return false if a streaming cache has no free slot left, the chunk isn't loaded then
+     */
+    public boolean loadChunk(ChunkData data) {
+        LayerChunks chunks = layers.get(data.layer);
+        int chunk = data.chunkX + data.chunkY * chunks.columns;
+        if (streaming)
+            unloadChunk(data.layer, data.chunkX, data.chunkY);
+
+        if (data.vertices.size > 0) {
+            if (streaming) {
+                if (freeSlots.size == 0)
+                    return false;
+                cache.beginCache(freeSlots.pop());
+            } else {
+                cache.beginCache();
+            }
+
+            int offset = 0;
+            for (int i = 0; i < data.textures.size; i++) {
+                cache.add(data.textures.get(i), data.vertices.items, offset, data.runs.get(i));
+                offset += data.runs.get(i);
+            }
+            chunks.cacheIds[chunk] = cache.endCache();
+        }
+
+        if (data.animated.size > 0)
+            chunks.animated[chunk] = new IntArray(data.animated);
+        chunks.bounds[chunk].set(data.bounds);
+        return true;
+    }
+
+    /**
+     * Frees the slot of a chunk of a streaming cache, it isn't drawn until it is loaded again
+     */
+    public void unloadChunk(TiledMapTileLayer layer, int chunkX, int chunkY) {
+        if (!streaming)
+            throw new IllegalStateException("Only chunks of a streaming cache can be unloaded");
+
+        LayerChunks chunks = layers.get(layer);
+        int chunk = chunkX + chunkY * chunks.columns;
+        if (chunks.cacheIds[chunk] >= 0)
+            freeSlots.add(chunks.cacheIds[chunk]);
+        chunks.cacheIds[chunk] = -1;
+        chunks.animated[chunk] = null;
+    }
+
+    /**
+     * @return true if the layer is cached and covers the chunk
+     */
+    public boolean hasChunk(TiledMapTileLayer layer, int chunkX, int chunkY) {
+        LayerChunks chunks = layers.get(layer);
+        return chunks != null && chunkX >= 0 && chunkY >= 0 && chunkX < chunks.columns && chunkY < chunks.rows;
+    }
+
+    /**
+     * @return true if the chunk has static tiles in the cache or animated tiles
+     */
+    public boolean isLoaded(TiledMapTileLayer layer, int chunkX, int chunkY) {
+        LayerChunks chunks = layers.get(layer);
+        int chunk = chunkX + chunkY * chunks.columns;
+        return chunks.cacheIds[chunk] >= 0 || chunks.animated[chunk] != null;
+    }
+
+    /**
+     * @return number of chunk columns of a cached layer
+     */
+    public int getColumns(TiledMapTileLayer layer) {
+        return layers.get(layer).columns;
+    }
+
+    /**
+     * @return number of chunk rows of a cached layer
+     */
+    public int getRows(TiledMapTileLayer layer) {
+        return layers.get(layer).rows;
+    }
+
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    /**
+     * @return the cached layers
+     */
+    public ObjectMap.Keys<TiledMapTileLayer> getLayers() {
+        return layers.keys();
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Writes the two triangles of a cell into out
+     *
+     * @return the region of the tile
+     */
+    private TextureRegion buildVertices(TiledMapTileLayer layer, TiledMapTileLayer.Cell cell, int x, int y, float color,
+                                        float[] out) {
+        TiledMapTile tile = cell.getTile();
+        TextureRegion region = tile.getTextureRegion();
+
+        float offsetX = layer.getRenderOffsetX() * unitScale;
+        float offsetY = -layer.getRenderOffsetY() * unitScale;
+        float x1 = x * layer.getTileWidth() * unitScale + offsetX + tile.getOffsetX() * unitScale;
+        float y1 = y * layer.getTileHeight() * unitScale + offsetY + tile.getOffsetY() * unitScale;
+        float x2 = x1 + region.getRegionWidth() * unitScale;
+        float y2 = y1 + region.getRegionHeight() * unitScale;
+
+        // u and v of the corners bottom left, top left, top right, bottom right
+        float u1 = region.getU(), v1 = region.getV2();
+        float u2 = region.getU(), v2 = region.getV();
+        float u3 = region.getU2(), v3 = region.getV();
+        float u4 = region.getU2(), v4 = region.getV2();
+
+        float temp;
+        if (cell.getFlipHorizontally()) {
+            temp = u1; u1 = u3; u3 = temp;
+            temp = u2; u2 = u4; u4 = temp;
+        }
+        if (cell.getFlipVertically()) {
+            temp = v1; v1 = v3; v3 = temp;
+            temp = v2; v2 = v4; v4 = temp;
+        }
+        switch (cell.getRotation()) {
+            case TiledMapTileLayer.Cell.ROTATE_90:
+                temp = v1; v1 = v2; v2 = v3; v3 = v4; v4 = temp;
+                temp = u1; u1 = u2; u2 = u3; u3 = u4; u4 = temp;
+                break;
+            case TiledMapTileLayer.Cell.ROTATE_180:
+                temp = u1; u1 = u3; u3 = temp;
+                temp = u2; u2 = u4; u4 = temp;
+                temp = v1; v1 = v3; v3 = temp;
+                temp = v2; v2 = v4; v4 = temp;
+                break;
+            case TiledMapTileLayer.Cell.ROTATE_270:
+                temp = v1; v1 = v4; v4 = v3; v3 = v2; v2 = temp;
+                temp = u1; u1 = u4; u4 = u3; u3 = u2; u2 = temp;
+                break;
+        }
+
+        // triangles bottom left, top left, top right and top right, bottom right, bottom left
+        setVertex(out, 0, x1, y1, color, u1, v1);
+        setVertex(out, 1, x1, y2, color, u2, v2);
+        setVertex(out, 2, x2, y2, color, u3, v3);
+        setVertex(out, 3, x2, y2, color, u3, v3);
+        setVertex(out, 4, x2, y1, color, u4, v4);
+        setVertex(out, 5, x1, y1, color, u1, v1);
+        return region;
+    }
+
+    private static void setVertex(float[] out, int index, float x, float y, float color, float u, float v) {
+        int offset = index * VERTEX_SIZE;
+        out[offset] = x;
+        out[offset + 1] = y;
+        out[offset + 2] = color;
+        out[offset + 3] = u;
+        out[offset + 4] = v;
+    }
+
+    /**
+     * @return true if the layer is cached, else it has to be rendered tile by tile
+     */
+    public boolean contains(TiledMapTileLayer layer) {
+        return layers.containsKey(layer);
+    }
+
+    /**
+     * Draws the cached chunks of the layer overlapping the view, the batch must not be drawing
+     *
+     * @param layer      cached layer
+     * @param projection projection of the view
+     * @param viewBounds visible area in WorldUnits
+     */
+    public void renderStatic(TiledMapTileLayer layer, Matrix4 projection, Rectangle viewBounds) {
+        LayerChunks chunks = layers.get(layer);
+        boolean drawing = false;
+
+        for (int chunkY = chunks.fromRow(viewBounds); chunkY <= chunks.toRow(viewBounds); chunkY++) {
+            for (int chunkX = chunks.fromColumn(viewBounds); chunkX <= chunks.toColumn(viewBounds); chunkX++) {
+                int chunk = chunkX + chunkY * chunks.columns;
+                if (chunks.cacheIds[chunk] < 0 || !chunks.bounds[chunk].overlaps(viewBounds))
+                    continue;
+
+                if (!drawing) {
+                    // the sprite cache doesn't set up blending like a batch
+                    Gdx.gl.glEnable(GL20.GL_BLEND);
+                    Gdx.gl.glBlendFunc(GL20.GL_SRC_ALPHA, GL20.GL_ONE_MINUS_SRC_ALPHA);
+                    cache.setProjectionMatrix(projection);
+                    cache.begin();
+                    drawing = true;
+                }
+                cache.draw(chunks.cacheIds[chunk]);
+                renderedChunks++;
+            }
+        }
+
+        if (drawing) {
+            cache.end();
+            Gdx.gl.glDisable(GL20.GL_BLEND);
+        }
+    }
+
+    /**
+     * Draws the animated tiles of the layer overlapping the view
+     *
+     * @param layer      cached layer
+     * @param batch      drawing batch
+     * @param viewBounds visible area in WorldUnits
+     */
+    public void renderAnimated(TiledMapTileLayer layer, Batch batch, Rectangle viewBounds) {
+        LayerChunks chunks = layers.get(layer);
+        Color batchColor = batch.getColor();
+        float color = Color.toFloatBits(batchColor.r, batchColor.g, batchColor.b, batchColor.a * layer.getOpacity());
+
+        for (int chunkY = chunks.fromRow(viewBounds); chunkY <= chunks.toRow(viewBounds); chunkY++) {
+            for (int chunkX = chunks.fromColumn(viewBounds); chunkX <= chunks.toColumn(viewBounds); chunkX++) {
+                int chunk = chunkX + chunkY * chunks.columns;
+                IntArray animated = chunks.animated[chunk];
+                if (animated == null || !chunks.bounds[chunk].overlaps(viewBounds))
+                    continue;
+
+                for (int i = 0; i < animated.size; i++) {
+                    int x = animated.items[i] % layer.getWidth();
+                    int y = animated.items[i] / layer.getWidth();
+                    TiledMapTileLayer.Cell cell = layer.getCell(x, y);
+                    if (cell == null || cell.getTile() == null)
+                        continue;
+
+                    TextureRegion region = buildVertices(layer, cell, x, y, color, vertices);
+                    // the batch takes quads, the corners are the first three vertices and the fifth
+                    System.arraycopy(vertices, 4 * VERTEX_SIZE, vertices, 3 * VERTEX_SIZE, VERTEX_SIZE);
+                    batch.draw(region.getTexture(), vertices, 0, 4 * VERTEX_SIZE);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return number of cached chunks drawn since the last call
+     */
+    public int pollRenderedChunks() {
+        int chunks = renderedChunks;
+        renderedChunks = 0;
+        return chunks;
+    }
+
+    @Override
+    public void dispose() {
+        cache.dispose();
+    }
+
+    /**
+     * Vertices of a chunk built off the GL thread, reusable
+     */
+    public static final class ChunkData {
+
+        private TiledMapTileLayer layer;
+        private int chunkX;
+        private int chunkY;
+
+        private final float[] tile = new float[6 * VERTEX_SIZE];
+        private final FloatArray vertices = new FloatArray();
+        /**
+         * Textures of runs of consecutive tiles and the number of floats of each run
+         */
+        private final Array<Texture> textures = new Array<>();
+        private final IntArray runs = new IntArray();
+        private final IntArray animated = new IntArray();
+        private final Rectangle bounds = new Rectangle();
+
+        /**
+         * Appends the last built tile
+         */
+        private void add(Texture texture) {
+            if (textures.size == 0 || textures.peek() != texture) {
+                textures.add(texture);
+                runs.add(0);
+            }
+            runs.incr(runs.size - 1, tile.length);
+            vertices.addAll(tile);
+        }
+
+        private void reset() {
+            layer = null;
+            vertices.clear();
+            textures.clear();
+            runs.clear();
+            animated.clear();
+        }
+
+        public TiledMapTileLayer getLayer() {
+            return layer;
+        }
+
+        public int getChunkX() {
+            return chunkX;
+        }
+
+        public int getChunkY() {
+            return chunkY;
+        }
+    }
+
+    private static final class LayerChunks {
+
+        final int columns;
+        final int rows;
+        final float chunkWidth;
+        final float chunkHeight;
+        final float tileWidth;
+        final float tileHeight;
+        final float offsetX;
+        final float offsetY;
+
+        final int[] cacheIds;
+        final Rectangle[] bounds;
+        final IntArray[] animated;
+
+        LayerChunks(TiledMapTileLayer layer, int chunkSize, float unitScale) {
+            columns = (layer.getWidth() + chunkSize - 1) / chunkSize;
+            rows = (layer.getHeight() + chunkSize - 1) / chunkSize;
+            tileWidth = layer.getTileWidth() * unitScale;
+            tileHeight = layer.getTileHeight() * unitScale;
+            chunkWidth = chunkSize * tileWidth;
+            chunkHeight = chunkSize * tileHeight;
+            offsetX = layer.getRenderOffsetX() * unitScale;
+            offsetY = -layer.getRenderOffsetY() * unitScale;
+
+            cacheIds = new int[columns * rows];
+            bounds = new Rectangle[columns * rows];
+            animated = new IntArray[columns * rows];
+            for (int i = 0; i < cacheIds.length; i++) {
+                cacheIds[i] = -1;
+                bounds[i] = new Rectangle();
+            }
+        }
+
+        float tileX(int x) {
+            return x * tileWidth + offsetX;
+        }
+
+        float tileY(int y) {
+            return y * tileHeight + offsetY;
+        }
+
+        // one chunk more on each side, tiles may be larger than the grid or offset
+
+        int fromColumn(Rectangle view) {
+            return Math.max(0, (int) Math.floor((view.x - offsetX) / chunkWidth) - 1);
+        }
+
+        int toColumn(Rectangle view) {
+            return Math.min(columns - 1, (int) Math.floor((view.x + view.width - offsetX) / chunkWidth) + 1);
+        }
+
+        int fromRow(Rectangle view) {
+            return Math.max(0, (int) Math.floor((view.y - offsetY) / chunkHeight) - 1);
+        }
+
+        int toRow(Rectangle view) {
+            return Math.min(rows - 1, (int) Math.floor((view.y + view.height - offsetY) / chunkHeight) + 1);
+        }
+    }
+}
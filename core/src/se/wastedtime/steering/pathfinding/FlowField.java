@@ -0,0 +1,321 @@
+package se.wastedtime.steering.pathfinding;
+
+import com.badlogic.gdx.utils.IntArray;
+
+import java.util.Arrays;
+
+/**
+ * Flow field towards a goal tile of a {@link NavigationGraph}.
+ * <p>
+ * A Dijkstra sweep from the goal integrates the cost to reach it from every tile, each tile then
+ * stores the direction to its cheapest neighbor as one of eight directions in a byte array. Any
+ * number of agents heading to the goal sample the field in constant time instead of searching
+ * their own path.
+ * <p>
+ * When tiles change only the affected part is recomputed: the tiles whose flow leads through
+ * the changed area are invalidated and swept again from the valid tiles around them.
+ */
+public class FlowField {
+
+    /**
+     * Direction of tiles that are blocked, unreachable or the goal
+     */
+    public static final byte NONE = -1;
+
+    private static final float SQRT2 = (float) Math.sqrt(2);
+    private static final float EPSILON = 1e-5f;
+
+    /**
+     * Unit vectors of the eight directions, counter-clockwise starting east
+     */
+    static final int[] OFFSET_X = {1, 1, 0, -1, -1, -1, 0, 1};
+    static final int[] OFFSET_Y = {0, 1, 1, 1, 0, -1, -1, -1};
+    private static final float[] DIRECTION_X = new float[8];
+    private static final float[] DIRECTION_Y = new float[8];
+
+    static {
+        for (int i = 0; i < 8; i++) {
+            float length = (float) Math.sqrt(OFFSET_X[i] * OFFSET_X[i] + OFFSET_Y[i] * OFFSET_Y[i]);
+            DIRECTION_X[i] = OFFSET_X[i] / length;
+            DIRECTION_Y[i] = OFFSET_Y[i] / length;
+        }
+    }
+
+    private final NavigationGraph graph;
+    private final int width;
+    private final int height;
+    private final float[] stepCost = new float[8];
+
+    private final float[] integration;
+    private final byte[] directions;
+    private int goal = -1;
+
+    private final IndexHeap open = new IndexHeap();
+    private final IntArray invalid = new IntArray();
+    private final IntArray changed = new IntArray();
+    private final boolean[] marked;
+
+    public FlowField(NavigationGraph graph) {
+        this.graph = graph;
+        this.width = graph.getWidth();
+        this.height = graph.getHeight();
+        this.integration = new float[width * height];
+        this.directions = new byte[width * height];
+        this.marked = new boolean[width * height];
+
+        float diagonal = (float) Math.sqrt(graph.getTileWidth() * graph.getTileWidth() + graph.getTileHeight() * graph.getTileHeight());
+        for (int i = 0; i < 8; i++) {
+            stepCost[i] = OFFSET_X[i] != 0 && OFFSET_Y[i] != 0 ? diagonal
+                    : OFFSET_X[i] != 0 ? graph.getTileWidth() : graph.getTileHeight();
+        }
+    }
+
+    /**
+     * Computes the whole field towards the goal tile
+     */
+    public void compute(int goalX, int goalY) {
+        goal = goalX + goalY * width;
+        Arrays.fill(integration, Float.POSITIVE_INFINITY);
+        Arrays.fill(directions, NONE);
+
+        open.clear();
+        changed.clear();
+        if (graph.isWalkable(goalX, goalY)) {
+            integration[goal] = 0;
+            open.add(goal, 0);
+        }
+        sweep();
+
+        for (int tile = 0; tile < integration.length; tile++) {
+            updateDirection(tile);
+        }
+        changed.clear();
+    }
+
+    /**
+     * Recomputes the part of the field affected by changed tiles
+     *
+     * @param fromX first changed column
+     * @param fromY first changed row
+     * @param toX   last changed column, inclusive
+     * @param toY   last changed row, inclusive
+     */
+    public void update(int fromX, int fromY, int toX, int toY) {
+        if (goal < 0)
+            return;
+
+        // the tiles next to the area may lose or gain diagonal moves
+        fromX = Math.max(0, fromX - 1);
+        fromY = Math.max(0, fromY - 1);
+        toX = Math.min(width - 1, toX + 1);
+        toY = Math.min(height - 1, toY + 1);
+
+        invalid.clear();
+        for (int y = fromY; y <= toY; y++) {
+            for (int x = fromX; x <= toX; x++) {
+                invalidate(x + y * width);
+            }
+        }
+
+        // everything flowing into an invalid tile is invalid as well
+        for (int i = 0; i < invalid.size; i++) {
+            int tile = invalid.items[i];
+            int x = tile % width;
+            int y = tile / width;
+            for (int direction = 0; direction < 8; direction++) {
+                int neighborX = x + OFFSET_X[direction];
+                int neighborY = y + OFFSET_Y[direction];
+                if (neighborX < 0 || neighborY < 0 || neighborX >= width || neighborY >= height)
+                    continue;
+
+                int neighbor = neighborX + neighborY * width;
+                // the neighbor flows into this tile if its direction is the opposite one
+                if (directions[neighbor] == (direction + 4) % 8)
+                    invalidate(neighbor);
+            }
+        }
+
+        open.clear();
+        changed.clear();
+        for (int i = 0; i < invalid.size; i++) {
+            int tile = invalid.items[i];
+            integration[tile] = Float.POSITIVE_INFINITY;
+            changed.add(tile);
+        }
+
+        // sweep again from the valid tiles around the invalidated ones
+        for (int i = 0; i < invalid.size; i++) {
+            int tile = invalid.items[i];
+            int x = tile % width;
+            int y = tile / width;
+            for (int direction = 0; direction < 8; direction++) {
+                int neighborX = x + OFFSET_X[direction];
+                int neighborY = y + OFFSET_Y[direction];
+                if (neighborX < 0 || neighborY < 0 || neighborX >= width || neighborY >= height)
+                    continue;
+
+                int neighbor = neighborX + neighborY * width;
+                if (!marked[neighbor] && integration[neighbor] != Float.POSITIVE_INFINITY)
+                    open.add(neighbor, integration[neighbor]);
+            }
+        }
+        if (marked[goal] && graph.isWalkable(goal % width, goal / width)) {
+            integration[goal] = 0;
+            open.add(goal, 0);
+        }
+
+        for (int i = 0; i < invalid.size; i++) {
+            marked[invalid.items[i]] = false;
+        }
+        sweep();
+
+        // the direction of a tile depends on the integration of its neighbors
+        int changedCount = changed.size;
+        for (int i = 0; i < changedCount; i++) {
+            int tile = changed.items[i];
+            int x = tile % width;
+            int y = tile / width;
+            for (int direction = 0; direction < 8; direction++) {
+                int neighborX = x + OFFSET_X[direction];
+                int neighborY = y + OFFSET_Y[direction];
+                if (neighborX >= 0 && neighborY >= 0 && neighborX < width && neighborY < height)
+                    markChanged(neighborX + neighborY * width);
+            }
+            markChanged(tile);
+        }
+        for (int i = changedCount; i < changed.size; i++) {
+            int tile = changed.items[i];
+            marked[tile] = false;
+            updateDirection(tile);
+        }
+        changed.clear();
+        invalid.clear();
+    }
+
+    private void markChanged(int tile) {
+        if (marked[tile])
+            return;
+
+        marked[tile] = true;
+        changed.add(tile);
+    }
+
+    private void invalidate(int tile) {
+        if (marked[tile])
+            return;
+
+        marked[tile] = true;
+        invalid.add(tile);
+    }
+
+    /**
+     * Dijkstra from the queued tiles, only lowering the integration
+     */
+    private void sweep() {
+        while (!open.isEmpty()) {
+            float key = open.peekKey();
+            int tile = open.poll();
+            if (key > integration[tile] + EPSILON)
+                continue;
+
+            int x = tile % width;
+            int y = tile / width;
+            for (int direction = 0; direction < 8; direction++) {
+                if (!canMove(x, y, direction))
+                    continue;
+
+                int neighbor = x + OFFSET_X[direction] + (y + OFFSET_Y[direction]) * width;
+                float cost = integration[tile] + stepCost[direction];
+                if (cost >= integration[neighbor] - EPSILON)
+                    continue;
+
+                if (integration[neighbor] != Float.POSITIVE_INFINITY)
+                    changed.add(neighbor);
+                integration[neighbor] = cost;
+                open.add(neighbor, cost);
+            }
+        }
+    }
+
+    private boolean canMove(int x, int y, int direction) {
+        int dx = OFFSET_X[direction];
+        int dy = OFFSET_Y[direction];
+        if (!graph.isWalkable(x + dx, y + dy))
+            return false;
+        // no cutting corners, like the connections of the graph
+        return dx == 0 || dy == 0 || graph.isWalkable(x + dx, y) && graph.isWalkable(x, y + dy);
+    }
+
+    private void updateDirection(int tile) {
+        directions[tile] = NONE;
+        if (tile == goal || integration[tile] == Float.POSITIVE_INFINITY)
+            return;
+
+        // flow to the neighbor the cheapest path to the goal continues through
+        int x = tile % width;
+        int y = tile / width;
+        float best = Float.POSITIVE_INFINITY;
+        for (int direction = 0; direction < 8; direction++) {
+            if (!canMove(x, y, direction))
+                continue;
+
+            float neighborIntegration = integration[x + OFFSET_X[direction] + (y + OFFSET_Y[direction]) * width];
+            float cost = neighborIntegration + stepCost[direction];
+            if (neighborIntegration < integration[tile] && cost < best) {
+                best = cost;
+                directions[tile] = (byte) direction;
+            }
+        }
+    }
+
+    /**
+     * @return direction index of the tile, or {@link #NONE}
+     */
+    public byte getDirection(int x, int y) {
+        if (x < 0 || y < 0 || x >= width || y >= height)
+            return NONE;
+        return directions[x + y * width];
+    }
+
+    /**
+     * @return x component of the unit vector of a direction index
+     */
+    public static float getDirectionX(byte direction) {
+        return DIRECTION_X[direction];
+    }
+
+    /**
+     * @return y component of the unit vector of a direction index
+     */
+    public static float getDirectionY(byte direction) {
+        return DIRECTION_Y[direction];
+    }
+
+    /**
+     * @return cost to reach the goal from the tile in WorldUnits, infinite if it's unreachable
+     */
+    public float getIntegration(int x, int y) {
+        if (x < 0 || y < 0 || x >= width || y >= height)
+            return Float.POSITIVE_INFINITY;
+        return integration[x + y * width];
+    }
+
+    /**
+     * @return map index of the goal tile, -1 before the first {@link #compute(int, int)}
+     */
+    public int getGoal() {
+        return goal;
+    }
+
+    public int getGoalX() {
+        return goal % width;
+    }
+
+    public int getGoalY() {
+        return goal / width;
+    }
+
+    public NavigationGraph getGraph() {
+        return graph;
+    }
+}
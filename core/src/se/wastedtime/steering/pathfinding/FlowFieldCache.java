@@ -0,0 +1,157 @@
+package se.wastedtime.steering.pathfinding;
+
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntArray;
+
+/**
+ * Flow fields of a {@link NavigationGraph} by goal tile, evicting the least recently used one when full.
+ * <p>
+ * An evicted field is reused for the next goal, so the cache doesn't allocate once it's full.
+ * Registered as {@link NavigationGraph.ChangeListener} the cached fields are updated incrementally.
+ * {@link #get(int, int)} computes and {@link #peek(int, int)} only looks up, so steering running in
+ * parallel should only peek; fields are computed and updated on the thread updating the simulation.
+ * Both count as use, a field agents are following isn't evicted before fields requested once.
+ * A field missing on a peek can be asked for with {@link #request(int, int)} from any thread, it is
+ * computed by the next {@link #computeRequested()}.
+ */
+public class FlowFieldCache implements NavigationGraph.ChangeListener {
+
+    public static final int DEFAULT_CAPACITY = 8;
+
+    private final NavigationGraph graph;
+    private final int capacity;
+    private final Array<FlowField> fields;
+    private final long[] lastUsed;
+    private long clock;
+    /**
+     * Goal tiles asked for by {@link #request(int, int)}, guarded by itself
+     */
+    private final IntArray requested = new IntArray();
+
+    private long hits;
+    private long misses;
+
+    public FlowFieldCache(NavigationGraph graph) {
+        this(graph, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param graph    graph the fields flow on
+     * @param capacity maximum number of cached fields
+     */
+    public FlowFieldCache(NavigationGraph graph, int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+
+        this.graph = graph;
+        this.capacity = capacity;
+        this.fields = new Array<>(true, capacity, FlowField.class);
+        this.lastUsed = new long[capacity];
+    }
+
+    /**
+     * @return the field towards the goal tile, computed if it isn't cached
+     */
+    public FlowField get(int goalX, int goalY) {
+        int goal = goalX + goalY * graph.getWidth();
+        for (int i = 0; i < fields.size; i++) {
+            if (fields.items[i].getGoal() == goal) {
+                hits++;
+                lastUsed[i] = ++clock;
+                return fields.items[i];
+            }
+        }
+
+        misses++;
+        int slot;
+        if (fields.size < capacity) {
+            slot = fields.size;
+            fields.add(new FlowField(graph));
+        } else {
+            slot = 0;
+            for (int i = 1; i < fields.size; i++) {
+                if (lastUsed[i] < lastUsed[slot])
+                    slot = i;
+            }
+        }
+
+        FlowField field = fields.items[slot];
+        field.compute(goalX, goalY);
+        lastUsed[slot] = ++clock;
+        return field;
+    }
+
+    /**
+     * Looks up a cached field without computing it, safe to call from several threads at once
+     *
+     * @return the field towards the goal tile, or null if it isn't cached
+     */
+    public FlowField peek(int goalX, int goalY) {
+        int goal = goalX + goalY * graph.getWidth();
+        for (int i = 0; i < fields.size; i++) {
+            if (fields.items[i].getGoal() == goal) {
+                // every thread stores the same value, the clock only advances in get()
+                lastUsed[i] = clock;
+                return fields.items[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Asks for the field towards the goal tile to be computed by the next {@link #computeRequested()},
+     * safe to call from several threads at once
+     */
+    public void request(int goalX, int goalY) {
+        int goal = goalX + goalY * graph.getWidth();
+        synchronized (requested) {
+            if (!requested.contains(goal))
+                requested.add(goal);
+        }
+    }
+
+    /**
+     * Computes the requested fields that aren't cached, call from the thread updating the simulation.
+     * They are computed in the order of their goal tiles, the same requests evict the same fields.
+     */
+    public void computeRequested() {
+        synchronized (requested) {
+            if (requested.size == 0)
+                return;
+
+            requested.sort();
+            for (int i = 0; i < requested.size; i++) {
+                int goal = requested.get(i);
+                get(goal % graph.getWidth(), goal / graph.getWidth());
+            }
+            requested.clear();
+        }
+    }
+
+    @Override
+    public void areaChanged(int fromX, int fromY, int toX, int toY) {
+        for (int i = 0; i < fields.size; i++) {
+            fields.items[i].update(fromX, fromY, toX, toY);
+        }
+    }
+
+    public NavigationGraph getGraph() {
+        return graph;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getSize() {
+        return fields.size;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+}
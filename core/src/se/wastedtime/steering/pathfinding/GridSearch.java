@@ -0,0 +1,168 @@
+package se.wastedtime.steering.pathfinding;
+
+import com.badlogic.gdx.utils.IntArray;
+
+import java.util.Arrays;
+
+/**
+ * A* and Dijkstra on the tiles of a {@link NavigationGraph}, bounded to a rectangular area.
+ * The state is kept in primitive arrays sized to the largest area searched so far.
+ */
+final class GridSearch {
+
+    private static final float EPSILON = 1e-5f;
+
+    private final NavigationGraph graph;
+    private final float straightX;
+    private final float straightY;
+    private final float diagonal;
+    private final float minTileSize;
+
+    private int fromX;
+    private int fromY;
+    private int columns;
+    private int rows;
+    private int goal;
+
+    private float[] cost = new float[0];
+    private int[] parent = new int[0];
+    private int[] visited = new int[0];
+    private int stamp;
+
+    private final IndexHeap open = new IndexHeap();
+
+    GridSearch(NavigationGraph graph) {
+        this.graph = graph;
+        this.straightX = graph.getTileWidth();
+        this.straightY = graph.getTileHeight();
+        this.diagonal = (float) Math.sqrt(straightX * straightX + straightY * straightY);
+        this.minTileSize = Math.min(straightX, straightY);
+    }
+
+    /**
+     * Searches from the start tile within the area, the tiles outside of it are treated as blocked
+     *
+     * @param goalX goal column, or -1 to calculate the cost of every reachable tile
+     * @return true if the goal was reached, always true without a goal
+     */
+    boolean search(int startX, int startY, int goalX, int goalY, int fromX, int fromY, int toX, int toY) {
+        this.fromX = fromX;
+        this.fromY = fromY;
+        this.columns = toX - fromX + 1;
+        this.rows = toY - fromY + 1;
+        this.goal = goalX < 0 ? -1 : local(goalX, goalY);
+
+        int size = columns * rows;
+        if (cost.length < size) {
+            cost = new float[size];
+            parent = new int[size];
+            visited = new int[size];
+            stamp = 0;
+        }
+        if (++stamp == Integer.MAX_VALUE) {
+            Arrays.fill(visited, 0);
+            stamp = 1;
+        }
+
+        open.clear();
+        if (!contains(startX, startY) || !graph.isWalkable(startX, startY))
+            return false;
+        if (goalX >= 0 && !contains(goalX, goalY))
+            return false;
+
+        int start = local(startX, startY);
+        cost[start] = 0;
+        parent[start] = -1;
+        visited[start] = stamp;
+        open.add(start, heuristic(start));
+
+        while (!open.isEmpty()) {
+            float key = open.peekKey();
+            int current = open.poll();
+            if (key > cost[current] + heuristic(current) + EPSILON)
+                continue;
+            if (current == goal)
+                return true;
+
+            int x = current % columns;
+            int y = current / columns;
+            for (int dy = -1; dy <= 1; dy++) {
+                for (int dx = -1; dx <= 1; dx++) {
+                    if (dx == 0 && dy == 0 || !isOpen(x + dx, y + dy))
+                        continue;
+
+                    float step;
+                    if (dx != 0 && dy != 0) {
+                        if (!isOpen(x + dx, y) || !isOpen(x, y + dy))
+                            continue;
+                        step = diagonal;
+                    } else {
+                        step = dx != 0 ? straightX : straightY;
+                    }
+
+                    int neighbor = x + dx + (y + dy) * columns;
+                    float neighborCost = cost[current] + step;
+                    if (visited[neighbor] == stamp && neighborCost >= cost[neighbor] - EPSILON)
+                        continue;
+
+                    cost[neighbor] = neighborCost;
+                    parent[neighbor] = current;
+                    visited[neighbor] = stamp;
+                    open.add(neighbor, neighborCost + heuristic(neighbor));
+                }
+            }
+        }
+
+        return goal < 0;
+    }
+
+    /**
+     * @return cost from the start of the last search, infinite if the tile wasn't reached
+     */
+    float getCost(int x, int y) {
+        if (!contains(x, y))
+            return Float.POSITIVE_INFINITY;
+
+        int index = local(x, y);
+        return visited[index] == stamp ? cost[index] : Float.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Appends the map indices of the tiles after the start up to the given tile of the last search
+     */
+    void appendPath(int x, int y, IntArray out) {
+        int first = out.size;
+        for (int index = local(x, y); parent[index] >= 0; index = parent[index]) {
+            out.add(fromX + index % columns + (fromY + index / columns) * graph.getWidth());
+        }
+
+        int[] items = out.items;
+        for (int i = first, j = out.size - 1; i < j; i++, j--) {
+            int tile = items[i];
+            items[i] = items[j];
+            items[j] = tile;
+        }
+    }
+
+    private boolean contains(int x, int y) {
+        return x >= fromX && y >= fromY && x < fromX + columns && y < fromY + rows;
+    }
+
+    private boolean isOpen(int localX, int localY) {
+        return localX >= 0 && localY >= 0 && localX < columns && localY < rows
+                && graph.isWalkable(fromX + localX, fromY + localY);
+    }
+
+    private int local(int x, int y) {
+        return x - fromX + (y - fromY) * columns;
+    }
+
+    private float heuristic(int index) {
+        if (goal < 0)
+            return 0;
+
+        int dx = Math.abs(index % columns - goal % columns);
+        int dy = Math.abs(index / columns - goal / columns);
+        return minTileSize * (dx + dy + ((float) Math.sqrt(2) - 2) * Math.min(dx, dy));
+    }
+}
@@ -0,0 +1,517 @@
+package se.wastedtime.steering.pathfinding;
+
+import com.badlogic.gdx.ai.pfa.DefaultGraphPath;
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.FloatArray;
+import com.badlogic.gdx.utils.IntArray;
+
+import java.util.Arrays;
+
+/**
+ * Hierarchical path finding (HPA*) on a {@link NavigationGraph}, for maps too large for A* over every tile.
+ * <p>
+ * The tiles are partitioned into square clusters. Along every border between two clusters each
+ * run of tiles walkable on both sides gets one entrance, or one at both ends if it's long. The
+ * entrances are the nodes of an abstract graph: the two sides of an entrance are connected, and
+ * the costs between the entrances of a cluster are precomputed. A query searches the abstract
+ * graph and then refines only the clusters along the abstract path with a local A*.
+ * <p>
+ * Registered as {@link NavigationGraph.ChangeListener}, only the borders and clusters around a
+ * changed area are recomputed. Not thread-safe, query from the thread updating the simulation.
+ */
+public class HierarchicalPathfinder implements NavigationGraph.ChangeListener {
+
+    public static final int DEFAULT_CLUSTER_SIZE = 16;
+
+    /**
+     * Runs at least this long get an entrance at both ends instead of one in the middle
+     */
+    private static final int LONG_ENTRANCE = 6;
+
+    private final NavigationGraph graph;
+    private final int clusterSize;
+    private final int clustersX;
+    private final int clustersY;
+    private final GridSearch search;
+
+    /*
+     * Abstract nodes, indexed by id. Every node has a partner on the other side of its border,
+     * the connections within the cluster are kept in the intra arrays.
+     */
+    private int[] nodeTile = new int[0];
+    private int[] nodeCluster = new int[0];
+    private int[] partner = new int[0];
+    private float[] partnerCost = new float[0];
+    private IntArray[] intraNodes = new IntArray[0];
+    private FloatArray[] intraCosts = new FloatArray[0];
+    private final IntArray freeNodes = new IntArray();
+    private int nodeCount;
+    private int entranceCount;
+
+    /**
+     * Pairs of node ids per border, the first one in the lower cluster
+     */
+    private final IntArray[] eastBorders;
+    private final IntArray[] northBorders;
+    private final IntArray[] clusterNodes;
+
+    private float[] cost = new float[0];
+    private int[] parentNode = new int[0];
+    private int[] visited = new int[0];
+    private float[] goalCost = new float[0];
+    private int stamp;
+    private final IndexHeap open = new IndexHeap();
+
+    private final IntArray abstractPath = new IntArray();
+    private final IntArray tiles = new IntArray();
+    private final DefaultGraphPath<TileNode> nodePath = new DefaultGraphPath<>();
+
+    public HierarchicalPathfinder(NavigationGraph graph) {
+        this(graph, DEFAULT_CLUSTER_SIZE);
+    }
+
+    /**
+     * @param graph       graph to search
+     * @param clusterSize edge length of a cluster in tiles
+     */
+    public HierarchicalPathfinder(NavigationGraph graph, int clusterSize) {
+        if (clusterSize < 2)
+            throw new IllegalArgumentException("clusterSize must be at least 2: " + clusterSize);
+
+        this.graph = graph;
+        this.clusterSize = clusterSize;
+        this.clustersX = (graph.getWidth() + clusterSize - 1) / clusterSize;
+        this.clustersY = (graph.getHeight() + clusterSize - 1) / clusterSize;
+        this.search = new GridSearch(graph);
+
+        int clusters = clustersX * clustersY;
+        eastBorders = new IntArray[clusters];
+        northBorders = new IntArray[clusters];
+        clusterNodes = new IntArray[clusters];
+        for (int i = 0; i < clusters; i++) {
+            eastBorders[i] = new IntArray();
+            northBorders[i] = new IntArray();
+            clusterNodes[i] = new IntArray();
+        }
+
+        rebuild(0, 0, clustersX - 1, clustersY - 1);
+    }
+
+    /**
+     * Searches a path between two positions
+     *
+     * @param start     start position in WorldUnits
+     * @param goal      goal position in WorldUnits
+     * @param waypoints receives the waypoints from start to goal, its vectors are reused
+     * @return true if a path was found, waypoints then holds at least the start and the goal
+     */
+    public boolean findPath(Vector2 start, Vector2 goal, Array<Vector2> waypoints) {
+        int startX = (int) Math.floor(start.x / graph.getTileWidth());
+        int startY = (int) Math.floor(start.y / graph.getTileHeight());
+        int goalX = (int) Math.floor(goal.x / graph.getTileWidth());
+        int goalY = (int) Math.floor(goal.y / graph.getTileHeight());
+        if (!graph.isWalkable(startX, startY) || !graph.isWalkable(goalX, goalY))
+            return false;
+
+        int startCluster = cluster(startX, startY);
+        int goalCluster = cluster(goalX, goalY);
+
+        tiles.clear();
+        tiles.add(startX + startY * graph.getWidth());
+
+        if (startCluster == goalCluster && searchInCluster(startX, startY, goalX, goalY, startCluster)) {
+            search.appendPath(goalX, goalY, tiles);
+        } else if (!searchAbstract(startX, startY, startCluster, goalX, goalY, goalCluster) || !refine(goalX, goalY, goalCluster)) {
+            return false;
+        }
+
+        nodePath.clear();
+        int width = graph.getWidth();
+        for (int i = 0; i < tiles.size; i++) {
+            int tile = tiles.items[i];
+            nodePath.add(graph.getNode(tile % width, tile / width));
+        }
+        PathfindingService.toWaypoints(graph, nodePath, start.x, start.y, goal.x, goal.y, waypoints);
+        return true;
+    }
+
+    /**
+     * A* over the entrances, the start and goal are connected to the entrances of their clusters
+     *
+     * @return true if a path was found, its node ids are in {@link #abstractPath}
+     */
+    private boolean searchAbstract(int startX, int startY, int startCluster, int goalX, int goalY, int goalCluster) {
+        if (cost.length < nodeCount) {
+            int capacity = nodeTile.length;
+            cost = new float[capacity];
+            parentNode = new int[capacity];
+            visited = new int[capacity];
+            goalCost = new float[capacity];
+            stamp = 0;
+        }
+        if (++stamp == Integer.MAX_VALUE) {
+            Arrays.fill(visited, 0);
+            stamp = 1;
+        }
+
+        open.clear();
+        IntArray nodes = clusterNodes[goalCluster];
+        search.search(goalX, goalY, -1, -1, clusterFromX(goalCluster), clusterFromY(goalCluster),
+                clusterToX(goalCluster), clusterToY(goalCluster));
+        for (int i = 0; i < nodes.size; i++) {
+            int node = nodes.items[i];
+            goalCost[node] = search.getCost(tileX(node), tileY(node));
+        }
+
+        nodes = clusterNodes[startCluster];
+        search.search(startX, startY, -1, -1, clusterFromX(startCluster), clusterFromY(startCluster),
+                clusterToX(startCluster), clusterToY(startCluster));
+        for (int i = 0; i < nodes.size; i++) {
+            int node = nodes.items[i];
+            float startCost = search.getCost(tileX(node), tileY(node));
+            if (startCost == Float.POSITIVE_INFINITY)
+                continue;
+
+            cost[node] = startCost;
+            parentNode[node] = -1;
+            visited[node] = stamp;
+            open.add(node, startCost + heuristic(node, goalX, goalY));
+        }
+
+        int best = -1;
+        float bestCost = Float.POSITIVE_INFINITY;
+
+        while (!open.isEmpty()) {
+            float key = open.peekKey();
+            if (key >= bestCost)
+                break;
+
+            int node = open.poll();
+            if (key > cost[node] + heuristic(node, goalX, goalY) + 1e-5f)
+                continue;
+
+            if (nodeCluster[node] == goalCluster && goalCost[node] != Float.POSITIVE_INFINITY
+                    && cost[node] + goalCost[node] < bestCost) {
+                best = node;
+                bestCost = cost[node] + goalCost[node];
+            }
+
+            relax(node, partner[node], partnerCost[node], goalX, goalY);
+            IntArray neighbors = intraNodes[node];
+            float[] costs = intraCosts[node].items;
+            for (int i = 0; i < neighbors.size; i++) {
+                relax(node, neighbors.items[i], costs[i], goalX, goalY);
+            }
+        }
+
+        if (best < 0)
+            return false;
+
+        abstractPath.clear();
+        for (int node = best; node >= 0; node = parentNode[node]) {
+            abstractPath.add(node);
+        }
+        abstractPath.reverse();
+        return true;
+    }
+
+    private void relax(int node, int neighbor, float step, int goalX, int goalY) {
+        float neighborCost = cost[node] + step;
+        if (visited[neighbor] == stamp && neighborCost >= cost[neighbor] - 1e-5f)
+            return;
+
+        cost[neighbor] = neighborCost;
+        parentNode[neighbor] = node;
+        visited[neighbor] = stamp;
+        open.add(neighbor, neighborCost + heuristic(neighbor, goalX, goalY));
+    }
+
+    /**
+     * Refines the abstract path into tiles, only searching the clusters along it
+     */
+    private boolean refine(int goalX, int goalY, int goalCluster) {
+        int width = graph.getWidth();
+        int previous = -1;
+
+        for (int i = 0; i < abstractPath.size; i++) {
+            int node = abstractPath.items[i];
+            if (previous >= 0 && partner[previous] == node) {
+                // crossing the border to the neighboring tile
+                tiles.add(nodeTile[node]);
+            } else {
+                int current = tiles.peek();
+                if (current != nodeTile[node]) {
+                    if (!searchInCluster(current % width, current / width, tileX(node), tileY(node), nodeCluster[node]))
+                        return false;
+                    search.appendPath(tileX(node), tileY(node), tiles);
+                }
+            }
+            previous = node;
+        }
+
+        int current = tiles.peek();
+        if (current != goalX + goalY * width) {
+            if (!searchInCluster(current % width, current / width, goalX, goalY, goalCluster))
+                return false;
+            search.appendPath(goalX, goalY, tiles);
+        }
+        return true;
+    }
+
+    private boolean searchInCluster(int startX, int startY, int goalX, int goalY, int cluster) {
+        return search.search(startX, startY, goalX, goalY,
+                clusterFromX(cluster), clusterFromY(cluster), clusterToX(cluster), clusterToY(cluster));
+    }
+
+    @Override
+    public void areaChanged(int fromX, int fromY, int toX, int toY) {
+        // entrances next to the area depend on it as well
+        int fromClusterX = Math.max(0, fromX - 1) / clusterSize;
+        int fromClusterY = Math.max(0, fromY - 1) / clusterSize;
+        int toClusterX = Math.min(graph.getWidth() - 1, toX + 1) / clusterSize;
+        int toClusterY = Math.min(graph.getHeight() - 1, toY + 1) / clusterSize;
+        rebuild(fromClusterX, fromClusterY, toClusterX, toClusterY);
+    }
+
+    /**
+     * Recomputes the entrances on the borders of the clusters and the costs within all clusters touching them
+     */
+    private void rebuild(int fromClusterX, int fromClusterY, int toClusterX, int toClusterY) {
+        for (int cy = fromClusterY; cy <= toClusterY; cy++) {
+            for (int cx = Math.max(0, fromClusterX - 1); cx <= Math.min(clustersX - 2, toClusterX); cx++) {
+                rebuildEastBorder(cx, cy);
+            }
+        }
+        for (int cy = Math.max(0, fromClusterY - 1); cy <= Math.min(clustersY - 2, toClusterY); cy++) {
+            for (int cx = fromClusterX; cx <= toClusterX; cx++) {
+                rebuildNorthBorder(cx, cy);
+            }
+        }
+
+        for (int cy = Math.max(0, fromClusterY - 1); cy <= Math.min(clustersY - 1, toClusterY + 1); cy++) {
+            for (int cx = Math.max(0, fromClusterX - 1); cx <= Math.min(clustersX - 1, toClusterX + 1); cx++) {
+                int cluster = cx + cy * clustersX;
+                collectNodes(cluster);
+                connectCluster(cluster);
+            }
+        }
+    }
+
+    private void rebuildEastBorder(int cx, int cy) {
+        int cluster = cx + cy * clustersX;
+        IntArray border = eastBorders[cluster];
+        freeNodes(border);
+
+        int x = clusterToX(cluster);
+        int fromY = clusterFromY(cluster);
+        int toY = clusterToY(cluster);
+        int runStart = -1;
+
+        for (int y = fromY; y <= toY + 1; y++) {
+            boolean open = y <= toY && graph.isWalkable(x, y) && graph.isWalkable(x + 1, y);
+            if (open && runStart < 0) {
+                runStart = y;
+            } else if (!open && runStart >= 0) {
+                int runEnd = y - 1;
+                if (runEnd - runStart + 1 >= LONG_ENTRANCE) {
+                    addEntrance(border, x, runStart, x + 1, runStart, cluster, cluster + 1, graph.getTileWidth());
+                    addEntrance(border, x, runEnd, x + 1, runEnd, cluster, cluster + 1, graph.getTileWidth());
+                } else {
+                    int middle = (runStart + runEnd) / 2;
+                    addEntrance(border, x, middle, x + 1, middle, cluster, cluster + 1, graph.getTileWidth());
+                }
+                runStart = -1;
+            }
+        }
+    }
+
+    private void rebuildNorthBorder(int cx, int cy) {
+        int cluster = cx + cy * clustersX;
+        IntArray border = northBorders[cluster];
+        freeNodes(border);
+
+        int y = clusterToY(cluster);
+        int fromX = clusterFromX(cluster);
+        int toX = clusterToX(cluster);
+        int runStart = -1;
+
+        for (int x = fromX; x <= toX + 1; x++) {
+            boolean open = x <= toX && graph.isWalkable(x, y) && graph.isWalkable(x, y + 1);
+            if (open && runStart < 0) {
+                runStart = x;
+            } else if (!open && runStart >= 0) {
+                int runEnd = x - 1;
+                if (runEnd - runStart + 1 >= LONG_ENTRANCE) {
+                    addEntrance(border, runStart, y, runStart, y + 1, cluster, cluster + clustersX, graph.getTileHeight());
+                    addEntrance(border, runEnd, y, runEnd, y + 1, cluster, cluster + clustersX, graph.getTileHeight());
+                } else {
+                    int middle = (runStart + runEnd) / 2;
+                    addEntrance(border, middle, y, middle, y + 1, cluster, cluster + clustersX, graph.getTileHeight());
+                }
+                runStart = -1;
+            }
+        }
+    }
+
+    private void addEntrance(IntArray border, int x, int y, int otherX, int otherY, int cluster, int otherCluster, float crossingCost) {
+        int node = addNode(x + y * graph.getWidth(), cluster);
+        int other = addNode(otherX + otherY * graph.getWidth(), otherCluster);
+        partner[node] = other;
+        partner[other] = node;
+        partnerCost[node] = crossingCost;
+        partnerCost[other] = crossingCost;
+        border.add(node, other);
+        entranceCount++;
+    }
+
+    private int addNode(int tile, int cluster) {
+        int node;
+        if (freeNodes.size > 0) {
+            node = freeNodes.pop();
+        } else {
+            if (nodeCount == nodeTile.length)
+                growNodes(Math.max(64, nodeCount * 2));
+            node = nodeCount++;
+        }
+
+        nodeTile[node] = tile;
+        nodeCluster[node] = cluster;
+        intraNodes[node].clear();
+        intraCosts[node].clear();
+        return node;
+    }
+
+    private void freeNodes(IntArray border) {
+        for (int i = 0; i < border.size; i++) {
+            freeNodes.add(border.items[i]);
+        }
+        entranceCount -= border.size / 2;
+        border.clear();
+    }
+
+    private void growNodes(int capacity) {
+        int previous = nodeTile.length;
+        nodeTile = Arrays.copyOf(nodeTile, capacity);
+        nodeCluster = Arrays.copyOf(nodeCluster, capacity);
+        partner = Arrays.copyOf(partner, capacity);
+        partnerCost = Arrays.copyOf(partnerCost, capacity);
+        intraNodes = Arrays.copyOf(intraNodes, capacity);
+        intraCosts = Arrays.copyOf(intraCosts, capacity);
+        for (int i = previous; i < capacity; i++) {
+            intraNodes[i] = new IntArray(8);
+            intraCosts[i] = new FloatArray(8);
+        }
+    }
+
+    /**
+     * Collects the nodes of the cluster from the borders around it
+     */
+    private void collectNodes(int cluster) {
+        IntArray nodes = clusterNodes[cluster];
+        nodes.clear();
+
+        int cx = cluster % clustersX;
+        int cy = cluster / clustersX;
+        addSide(nodes, eastBorders[cluster], 0);
+        addSide(nodes, northBorders[cluster], 0);
+        if (cx > 0)
+            addSide(nodes, eastBorders[cluster - 1], 1);
+        if (cy > 0)
+            addSide(nodes, northBorders[cluster - clustersX], 1);
+    }
+
+    private static void addSide(IntArray nodes, IntArray border, int side) {
+        for (int i = side; i < border.size; i += 2) {
+            nodes.add(border.items[i]);
+        }
+    }
+
+    /**
+     * Precomputes the costs between all entrances of the cluster
+     */
+    private void connectCluster(int cluster) {
+        IntArray nodes = clusterNodes[cluster];
+        for (int i = 0; i < nodes.size; i++) {
+            intraNodes[nodes.items[i]].clear();
+            intraCosts[nodes.items[i]].clear();
+        }
+
+        for (int i = 0; i < nodes.size; i++) {
+            int node = nodes.items[i];
+            search.search(tileX(node), tileY(node), -1, -1,
+                    clusterFromX(cluster), clusterFromY(cluster), clusterToX(cluster), clusterToY(cluster));
+
+            // the costs are symmetric, each pair is searched once
+            for (int j = i + 1; j < nodes.size; j++) {
+                int other = nodes.items[j];
+                float pathCost = search.getCost(tileX(other), tileY(other));
+                if (pathCost == Float.POSITIVE_INFINITY)
+                    continue;
+
+                intraNodes[node].add(other);
+                intraCosts[node].add(pathCost);
+                intraNodes[other].add(node);
+                intraCosts[other].add(pathCost);
+            }
+        }
+    }
+
+    private float heuristic(int node, int goalX, int goalY) {
+        int dx = Math.abs(tileX(node) - goalX);
+        int dy = Math.abs(tileY(node) - goalY);
+        float tileSize = Math.min(graph.getTileWidth(), graph.getTileHeight());
+        return tileSize * (dx + dy + ((float) Math.sqrt(2) - 2) * Math.min(dx, dy));
+    }
+
+    private int tileX(int node) {
+        return nodeTile[node] % graph.getWidth();
+    }
+
+    private int tileY(int node) {
+        return nodeTile[node] / graph.getWidth();
+    }
+
+    private int cluster(int x, int y) {
+        return x / clusterSize + y / clusterSize * clustersX;
+    }
+
+    private int clusterFromX(int cluster) {
+        return cluster % clustersX * clusterSize;
+    }
+
+    private int clusterFromY(int cluster) {
+        return cluster / clustersX * clusterSize;
+    }
+
+    private int clusterToX(int cluster) {
+        return Math.min(graph.getWidth(), clusterFromX(cluster) + clusterSize) - 1;
+    }
+
+    private int clusterToY(int cluster) {
+        return Math.min(graph.getHeight(), clusterFromY(cluster) + clusterSize) - 1;
+    }
+
+    public NavigationGraph getGraph() {
+        return graph;
+    }
+
+    public int getClusterSize() {
+        return clusterSize;
+    }
+
+    public int getClustersX() {
+        return clustersX;
+    }
+
+    public int getClustersY() {
+        return clustersY;
+    }
+
+    /**
+     * @return number of entrances between the clusters, each has a node on both sides
+     */
+    public int getEntranceCount() {
+        return entranceCount;
+    }
+}
@@ -0,0 +1,71 @@
+package se.wastedtime.steering.pathfinding;
+
+import java.util.Arrays;
+
+/**
+ * Binary min heap of int indices keyed by float, backed by primitive arrays.
+ * An index may be added again with a lower key, the caller skips the stale entries when polling.
+ */
+final class IndexHeap {
+
+    private int[] items = new int[64];
+    private float[] keys = new float[64];
+    private int size;
+
+    void add(int item, float key) {
+        if (size == items.length) {
+            items = Arrays.copyOf(items, size * 2);
+            keys = Arrays.copyOf(keys, size * 2);
+        }
+
+        int index = size++;
+        while (index > 0) {
+            int parent = (index - 1) >> 1;
+            if (keys[parent] <= key)
+                break;
+            items[index] = items[parent];
+            keys[index] = keys[parent];
+            index = parent;
+        }
+        items[index] = item;
+        keys[index] = key;
+    }
+
+    /**
+     * @return the key of the smallest item, call before {@link #poll()}
+     */
+    float peekKey() {
+        return keys[0];
+    }
+
+    int poll() {
+        int result = items[0];
+        int item = items[--size];
+        float key = keys[size];
+
+        int index = 0;
+        while (true) {
+            int child = (index << 1) + 1;
+            if (child >= size)
+                break;
+            if (child + 1 < size && keys[child + 1] < keys[child])
+                child++;
+            if (key <= keys[child])
+                break;
+            items[index] = items[child];
+            keys[index] = keys[child];
+            index = child;
+        }
+        items[index] = item;
+        keys[index] = key;
+        return result;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    void clear() {
+        size = 0;
+    }
+}
@@ -0,0 +1,535 @@
+package se.wastedtime.steering.pathfinding;
+
+import com.badlogic.gdx.ai.pfa.Connection;
+import com.badlogic.gdx.ai.pfa.indexed.IndexedGraph;
+import com.badlogic.gdx.maps.MapLayer;
+import com.badlogic.gdx.maps.MapProperties;
+import com.badlogic.gdx.maps.tiled.TiledMap;
+import com.badlogic.gdx.maps.tiled.TiledMapTileLayer;
+import com.badlogic.gdx.math.MathUtils;
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.physics.box2d.Body;
+import com.badlogic.gdx.physics.box2d.BodyDef;
+import com.badlogic.gdx.physics.box2d.ChainShape;
+import com.badlogic.gdx.physics.box2d.CircleShape;
+import com.badlogic.gdx.physics.box2d.EdgeShape;
+import com.badlogic.gdx.physics.box2d.Fixture;
+import com.badlogic.gdx.physics.box2d.PolygonShape;
+import com.badlogic.gdx.physics.box2d.QueryCallback;
+import com.badlogic.gdx.physics.box2d.Shape;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.ObjectSet;
+import se.wastedtime.steering.MapBodyManager;
+
+import java.util.List;
+
+/**
+ * 8-connected tile graph of a map for {@link com.badlogic.gdx.ai.pfa.indexed.IndexedAStarPathFinder}.
+ * <p>
+ * A tile is blocked if a cell of a tile layer is marked with the "blocked" property (on the tile
+ * or the layer), or if a static body created by the {@link MapBodyManager} covers its center.
+ * Walkability and the open directions of each tile are kept in flat arrays indexed by
+ * {@code x + y * width}. The {@link TileNode}s gdx-ai searches on are created when a tile is first
+ * looked up, and {@link #getConnections(TileNode)} lists the connections of the open directions on demand,
+ * a node creates the connection of a direction the first time it's listed. Diagonal moves are only
+ * open if both adjacent tiles are walkable, so paths don't cut corners.
+ * Connections are listed into a shared array, search from one thread at a time.
+ * <p>
+ * A graph built with {@link #build(TiledMap, MapBodyManager, float)} follows the bodies created
+ * and destroyed by the manager afterwards. Only the tiles under the body are updated, then the
+ * {@link ChangeListener}s are notified.
+ */
+public class NavigationGraph implements IndexedGraph<TileNode>, MapBodyManager.BodyListener {
+
+    public static final String BLOCKED_PROPERTY = "blocked";
+
+    /**
+     * Offsets of the 8 directions, row by row from the bottom left. The bit of a direction in {@link #directions}
+     * is {@code 1 << direction}
+     */
+    private static final int[] DIRECTION_X = {-1, 0, 1, -1, 1, -1, 0, 1};
+    private static final int[] DIRECTION_Y = {-1, -1, -1, 0, 0, 1, 1, 1};
+
+    /**
+     * Notified when tiles of the graph changed their walkability
+     */
+    public interface ChangeListener {
+
+        /**
+         * @param fromX first changed column
+         * @param fromY first changed row
+         * @param toX   last changed column, inclusive
+         * @param toY   last changed row, inclusive
+         */
+        void areaChanged(int fromX, int fromY, int toX, int toY);
+    }
+
+    private final int width;
+    private final int height;
+    private final float tileWidth;
+    private final float tileHeight;
+
+    private final boolean[] tileBlocked;
+    private final boolean[] blocked;
+    private final byte[] directions;
+    private final float[] directionCosts = new float[8];
+    private final TileNode[] nodes;
+    private final Array<Connection<TileNode>> connections = new Array<>(8);
+
+    private final ObjectSet<Body> markedBodies = new ObjectSet<>();
+    private Body destroyedBody;
+    private int markFromX, markFromY, markToX, markToY;
+    private final QueryCallback overlapCallback = fixture -> {
+        Body body = fixture.getBody();
+        if (body != destroyedBody && markedBodies.add(body))
+            markBody(body, markFromX, markFromY, markToX, markToY);
+        return true;
+    };
+    private final Array<ChangeListener> listeners = new Array<>();
+    private final Vector2 vertex = new Vector2();
+    private final Vector2 previous = new Vector2();
+
+    /**
+     * @param width      columns of the map
+     * @param height     rows of the map
+     * @param tileWidth  tile width in WorldUnits
+     * @param tileHeight tile height in WorldUnits
+     * @param blocked    blocked tiles indexed by {@code x + y * width}
+     */
+    public NavigationGraph(int width, int height, float tileWidth, float tileHeight, boolean[] blocked) {
+        this(width, height, tileWidth, tileHeight, blocked, blocked.clone());
+        connect(0, 0, width - 1, height - 1);
+    }
+
+    private NavigationGraph(int width, int height, float tileWidth, float tileHeight, boolean[] tileBlocked, boolean[] blocked) {
+        if (blocked.length != width * height)
+            throw new IllegalArgumentException("blocked has " + blocked.length + " tiles, expected " + width * height);
+
+        this.width = width;
+        this.height = height;
+        this.tileWidth = tileWidth;
+        this.tileHeight = tileHeight;
+        this.tileBlocked = tileBlocked;
+        this.blocked = blocked;
+        this.directions = new byte[width * height];
+        this.nodes = new TileNode[width * height];
+
+        float diagonal = (float) Math.sqrt(tileWidth * tileWidth + tileHeight * tileHeight);
+        for (int direction = 0; direction < 8; direction++) {
+            directionCosts[direction] = DIRECTION_X[direction] != 0 && DIRECTION_Y[direction] != 0 ? diagonal
+                    : DIRECTION_X[direction] != 0 ? tileWidth : tileHeight;
+        }
+    }
+
+    /**
+     * Builds the graph from the tile layers of the map and the static bodies of the manager,
+     * and keeps it up to date with the bodies created and destroyed later on
+     *
+     * @param map            map to build the graph for
+     * @param mapBodyManager manager that created the static bodies of the map
+     * @param pixelsPerMeter pixels per WorldUnit
+     */
+    public static NavigationGraph build(TiledMap map, MapBodyManager mapBodyManager, float pixelsPerMeter) {
+        Builder builder = new Builder(map, pixelsPerMeter);
+        List<Body> bodies = mapBodyManager.getBodies();
+        builder.markBodies(bodies, 0, bodies.size());
+        NavigationGraph graph = builder.build();
+
+        mapBodyManager.addBodyListener(graph);
+        return graph;
+    }
+
+    private static void markTileLayers(TiledMap map, int width, int height, boolean[] blocked) {
+        for (MapLayer layer : map.getLayers()) {
+            if (!(layer instanceof TiledMapTileLayer))
+                continue;
+
+            TiledMapTileLayer tileLayer = (TiledMapTileLayer) layer;
+            boolean layerBlocked = isBlocked(layer.getProperties());
+            int columns = Math.min(width, tileLayer.getWidth());
+            int rows = Math.min(height, tileLayer.getHeight());
+
+            for (int y = 0; y < rows; y++) {
+                for (int x = 0; x < columns; x++) {
+                    TiledMapTileLayer.Cell cell = tileLayer.getCell(x, y);
+                    if (cell == null)
+                        continue;
+                    if (layerBlocked || cell.getTile() != null && isBlocked(cell.getTile().getProperties()))
+                        blocked[x + y * width] = true;
+                }
+            }
+        }
+    }
+
+    private static boolean isBlocked(MapProperties properties) {
+        Object value = properties.get(BLOCKED_PROPERTY);
+        return Boolean.TRUE.equals(value) || "true".equals(value);
+    }
+
+    /**
+     * Builds a graph in steps, so a loader can spread it over several frames. Only marking the
+     * bodies touches Box2D, reading the tile layers and connecting the tiles can run on any thread.
+     */
+    public static final class Builder {
+
+        private final NavigationGraph graph;
+        private boolean built;
+
+        /**
+         * Reads the blocked tiles of the tile layers
+         *
+         * @param map            map to build the graph for
+         * @param pixelsPerMeter pixels per WorldUnit
+         */
+        public Builder(TiledMap map, float pixelsPerMeter) {
+            MapProperties properties = map.getProperties();
+            int width = properties.get("width", Integer.class);
+            int height = properties.get("height", Integer.class);
+            float tileWidth = properties.get("tilewidth", Integer.class) / pixelsPerMeter;
+            float tileHeight = properties.get("tileheight", Integer.class) / pixelsPerMeter;
+
+            boolean[] tileBlocked = new boolean[width * height];
+            markTileLayers(map, width, height, tileBlocked);
+            graph = new NavigationGraph(width, height, tileWidth, tileHeight, tileBlocked, tileBlocked.clone());
+        }
+
+        /**
+         * Blocks the tiles covered by the static bodies from index from to to, exclusive.
+         * Call it from the thread owning the world.
+         */
+        public void markBodies(List<Body> bodies, int from, int to) {
+            if (built)
+                throw new IllegalStateException("The graph is already built");
+            for (int i = from; i < to; i++) {
+                graph.markBody(bodies.get(i), 0, 0, graph.width - 1, graph.height - 1);
+            }
+        }
+
+        /**
+         * Connects the tiles. The graph only follows later changes of the bodies once it is added
+         * as {@link MapBodyManager.BodyListener} of their manager.
+         */
+        public NavigationGraph build() {
+            if (built)
+                throw new IllegalStateException("The graph is already built");
+            built = true;
+            graph.connect(0, 0, graph.width - 1, graph.height - 1);
+            return graph;
+        }
+    }
+
+    @Override
+    public void bodyCreated(Body body) {
+        int[] area = bodyArea(body);
+        if (area == null)
+            return;
+
+        markBody(body, area[0], area[1], area[2], area[3]);
+        changed(area[0], area[1], area[2], area[3]);
+    }
+
+    @Override
+    public void bodyDestroyed(Body body) {
+        int[] area = bodyArea(body);
+        if (area == null)
+            return;
+
+        // other bodies may cover the same tiles, so the area is marked again without the destroyed one
+        for (int y = area[1]; y <= area[3]; y++) {
+            System.arraycopy(tileBlocked, area[0] + y * width, blocked, area[0] + y * width, area[2] - area[0] + 1);
+        }
+        // the static bodies of the world are the ones of the manager, only those overlapping the area are marked
+        destroyedBody = body;
+        markedBodies.clear();
+        markFromX = area[0];
+        markFromY = area[1];
+        markToX = area[2];
+        markToY = area[3];
+        body.getWorld().QueryAABB(overlapCallback, area[0] * tileWidth, area[1] * tileHeight,
+                (area[2] + 1) * tileWidth, (area[3] + 1) * tileHeight);
+        destroyedBody = null;
+        markedBodies.clear();
+        changed(area[0], area[1], area[2], area[3]);
+    }
+
+    private void changed(int fromX, int fromY, int toX, int toY) {
+        // the directions of the neighbors point into the area
+        connect(Math.max(0, fromX - 1), Math.max(0, fromY - 1), Math.min(width - 1, toX + 1), Math.min(height - 1, toY + 1));
+
+        for (ChangeListener listener : listeners) {
+            listener.areaChanged(fromX, fromY, toX, toY);
+        }
+    }
+
+    /**
+     * Recomputes the open directions of the tiles in the area
+     */
+    private void connect(int fromX, int fromY, int toX, int toY) {
+        for (int y = fromY; y <= toY; y++) {
+            for (int x = fromX; x <= toX; x++) {
+                int index = index(x, y);
+                int open = 0;
+                if (!blocked[index]) {
+                    for (int direction = 0; direction < 8; direction++) {
+                        int dx = DIRECTION_X[direction];
+                        int dy = DIRECTION_Y[direction];
+                        if (!isWalkable(x + dx, y + dy))
+                            continue;
+                        if (dx != 0 && dy != 0 && (!isWalkable(x + dx, y) || !isWalkable(x, y + dy)))
+                            continue;
+                        open |= 1 << direction;
+                    }
+                }
+                directions[index] = (byte) open;
+            }
+        }
+    }
+
+    /**
+     * @return tiles touched by the fixtures of the body as {fromX, fromY, toX, toY}, or null if it's off the map
+     */
+    private int[] bodyArea(Body body) {
+        float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+
+        for (Fixture fixture : body.getFixtureList()) {
+            Shape shape = fixture.getShape();
+            switch (shape.getType()) {
+                case Circle: {
+                    CircleShape circle = (CircleShape) shape;
+                    Vector2 center = body.getWorldPoint(circle.getPosition());
+                    float radius = circle.getRadius();
+                    minX = Math.min(minX, center.x - radius);
+                    minY = Math.min(minY, center.y - radius);
+                    maxX = Math.max(maxX, center.x + radius);
+                    maxY = Math.max(maxY, center.y + radius);
+                    break;
+                }
+                default: {
+                    for (int i = 0; i < vertexCount(shape); i++) {
+                        vertex(shape, i, vertex).set(body.getWorldPoint(vertex));
+                        minX = Math.min(minX, vertex.x);
+                        minY = Math.min(minY, vertex.y);
+                        maxX = Math.max(maxX, vertex.x);
+                        maxY = Math.max(maxY, vertex.y);
+                    }
+                }
+            }
+        }
+
+        int fromX = Math.max(0, (int) Math.floor(minX / tileWidth));
+        int fromY = Math.max(0, (int) Math.floor(minY / tileHeight));
+        int toX = Math.min(width - 1, (int) Math.floor(maxX / tileWidth));
+        int toY = Math.min(height - 1, (int) Math.floor(maxY / tileHeight));
+        if (fromX > toX || fromY > toY)
+            return null;
+        return new int[]{fromX, fromY, toX, toY};
+    }
+
+    private static int vertexCount(Shape shape) {
+        switch (shape.getType()) {
+            case Polygon:
+                return ((PolygonShape) shape).getVertexCount();
+            case Chain:
+                return ((ChainShape) shape).getVertexCount();
+            case Edge:
+                return 2;
+            default:
+                return 0;
+        }
+    }
+
+    private static Vector2 vertex(Shape shape, int index, Vector2 out) {
+        switch (shape.getType()) {
+            case Polygon:
+                ((PolygonShape) shape).getVertex(index, out);
+                break;
+            case Chain:
+                ((ChainShape) shape).getVertex(index, out);
+                break;
+            case Edge:
+                if (index == 0)
+                    ((EdgeShape) shape).getVertex1(out);
+                else
+                    ((EdgeShape) shape).getVertex2(out);
+                break;
+        }
+        return out;
+    }
+
+    /**
+     * Blocks the tiles in the area whose center is inside a fixture of the body, for chains and edges the tiles they pass through
+     */
+    private void markBody(Body body, int fromX, int fromY, int toX, int toY) {
+        if (body.getType() != BodyDef.BodyType.StaticBody)
+            return;
+
+        for (Fixture fixture : body.getFixtureList()) {
+            if (fixture.isSensor())
+                continue;
+
+            Shape shape = fixture.getShape();
+            switch (shape.getType()) {
+                case Chain:
+                case Edge: {
+                    for (int i = 0; i < vertexCount(shape); i++) {
+                        vertex(shape, i, vertex).set(body.getWorldPoint(vertex));
+                        if (i > 0)
+                            markSegment(previous, vertex, fromX, fromY, toX, toY);
+                        previous.set(vertex);
+                    }
+                    break;
+                }
+                case Polygon: {
+                    float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE;
+                    float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+                    for (int i = 0; i < vertexCount(shape); i++) {
+                        vertex(shape, i, vertex).set(body.getWorldPoint(vertex));
+                        minX = Math.min(minX, vertex.x);
+                        minY = Math.min(minY, vertex.y);
+                        maxX = Math.max(maxX, vertex.x);
+                        maxY = Math.max(maxY, vertex.y);
+                    }
+                    markArea(fixture, minX, minY, maxX, maxY, fromX, fromY, toX, toY);
+                    break;
+                }
+                case Circle: {
+                    CircleShape circle = (CircleShape) shape;
+                    Vector2 center = body.getWorldPoint(circle.getPosition());
+                    float radius = circle.getRadius();
+                    markArea(fixture, center.x - radius, center.y - radius, center.x + radius, center.y + radius,
+                            fromX, fromY, toX, toY);
+                    break;
+                }
+            }
+        }
+    }
+
+    private void markArea(Fixture fixture, float minX, float minY, float maxX, float maxY,
+                          int fromX, int fromY, int toX, int toY) {
+        int startX = MathUtils.clamp((int) Math.floor(minX / tileWidth), fromX, toX);
+        int startY = MathUtils.clamp((int) Math.floor(minY / tileHeight), fromY, toY);
+        int endX = MathUtils.clamp((int) Math.floor(maxX / tileWidth), fromX, toX);
+        int endY = MathUtils.clamp((int) Math.floor(maxY / tileHeight), fromY, toY);
+
+        for (int y = startY; y <= endY; y++) {
+            for (int x = startX; x <= endX; x++) {
+                if (fixture.testPoint((x + 0.5f) * tileWidth, (y + 0.5f) * tileHeight))
+                    blocked[index(x, y)] = true;
+            }
+        }
+    }
+
+    private void markSegment(Vector2 from, Vector2 to, int fromX, int fromY, int toX, int toY) {
+        // sample at a quarter tile, fine enough to not skip a tile the segment passes through
+        float step = Math.min(tileWidth, tileHeight) * 0.25f;
+        int samples = Math.max(1, (int) Math.ceil(from.dst(to) / step));
+
+        for (int i = 0; i <= samples; i++) {
+            float t = (float) i / samples;
+            int x = (int) Math.floor((from.x + (to.x - from.x) * t) / tileWidth);
+            int y = (int) Math.floor((from.y + (to.y - from.y) * t) / tileHeight);
+            if (x >= fromX && x <= toX && y >= fromY && y <= toY)
+                blocked[index(x, y)] = true;
+        }
+    }
+
+    public void addChangeListener(ChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeChangeListener(ChangeListener listener) {
+        listeners.removeValue(listener, true);
+    }
+
+    @Override
+    public int getIndex(TileNode node) {
+        return node.index;
+    }
+
+    @Override
+    public int getNodeCount() {
+        return nodes.length;
+    }
+
+    /**
+     * @return connections of the open directions, the array is reused by the next call
+     */
+    @Override
+    public Array<Connection<TileNode>> getConnections(TileNode fromNode) {
+        connections.clear();
+        int open = directions[fromNode.index] & 0xFF;
+        for (int direction = 0; open != 0; direction++, open >>>= 1) {
+            if ((open & 1) == 0)
+                continue;
+
+            TileConnection connection = fromNode.connections[direction];
+            if (connection == null) {
+                TileNode to = node(fromNode.index + DIRECTION_X[direction] + DIRECTION_Y[direction] * width);
+                connection = new TileConnection(fromNode, to, directionCosts[direction]);
+                fromNode.connections[direction] = connection;
+            }
+            connections.add(connection);
+        }
+        return connections;
+    }
+
+    private TileNode node(int index) {
+        TileNode node = nodes[index];
+        if (node == null) {
+            node = new TileNode(index, index % width, index / width);
+            nodes[index] = node;
+        }
+        return node;
+    }
+
+    private int index(int x, int y) {
+        return x + y * width;
+    }
+
+    public boolean isWalkable(int x, int y) {
+        return x >= 0 && x < width && y >= 0 && y < height && !blocked[index(x, y)];
+    }
+
+    /**
+     * @return node of the tile, or null outside of the map
+     */
+    public TileNode getNode(int x, int y) {
+        if (x < 0 || x >= width || y < 0 || y >= height)
+            return null;
+        return node(index(x, y));
+    }
+
+    /**
+     * @param x position in WorldUnits
+     * @param y position in WorldUnits
+     * @return node of the tile containing the position, or null outside of the map
+     */
+    public TileNode getNodeAt(float x, float y) {
+        return getNode((int) Math.floor(x / tileWidth), (int) Math.floor(y / tileHeight));
+    }
+
+    /**
+     * @param out vector receiving the center of the tile in WorldUnits
+     * @return out
+     */
+    public Vector2 getCenter(TileNode node, Vector2 out) {
+        return out.set((node.x + 0.5f) * tileWidth, (node.y + 0.5f) * tileHeight);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public float getTileWidth() {
+        return tileWidth;
+    }
+
+    public float getTileHeight() {
+        return tileHeight;
+    }
+}
@@ -0,0 +1,17 @@
+package se.wastedtime.steering.pathfinding;
+
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.utils.Array;
+
+/**
+ * Receives the result of a path requested from a {@link PathRequestScheduler}
+ */
+public interface PathListener {
+
+    /**
+     * @param waypoints the waypoints array passed with the request, filled from start to goal
+     */
+    void pathFound(Array<Vector2> waypoints);
+
+    void pathNotFound();
+}
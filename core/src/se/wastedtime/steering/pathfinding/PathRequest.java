@@ -0,0 +1,63 @@
+package se.wastedtime.steering.pathfinding;
+
+import com.badlogic.gdx.ai.pfa.DefaultGraphPath;
+import com.badlogic.gdx.ai.pfa.PathFinderRequest;
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.BinaryHeap;
+import com.badlogic.gdx.utils.FloatArray;
+import com.badlogic.gdx.utils.Pool;
+
+/**
+ * Pooled search between two tiles and the listeners waiting for it.
+ * Listeners requesting the same tiles share the search, each gets waypoints from its own start to its own goal.
+ */
+final class PathRequest extends BinaryHeap.Node implements Pool.Poolable {
+
+    final PathFinderRequest<TileNode> search = new PathFinderRequest<>();
+    final DefaultGraphPath<TileNode> nodePath = new DefaultGraphPath<>();
+    long key;
+
+    final Array<PathListener> listeners = new Array<>(false, 4, PathListener.class);
+    final Array<Array<Vector2>> outputs = new Array<>(false, 4);
+    /**
+     * start x, start y, goal x and goal y of every listener
+     */
+    final FloatArray endpoints = new FloatArray(false, 16);
+
+    PathRequest() {
+        super(0);
+        search.resultPath = nodePath;
+    }
+
+    void addListener(PathListener listener, Vector2 start, Vector2 goal, Array<Vector2> waypoints) {
+        listeners.add(listener);
+        outputs.add(waypoints);
+        endpoints.add(start.x, start.y, goal.x, goal.y);
+    }
+
+    void removeListener(int index) {
+        // the arrays are unordered, removeIndex swaps the last entry in
+        listeners.removeIndex(index);
+        outputs.removeIndex(index);
+        int last = endpoints.size - 4;
+        for (int i = 0; i < 4; i++) {
+            endpoints.items[index * 4 + i] = endpoints.items[last + i];
+        }
+        endpoints.size = last;
+    }
+
+    @Override
+    public void reset() {
+        search.startNode = null;
+        search.endNode = null;
+        search.status = PathFinderRequest.SEARCH_NEW;
+        search.statusChanged = false;
+        search.pathFound = false;
+        search.executionFrames = 0;
+        nodePath.clear();
+        listeners.clear();
+        outputs.clear();
+        endpoints.clear();
+    }
+}
@@ -0,0 +1,229 @@
+package se.wastedtime.steering.pathfinding;
+
+import com.badlogic.gdx.ai.pfa.PathFinderQueue;
+import com.badlogic.gdx.ai.pfa.PathFinderRequest;
+import com.badlogic.gdx.ai.pfa.indexed.IndexedAStarPathFinder;
+import com.badlogic.gdx.ai.sched.Schedulable;
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.BinaryHeap;
+import com.badlogic.gdx.utils.LongMap;
+import com.badlogic.gdx.utils.Pool;
+import com.badlogic.gdx.utils.TimeUtils;
+
+/**
+ * Time-sliced path requests, the prioritized counterpart of gdx-ai's {@link PathFinderQueue}.
+ * <p>
+ * Requests are searched within the time given to {@link #run(long)}, so it can be added to a
+ * {@link com.badlogic.gdx.ai.sched.LoadBalancingScheduler} with a per-frame budget. A search
+ * that doesn't finish in time is resumed on the next run. The requests closest to the focus
+ * (e.g. the camera) are searched first, and requests for the same start and goal tile share
+ * one search. The listeners are called from {@link #run(long)}.
+ * <p>
+ * Requests are pooled and the search reuses its path finder, so requesting doesn't allocate
+ * once the pool has grown. Not thread-safe, request and run on the thread updating the simulation.
+ */
+public class PathRequestScheduler implements Schedulable {
+
+    private final NavigationGraph graph;
+    private final IndexedAStarPathFinder<TileNode> pathFinder;
+    private final TileHeuristic heuristic;
+
+    private final BinaryHeap<PathRequest> queue = new BinaryHeap<>();
+    private final LongMap<PathRequest> requests = new LongMap<>();
+    private final Pool<PathRequest> pool = new Pool<PathRequest>() {
+        @Override
+        protected PathRequest newObject() {
+            return new PathRequest();
+        }
+    };
+
+    private PathRequest current;
+
+    private float focusX;
+    private float focusY;
+    private boolean focusChanged;
+
+    private long completed;
+    private long deduplicated;
+
+    public PathRequestScheduler(NavigationGraph graph) {
+        this.graph = graph;
+        this.pathFinder = new IndexedAStarPathFinder<>(graph);
+        this.heuristic = new TileHeuristic(Math.min(graph.getTileWidth(), graph.getTileHeight()));
+    }
+
+    /**
+     * Queues a path request, joining a pending request for the same tiles
+     *
+     * @param listener  notified when the search is done
+     * @param start     start position in WorldUnits
+     * @param goal      goal position in WorldUnits
+     * @param waypoints receives the waypoints before {@link PathListener#pathFound(Array)} is called
+     * @return false if the start or goal isn't on the map or the goal is blocked, the listener isn't called then
+     */
+    public boolean request(PathListener listener, Vector2 start, Vector2 goal, Array<Vector2> waypoints) {
+        TileNode startNode = graph.getNodeAt(start.x, start.y);
+        TileNode goalNode = graph.getNodeAt(goal.x, goal.y);
+        if (startNode == null || goalNode == null || !graph.isWalkable(goalNode.x, goalNode.y))
+            return false;
+
+        long key = (long) startNode.index << 32 | goalNode.index;
+        PathRequest request = requests.get(key);
+        if (request != null) {
+            deduplicated++;
+        } else {
+            request = pool.obtain();
+            request.key = key;
+            request.search.startNode = startNode;
+            request.search.endNode = goalNode;
+            request.search.heuristic = heuristic;
+            requests.put(key, request);
+            queue.add(request, priority(startNode));
+        }
+
+        request.addListener(listener, start, goal, waypoints);
+        return true;
+    }
+
+    /**
+     * Removes the listener from all pending requests, it won't be called for them anymore
+     */
+    public void cancel(PathListener listener) {
+        for (PathRequest request : requests.values()) {
+            for (int i = request.listeners.size - 1; i >= 0; i--) {
+                if (request.listeners.items[i] == listener)
+                    request.removeListener(i);
+            }
+        }
+    }
+
+    /**
+     * Sets the position the requests are prioritized by, the closest start is searched first
+     */
+    public void setFocus(float x, float y) {
+        if (x == focusX && y == focusY)
+            return;
+
+        focusX = x;
+        focusY = y;
+        focusChanged = true;
+    }
+
+    /**
+     * Searches the queued requests until the time runs out
+     *
+     * @param timeToRun time in nanoseconds
+     */
+    @Override
+    public void run(long timeToRun) {
+        if (focusChanged) {
+            // the heap can't be iterated, the pending requests are found through the map
+            for (PathRequest request : requests.values()) {
+                if (request != current)
+                    queue.setValue(request, priority(request.search.startNode));
+            }
+            focusChanged = false;
+        }
+
+        if (current != null)
+            current.search.executionFrames++;
+
+        long lastTime = TimeUtils.nanoTime();
+        while (true) {
+            long currentTime = TimeUtils.nanoTime();
+            timeToRun -= currentTime - lastTime;
+            lastTime = currentTime;
+            if (timeToRun <= PathFinderQueue.TIME_TOLERANCE)
+                return;
+
+            if (current == null) {
+                current = nextRequest();
+                if (current == null)
+                    return;
+            }
+
+            if (!search(current.search, timeToRun))
+                return;
+
+            complete(current);
+            current = null;
+        }
+    }
+
+    private PathRequest nextRequest() {
+        while (queue.size > 0) {
+            PathRequest request = queue.pop();
+            if (request.listeners.size > 0) {
+                request.search.executionFrames = 1;
+                return request;
+            }
+
+            // every listener canceled
+            requests.remove(request.key);
+            pool.free(request);
+        }
+        return null;
+    }
+
+    /**
+     * @return true if the search is done
+     */
+    private boolean search(PathFinderRequest<TileNode> search, long timeToRun) {
+        if (search.status == PathFinderRequest.SEARCH_NEW)
+            search.changeStatus(PathFinderRequest.SEARCH_INITIALIZED);
+
+        if (!pathFinder.search(search, timeToRun))
+            return false;
+
+        search.changeStatus(PathFinderRequest.SEARCH_DONE);
+        return true;
+    }
+
+    private void complete(PathRequest request) {
+        requests.remove(request.key);
+        completed++;
+
+        float[] endpoints = request.endpoints.items;
+        for (int i = 0; i < request.listeners.size; i++) {
+            PathListener listener = request.listeners.items[i];
+            if (request.search.pathFound) {
+                Array<Vector2> waypoints = request.outputs.get(i);
+                PathfindingService.toWaypoints(graph, request.nodePath,
+                        endpoints[i * 4], endpoints[i * 4 + 1], endpoints[i * 4 + 2], endpoints[i * 4 + 3], waypoints);
+                listener.pathFound(waypoints);
+            } else {
+                listener.pathNotFound();
+            }
+        }
+
+        pool.free(request);
+    }
+
+    private float priority(TileNode node) {
+        float dx = (node.x + 0.5f) * graph.getTileWidth() - focusX;
+        float dy = (node.y + 0.5f) * graph.getTileHeight() - focusY;
+        return dx * dx + dy * dy;
+    }
+
+    /**
+     * @return number of queued requests, including the one being searched
+     */
+    public int size() {
+        return requests.size;
+    }
+
+    /**
+     * @return number of searches completed since creation
+     */
+    public long getCompleted() {
+        return completed;
+    }
+
+    /**
+     * @return number of requests that joined a pending request for the same tiles
+     */
+    public long getDeduplicated() {
+        return deduplicated;
+    }
+}
@@ -0,0 +1,95 @@
+package se.wastedtime.steering.pathfinding;
+
+import com.badlogic.gdx.ai.pfa.DefaultGraphPath;
+import com.badlogic.gdx.ai.pfa.GraphPath;
+import com.badlogic.gdx.ai.pfa.indexed.IndexedAStarPathFinder;
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.utils.Array;
+
+/**
+ * A* queries on a {@link NavigationGraph}, returning the path as waypoints for
+ * {@link se.wastedtime.steering.entities.Character#followPath(Array)}.
+ * <p>
+ * The path finder, the node path and the waypoint vectors are reused, a query only allocates
+ * waypoints beyond the ones the array already holds. Not thread-safe, query from the thread
+ * updating the simulation.
+ */
+public class PathfindingService {
+
+    private final NavigationGraph graph;
+    private final IndexedAStarPathFinder<TileNode> pathFinder;
+    private final TileHeuristic heuristic;
+    private final DefaultGraphPath<TileNode> nodePath = new DefaultGraphPath<>();
+
+    public PathfindingService(NavigationGraph graph) {
+        this.graph = graph;
+        this.pathFinder = new IndexedAStarPathFinder<>(graph);
+        this.heuristic = new TileHeuristic(Math.min(graph.getTileWidth(), graph.getTileHeight()));
+    }
+
+    /**
+     * Searches a path between two positions
+     *
+     * @param start     start position in WorldUnits
+     * @param goal      goal position in WorldUnits
+     * @param waypoints receives the waypoints from start to goal, its vectors are reused
+     * @return true if a path was found, waypoints then holds at least the start and the goal
+     */
+    public boolean findPath(Vector2 start, Vector2 goal, Array<Vector2> waypoints) {
+        TileNode startNode = graph.getNodeAt(start.x, start.y);
+        TileNode goalNode = graph.getNodeAt(goal.x, goal.y);
+        if (startNode == null || goalNode == null || !graph.isWalkable(goalNode.x, goalNode.y))
+            return false;
+
+        nodePath.clear();
+        if (!pathFinder.searchNodePath(startNode, goalNode, heuristic, nodePath))
+            return false;
+
+        toWaypoints(graph, nodePath, start.x, start.y, goal.x, goal.y, waypoints);
+        return true;
+    }
+
+    /**
+     * Converts a node path into waypoints from the start to the goal position
+     */
+    static void toWaypoints(NavigationGraph graph, GraphPath<TileNode> nodePath,
+                            float startX, float startY, float goalX, float goalY, Array<Vector2> waypoints) {
+        int size = 0;
+        size = setWaypoint(waypoints, size, startX, startY);
+
+        // the first node is the tile of the start and the last one the tile of the goal,
+        // only the tiles where the direction changes are kept in between
+        int count = nodePath.getCount();
+        for (int i = 1; i < count - 1; i++) {
+            TileNode previous = nodePath.get(i - 1);
+            TileNode node = nodePath.get(i);
+            TileNode next = nodePath.get(i + 1);
+            if (node.x - previous.x == next.x - node.x && node.y - previous.y == next.y - node.y)
+                continue;
+
+            size = setWaypoint(waypoints, size, (node.x + 0.5f) * graph.getTileWidth(), (node.y + 0.5f) * graph.getTileHeight());
+        }
+
+        size = setWaypoint(waypoints, size, goalX, goalY);
+        waypoints.truncate(size);
+    }
+
+    private static int setWaypoint(Array<Vector2> waypoints, int size, float x, float y) {
+        if (size < waypoints.size)
+            waypoints.get(size).set(x, y);
+        else
+            waypoints.add(new Vector2(x, y));
+        return size + 1;
+    }
+
+    public NavigationGraph getGraph() {
+        return graph;
+    }
+
+    /**
+     * @return the path finder, its metrics are updated if it was created with them
+     */
+    public IndexedAStarPathFinder<TileNode> getPathFinder() {
+        return pathFinder;
+    }
+}
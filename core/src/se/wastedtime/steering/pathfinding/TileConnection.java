@@ -0,0 +1,34 @@
+package se.wastedtime.steering.pathfinding;
+
+import com.badlogic.gdx.ai.pfa.Connection;
+
+/**
+ * Connection between two neighboring tiles, the cost is the distance between the tile centers in WorldUnits
+ */
+final class TileConnection implements Connection<TileNode> {
+
+    private final TileNode from;
+    private final TileNode to;
+    private final float cost;
+
+    TileConnection(TileNode from, TileNode to, float cost) {
+        this.from = from;
+        this.to = to;
+        this.cost = cost;
+    }
+
+    @Override
+    public float getCost() {
+        return cost;
+    }
+
+    @Override
+    public TileNode getFromNode() {
+        return from;
+    }
+
+    @Override
+    public TileNode getToNode() {
+        return to;
+    }
+}
@@ -0,0 +1,27 @@
+package se.wastedtime.steering.pathfinding;
+
+import com.badlogic.gdx.ai.pfa.Heuristic;
+
+/**
+ * Octile distance between two tiles in WorldUnits, admissible for the 8-connected {@link NavigationGraph}
+ */
+public class TileHeuristic implements Heuristic<TileNode> {
+
+    private static final float DIAGONAL = (float) Math.sqrt(2) - 2;
+
+    private final float tileSize;
+
+    /**
+     * @param tileSize edge length of a tile in WorldUnits
+     */
+    public TileHeuristic(float tileSize) {
+        this.tileSize = tileSize;
+    }
+
+    @Override
+    public float estimate(TileNode node, TileNode endNode) {
+        int dx = Math.abs(node.x - endNode.x);
+        int dy = Math.abs(node.y - endNode.y);
+        return tileSize * (dx + dy + DIAGONAL * Math.min(dx, dy));
+    }
+}
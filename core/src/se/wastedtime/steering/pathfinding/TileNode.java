@@ -0,0 +1,42 @@
+package se.wastedtime.steering.pathfinding;
+
+/**
+ * Tile of a {@link NavigationGraph}, created when the tile is first looked up.
+ * The connection of a direction is created the first time the graph lists it and kept, the graph decides which are open.
+ */
+public final class TileNode {
+
+    final int index;
+    final int x;
+    final int y;
+    final TileConnection[] connections = new TileConnection[8];
+
+    TileNode(int index, int x, int y) {
+        this.index = index;
+        this.x = x;
+        this.y = y;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * @return column of the tile
+     */
+    public int getX() {
+        return x;
+    }
+
+    /**
+     * @return row of the tile, counted from the bottom like TiledMapTileLayer cells
+     */
+    public int getY() {
+        return y;
+    }
+
+    @Override
+    public String toString() {
+        return "TileNode(" + x + ", " + y + ")";
+    }
+}
@@ -0,0 +1,268 @@
+package se.wastedtime.steering.profiling;
+
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.TimeUtils;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Frame profiler for the hot path.
+ * <p>
+ * Sections are registered once and timed with {@link #begin(int)} and {@link #end(int)}, or with the
+ * reusable {@link Scope} of {@link #scope(int)} in a try-with-resources block. The durations of the
+ * last samples of each section are kept in a ring buffer to report their percentiles.
+ * {@link #endFrame()} additionally samples the garbage collectors and, where the JVM supports it,
+ * the bytes allocated by the calling thread since the last frame. Counters show other per frame
+ * numbers, like the agents per steering band.
+ * <p>
+ * Recording doesn't allocate, only {@link #report(StringBuilder)} does. Use it from a single thread.
+ */
+public class Profiler {
+
+    /**
+     * Samples kept per section, 4 seconds at 60 frames per second
+     */
+    public static final int DEFAULT_SAMPLES = 240;
+
+    private static final int NONE = -1;
+
+    private final int capacity;
+    private final Array<String> sectionNames = new Array<>();
+    private long[][] samples = new long[0][];
+    private long[] sampleCount = new long[0];
+    private long[] startTime = new long[0];
+    private boolean[] timed = new boolean[0];
+    private Scope[] scopes = new Scope[0];
+    private final long[] sorted;
+
+    private final Array<String> counterNames = new Array<>();
+    private int[] counters = new int[0];
+
+    private final List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+    private final com.sun.management.ThreadMXBean allocations;
+    private final long threadId = Thread.currentThread().getId();
+    private final int allocationSection;
+    private long lastAllocated;
+    private long collections;
+    private long collectionTime;
+    private long frameCollections;
+
+    private boolean enabled = true;
+
+    public Profiler() {
+        this(DEFAULT_SAMPLES);
+    }
+
+    /**
+     * @param capacity samples kept per section
+     */
+    public Profiler(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        this.capacity = capacity;
+        sorted = new long[capacity];
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()) {
+            allocations = (com.sun.management.ThreadMXBean) threads;
+            allocations.setThreadAllocatedMemoryEnabled(true);
+            allocationSection = addSection("allocated bytes", false);
+            lastAllocated = allocations.getThreadAllocatedBytes(threadId);
+        } else {
+            allocations = null;
+            allocationSection = NONE;
+        }
+        collections = collectionCount();
+        collectionTime = collectionTime();
+    }
+
+    /**
+     * Registers a timed section
+     *
+     * @param name name in the report
+     * @return id of the section
+     */
+    public int addSection(String name) {
+        return addSection(name, true);
+    }
+
+    private int addSection(String name, boolean timed) {
+        int section = sectionNames.size;
+        sectionNames.add(name);
+        samples = Arrays.copyOf(samples, section + 1);
+        samples[section] = new long[capacity];
+        sampleCount = Arrays.copyOf(sampleCount, section + 1);
+        startTime = Arrays.copyOf(startTime, section + 1);
+        this.timed = Arrays.copyOf(this.timed, section + 1);
+        this.timed[section] = timed;
+        scopes = Arrays.copyOf(scopes, section + 1);
+        scopes[section] = new Scope(section);
+        return section;
+    }
+
+    /**
+     * Registers a counter, set it every frame with {@link #setCounter(int, int)}
+     *
+     * @param name name in the report
+     * @return id of the counter
+     */
+    public int addCounter(String name) {
+        int counter = counterNames.size;
+        counterNames.add(name);
+        counters = Arrays.copyOf(counters, counter + 1);
+        return counter;
+    }
+
+    public void setCounter(int counter, int value) {
+        counters[counter] = value;
+    }
+
+    public void begin(int section) {
+        if (enabled)
+            startTime[section] = TimeUtils.nanoTime();
+    }
+
+    public void end(int section) {
+        if (enabled)
+            record(section, TimeUtils.nanoTime() - startTime[section]);
+    }
+
+    /**
+     * Begins the section and returns its scope, ending it when closed
+     * <pre>
+     * try (Profiler.Scope scope = profiler.scope(section)) {
+     *     ...
+     * }
+     * </pre>
+     */
+    public Scope scope(int section) {
+        begin(section);
+        return scopes[section];
+    }
+
+    private void record(int section, long value) {
+        samples[section][(int) (sampleCount[section]++ % capacity)] = value;
+    }
+
+    /**
+     * Samples the garbage collectors and the allocated bytes, call once per frame
+     */
+    public void endFrame() {
+        if (!enabled)
+            return;
+
+        long count = collectionCount();
+        frameCollections = count - collections;
+        collections = count;
+        collectionTime = collectionTime();
+
+        if (allocations != null) {
+            long allocated = allocations.getThreadAllocatedBytes(threadId);
+            record(allocationSection, allocated - lastAllocated);
+            lastAllocated = allocated;
+        }
+    }
+
+    private long collectionCount() {
+        long count = 0;
+        for (int i = 0; i < collectors.size(); i++) {
+            count += Math.max(0, collectors.get(i).getCollectionCount());
+        }
+        return count;
+    }
+
+    private long collectionTime() {
+        long time = 0;
+        for (int i = 0; i < collectors.size(); i++) {
+            time += Math.max(0, collectors.get(i).getCollectionTime());
+        }
+        return time;
+    }
+
+    /**
+     * @param section    id of the section
+     * @param percentile percentile between 0 and 1
+     * @return the percentile of the kept samples, in nanoseconds for timed sections, 0 without samples
+     */
+    public long getPercentile(int section, float percentile) {
+        int size = (int) Math.min(sampleCount[section], capacity);
+        if (size == 0)
+            return 0;
+
+        System.arraycopy(samples[section], 0, sorted, 0, size);
+        Arrays.sort(sorted, 0, size);
+        return sorted[Math.min(size - 1, (int) (percentile * size))];
+    }
+
+    /**
+     * Appends a table of the p50, p99 and maximum of every section, the counters and the garbage collections
+     */
+    public void report(StringBuilder out) {
+        for (int i = 0; i < sectionNames.size; i++) {
+            long p50 = getPercentile(i, 0.5f);
+            long p99 = getPercentile(i, 0.99f);
+            long max = getPercentile(i, 1f);
+            if (timed[i]) {
+                out.append(String.format("%-16s p50 %7.3f ms  p99 %7.3f ms  max %7.3f ms%n",
+                        sectionNames.get(i), p50 / 1e6, p99 / 1e6, max / 1e6));
+            } else {
+                out.append(String.format("%-16s p50 %9d  p99 %9d  max %9d%n",
+                        sectionNames.get(i), p50, p99, max));
+            }
+        }
+        for (int i = 0; i < counterNames.size; i++) {
+            out.append(String.format("%-16s %d%n", counterNames.get(i), counters[i]));
+        }
+        out.append(String.format("gc               %d collections, %d ms, %d last frame%n",
+                collections, collectionTime, frameCollections));
+    }
+
+    /**
+     * Writes the report to the file, replacing it
+     */
+    public void dump(FileHandle file) {
+        StringBuilder report = new StringBuilder();
+        report(report);
+        file.writeString(report.toString(), false);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param enabled false to ignore all calls until enabled again
+     */
+    public void setEnabled(boolean enabled) {
+        // the frame boundaries weren't sampled while disabled
+        if (enabled && !this.enabled) {
+            collections = collectionCount();
+            if (allocations != null)
+                lastAllocated = allocations.getThreadAllocatedBytes(threadId);
+        }
+        this.enabled = enabled;
+    }
+
+    /**
+     * Ends its section when closed, one instance is reused per section
+     */
+    public final class Scope implements AutoCloseable {
+
+        private final int section;
+
+        private Scope(int section) {
+            this.section = section;
+        }
+
+        @Override
+        public void close() {
+            end(section);
+        }
+    }
+}
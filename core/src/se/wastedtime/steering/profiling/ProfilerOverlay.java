@@ -0,0 +1,50 @@
+package se.wastedtime.steering.profiling;
+
+import com.badlogic.gdx.graphics.g2d.BitmapFont;
+import com.badlogic.gdx.graphics.g2d.SpriteBatch;
+import com.badlogic.gdx.utils.Disposable;
+
+/**
+ * Draws the report of a {@link Profiler} in the top left corner of the screen.
+ * <p>
+ * The report is only rebuilt every {@link #REFRESH_FRAMES} frames, so showing the overlay
+ * barely shows up in the allocation counter itself.
+ */
+public class ProfilerOverlay implements Disposable {
+
+    public static final int REFRESH_FRAMES = 30;
+
+    private final Profiler profiler;
+    private final SpriteBatch batch = new SpriteBatch();
+    private final BitmapFont font = new BitmapFont();
+    private final StringBuilder report = new StringBuilder();
+    private String text = "";
+    private int frame;
+
+    public ProfilerOverlay(Profiler profiler) {
+        this.profiler = profiler;
+    }
+
+    /**
+     * @param width  width of the screen in pixels
+     * @param height height of the screen in pixels
+     */
+    public void render(int width, int height) {
+        if (frame++ % REFRESH_FRAMES == 0) {
+            report.setLength(0);
+            profiler.report(report);
+            text = report.toString();
+        }
+
+        batch.getProjectionMatrix().setToOrtho2D(0, 0, width, height);
+        batch.begin();
+        font.draw(batch, text, 8, height - 8);
+        batch.end();
+    }
+
+    @Override
+    public void dispose() {
+        batch.dispose();
+        font.dispose();
+    }
+}
@@ -0,0 +1,238 @@
+package se.wastedtime.steering.simulation;
+
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.utils.Array;
+import se.wastedtime.steering.entities.Character;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Two phase agent update.
+ * <p>
+ * Box2D is not thread-safe, but calculating steering only reads the state each {@link Character}
+ * copied from its body. So the update is split up:
+ * <ol>
+ * <li>{@link #snapshot(Array)} copies positions and bounding radii of all agents into primitive arrays
+ * for the proximity grid and the level of detail, {@link #calculateSteering()} then calculates the steering
+ * of every agent in parallel on a {@link ForkJoinPool} into the agent's steering output.</li>
+ * <li>{@link #apply(float)} applies the steering outputs to the bodies on the calling thread, before the world is stepped.</li>
+ * </ol>
+ * The behaviors read the state through the {@link com.badlogic.gdx.ai.steer.Steerable} of the agents, not the
+ * arrays, and the output is kept on the agents, so the forces aren't copied into arrays as well.
+ * The batches are allocated up front and reused, a tick doesn't allocate.
+ * <p>
+ * With a {@link SteeringLod} the snapshot also sorts the agents into steering bands, agents that
+ * aren't due keep applying their last steering output and far agents are put to sleep.
+ */
+public class AgentUpdatePipeline {
+
+    public static final int DEFAULT_BATCH_SIZE = 256;
+
+    private final ForkJoinPool pool;
+    private final int batchSize;
+    private final SteeringBatch[] batches;
+    private final BatchRunner runner = new BatchRunner();
+    private SteeringLod lod;
+    private boolean parallel = true;
+
+    private Character[] agents = new Character[0];
+    private int count;
+
+    private float[] positionX = new float[0];
+    private float[] positionY = new float[0];
+    private float[] boundingRadius = new float[0];
+
+    public AgentUpdatePipeline() {
+        this(ForkJoinPool.commonPool(), DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * @param pool      pool to calculate the steering on
+     * @param batchSize agents per task, populations up to this size are calculated on the calling thread
+     */
+    public AgentUpdatePipeline(ForkJoinPool pool, int batchSize) {
+        this.pool = pool;
+        this.batchSize = batchSize;
+
+        // a few batches per worker so a slow batch doesn't stall the others
+        batches = new SteeringBatch[pool.getParallelism() * 4];
+        for (int i = 0; i < batches.length; i++) {
+            batches[i] = new SteeringBatch();
+        }
+    }
+
+    /**
+     * Runs both phases for all agents
+     *
+     * @param agents    agents to update
+     * @param deltaTime step length in seconds
+     */
+    public void update(Array<Character> agents, float deltaTime) {
+        snapshot(agents);
+        calculateSteering();
+        apply(deltaTime);
+    }
+
+    /**
+     * Phase 1: copies the state of the agents into the snapshot arrays
+     * The agents have to be synced with their bodies, see {@link Character#syncState()}
+     *
+     * @param agents agents to update this tick
+     */
+    public void snapshot(Array<Character> agents) {
+        ensureCapacity(agents.size);
+        count = agents.size;
+        System.arraycopy(agents.items, 0, this.agents, 0, count);
+
+        for (int i = 0; i < count; i++) {
+            Character agent = this.agents[i];
+            Vector2 position = agent.getPosition();
+            positionX[i] = position.x;
+            positionY[i] = position.y;
+            boundingRadius[i] = agent.getBoundingRadius();
+        }
+
+        if (lod != null)
+            lod.classify(positionX, positionY, count);
+    }
+
+    /**
+     * Phase 1: calculates the steering of all agents of the last snapshot in parallel
+     */
+    public void calculateSteering() {
+        if (!parallel || count <= batchSize) {
+            calculateSteering(0, count);
+            return;
+        }
+
+        int batchCount = Math.min(batches.length, (count + batchSize - 1) / batchSize);
+        int perBatch = (count + batchCount - 1) / batchCount;
+
+        for (int i = 0; i < batchCount; i++) {
+            batches[i].set(i * perBatch, Math.min(count, (i + 1) * perBatch));
+        }
+
+        runner.set(batchCount);
+        pool.invoke(runner);
+    }
+
+    /**
+     * Phase 2: applies the calculated steering to the bodies, call from the thread stepping the world
+     *
+     * @param deltaTime step length in seconds
+     */
+    public void apply(float deltaTime) {
+        for (int i = 0; i < count; i++) {
+            if (lod != null && lod.getBand(i) == SteeringLod.FAR) {
+                // an agent coming closer again doesn't replay the output from before it went far
+                agents[i].getSteeringOutput().setZero();
+                agents[i].sleep();
+                continue;
+            }
+            agents[i].applySteering(deltaTime);
+        }
+    }
+
+    private void calculateSteering(int from, int to) {
+        SteeringLod lod = this.lod;
+        for (int i = from; i < to; i++) {
+            // far agents are put to sleep, between two calculations the last output is applied again
+            if (lod == null || lod.getBand(i) != SteeringLod.FAR && lod.isDue(i))
+                agents[i].calculateSteering();
+        }
+    }
+
+    private void ensureCapacity(int size) {
+        if (agents.length >= size)
+            return;
+
+        int capacity = Math.max(size, agents.length + (agents.length >> 1));
+        agents = new Character[capacity];
+        positionX = new float[capacity];
+        positionY = new float[capacity];
+        boundingRadius = new float[capacity];
+    }
+
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    /**
+     * @param parallel false to calculate all steering on the calling thread, e.g. for behaviors
+     *                 sharing a random generator like Wander in a deterministic simulation
+     */
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    public SteeringLod getLod() {
+        return lod;
+    }
+
+    /**
+     * @param lod level of detail classifying the agents of each snapshot, null to update all agents every step
+     */
+    public void setLod(SteeringLod lod) {
+        this.lod = lod;
+    }
+
+    /**
+     * @return number of agents in the last snapshot
+     */
+    public int getCount() {
+        return count;
+    }
+
+    public float[] getPositionX() {
+        return positionX;
+    }
+
+    public float[] getPositionY() {
+        return positionY;
+    }
+
+    public float[] getBoundingRadius() {
+        return boundingRadius;
+    }
+
+    @SuppressWarnings("serial")
+    private final class SteeringBatch extends RecursiveAction {
+
+        private int from;
+        private int to;
+
+        void set(int from, int to) {
+            this.from = from;
+            this.to = to;
+            reinitialize();
+        }
+
+        @Override
+        protected void compute() {
+            calculateSteering(from, to);
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private final class BatchRunner extends RecursiveAction {
+
+        private int batchCount;
+
+        void set(int batchCount) {
+            this.batchCount = batchCount;
+            reinitialize();
+        }
+
+        @Override
+        protected void compute() {
+            for (int i = 1; i < batchCount; i++) {
+                batches[i].fork();
+            }
+            batches[0].compute();
+            for (int i = 1; i < batchCount; i++) {
+                batches[i].join();
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package se.wastedtime.steering.simulation;
+
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.physics.box2d.Body;
+import se.wastedtime.steering.entities.Character;
+
+import java.util.Arrays;
+
+/**
+ * Transforms and velocities of the agent bodies, read from Box2D in one pass per step.
+ * <p>
+ * Every body is read exactly once after the world step and its state is stored interleaved in a
+ * single array, {@link #STRIDE} floats per agent. The agents sync from the array, and everything
+ * reading the state later on (steering, the pipeline snapshot, the rendering) reads the copies
+ * of the agents instead of crossing JNI again.
+ */
+public class BodyStateSnapshot {
+
+    public static final int X = 0;
+    public static final int Y = 1;
+    public static final int ANGLE = 2;
+    public static final int VELOCITY_X = 3;
+    public static final int VELOCITY_Y = 4;
+    public static final int ANGULAR_VELOCITY = 5;
+    public static final int STRIDE = 6;
+
+    private float[] state = new float[0];
+    private int count;
+
+    /**
+     * Reads the state of the agent bodies, call from the thread stepping the world
+     *
+     * @param agents agents to read, indexed like the snapshot
+     * @param count  number of agents
+     */
+    public void capture(Character[] agents, int count) {
+        if (state.length < count * STRIDE)
+            state = Arrays.copyOf(state, Math.max(count, state.length / STRIDE + (state.length / STRIDE >> 1)) * STRIDE);
+        this.count = count;
+
+        float[] state = this.state;
+        for (int i = 0, offset = 0; i < count; i++, offset += STRIDE) {
+            Body body = agents[i].getBody();
+            Vector2 position = body.getPosition();
+            state[offset + X] = position.x;
+            state[offset + Y] = position.y;
+            state[offset + ANGLE] = body.getAngle();
+            Vector2 velocity = body.getLinearVelocity();
+            state[offset + VELOCITY_X] = velocity.x;
+            state[offset + VELOCITY_Y] = velocity.y;
+            state[offset + ANGULAR_VELOCITY] = body.getAngularVelocity();
+        }
+    }
+
+    /**
+     * FNV-1a hash over the bits of the captured state, the same state always gives the same hash
+     *
+     * @return hash of the last capture
+     */
+    public long hash() {
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0, size = count * STRIDE; i < size; i++) {
+            hash = (hash ^ Float.floatToRawIntBits(state[i])) * 0x100000001B3L;
+        }
+        return hash;
+    }
+
+    /**
+     * @return the captured state, {@link #STRIDE} floats per agent starting at index * STRIDE
+     */
+    public float[] getState() {
+        return state;
+    }
+
+    /**
+     * @return number of agents in the last capture
+     */
+    public int getCount() {
+        return count;
+    }
+}
@@ -0,0 +1,42 @@
+package se.wastedtime.steering.simulation;
+
+import com.badlogic.gdx.ai.steer.behaviors.Arrive;
+import com.badlogic.gdx.math.Vector2;
+import se.wastedtime.steering.entities.Character;
+
+/**
+ * The agents of the interactive demo: a player moved by clicks and a target it arrives at.
+ * <p>
+ * Shared by the {@code GameScreen} and the {@link ReplayRunner}, a replay only reproduces a session
+ * if the simulation is populated the same way.
+ */
+public final class DemoScene {
+
+    /**
+     * Index of the player in {@link Simulation#getAgents()}
+     */
+    public static final int PLAYER = 0;
+    /**
+     * Index of the target in {@link Simulation#getAgents()}
+     */
+    public static final int TARGET = 1;
+
+    private DemoScene() {
+    }
+
+    /**
+     * Adds the agents of the demo, the simulation has to be empty
+     */
+    public static void populate(Simulation simulation) {
+        if (simulation.getAgents().size != 0)
+            throw new IllegalArgumentException("The simulation already has agents: " + simulation.getAgents().size);
+
+        Character character = simulation.spawn(5, 5);
+        Character target = simulation.spawn(10, 10);
+
+        character.setSteeringBehavior(new Arrive<Vector2>(character, target)
+                .setTimeToTarget(0.1f)
+                .setArrivalTolerance(0.001f)
+                .setDecelerationRadius(1));
+    }
+}
@@ -0,0 +1,114 @@
+package se.wastedtime.steering.simulation;
+
+import com.badlogic.gdx.ApplicationAdapter;
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.ai.steer.behaviors.Arrive;
+import com.badlogic.gdx.maps.tiled.TiledMap;
+import com.badlogic.gdx.math.RandomXS128;
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.utils.TimeUtils;
+import se.wastedtime.steering.Box2DLocation;
+import se.wastedtime.steering.HeadlessTmxMapLoader;
+import se.wastedtime.steering.entities.Character;
+
+/**
+ * Runs the steering and physics simulation without a GL context.
+ * <p>
+ * Loads the map through the {@link HeadlessTmxMapLoader}, spawns agents arriving at
+ * random targets and steps the {@link Simulation} as fast as possible. The achieved
+ * ticks per second are logged while running and once at the end, then the application exits.
+ */
+public class HeadlessSimulation extends ApplicationAdapter {
+
+    private static final String TAG = "headless";
+    private static final int REPORT_INTERVAL = 1000;
+
+    private final String mapName;
+    private final int agentCount;
+    private final int ticks;
+    private final int tickRate;
+    private final long seed;
+
+    private float ticksPerSecond;
+
+    /**
+     * @param mapName    tmx map to load
+     * @param agentCount number of agents to spawn
+     * @param ticks      number of steps to simulate
+     * @param tickRate   simulated steps per second, defines the step length
+     * @param seed       seed for spawn positions and targets
+     */
+    public HeadlessSimulation(String mapName, int agentCount, int ticks, int tickRate, long seed) {
+        this.mapName = mapName;
+        this.agentCount = agentCount;
+        this.ticks = ticks;
+        this.tickRate = tickRate;
+        this.seed = seed;
+    }
+
+    @Override
+    public void create() {
+        long loadStart = TimeUtils.nanoTime();
+        TiledMap map = new HeadlessTmxMapLoader().load(mapName);
+        Simulation simulation = new Simulation(map, mapName, Gdx.files.internal("materials.json"));
+        spawnAgents(simulation);
+        Gdx.app.log(TAG, "Loaded " + mapName + " with " + agentCount + " agents in "
+                + TimeUtils.nanosToMillis(TimeUtils.timeSinceNanos(loadStart)) + "ms");
+
+        float stepTime = 1f / tickRate;
+        long start = TimeUtils.nanoTime();
+        long intervalStart = start;
+
+        for (int i = 1; i <= ticks; i++) {
+            simulation.step(stepTime);
+
+            if (i % REPORT_INTERVAL == 0) {
+                long now = TimeUtils.nanoTime();
+                Gdx.app.log(TAG, "tick " + i + ": " + (int) perSecond(REPORT_INTERVAL, now - intervalStart) + " ticks/s");
+                intervalStart = now;
+            }
+        }
+
+        long elapsed = TimeUtils.timeSinceNanos(start);
+        ticksPerSecond = perSecond(ticks, elapsed);
+        Gdx.app.log(TAG, ticks + " ticks with " + agentCount + " agents in "
+                + TimeUtils.nanosToMillis(elapsed) + "ms: " + (int) ticksPerSecond + " ticks/s, "
+                + (long) (ticksPerSecond * agentCount) + " agent updates/s, "
+                + String.format("%.1f", ticksPerSecond / tickRate) + "x realtime");
+
+        simulation.dispose();
+        map.dispose();
+        Gdx.app.exit();
+    }
+
+    private void spawnAgents(Simulation simulation) {
+        RandomXS128 random = new RandomXS128(seed);
+        float width = simulation.getWidth();
+        float height = simulation.getHeight();
+
+        for (int i = 0; i < agentCount; i++) {
+            Character character = simulation.spawn(new Vector2(random.nextFloat() * width, random.nextFloat() * height));
+            character.setMaxLinearSpeed(3f);
+            character.setMaxLinearAcceleration(50f);
+
+            Box2DLocation target = new Box2DLocation();
+            target.getPosition().set(random.nextFloat() * width, random.nextFloat() * height);
+
+            character.setSteeringBehavior(new Arrive<>(character, target)
+                    .setTimeToTarget(0.1f)
+                    .setArrivalTolerance(0.001f)
+                    .setDecelerationRadius(1));
+        }
+    }
+
+    private static float perSecond(int ticks, long nanos) {
+        return nanos == 0 ? 0 : ticks * 1_000_000_000f / nanos;
+    }
+
+    /**
+     * @return ticks per second of the last run
+     */
+    public float getTicksPerSecond() {
+        return ticksPerSecond;
+    }
+}
@@ -0,0 +1,135 @@
+package se.wastedtime.steering.simulation;
+
+import com.badlogic.gdx.math.MathUtils;
+import com.badlogic.gdx.math.Vector2;
+
+/**
+ * Deterministic stepping of a {@link Simulation} for recording and replaying sessions.
+ * <p>
+ * Input only reaches the simulation as commands executed before a tick, so a session is reproduced
+ * by the same commands at the same ticks. Everything else that could differ between two runs is pinned:
+ * <ul>
+ * <li>the shared random generator of the behaviors (e.g. Wander) is seeded by the {@link Replay},</li>
+ * <li>steering is calculated on the calling thread, the behaviors draw the random numbers in order,</li>
+ * <li>the steering level of detail is turned off, it depends on the camera,</li>
+ * <li>queued paths are searched to completion every tick instead of within a time budget.</li>
+ * </ul>
+ * After every tick the state of the agent bodies is hashed. While recording the hashes are added to
+ * the replay, while replaying they are compared to the recorded ones.
+ * The simulation has to be new and populated the same way for both runs, e.g. by {@link DemoScene}.
+ */
+public class Lockstep {
+
+    /**
+     * Requests a path for the agent to the position
+     */
+    public static final int MOVE_TO = 0;
+
+    private final Simulation simulation;
+    private final Replay replay;
+    private final boolean replaying;
+    private final float stepTime;
+
+    private int nextCommand;
+    private long lastHash;
+    private long mismatchTick = -1;
+    private final Vector2 goal = new Vector2();
+
+    /**
+     * @param simulation new simulation, populated but not stepped yet
+     * @param replay     replay to record to, or to replay
+     * @param replaying  true to execute the commands of the replay, false to record new ones
+     */
+    public Lockstep(Simulation simulation, Replay replay, boolean replaying) {
+        if (simulation.getTick() != 0)
+            throw new IllegalArgumentException("The simulation was already stepped: " + simulation.getTick());
+        this.simulation = simulation;
+        this.replay = replay;
+        this.replaying = replaying;
+        this.stepTime = 1f / replay.getTickRate();
+
+        MathUtils.random.setSeed(replay.getSeed());
+        simulation.getPipeline().setParallel(false);
+        simulation.getPipeline().setLod(null);
+    }
+
+    /**
+     * Records a {@link #MOVE_TO} command, executed before the next tick
+     *
+     * @param agent index of the agent in {@link Simulation#getAgents()}
+     * @param x     goal x in WorldUnits
+     * @param y     goal y in WorldUnits
+     */
+    public void moveTo(int agent, float x, float y) {
+        if (replaying)
+            throw new IllegalStateException("Can't add commands while replaying");
+        replay.addCommand(simulation.getTick(), MOVE_TO, agent, x, y);
+    }
+
+    /**
+     * Executes the commands of this tick and advances the simulation by one step
+     *
+     * @return hash of the agent bodies after the step
+     */
+    public long step() {
+        long tick = simulation.getTick();
+        while (nextCommand < replay.getCommandCount() && replay.getCommandTick(nextCommand) == tick) {
+            execute(nextCommand++);
+        }
+
+        simulation.getPathRequestScheduler().run(Long.MAX_VALUE);
+        simulation.step(stepTime);
+        lastHash = simulation.getBodyState().hash();
+
+        if (!replaying)
+            replay.addHash(lastHash);
+        else if (mismatchTick < 0 && (tick >= replay.getHashCount() || replay.getHash((int) tick) != lastHash))
+            mismatchTick = tick;
+        return lastHash;
+    }
+
+    private void execute(int command) {
+        int agent = replay.getCommandAgent(command);
+        switch (replay.getCommandType(command)) {
+            case MOVE_TO:
+                goal.set(replay.getCommandX(command), replay.getCommandY(command));
+                simulation.getAgents().get(agent).requestPath(simulation.getPathRequestScheduler(), goal);
+                break;
+            default:
+                throw new IllegalStateException("Unknown command type: " + replay.getCommandType(command));
+        }
+    }
+
+    /**
+     * @return true if all recorded ticks were replayed
+     */
+    public boolean isFinished() {
+        return replaying && simulation.getTick() >= replay.getHashCount();
+    }
+
+    /**
+     * @return first replayed tick whose hash didn't match the recording, -1 if all matched so far
+     */
+    public long getMismatchTick() {
+        return mismatchTick;
+    }
+
+    public long getLastHash() {
+        return lastHash;
+    }
+
+    /**
+     * @return step length in seconds
+     */
+    public float getStepTime() {
+        return stepTime;
+    }
+
+    public Replay getReplay() {
+        return replay;
+    }
+
+    public Simulation getSimulation() {
+        return simulation;
+    }
+}
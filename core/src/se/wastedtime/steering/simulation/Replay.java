@@ -0,0 +1,174 @@
+package se.wastedtime.steering.simulation;
+
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.utils.FloatArray;
+import com.badlogic.gdx.utils.IntArray;
+import com.badlogic.gdx.utils.LongArray;
+import com.badlogic.gdx.utils.StreamUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Recorded session of a {@link Lockstep} simulation: the settings it was started with,
+ * the input commands by tick and the state hash after every tick.
+ * <p>
+ * The commands are sorted by tick, they are added while recording. A replay file is a small
+ * header followed by the commands and the hashes, all big endian.
+ */
+public class Replay {
+
+    private static final int MAGIC = 0x53524550; // "SREP"
+    private static final int VERSION = 1;
+
+    private final String mapName;
+    private final int tickRate;
+    private final long seed;
+
+    private final LongArray commandTicks = new LongArray();
+    private final IntArray commandTypes = new IntArray();
+    private final IntArray commandAgents = new IntArray();
+    private final FloatArray commandPositions = new FloatArray();
+    private final LongArray hashes = new LongArray();
+
+    /**
+     * @param mapName  map the session runs on
+     * @param tickRate simulation steps per second
+     * @param seed     seed of the random generator shared by the behaviors
+     */
+    public Replay(String mapName, int tickRate, long seed) {
+        this.mapName = mapName;
+        this.tickRate = tickRate;
+        this.seed = seed;
+    }
+
+    /**
+     * @param tick     tick the command is executed before
+     * @param type     type of the command, see {@link Lockstep}
+     * @param agent    index of the agent in the simulation
+     * @param x        x position in WorldUnits
+     * @param y        y position in WorldUnits
+     */
+    public void addCommand(long tick, int type, int agent, float x, float y) {
+        if (commandTicks.size > 0 && tick < commandTicks.peek())
+            throw new IllegalArgumentException("Commands must be added in tick order: " + tick + " < " + commandTicks.peek());
+        commandTicks.add(tick);
+        commandTypes.add(type);
+        commandAgents.add(agent);
+        commandPositions.add(x, y);
+    }
+
+    public void addHash(long hash) {
+        hashes.add(hash);
+    }
+
+    public void write(FileHandle file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file.write(false)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(mapName);
+            out.writeInt(tickRate);
+            out.writeLong(seed);
+
+            out.writeInt(commandTicks.size);
+            for (int i = 0; i < commandTicks.size; i++) {
+                out.writeLong(commandTicks.get(i));
+                out.writeInt(commandTypes.get(i));
+                out.writeInt(commandAgents.get(i));
+                out.writeFloat(commandPositions.get(i * 2));
+                out.writeFloat(commandPositions.get(i * 2 + 1));
+            }
+
+            out.writeInt(hashes.size);
+            for (int i = 0; i < hashes.size; i++) {
+                out.writeLong(hashes.get(i));
+            }
+        } finally {
+            StreamUtils.closeQuietly(out);
+        }
+    }
+
+    /**
+     * @throws IOException if the file isn't a replay of this version or is cut off
+     */
+    public static Replay read(FileHandle file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(file.read()));
+        try {
+            if (in.readInt() != MAGIC)
+                throw new IOException("Not a replay: " + file);
+            int version = in.readInt();
+            if (version != VERSION)
+                throw new IOException("Unsupported replay version " + version + ": " + file);
+
+            Replay replay = new Replay(in.readUTF(), in.readInt(), in.readLong());
+
+            int commands = in.readInt();
+            for (int i = 0; i < commands; i++) {
+                replay.addCommand(in.readLong(), in.readInt(), in.readInt(), in.readFloat(), in.readFloat());
+            }
+
+            int hashes = in.readInt();
+            replay.hashes.ensureCapacity(hashes);
+            for (int i = 0; i < hashes; i++) {
+                replay.addHash(in.readLong());
+            }
+            return replay;
+        } finally {
+            StreamUtils.closeQuietly(in);
+        }
+    }
+
+    public String getMapName() {
+        return mapName;
+    }
+
+    public int getTickRate() {
+        return tickRate;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public int getCommandCount() {
+        return commandTicks.size;
+    }
+
+    public long getCommandTick(int command) {
+        return commandTicks.get(command);
+    }
+
+    public int getCommandType(int command) {
+        return commandTypes.get(command);
+    }
+
+    public int getCommandAgent(int command) {
+        return commandAgents.get(command);
+    }
+
+    public float getCommandX(int command) {
+        return commandPositions.get(command * 2);
+    }
+
+    public float getCommandY(int command) {
+        return commandPositions.get(command * 2 + 1);
+    }
+
+    /**
+     * @return number of recorded ticks
+     */
+    public int getHashCount() {
+        return hashes.size;
+    }
+
+    /**
+     * @return state hash after the tick
+     */
+    public long getHash(int tick) {
+        return hashes.get(tick);
+    }
+}
@@ -0,0 +1,75 @@
+package se.wastedtime.steering.simulation;
+
+import com.badlogic.gdx.ApplicationAdapter;
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.maps.tiled.TiledMap;
+import com.badlogic.gdx.utils.TimeUtils;
+import se.wastedtime.steering.HeadlessTmxMapLoader;
+
+/**
+ * Replays a recorded {@link Replay} without a GL context and checks it against the recorded hashes.
+ * <p>
+ * The ticks are stepped as fast as possible, the first tick whose state differs from the recording
+ * is logged together with the achieved ticks per second, then the application exits.
+ * The map is loaded through the {@link HeadlessTmxMapLoader}, which keeps the tile properties, so the
+ * navigation graph has the same blocked tiles as in the {@code GameScreen} the replay was recorded in.
+ */
+public class ReplayRunner extends ApplicationAdapter {
+
+    private static final String TAG = "replay";
+
+    private final Replay replay;
+
+    private long mismatchTick = -1;
+    private float ticksPerSecond;
+
+    /**
+     * @param replay replay to run, on the map it was recorded on
+     */
+    public ReplayRunner(Replay replay) {
+        this.replay = replay;
+    }
+
+    @Override
+    public void create() {
+        TiledMap map = new HeadlessTmxMapLoader().load(replay.getMapName());
+        Simulation simulation = new Simulation(map, replay.getMapName(), Gdx.files.internal("materials.json"));
+        DemoScene.populate(simulation);
+
+        Lockstep lockstep = new Lockstep(simulation, replay, true);
+        long start = TimeUtils.nanoTime();
+        while (!lockstep.isFinished()) {
+            lockstep.step();
+        }
+        long elapsed = TimeUtils.timeSinceNanos(start);
+        int ticks = replay.getHashCount();
+        ticksPerSecond = elapsed == 0 ? 0 : ticks * 1_000_000_000f / elapsed;
+        mismatchTick = lockstep.getMismatchTick();
+
+        Gdx.app.log(TAG, ticks + " ticks with " + replay.getCommandCount() + " commands in "
+                + TimeUtils.nanosToMillis(elapsed) + "ms: " + (int) ticksPerSecond + " ticks/s, "
+                + String.format("%.1f", ticksPerSecond / replay.getTickRate()) + "x realtime");
+        if (mismatchTick < 0)
+            Gdx.app.log(TAG, "All ticks match the recording");
+        else
+            Gdx.app.error(TAG, "Desynced at tick " + mismatchTick);
+
+        simulation.dispose();
+        map.dispose();
+        Gdx.app.exit();
+    }
+
+    /**
+     * @return first tick that didn't match the recording, -1 if the replay matched
+     */
+    public long getMismatchTick() {
+        return mismatchTick;
+    }
+
+    /**
+     * @return ticks per second of the replay
+     */
+    public float getTicksPerSecond() {
+        return ticksPerSecond;
+    }
+}
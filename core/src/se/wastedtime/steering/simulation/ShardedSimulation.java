@@ -0,0 +1,522 @@
+package se.wastedtime.steering.simulation;
+
+import com.badlogic.gdx.ai.DefaultTimepiece;
+import com.badlogic.gdx.ai.GdxAI;
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.maps.tiled.TiledMap;
+import com.badlogic.gdx.math.Rectangle;
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.physics.box2d.Body;
+import com.badlogic.gdx.physics.box2d.BodyDef;
+import com.badlogic.gdx.physics.box2d.FixtureDef;
+import com.badlogic.gdx.physics.box2d.PolygonShape;
+import com.badlogic.gdx.physics.box2d.World;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.IntArray;
+import se.wastedtime.steering.MapBodyManager;
+import se.wastedtime.steering.ai.SpatialHashGrid;
+import se.wastedtime.steering.ai.SpatialHashProximity;
+import se.wastedtime.steering.entities.Character;
+import se.wastedtime.steering.map.CollisionGeometry;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import static se.wastedtime.steering.simulation.Simulation.PIXELS_PER_METER;
+import static se.wastedtime.steering.simulation.Simulation.POSITION_ITERATIONS;
+import static se.wastedtime.steering.simulation.Simulation.VELOCITY_ITERATIONS;
+
+/**
+ * Steering and physics of a map split into shards that are stepped in parallel.
+ * <p>
+ * The map is partitioned into a grid of shards, each with its own Box2D {@link World}. A shard
+ * holds the static bodies of the {@link CollisionGeometry} reaching into it or its ghost margin,
+ * built by its own {@link MapBodyManager}, and the agents whose position lies in the shard.
+ * A step runs in three phases:
+ * <ol>
+ * <li>On the calling thread the steering of all agents is calculated by the {@link AgentUpdatePipeline}
+ * like in a {@link Simulation}, and every agent within the ghost margin of a neighbouring shard is
+ * mirrored there as a kinematic ghost body with its transform and velocity.</li>
+ * <li>The shards apply the steering of their agents, step their world and copy the state of their
+ * agents back in parallel on a {@link ForkJoinPool}, a shard only touches its own world and agents.</li>
+ * <li>On the calling thread agents that left their shard are handed off, their body is moved into the
+ * world of the shard they are in now.</li>
+ * </ol>
+ * Agents collide with the agents of a neighbouring shard through the ghosts. A ghost pushes the agents of
+ * its shard but isn't pushed back, the real agent is pushed by the ghosts on the other side instead, so
+ * contacts across a border are softer by one step than inside a shard.
+ * <p>
+ * Not supported compared to a {@link Simulation}: pathfinding, the steering level of detail and pooling,
+ * spawned agents are created and destroyed.
+ */
+public class ShardedSimulation implements Disposable {
+
+    /**
+     * Distance from a shard border up to which agents are mirrored into the neighbour, in WorldUnits
+     */
+    public static final float DEFAULT_GHOST_MARGIN = 1f;
+
+    private final CollisionGeometry collisionGeometry;
+    private final Shard[] shards;
+    private final int columns;
+    private final int rows;
+    private final float width;
+    private final float height;
+    private final float shardWidth;
+    private final float shardHeight;
+    private final float ghostMargin;
+
+    private final Array<Character> agents = new Array<>(false, 16, Character.class);
+    private final AgentUpdatePipeline pipeline = new AgentUpdatePipeline();
+    private final SpatialHashGrid proximityGrid;
+    private final ForkJoinPool pool;
+    private final StepRunner runner = new StepRunner();
+
+    private final BodyDef agentBodyDef = Character.createBodyDef();
+    private final BodyDef transferBodyDef = Character.createBodyDef();
+    private final BodyDef ghostBodyDef = new BodyDef();
+    private final PolygonShape agentShape = Character.createShape();
+    private final FixtureDef agentFixtureDef = Character.createFixtureDef(agentShape);
+
+    private final DefaultTimepiece timepiece = new DefaultTimepiece();
+    private long tick;
+    private int handoffs;
+    private int ghosts;
+    private int limitedAgents;
+
+    /**
+     * @param map           map to create the static bodies from, uses the "physics" layer
+     * @param mapName       name of the map file
+     * @param materialsFile json file with the physics materials
+     * @param columns       number of shards along x
+     * @param rows          number of shards along y
+     */
+    public ShardedSimulation(TiledMap map, String mapName, FileHandle materialsFile, int columns, int rows) {
+        this(map, mapName, materialsFile, columns, rows, DEFAULT_GHOST_MARGIN, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param map           map to create the static bodies from, uses the "physics" layer
+     * @param mapName       name of the map file
+     * @param materialsFile json file with the physics materials
+     * @param columns       number of shards along x
+     * @param rows          number of shards along y
+     * @param ghostMargin   distance from a shard border up to which agents are mirrored, at least the size of an agent
+     * @param pool          pool the shards are stepped on
+     */
+    public ShardedSimulation(TiledMap map, String mapName, FileHandle materialsFile, int columns, int rows,
+                             float ghostMargin, ForkJoinPool pool) {
+        if (columns < 1 || rows < 1)
+            throw new IllegalArgumentException("Needs at least one shard: " + columns + "x" + rows);
+        if (ghostMargin < Character.HALF_SIZE * 2)
+            throw new IllegalArgumentException("ghostMargin must cover an agent: " + ghostMargin);
+        this.columns = columns;
+        this.rows = rows;
+        this.ghostMargin = ghostMargin;
+        this.pool = pool;
+
+        width = map.getProperties().get("width", Integer.class)
+                * map.getProperties().get("tilewidth", Integer.class) / PIXELS_PER_METER;
+        height = map.getProperties().get("height", Integer.class)
+                * map.getProperties().get("tileheight", Integer.class) / PIXELS_PER_METER;
+        shardWidth = width / columns;
+        shardHeight = height / rows;
+
+        ghostBodyDef.type = BodyDef.BodyType.KinematicBody;
+        ghostBodyDef.fixedRotation = true;
+
+        // the geometry is built or loaded once, the other shards only create bodies from it
+        shards = new Shard[columns * rows];
+        for (int y = 0; y < rows; y++) {
+            for (int x = 0; x < columns; x++) {
+                MapBodyManager mapBodyManager = new MapBodyManager(Simulation.createWorld(), PIXELS_PER_METER,
+                        x == 0 && y == 0 ? materialsFile : null);
+                shards[y * columns + x] = new Shard(mapBodyManager, x * shardWidth, y * shardHeight,
+                        (x + 1) * shardWidth, (y + 1) * shardHeight);
+            }
+        }
+        collisionGeometry = shards[0].mapBodyManager.loadGeometry(map, Simulation.PHYSICS_LAYER, mapName,
+                MapBodyManager.DEFAULT_REGION_SIZE);
+        createStaticBodies();
+
+        proximityGrid = SpatialHashGrid.fromMap(map, PIXELS_PER_METER, SpatialHashGrid.DEFAULT_TILES_PER_CELL);
+    }
+
+    /**
+     * Creates every static body in each shard it reaches into, including the ghost margin
+     */
+    private void createStaticBodies() {
+        IntArray[] shardBodies = new IntArray[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            shardBodies[i] = new IntArray();
+        }
+
+        Rectangle bounds = new Rectangle();
+        for (int i = 0; i < collisionGeometry.getBodyCount(); i++) {
+            collisionGeometry.getBodyBounds(i, bounds);
+            int fromX = column(bounds.x - ghostMargin);
+            int toX = column(bounds.x + bounds.width + ghostMargin);
+            int fromY = row(bounds.y - ghostMargin);
+            int toY = row(bounds.y + bounds.height + ghostMargin);
+            for (int y = fromY; y <= toY; y++) {
+                for (int x = fromX; x <= toX; x++) {
+                    shardBodies[y * columns + x].add(i);
+                }
+            }
+        }
+
+        for (int i = 0; i < shards.length; i++) {
+            // the bodies of a shard share one set of shapes
+            shards[i].mapBodyManager.loadBodies(collisionGeometry, shardBodies[i]);
+        }
+    }
+
+    private int column(float x) {
+        return Math.max(0, Math.min(columns - 1, (int) (x / shardWidth)));
+    }
+
+    private int row(float y) {
+        return Math.max(0, Math.min(rows - 1, (int) (y / shardHeight)));
+    }
+
+    /**
+     * @return index of the shard containing the position, positions outside the map belong to the nearest shard
+     */
+    public int shardIndex(float x, float y) {
+        return row(y) * columns + column(x);
+    }
+
+    /**
+     * Creates an agent in the shard of the position and registers it
+     *
+     * @param x x spawn position in WorldUnits
+     * @param y y spawn position in WorldUnits
+     * @return the new agent
+     */
+    public Character spawn(float x, float y) {
+        Shard shard = shards[shardIndex(x, y)];
+        Character character = new Character(shard.world, agentBodyDef, agentFixtureDef);
+        character.activate(x, y);
+        character.setWorldBounds(width, height);
+        agents.add(character);
+        shard.agents.add(character);
+        return character;
+    }
+
+    /**
+     * Unregisters the agent and destroys its body
+     */
+    public void despawn(Character character) {
+        for (Shard shard : shards) {
+            if (shard.world == character.getWorld()) {
+                shard.agents.removeValue(character, true);
+                break;
+            }
+        }
+        agents.removeValue(character, true);
+        character.destroy();
+    }
+
+    /**
+     * Creates a proximity of the agents around the owner for group behaviors, updated every step
+     *
+     * @param owner  agent the proximity belongs to
+     * @param radius detection radius in WorldUnits
+     */
+    public SpatialHashProximity<Character> createProximity(Character owner, float radius) {
+        return new SpatialHashProximity<>(owner, proximityGrid, agents, radius);
+    }
+
+    /**
+     * Advances steering and physics of all shards by one step
+     *
+     * @param stepTime step length in seconds
+     */
+    public void step(float stepTime) {
+        timepiece.update(stepTime);
+        GdxAI.setTimepiece(timepiece);
+
+        Character[] items = agents.items;
+        int size = agents.size;
+        for (int i = 0; i < size; i++) {
+            items[i].savePreviousState();
+        }
+
+        pipeline.snapshot(agents);
+        proximityGrid.update(pipeline.getPositionX(), pipeline.getPositionY(), pipeline.getBoundingRadius(), size);
+        pipeline.calculateSteering();
+        updateGhosts();
+
+        runner.set(stepTime);
+        pool.invoke(runner);
+
+        int limited = 0;
+        for (Shard shard : shards) {
+            limited += shard.limited;
+        }
+        limitedAgents = limited;
+        handOff();
+        tick++;
+    }
+
+    /**
+     * Mirrors the agents near a border into the neighbouring shards, unused ghosts are deactivated
+     */
+    private void updateGhosts() {
+        for (Shard shard : shards) {
+            shard.ghostCount = 0;
+        }
+
+        for (int s = 0; s < shards.length; s++) {
+            Shard shard = shards[s];
+            int shardX = s % columns;
+            int shardY = s / columns;
+            for (int i = 0; i < shard.agents.size; i++) {
+                Character agent = shard.agents.get(i);
+                Vector2 position = agent.getPosition();
+                // most agents aren't near a border
+                boolean left = shardX > 0 && position.x - shard.minX < ghostMargin;
+                boolean right = shardX < columns - 1 && shard.maxX - position.x < ghostMargin;
+                boolean bottom = shardY > 0 && position.y - shard.minY < ghostMargin;
+                boolean top = shardY < rows - 1 && shard.maxY - position.y < ghostMargin;
+                if (!left && !right && !bottom && !top)
+                    continue;
+
+                int fromX = left ? shardX - 1 : shardX;
+                int toX = right ? shardX + 1 : shardX;
+                int fromY = bottom ? shardY - 1 : shardY;
+                int toY = top ? shardY + 1 : shardY;
+                for (int y = fromY; y <= toY; y++) {
+                    for (int x = fromX; x <= toX; x++) {
+                        if (x != shardX || y != shardY)
+                            shards[y * columns + x].mirror(agent);
+                    }
+                }
+            }
+        }
+
+        int count = 0;
+        for (Shard shard : shards) {
+            shard.deactivateUnusedGhosts();
+            count += shard.ghostCount;
+        }
+        ghosts = count;
+    }
+
+    /**
+     * Moves the agents that left their shard into the world of the shard they are in now
+     */
+    private void handOff() {
+        int count = 0;
+        for (int s = 0; s < shards.length; s++) {
+            Array<Character> owned = shards[s].agents;
+            for (int i = owned.size - 1; i >= 0; i--) {
+                Character agent = owned.get(i);
+                int target = shardIndex(agent.getPosition().x, agent.getPosition().y);
+                if (target == s)
+                    continue;
+
+                owned.removeIndex(i);
+                agent.transfer(shards[target].world, transferBodyDef, agentFixtureDef);
+                shards[target].agents.add(agent);
+                count++;
+            }
+        }
+        handoffs = count;
+    }
+
+    public Array<Character> getAgents() {
+        return agents;
+    }
+
+    public AgentUpdatePipeline getPipeline() {
+        return pipeline;
+    }
+
+    public SpatialHashGrid getProximityGrid() {
+        return proximityGrid;
+    }
+
+    public CollisionGeometry getCollisionGeometry() {
+        return collisionGeometry;
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * @return world of the shard, step it only through {@link #step(float)}
+     */
+    public World getWorld(int shard) {
+        return shards[shard].world;
+    }
+
+    /**
+     * @return agents owned by the shard
+     */
+    public Array<Character> getShardAgents(int shard) {
+        return shards[shard].agents;
+    }
+
+    /**
+     * @return number of agents that moved to another shard in the last step
+     */
+    public int getHandoffs() {
+        return handoffs;
+    }
+
+    /**
+     * @return number of ghost bodies active in the last step
+     */
+    public int getGhosts() {
+        return ghosts;
+    }
+
+    /**
+     * @return number of agents whose speed was truncated after the last step
+     */
+    public int getLimitedAgents() {
+        return limitedAgents;
+    }
+
+    /**
+     * @return width of the map in WorldUnits
+     */
+    public float getWidth() {
+        return width;
+    }
+
+    /**
+     * @return height of the map in WorldUnits
+     */
+    public float getHeight() {
+        return height;
+    }
+
+    public long getTick() {
+        return tick;
+    }
+
+    @Override
+    public void dispose() {
+        for (Shard shard : shards) {
+            shard.world.dispose();
+        }
+        agentShape.dispose();
+    }
+
+    @SuppressWarnings("serial")
+    private final class Shard extends RecursiveAction {
+
+        final World world;
+        final MapBodyManager mapBodyManager;
+        final float minX;
+        final float minY;
+        final float maxX;
+        final float maxY;
+        final Array<Character> agents = new Array<>(false, 16, Character.class);
+        final BodyStateSnapshot bodyState = new BodyStateSnapshot();
+        final Array<Body> ghosts = new Array<>();
+        int ghostCount;
+
+        float stepTime;
+        int limited;
+
+        Shard(MapBodyManager mapBodyManager, float minX, float minY, float maxX, float maxY) {
+            this.world = mapBodyManager.getWorld();
+            this.mapBodyManager = mapBodyManager;
+            this.minX = minX;
+            this.minY = minY;
+            this.maxX = maxX;
+            this.maxY = maxY;
+        }
+
+        /**
+         * Moves the next ghost to the agent, the ghosts are created on demand and reused
+         */
+        void mirror(Character agent) {
+            Body ghost;
+            if (ghostCount < ghosts.size) {
+                ghost = ghosts.get(ghostCount);
+            } else {
+                ghost = world.createBody(ghostBodyDef);
+                ghost.createFixture(agentFixtureDef);
+                ghosts.add(ghost);
+            }
+            ghostCount++;
+
+            Vector2 position = agent.getPosition();
+            Vector2 velocity = agent.getLinearVelocity();
+            ghost.setTransform(position.x, position.y, agent.getOrientation());
+            ghost.setLinearVelocity(velocity.x, velocity.y);
+            ghost.setAngularVelocity(agent.getAngularVelocity());
+            if (!ghost.isActive())
+                ghost.setActive(true);
+        }
+
+        void deactivateUnusedGhosts() {
+            for (int i = ghostCount; i < ghosts.size; i++) {
+                Body ghost = ghosts.get(i);
+                if (ghost.isActive())
+                    ghost.setActive(false);
+            }
+        }
+
+        @Override
+        protected void compute() {
+            Character[] items = agents.items;
+            int size = agents.size;
+            for (int i = 0; i < size; i++) {
+                items[i].applySteering(stepTime);
+            }
+
+            world.step(stepTime, VELOCITY_ITERATIONS, POSITION_ITERATIONS);
+
+            bodyState.capture(items, size);
+            float[] state = bodyState.getState();
+            int limited = 0;
+            for (int i = 0; i < size; i++) {
+                items[i].syncState(state, i * BodyStateSnapshot.STRIDE);
+                if (items[i].limitSpeed())
+                    limited++;
+            }
+            this.limited = limited;
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private final class StepRunner extends RecursiveAction {
+
+        private float stepTime;
+
+        void set(float stepTime) {
+            this.stepTime = stepTime;
+            reinitialize();
+        }
+
+        @Override
+        protected void compute() {
+            for (Shard shard : shards) {
+                shard.stepTime = stepTime;
+                shard.reinitialize();
+            }
+            for (int i = 1; i < shards.length; i++) {
+                shards[i].fork();
+            }
+            shards[0].compute();
+            for (int i = 1; i < shards.length; i++) {
+                shards[i].join();
+            }
+        }
+    }
+}
@@ -0,0 +1,452 @@
+package se.wastedtime.steering.simulation;
+
+import com.badlogic.gdx.ai.DefaultTimepiece;
+import com.badlogic.gdx.ai.GdxAI;
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.maps.tiled.TiledMap;
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.physics.box2d.Body;
+import com.badlogic.gdx.physics.box2d.Box2D;
+import com.badlogic.gdx.physics.box2d.FixtureDef;
+import com.badlogic.gdx.physics.box2d.World;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.FloatArray;
+import com.badlogic.gdx.utils.ObjectSet;
+import se.wastedtime.steering.MapBodyManager;
+import se.wastedtime.steering.ai.Box2DRaycastCollisionDetector;
+import se.wastedtime.steering.ai.SpatialHashGrid;
+import se.wastedtime.steering.ai.SpatialHashProximity;
+import se.wastedtime.steering.entities.AgentPool;
+import se.wastedtime.steering.entities.Character;
+import se.wastedtime.steering.map.CollisionGeometry;
+import se.wastedtime.steering.pathfinding.FlowFieldCache;
+import se.wastedtime.steering.pathfinding.HierarchicalPathfinder;
+import se.wastedtime.steering.pathfinding.NavigationGraph;
+import se.wastedtime.steering.pathfinding.PathRequestScheduler;
+import se.wastedtime.steering.pathfinding.PathfindingService;
+import se.wastedtime.steering.profiling.Profiler;
+
+/**
+ * Steering and physics state of a map without any rendering.
+ * <p>
+ * Owns the Box2D {@link World}, the static bodies created from the map and the
+ * registered agents. {@link #step(float)} advances steering and physics by one fixed
+ * step, the caller decides how often it is called (a {@link SimulationClock} when
+ * rendering, as fast as possible when running headless). The agents are updated by an
+ * {@link AgentUpdatePipeline}: steering is calculated in parallel, Box2D is only touched
+ * from the calling thread.
+ */
+public class Simulation implements Disposable {
+
+    public static final int VELOCITY_ITERATIONS = 8;
+    public static final int POSITION_ITERATIONS = 3;
+    public static final float PIXELS_PER_METER = 32f;
+    /**
+     * Object layer the static bodies are created from
+     */
+    public static final String PHYSICS_LAYER = "physics";
+
+    private final World world;
+    private final MapBodyManager mapBodyManager;
+    private final CollisionGeometry collisionGeometry;
+    private final Body[] regionBodies;
+    private final Array<Character> agents = new Array<>(false, 16, Character.class);
+    private final ObjectSet<Character> despawned = new ObjectSet<>();
+    private final AgentPool agentPool;
+    private final AgentUpdatePipeline pipeline = new AgentUpdatePipeline();
+    private final BodyStateSnapshot bodyState = new BodyStateSnapshot();
+    private final SpatialHashGrid proximityGrid;
+    private final Array<Box2DRaycastCollisionDetector> raycastDetectors = new Array<>();
+    private final NavigationGraph navigationGraph;
+    private final PathfindingService pathfinder;
+    private final PathRequestScheduler pathRequestScheduler;
+    private final HierarchicalPathfinder hierarchicalPathfinder;
+    private final FlowFieldCache flowFields;
+
+    private final float width;
+    private final float height;
+
+    private long tick;
+    private DefaultTimepiece timepiece = new DefaultTimepiece();
+    private int limitedAgents;
+
+    private Profiler profiler;
+    /**
+     * Profiler the sections were added to, they are kept when profiling stops and starts again
+     */
+    private Profiler sectionsProfiler;
+    private int steeringSection;
+    private int worldStepSection;
+
+    /**
+     * @param map           map to create the static bodies from, uses the "physics" layer
+     * @param mapName       name of the map file
+     * @param materialsFile json file with the physics materials
+     */
+    public Simulation(TiledMap map, String mapName, FileHandle materialsFile) {
+        this(map, new MapBodyManager(createWorld(), PIXELS_PER_METER, materialsFile), mapName);
+    }
+
+    private Simulation(TiledMap map, MapBodyManager mapBodyManager, String mapName) {
+        this(map, mapBodyManager, mapBodyManager.loadGeometry(map, PHYSICS_LAYER, mapName, MapBodyManager.DEFAULT_REGION_SIZE), null,
+                null);
+    }
+
+    /**
+     * Creates the simulation from collision loaded ahead of time, see {@link SimulationLoader}
+     *
+     * @param map               map the collision was loaded from
+     * @param mapBodyManager    manager of a world from {@link #createWorld()}
+     * @param collisionGeometry collision of the "physics" layer
+     * @param regionBodies      static bodies already created from the geometry, or null to create them now
+     * @param hierarchicalPathfinder path finder on a navigation graph already built from the created bodies,
+     *                               or null to build both now
+     */
+    Simulation(TiledMap map, MapBodyManager mapBodyManager, CollisionGeometry collisionGeometry, Body[] regionBodies,
+               HierarchicalPathfinder hierarchicalPathfinder) {
+        this.world = mapBodyManager.getWorld();
+        this.mapBodyManager = mapBodyManager;
+        this.collisionGeometry = collisionGeometry;
+        this.regionBodies = regionBodies != null ? regionBodies : mapBodyManager.createBodies(collisionGeometry);
+        agentPool = new AgentPool(world);
+
+        width = map.getProperties().get("width", Integer.class)
+                * map.getProperties().get("tilewidth", Integer.class) / PIXELS_PER_METER;
+        height = map.getProperties().get("height", Integer.class)
+                * map.getProperties().get("tileheight", Integer.class) / PIXELS_PER_METER;
+
+        proximityGrid = SpatialHashGrid.fromMap(map, PIXELS_PER_METER, SpatialHashGrid.DEFAULT_TILES_PER_CELL);
+
+        if (hierarchicalPathfinder == null) {
+            navigationGraph = NavigationGraph.build(map, mapBodyManager, PIXELS_PER_METER);
+            hierarchicalPathfinder = new HierarchicalPathfinder(navigationGraph);
+        } else {
+            navigationGraph = hierarchicalPathfinder.getGraph();
+            mapBodyManager.addBodyListener(navigationGraph);
+        }
+        this.hierarchicalPathfinder = hierarchicalPathfinder;
+        pathfinder = new PathfindingService(navigationGraph);
+        pathRequestScheduler = new PathRequestScheduler(navigationGraph);
+        navigationGraph.addChangeListener(hierarchicalPathfinder);
+        flowFields = new FlowFieldCache(navigationGraph);
+        navigationGraph.addChangeListener(flowFields);
+    }
+
+    /**
+     * @return an empty world without gravity, like the simulation steps it
+     */
+    static World createWorld() {
+        Box2D.init();
+        return new World(new Vector2(0, 0), true);
+    }
+
+    /**
+     * Takes an agent from the pool, or creates one if the pool is empty, and registers it
+     *
+     * @param position spawn position in WorldUnits
+     * @return the new agent
+     */
+    public Character spawn(Vector2 position) {
+        return spawn(position.x, position.y);
+    }
+
+    /**
+     * @param x x spawn position in WorldUnits
+     * @param y y spawn position in WorldUnits
+     * @return the new agent
+     * @see #spawn(Vector2)
+     */
+    public Character spawn(float x, float y) {
+        Character character = agentPool.obtain(x, y);
+        addAgent(character);
+        return character;
+    }
+
+    /**
+     * Spawns an agent at each position, e.g. for a wave
+     *
+     * @param positions x and y of each spawn position in WorldUnits
+     * @param out       array the new agents are added to
+     */
+    public void spawn(FloatArray positions, Array<Character> out) {
+        agents.ensureCapacity(positions.size / 2);
+        for (int i = 0; i + 1 < positions.size; i += 2) {
+            out.add(spawn(positions.items[i], positions.items[i + 1]));
+        }
+    }
+
+    /**
+     * Unregisters the agent, cancels its path requests and frees it to the pool.
+     * Nothing may keep using the agent, e.g. as the target of a behavior, it is reused by the next spawn.
+     */
+    public void despawn(Character character) {
+        removeAgent(character);
+        pathRequestScheduler.cancel(character);
+        agentPool.free(character);
+    }
+
+    /**
+     * Despawns all given agents, removing them from the registered agents in a single pass
+     *
+     * @param characters agents to despawn, the array isn't changed
+     * @see #despawn(Character)
+     */
+    public void despawn(Array<Character> characters) {
+        for (int i = 0; i < characters.size; i++) {
+            Character character = characters.get(i);
+            pathRequestScheduler.cancel(character);
+            agentPool.free(character);
+            despawned.add(character);
+        }
+
+        Character[] items = agents.items;
+        int size = 0;
+        for (int i = 0; i < agents.size; i++) {
+            if (!despawned.contains(items[i]))
+                items[size++] = items[i];
+        }
+        agents.truncate(size);
+        despawned.clear();
+    }
+
+    /**
+     * Registers an agent that is updated every step, it wraps around at the map border
+     *
+     * @param character agent living in {@link #getWorld()}
+     */
+    public void addAgent(Character character) {
+        character.setWorldBounds(width, height);
+        agents.add(character);
+    }
+
+    public void removeAgent(Character character) {
+        agents.removeValue(character, true);
+    }
+
+    /**
+     * Creates a proximity for group behaviors (Separation, Cohesion, ...) finding
+     * the registered agents around the owner through the shared spatial hash
+     *
+     * @param owner  owner of the proximity
+     * @param radius detection radius in WorldUnits
+     */
+    public SpatialHashProximity<Character> createProximity(Character owner, float radius) {
+        return new SpatialHashProximity<>(owner, proximityGrid, agents, radius);
+    }
+
+    /**
+     * Creates a raycast collision detector for RaycastObstacleAvoidance, hitting the static
+     * bodies the given material collides with. Its cache is invalidated every step.
+     *
+     * @param material name of the material whose category and mask bits filter the rays
+     */
+    public Box2DRaycastCollisionDetector createRaycastCollisionDetector(String material) {
+        FixtureDef fixtureDef = mapBodyManager.getMaterial(material);
+        if (fixtureDef == null)
+            throw new IllegalArgumentException("Unknown material: " + material);
+
+        Box2DRaycastCollisionDetector detector = new Box2DRaycastCollisionDetector(world, fixtureDef.filter);
+        raycastDetectors.add(detector);
+        return detector;
+    }
+
+    /**
+     * Advances steering and physics by one step
+     *
+     * @param stepTime step length in seconds
+     */
+    public void step(float stepTime) {
+        Character[] items = agents.items;
+        int size = agents.size;
+
+        for (int i = 0; i < size; i++) {
+            items[i].savePreviousState();
+        }
+
+        // behaviors like Wander read the time of the shared timepiece, each simulation counts its own steps
+        timepiece.update(stepTime);
+        GdxAI.setTimepiece(timepiece);
+
+        if (profiler != null)
+            profiler.begin(steeringSection);
+        // fields evicted while agents were still following them
+        flowFields.computeRequested();
+        pipeline.snapshot(agents);
+        proximityGrid.update(pipeline.getPositionX(), pipeline.getPositionY(), pipeline.getBoundingRadius(), size);
+        pipeline.calculateSteering();
+        pipeline.apply(stepTime);
+        if (profiler != null) {
+            profiler.end(steeringSection);
+            profiler.begin(worldStepSection);
+        }
+
+        world.step(stepTime, VELOCITY_ITERATIONS, POSITION_ITERATIONS);
+        if (profiler != null)
+            profiler.end(worldStepSection);
+
+        // the speed limits apply to the result of the solver, checked on the state copied anyway
+        bodyState.capture(items, size);
+        float[] state = bodyState.getState();
+        int limited = 0;
+        for (int i = 0; i < size; i++) {
+            items[i].syncState(state, i * BodyStateSnapshot.STRIDE);
+            if (items[i].limitSpeed())
+                limited++;
+        }
+        limitedAgents = limited;
+        for (int i = 0; i < raycastDetectors.size; i++) {
+            raycastDetectors.get(i).newTick();
+        }
+        tick++;
+    }
+
+    /**
+     * Times the steering and the world step of every step
+     *
+     * @param profiler profiler to add the sections to, null to stop profiling. Setting the same profiler
+     *                 again, e.g. after stopping, keeps its sections
+     */
+    public void setProfiler(Profiler profiler) {
+        this.profiler = profiler;
+        if (profiler != null && profiler != sectionsProfiler) {
+            steeringSection = profiler.addSection("steering");
+            worldStepSection = profiler.addSection("world step");
+            sectionsProfiler = profiler;
+        }
+    }
+
+    public World getWorld() {
+        return world;
+    }
+
+    public MapBodyManager getMapBodyManager() {
+        return mapBodyManager;
+    }
+
+    /**
+     * @return collision of the "physics" layer, the static bodies are created from it
+     */
+    public CollisionGeometry getCollisionGeometry() {
+        return collisionGeometry;
+    }
+
+    /**
+     * @return static bodies created from {@link #getCollisionGeometry()}, indexed like its bodies.
+     * A {@link se.wastedtime.steering.map.RegionStreamer} streaming them updates the same array, the bodies of
+     * unloaded regions are null
+     */
+    public Body[] getRegionBodies() {
+        return regionBodies;
+    }
+
+    /**
+     * @return pool of the agents created by {@link #spawn(Vector2)}, e.g. to prewarm it before a wave
+     */
+    public AgentPool getAgentPool() {
+        return agentPool;
+    }
+
+    /**
+     * @return state of the agent bodies after the last step, indexed like {@link #getAgents()} at that time
+     */
+    public BodyStateSnapshot getBodyState() {
+        return bodyState;
+    }
+
+    public AgentUpdatePipeline getPipeline() {
+        return pipeline;
+    }
+
+    public SpatialHashGrid getProximityGrid() {
+        return proximityGrid;
+    }
+
+    public NavigationGraph getNavigationGraph() {
+        return navigationGraph;
+    }
+
+    /**
+     * @return path finder on the navigation graph, use from the thread calling {@link #step(float)}
+     */
+    public PathfindingService getPathfinder() {
+        return pathfinder;
+    }
+
+    /**
+     * @return time-sliced path requests, run it from the thread calling {@link #step(float)}
+     */
+    public PathRequestScheduler getPathRequestScheduler() {
+        return pathRequestScheduler;
+    }
+
+    /**
+     * @return HPA* path finder for large maps, kept up to date with the static bodies
+     */
+    public HierarchicalPathfinder getHierarchicalPathfinder() {
+        return hierarchicalPathfinder;
+    }
+
+    /**
+     * @return flow fields for agents sharing a goal, see {@link se.wastedtime.steering.ai.FlowFieldSteering}
+     */
+    public FlowFieldCache getFlowFields() {
+        return flowFields;
+    }
+
+    public Array<Character> getAgents() {
+        return agents;
+    }
+
+    /**
+     * @return map width in WorldUnits
+     */
+    public float getWidth() {
+        return width;
+    }
+
+    /**
+     * @return map height in WorldUnits
+     */
+    public float getHeight() {
+        return height;
+    }
+
+    /**
+     * @return number of agents whose speed was truncated after the last step
+     */
+    public int getLimitedAgents() {
+        return limitedAgents;
+    }
+
+    public long getTick() {
+        return tick;
+    }
+
+    /**
+     * @return seconds simulated so far, the time of the timepiece behaviors read while stepping
+     */
+    public float getTime() {
+        return timepiece.getTime();
+    }
+
+    /**
+     * Continues counting from a restored snapshot, the agents have to be restored already
+     *
+     * @param tick steps simulated until the snapshot
+     * @param time seconds simulated until the snapshot
+     */
+    void restoreClock(long tick, float time) {
+        this.tick = tick;
+        timepiece = new DefaultTimepiece();
+        timepiece.update(time);
+        bodyState.capture(agents.items, agents.size);
+    }
+
+    @Override
+    public void dispose() {
+        agents.clear();
+        agentPool.dispose();
+        world.dispose();
+    }
+}
@@ -0,0 +1,110 @@
+package se.wastedtime.steering.simulation;
+
+/**
+ * Fixed timestep accumulator that decouples the simulation rate from the render rate.
+ * <p>
+ * Frame deltas are accumulated and consumed in steps of {@link #getStepTime()}. The number of
+ * catch-up steps per frame is capped, so a slow frame drops simulation time instead of falling
+ * into a spiral of death. The unconsumed remainder is exposed as {@link #getAlpha()} and can be
+ * used to interpolate between the last two simulated states when drawing.
+ */
+public class SimulationClock {
+
+    public static final int DEFAULT_TICK_RATE = 45;
+    public static final int DEFAULT_MAX_STEPS_PER_FRAME = 5;
+
+    private int tickRate;
+    private float stepTime;
+    private int maxStepsPerFrame;
+
+    private float accumulator;
+    private long tick;
+    private long droppedSteps;
+
+    public SimulationClock() {
+        this(DEFAULT_TICK_RATE, DEFAULT_MAX_STEPS_PER_FRAME);
+    }
+
+    /**
+     * @param tickRate         simulation steps per second.
+     * @param maxStepsPerFrame maximum number of steps simulated for a single frame.
+     */
+    public SimulationClock(int tickRate, int maxStepsPerFrame) {
+        setTickRate(tickRate);
+        setMaxStepsPerFrame(maxStepsPerFrame);
+    }
+
+    /**
+     * Adds the frame delta to the accumulator
+     *
+     * @param delta frame time in seconds
+     * @return the number of fixed steps to simulate for this frame
+     */
+    public int advance(float delta) {
+        if (delta > 0)
+            accumulator += delta;
+
+        int steps = (int) (accumulator / stepTime);
+        accumulator -= steps * stepTime;
+
+        if (steps > maxStepsPerFrame) {
+            droppedSteps += steps - maxStepsPerFrame;
+            steps = maxStepsPerFrame;
+        }
+
+        tick += steps;
+        return steps;
+    }
+
+    /**
+     * @return how far the render time is between the last and the next simulation step, in [0, 1)
+     */
+    public float getAlpha() {
+        return Math.min(accumulator / stepTime, 1f);
+    }
+
+    public void reset() {
+        accumulator = 0;
+        tick = 0;
+        droppedSteps = 0;
+    }
+
+    public int getTickRate() {
+        return tickRate;
+    }
+
+    public void setTickRate(int tickRate) {
+        if (tickRate <= 0)
+            throw new IllegalArgumentException("tickRate must be positive: " + tickRate);
+        this.tickRate = tickRate;
+        this.stepTime = 1f / tickRate;
+    }
+
+    public float getStepTime() {
+        return stepTime;
+    }
+
+    public int getMaxStepsPerFrame() {
+        return maxStepsPerFrame;
+    }
+
+    public void setMaxStepsPerFrame(int maxStepsPerFrame) {
+        if (maxStepsPerFrame <= 0)
+            throw new IllegalArgumentException("maxStepsPerFrame must be positive: " + maxStepsPerFrame);
+        this.maxStepsPerFrame = maxStepsPerFrame;
+    }
+
+    /**
+     * @return number of steps simulated since creation or the last {@link #reset()}
+     */
+    public long getTick() {
+        return tick;
+    }
+
+    /**
+     * @return number of steps skipped because a frame needed more than {@link #getMaxStepsPerFrame()}
+     */
+    public long getDroppedSteps() {
+        return droppedSteps;
+    }
+}
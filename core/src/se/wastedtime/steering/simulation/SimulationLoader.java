@@ -0,0 +1,180 @@
+package se.wastedtime.steering.simulation;
+
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.maps.tiled.TiledMap;
+import com.badlogic.gdx.physics.box2d.Body;
+import com.badlogic.gdx.physics.box2d.World;
+import com.badlogic.gdx.utils.GdxRuntimeException;
+import com.badlogic.gdx.utils.TimeUtils;
+import se.wastedtime.steering.MapBodyManager;
+import se.wastedtime.steering.map.CollisionGeometry;
+import se.wastedtime.steering.pathfinding.HierarchicalPathfinder;
+import se.wastedtime.steering.pathfinding.NavigationGraph;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Creates a {@link Simulation} over several frames instead of blocking the thread owning the world.
+ * <p>
+ * The materials file is parsed and the collision geometry is read from the cache or built on an
+ * executor, see {@link MapBodyManager#loadGeometry(TiledMap, String, String, float)}. Once it is done,
+ * {@link #update(long)} creates the static bodies in batches within a time budget per call. The
+ * navigation graph is built in stages as well: the tile layers are read on the executor, the bodies are
+ * marked in batches and the tiles are connected and clustered for HPA* on the executor again, only
+ * then the simulation itself is created. Box2D is only touched from the thread calling update.
+ */
+public class SimulationLoader {
+
+    /**
+     * Bodies created between two checks of the time budget
+     */
+    private static final int BODY_BATCH_SIZE = 32;
+
+    /**
+     * Share of the progress for creating the bodies, the rest is for building the navigation graph
+     */
+    private static final float BODY_PROGRESS = 0.5f;
+
+    private final TiledMap map;
+    private final World world;
+    private final ExecutorService executor;
+    private final Future<MapBodyManager> managerTask;
+    private final Future<CollisionGeometry> geometryTask;
+    private final Future<NavigationGraph.Builder> navigationTask;
+    private Future<HierarchicalPathfinder> connectTask;
+
+    private MapBodyManager mapBodyManager;
+    private CollisionGeometry geometry;
+    private Body[] bodies;
+    private int created;
+    private NavigationGraph.Builder navigation;
+    private int marked;
+    private Simulation simulation;
+
+    /**
+     * Starts loading the collision on the executor
+     *
+     * @param map           map to create the static bodies from, uses the "physics" layer
+     * @param mapName       name of the map file
+     * @param materialsFile json file with the physics materials
+     * @param executor      executor to parse and build the collision and the navigation graph on
+     */
+    public SimulationLoader(TiledMap map, String mapName, FileHandle materialsFile, ExecutorService executor) {
+        this.map = map;
+        this.executor = executor;
+
+        world = Simulation.createWorld();
+        managerTask = executor.submit(() -> new MapBodyManager(world, Simulation.PIXELS_PER_METER, materialsFile));
+        geometryTask = executor.submit(() -> managerTask.get()
+                .loadGeometry(map, Simulation.PHYSICS_LAYER, mapName, MapBodyManager.DEFAULT_REGION_SIZE));
+        navigationTask = executor.submit(() -> new NavigationGraph.Builder(map, Simulation.PIXELS_PER_METER));
+    }
+
+    /**
+     * Continues loading, call it from the thread stepping the simulation later on
+     *
+     * @param budget time to spend creating bodies and building the navigation graph, in nanoseconds
+     * @return true once the simulation is created
+     */
+    public boolean update(long budget) {
+        if (simulation != null)
+            return true;
+
+        long deadline = TimeUtils.nanoTime() + budget;
+        if (geometry == null) {
+            if (!geometryTask.isDone())
+                return false;
+
+            mapBodyManager = get(managerTask);
+            geometry = get(geometryTask);
+            bodies = new Body[geometry.getBodyCount()];
+        }
+
+        while (created < bodies.length) {
+            int to = Math.min(bodies.length, created + BODY_BATCH_SIZE);
+            mapBodyManager.createBodies(geometry, bodies, created, to);
+            created = to;
+            if (TimeUtils.nanoTime() >= deadline && created < bodies.length)
+                return false;
+        }
+
+        // the navigation graph needs all bodies
+        if (connectTask == null) {
+            if (navigation == null) {
+                if (!navigationTask.isDone())
+                    return false;
+                navigation = get(navigationTask);
+            }
+
+            List<Body> staticBodies = mapBodyManager.getBodies();
+            while (marked < staticBodies.size()) {
+                int to = Math.min(staticBodies.size(), marked + BODY_BATCH_SIZE);
+                navigation.markBodies(staticBodies, marked, to);
+                marked = to;
+                if (TimeUtils.nanoTime() >= deadline)
+                    return false;
+            }
+
+            NavigationGraph.Builder builder = navigation;
+            connectTask = executor.submit(() -> new HierarchicalPathfinder(builder.build()));
+            return false;
+        }
+
+        if (!connectTask.isDone())
+            return false;
+        simulation = new Simulation(map, mapBodyManager, geometry, bodies, get(connectTask));
+        return true;
+    }
+
+    private static <T> T get(Future<T> task) {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GdxRuntimeException("Interrupted while loading the collision", e);
+        } catch (ExecutionException e) {
+            throw new GdxRuntimeException("Couldn't load the collision", e.getCause());
+        }
+    }
+
+    /**
+     * @return 0 while the collision is loaded, then the share of the created and of the marked bodies
+     */
+    public float getProgress() {
+        if (simulation != null)
+            return 1f;
+        if (bodies == null)
+            return 0f;
+        if (created < bodies.length)
+            return created * BODY_PROGRESS / bodies.length;
+        if (connectTask != null || mapBodyManager.getBodies().isEmpty())
+            return 1f;
+        return BODY_PROGRESS + marked * (1f - BODY_PROGRESS) / mapBodyManager.getBodies().size();
+    }
+
+    /**
+     * Stops loading and disposes the world, unless the simulation was already created.
+     * A created simulation belongs to the caller.
+     */
+    public void cancel() {
+        if (simulation != null)
+            return;
+
+        if (connectTask != null)
+            connectTask.cancel(true);
+        navigationTask.cancel(true);
+        geometryTask.cancel(true);
+        managerTask.cancel(true);
+        world.dispose();
+    }
+
+    /**
+     * @return the loaded simulation, or null until {@link #update(long)} returned true
+     */
+    public Simulation getSimulation() {
+        return simulation;
+    }
+}
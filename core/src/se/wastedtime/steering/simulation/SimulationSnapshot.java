@@ -0,0 +1,466 @@
+package se.wastedtime.steering.simulation;
+
+import com.badlogic.gdx.ai.steer.SteeringAcceleration;
+import com.badlogic.gdx.ai.steer.SteeringBehavior;
+import com.badlogic.gdx.ai.steer.behaviors.Arrive;
+import com.badlogic.gdx.ai.steer.behaviors.FollowPath;
+import com.badlogic.gdx.ai.steer.behaviors.Seek;
+import com.badlogic.gdx.ai.steer.behaviors.Wander;
+import com.badlogic.gdx.ai.steer.utils.paths.LinePath;
+import com.badlogic.gdx.ai.utils.Location;
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.ObjectIntMap;
+import se.wastedtime.steering.Box2DLocation;
+import se.wastedtime.steering.ai.FlowFieldSteering;
+import se.wastedtime.steering.entities.Character;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Binary snapshot of the agents of a {@link Simulation}, for restarts, rollback and warm-started benchmarks.
+ * <p>
+ * {@link #capture(Simulation)} writes the clock, the body states of all agents laid out like a
+ * {@link BodyStateSnapshot} and then, for every agent, the limits and flags, the last steering output and
+ * the steering behavior into one little endian buffer. {@link #restore(Simulation)} spawns the agents into a new simulation of the same
+ * map, its map bodies come from the collision cache, nothing of the spawn logic runs again.
+ * <p>
+ * The behaviors used in this project are supported: {@link Seek}, {@link Arrive} and {@link Wander}
+ * created directly, the {@link FollowPath} of {@link Character#followPath(Array)} and {@link FlowFieldSteering},
+ * which is rebuilt against the flow fields of the restored simulation. Targets are
+ * stored as the index of a registered agent, any other location as a {@link Box2DLocation} copy.
+ * Not part of the snapshot: the contacts Box2D keeps between steps, queued path requests,
+ * the internal time Wander last ran and the sprite regions. A restored simulation starts in exactly the
+ * captured state, but agents touching each other or a wall continue slightly differently than the
+ * original, the solver starts their contacts from scratch.
+ */
+public class SimulationSnapshot {
+
+    private static final int MAGIC = 0x53534E50; // "SSNP"
+    private static final int VERSION = 1;
+
+    public static final int BEHAVIOR_NONE = 0;
+    public static final int BEHAVIOR_SEEK = 1;
+    public static final int BEHAVIOR_ARRIVE = 2;
+    public static final int BEHAVIOR_WANDER = 3;
+    public static final int BEHAVIOR_FOLLOW_PATH = 4;
+    public static final int BEHAVIOR_FLOW_FIELD = 5;
+
+    private static final int TARGET_NONE = 0;
+    private static final int TARGET_AGENT = 1;
+    private static final int TARGET_LOCATION = 2;
+
+    private static final int FLAG_TAGGED = 1;
+    private static final int FLAG_INDEPENDENT_FACING = 1 << 1;
+    private static final int FLAG_AWAKE = 1 << 2;
+    private static final int FLAG_BEHAVIOR_ENABLED = 1 << 3;
+
+    private static final int HEADER_SIZE = 4 + 4 + 4 + 4 + 8 + 4 + 4;
+    /**
+     * Size of an agent without its body state and the payload of its behavior: 4 limits, the bounding radius,
+     * the steering output, the flags and the behavior type
+     */
+    private static final int AGENT_SIZE = (5 + 3) * 4 + 2;
+    /**
+     * Largest payload of a behavior with a fixed size, a wander
+     */
+    private static final int BEHAVIOR_SIZE = 7 * 4 + 1;
+
+    private ByteBuffer buffer = ByteBuffer.allocate(4096).order(ByteOrder.LITTLE_ENDIAN);
+    private final ObjectIntMap<Character> indices = new ObjectIntMap<>();
+    private float[] states = new float[0];
+
+    /**
+     * Replaces the snapshot by the state of the simulation, call between steps
+     *
+     * @throws IllegalArgumentException if an agent has a behavior that isn't supported
+     */
+    public void capture(Simulation simulation) {
+        Array<Character> agents = simulation.getAgents();
+        indices.clear();
+        for (int i = 0; i < agents.size; i++) {
+            indices.put(agents.get(i), i);
+        }
+
+        buffer.clear();
+        ensureRemaining(HEADER_SIZE + agents.size * BodyStateSnapshot.STRIDE * 4);
+        buffer.putInt(MAGIC).putInt(VERSION);
+        buffer.putFloat(simulation.getWidth()).putFloat(simulation.getHeight());
+        buffer.putLong(simulation.getTick()).putFloat(simulation.getTime());
+        buffer.putInt(agents.size);
+        // the copies of the agents are up to date between steps, including limited speeds
+        for (int i = 0; i < agents.size; i++) {
+            Character agent = agents.get(i);
+            Vector2 position = agent.getPosition();
+            Vector2 velocity = agent.getLinearVelocity();
+            buffer.putFloat(position.x).putFloat(position.y).putFloat(agent.getOrientation());
+            buffer.putFloat(velocity.x).putFloat(velocity.y).putFloat(agent.getAngularVelocity());
+        }
+        for (int i = 0; i < agents.size; i++) {
+            writeAgent(i, agents.get(i));
+        }
+        buffer.flip();
+        indices.clear();
+    }
+
+    private void writeAgent(int index, Character agent) {
+        ensureRemaining(AGENT_SIZE + BEHAVIOR_SIZE);
+
+        buffer.putFloat(agent.getMaxLinearSpeed()).putFloat(agent.getMaxLinearAcceleration());
+        buffer.putFloat(agent.getMaxAngularSpeed()).putFloat(agent.getMaxAngularAcceleration());
+        buffer.putFloat(agent.getBoundingRadius());
+
+        SteeringAcceleration<Vector2> output = agent.getSteeringOutput();
+        buffer.putFloat(output.linear.x).putFloat(output.linear.y).putFloat(output.angular);
+
+        SteeringBehavior<Vector2> behavior = agent.getSteeringBehavior();
+        int flags = 0;
+        if (agent.isTagged())
+            flags |= FLAG_TAGGED;
+        if (agent.isIndependentFacing())
+            flags |= FLAG_INDEPENDENT_FACING;
+        if (agent.getBody().isAwake())
+            flags |= FLAG_AWAKE;
+        if (behavior != null && behavior.isEnabled())
+            flags |= FLAG_BEHAVIOR_ENABLED;
+        buffer.put((byte) flags);
+
+        if (behavior == null) {
+            buffer.put((byte) BEHAVIOR_NONE);
+        } else if (behavior.getClass() == Seek.class) {
+            buffer.put((byte) BEHAVIOR_SEEK);
+            writeTarget(((Seek<Vector2>) behavior).getTarget());
+        } else if (behavior.getClass() == Arrive.class) {
+            Arrive<Vector2> arrive = (Arrive<Vector2>) behavior;
+            buffer.put((byte) BEHAVIOR_ARRIVE);
+            buffer.putFloat(arrive.getArrivalTolerance()).putFloat(arrive.getDecelerationRadius())
+                    .putFloat(arrive.getTimeToTarget());
+            writeTarget(arrive.getTarget());
+        } else if (behavior.getClass() == Wander.class) {
+            Wander<Vector2> wander = (Wander<Vector2>) behavior;
+            buffer.put((byte) BEHAVIOR_WANDER);
+            buffer.putFloat(wander.getWanderOffset()).putFloat(wander.getWanderRadius())
+                    .putFloat(wander.getWanderRate()).putFloat(wander.getWanderOrientation());
+            buffer.putFloat(wander.getAlignTolerance()).putFloat(wander.getDecelerationRadius())
+                    .putFloat(wander.getTimeToTarget());
+            buffer.put((byte) (wander.isFaceEnabled() ? 1 : 0));
+        } else if (behavior instanceof FollowPath && ((FollowPath) behavior).getPath() == agent.getPath()) {
+            Array<LinePath.Segment<Vector2>> segments = agent.getPath().getSegments();
+            buffer.put((byte) BEHAVIOR_FOLLOW_PATH);
+            ensureRemaining(4 + (segments.size + 1) * 8);
+            buffer.putInt(segments.size + 1);
+            for (int i = 0; i < segments.size; i++) {
+                Vector2 begin = segments.get(i).getBegin();
+                buffer.putFloat(begin.x).putFloat(begin.y);
+            }
+            Vector2 end = segments.peek().getEnd();
+            buffer.putFloat(end.x).putFloat(end.y);
+        } else if (behavior.getClass() == FlowFieldSteering.class) {
+            FlowFieldSteering flowField = (FlowFieldSteering) behavior;
+            buffer.put((byte) BEHAVIOR_FLOW_FIELD);
+            buffer.putFloat(flowField.getGoal().x).putFloat(flowField.getGoal().y);
+            buffer.putFloat(flowField.getArrivalTolerance()).putFloat(flowField.getDecelerationRadius())
+                    .putFloat(flowField.getTimeToTarget());
+        } else {
+            throw new IllegalArgumentException("Can't snapshot the behavior of agent " + index + ": "
+                    + behavior.getClass().getName());
+        }
+    }
+
+    private void writeTarget(Location<Vector2> target) {
+        ensureRemaining(1 + 3 * 4);
+        int agent = target instanceof Character ? indices.get((Character) target, -1) : -1;
+        if (agent >= 0) {
+            buffer.put((byte) TARGET_AGENT).putInt(agent);
+        } else if (target != null) {
+            buffer.put((byte) TARGET_LOCATION);
+            buffer.putFloat(target.getPosition().x).putFloat(target.getPosition().y).putFloat(target.getOrientation());
+        } else {
+            buffer.put((byte) TARGET_NONE);
+        }
+    }
+
+    private void ensureRemaining(int bytes) {
+        if (buffer.remaining() >= bytes)
+            return;
+        ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.flip();
+        grown.put(buffer);
+        buffer = grown;
+    }
+
+    /**
+     * Spawns the agents of the snapshot into the simulation and continues its clock from the snapshot.
+     * The simulation has to be of the same map, without agents and path requests.
+     *
+     * @throws IllegalArgumentException if the snapshot is of another map or the simulation has agents
+     */
+    public void restore(Simulation simulation) {
+        if (simulation.getAgents().size != 0)
+            throw new IllegalArgumentException("The simulation already has agents: " + simulation.getAgents().size);
+
+        ByteBuffer in = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        in.position(4 + 4);
+        float width = in.getFloat();
+        float height = in.getFloat();
+        if (width != simulation.getWidth() || height != simulation.getHeight())
+            throw new IllegalArgumentException("Snapshot of a " + width + "x" + height + " map, the simulation is "
+                    + simulation.getWidth() + "x" + simulation.getHeight());
+        long tick = in.getLong();
+        float time = in.getFloat();
+
+        int count = in.getInt();
+        if (states.length < count * BodyStateSnapshot.STRIDE)
+            states = new float[count * BodyStateSnapshot.STRIDE];
+        in.asFloatBuffer().get(states, 0, count * BodyStateSnapshot.STRIDE);
+        in.position(in.position() + count * BodyStateSnapshot.STRIDE * 4);
+
+        // the agents are spawned in place, moving them afterwards would pile them up in the broad phase first.
+        // They all exist before the behaviors are read, those can target agents further on
+        Array<Character> agents = simulation.getAgents();
+        agents.ensureCapacity(count);
+        for (int i = 0, offset = 0; i < count; i++, offset += BodyStateSnapshot.STRIDE) {
+            simulation.spawn(states[offset + BodyStateSnapshot.X], states[offset + BodyStateSnapshot.Y])
+                    .restoreState(states, offset);
+        }
+        for (int i = 0; i < count; i++) {
+            readAgent(in, agents.get(i), simulation);
+        }
+        simulation.restoreClock(tick, time);
+    }
+
+    private void readAgent(ByteBuffer in, Character agent, Simulation simulation) {
+        Array<Character> agents = simulation.getAgents();
+        agent.setMaxLinearSpeed(in.getFloat());
+        agent.setMaxLinearAcceleration(in.getFloat());
+        agent.setMaxAngularSpeed(in.getFloat());
+        agent.setMaxAngularAcceleration(in.getFloat());
+        agent.setBoundingRadius(in.getFloat());
+
+        SteeringAcceleration<Vector2> output = agent.getSteeringOutput();
+        output.linear.set(in.getFloat(), in.getFloat());
+        output.angular = in.getFloat();
+
+        int flags = in.get();
+        agent.setTagged((flags & FLAG_TAGGED) != 0);
+        agent.setIndependentFacing((flags & FLAG_INDEPENDENT_FACING) != 0);
+        agent.getBody().setAwake((flags & FLAG_AWAKE) != 0);
+
+        int type = in.get();
+        switch (type) {
+            case BEHAVIOR_NONE:
+                break;
+            case BEHAVIOR_SEEK:
+                agent.setSteeringBehavior(new Seek<>(agent, readTarget(in, agents)));
+                break;
+            case BEHAVIOR_ARRIVE: {
+                Arrive<Vector2> arrive = new Arrive<>(agent);
+                arrive.setArrivalTolerance(in.getFloat())
+                        .setDecelerationRadius(in.getFloat())
+                        .setTimeToTarget(in.getFloat());
+                agent.setSteeringBehavior(arrive.setTarget(readTarget(in, agents)));
+                break;
+            }
+            case BEHAVIOR_WANDER:
+                agent.setSteeringBehavior(new Wander<>(agent)
+                        .setWanderOffset(in.getFloat())
+                        .setWanderRadius(in.getFloat())
+                        .setWanderRate(in.getFloat())
+                        .setWanderOrientation(in.getFloat())
+                        .setAlignTolerance(in.getFloat())
+                        .setDecelerationRadius(in.getFloat())
+                        .setTimeToTarget(in.getFloat())
+                        .setFaceEnabled(in.get() != 0));
+                break;
+            case BEHAVIOR_FOLLOW_PATH: {
+                int waypoints = in.getInt();
+                // followed paths keep the waypoints, every agent gets its own
+                Array<Vector2> path = new Array<>(waypoints);
+                for (int i = 0; i < waypoints; i++) {
+                    path.add(new Vector2(in.getFloat(), in.getFloat()));
+                }
+                agent.followPath(path);
+                break;
+            }
+            case BEHAVIOR_FLOW_FIELD: {
+                Vector2 goal = new Vector2(in.getFloat(), in.getFloat());
+                agent.setSteeringBehavior(new FlowFieldSteering(agent, simulation.getFlowFields(), goal)
+                        .setArrivalTolerance(in.getFloat())
+                        .setDecelerationRadius(in.getFloat())
+                        .setTimeToTarget(in.getFloat()));
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown behavior type: " + type);
+        }
+        if (agent.getSteeringBehavior() != null)
+            agent.getSteeringBehavior().setEnabled((flags & FLAG_BEHAVIOR_ENABLED) != 0);
+    }
+
+    private Location<Vector2> readTarget(ByteBuffer in, Array<Character> agents) {
+        int type = in.get();
+        switch (type) {
+            case TARGET_NONE:
+                return null;
+            case TARGET_AGENT:
+                return agents.get(in.getInt());
+            case TARGET_LOCATION: {
+                Box2DLocation location = new Box2DLocation();
+                location.getPosition().set(in.getFloat(), in.getFloat());
+                location.setOrientation(in.getFloat());
+                return location;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown target type: " + type);
+        }
+    }
+
+    /**
+     * Walks the agents of a snapshot without restoring them, so a truncated file is found before anything is spawned
+     *
+     * @throws BufferUnderflowException if the snapshot ends early
+     * @throws IllegalArgumentException if it has unknown types or targets missing agents
+     */
+    private static void validate(ByteBuffer in) {
+        in.position(HEADER_SIZE - 4);
+        int count = in.getInt();
+        if (count < 0)
+            throw new IllegalArgumentException("Negative agent count: " + count);
+        skip(in, (long) count * BodyStateSnapshot.STRIDE * 4);
+
+        for (int i = 0; i < count; i++) {
+            skip(in, AGENT_SIZE - 1);
+            int type = in.get();
+            switch (type) {
+                case BEHAVIOR_NONE:
+                    break;
+                case BEHAVIOR_SEEK:
+                    validateTarget(in, count);
+                    break;
+                case BEHAVIOR_ARRIVE:
+                    skip(in, 3 * 4);
+                    validateTarget(in, count);
+                    break;
+                case BEHAVIOR_WANDER:
+                    skip(in, 7 * 4 + 1);
+                    break;
+                case BEHAVIOR_FOLLOW_PATH: {
+                    int waypoints = in.getInt();
+                    if (waypoints < 2)
+                        throw new IllegalArgumentException("Path with " + waypoints + " waypoints");
+                    skip(in, (long) waypoints * 8);
+                    break;
+                }
+                case BEHAVIOR_FLOW_FIELD:
+                    skip(in, 5 * 4);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown behavior type: " + type);
+            }
+        }
+    }
+
+    private static void validateTarget(ByteBuffer in, int count) {
+        int type = in.get();
+        switch (type) {
+            case TARGET_NONE:
+                break;
+            case TARGET_AGENT: {
+                int agent = in.getInt();
+                if (agent < 0 || agent >= count)
+                    throw new IllegalArgumentException("Target agent " + agent + " of " + count);
+                break;
+            }
+            case TARGET_LOCATION:
+                skip(in, 3 * 4);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown target type: " + type);
+        }
+    }
+
+    private static void skip(ByteBuffer in, long bytes) {
+        if (bytes > in.remaining())
+            throw new BufferUnderflowException();
+        in.position(in.position() + (int) bytes);
+    }
+
+    /**
+     * @return the snapshot, from position 0 to the limit, without disturbing this snapshot when read
+     */
+    public ByteBuffer getBuffer() {
+        return buffer.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * @return size of the snapshot in bytes
+     */
+    public int getSize() {
+        return buffer.limit();
+    }
+
+    /**
+     * Writes the snapshot to a temporary file next to the target and moves it into place
+     *
+     * @param path file to write
+     */
+    public void write(Path path) throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null)
+            Files.createDirectories(parent);
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        ByteBuffer out = getBuffer();
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * @param path file written by {@link #write(Path)}
+     * @throws IOException if the file can't be read, isn't a snapshot of this version or is truncated
+     */
+    public static SimulationSnapshot read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE)
+                throw new IOException("Snapshot too large: " + path);
+            ByteBuffer buffer = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0)
+                    throw new IOException("Truncated snapshot " + path);
+            }
+            buffer.flip();
+
+            try {
+                if (buffer.getInt(0) != MAGIC)
+                    throw new IOException("Not a snapshot: " + path);
+                int version = buffer.getInt(4);
+                if (version != VERSION)
+                    throw new IOException("Unsupported snapshot version " + version + ": " + path);
+                // restore spawns the agents before it reads their behaviors, so a broken file fails here instead
+                validate(buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN));
+            } catch (IndexOutOfBoundsException | BufferUnderflowException e) {
+                throw new IOException("Truncated snapshot " + path, e);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Corrupt snapshot " + path + ": " + e.getMessage(), e);
+            }
+
+            SimulationSnapshot snapshot = new SimulationSnapshot();
+            snapshot.buffer = buffer;
+            return snapshot;
+        }
+    }
+}
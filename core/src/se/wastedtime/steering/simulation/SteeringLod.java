@@ -0,0 +1,151 @@
+package se.wastedtime.steering.simulation;
+
+import java.util.Arrays;
+
+/**
+ * Steering level of detail by distance to the view.
+ * <p>
+ * Every step the agents are sorted into three bands by their distance to the focus rectangle,
+ * usually the area the camera shows:
+ * <ul>
+ * <li>{@link #NEAR}: the steering is calculated every step.</li>
+ * <li>{@link #MID}: the steering is only calculated every {@link #getMidInterval()} steps, staggered over
+ * the agents. In between the last steering output is applied again.</li>
+ * <li>{@link #FAR}: the steering isn't calculated and the body is put to sleep until the agent
+ * gets closer again.</li>
+ * </ul>
+ * The bands are indexed like the snapshot of the {@link AgentUpdatePipeline} that classified them.
+ */
+public class SteeringLod {
+
+    public static final int NEAR = 0;
+    public static final int MID = 1;
+    public static final int FAR = 2;
+
+    public static final float DEFAULT_NEAR_DISTANCE = 4f;
+    public static final float DEFAULT_FAR_DISTANCE = 24f;
+    public static final int DEFAULT_MID_INTERVAL = 4;
+
+    private float nearDistance;
+    private float farDistance;
+    private int midInterval;
+
+    private float focusX;
+    private float focusY;
+    private float focusHalfWidth;
+    private float focusHalfHeight;
+
+    private byte[] bands = new byte[0];
+    private final int[] counts = new int[3];
+    private long tick;
+
+    public SteeringLod() {
+        this(DEFAULT_NEAR_DISTANCE, DEFAULT_FAR_DISTANCE, DEFAULT_MID_INTERVAL);
+    }
+
+    /**
+     * @param nearDistance distance from the focus up to which agents are near, in WorldUnits
+     * @param farDistance  distance from the focus from which agents are far, in WorldUnits
+     * @param midInterval  steps between two steering calculations of agents in the mid band
+     */
+    public SteeringLod(float nearDistance, float farDistance, int midInterval) {
+        setBands(nearDistance, farDistance, midInterval);
+    }
+
+    /**
+     * @see #SteeringLod(float, float, int)
+     */
+    public void setBands(float nearDistance, float farDistance, int midInterval) {
+        if (nearDistance < 0 || farDistance < nearDistance)
+            throw new IllegalArgumentException("Bands must satisfy 0 <= near <= far: " + nearDistance + ", " + farDistance);
+        if (midInterval < 1)
+            throw new IllegalArgumentException("midInterval must be positive: " + midInterval);
+        this.nearDistance = nearDistance;
+        this.farDistance = farDistance;
+        this.midInterval = midInterval;
+    }
+
+    /**
+     * Sets the rectangle the distances are measured from, agents inside are always near
+     *
+     * @param x          center x in WorldUnits
+     * @param y          center y in WorldUnits
+     * @param halfWidth  half the width in WorldUnits
+     * @param halfHeight half the height in WorldUnits
+     */
+    public void setFocus(float x, float y, float halfWidth, float halfHeight) {
+        focusX = x;
+        focusY = y;
+        focusHalfWidth = halfWidth;
+        focusHalfHeight = halfHeight;
+    }
+
+    /**
+     * Sorts the agents into the bands and advances the tick
+     *
+     * @param x     x positions in WorldUnits, indexed by agent
+     * @param y     y positions in WorldUnits, indexed by agent
+     * @param count number of agents
+     */
+    public void classify(float[] x, float[] y, int count) {
+        if (bands.length < count)
+            bands = new byte[Math.max(count, bands.length + (bands.length >> 1))];
+        Arrays.fill(counts, 0);
+        tick++;
+
+        float near2 = nearDistance * nearDistance;
+        float far2 = farDistance * farDistance;
+        for (int i = 0; i < count; i++) {
+            // distance to the rectangle, 0 inside
+            float dx = Math.max(0, Math.abs(x[i] - focusX) - focusHalfWidth);
+            float dy = Math.max(0, Math.abs(y[i] - focusY) - focusHalfHeight);
+            float distance2 = dx * dx + dy * dy;
+
+            int band = distance2 <= near2 ? NEAR : distance2 < far2 ? MID : FAR;
+            bands[i] = (byte) band;
+            counts[band]++;
+        }
+    }
+
+    /**
+     * @param index index of the agent in the last classification
+     * @return true if the steering of the agent is calculated in the current step
+     */
+    public boolean isDue(int index) {
+        switch (bands[index]) {
+            case NEAR:
+                return true;
+            case MID:
+                return (tick + index) % midInterval == 0;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @return band of the agent in the last classification
+     */
+    public int getBand(int index) {
+        return bands[index];
+    }
+
+    /**
+     * @param band {@link #NEAR}, {@link #MID} or {@link #FAR}
+     * @return number of agents in the band in the last classification
+     */
+    public int getCount(int band) {
+        return counts[band];
+    }
+
+    public float getNearDistance() {
+        return nearDistance;
+    }
+
+    public float getFarDistance() {
+        return farDistance;
+    }
+
+    public int getMidInterval() {
+        return midInterval;
+    }
+}
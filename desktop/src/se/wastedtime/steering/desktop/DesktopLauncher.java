@@ -2,11 +2,16 @@ package se.wastedtime.steering.desktop;
 
 import com.badlogic.gdx.backends.lwjgl.LwjglApplication;
 import com.badlogic.gdx.backends.lwjgl.LwjglApplicationConfiguration;
+import com.badlogic.gdx.files.FileHandle;
 import se.wastedtime.steering.SteeringTest;
+import se.wastedtime.steering.simulation.SimulationClock;
 
 public class DesktopLauncher {
 	public static void main (String[] arg) {
 		LwjglApplicationConfiguration config = new LwjglApplicationConfiguration();
-		new LwjglApplication(new SteeringTest(), config);
+		int tickRate = arg.length > 0 ? Integer.parseInt(arg[0]) : SimulationClock.DEFAULT_TICK_RATE;
+		boolean streaming = arg.length > 1 && Boolean.parseBoolean(arg[1]);
+		FileHandle replayFile = arg.length > 2 ? new FileHandle(arg[2]) : null;
+		new LwjglApplication(new SteeringTest(tickRate, streaming, replayFile), config);
 	}
 }
@@ -0,0 +1,21 @@
+package se.wastedtime.steering.desktop;
+
+import com.badlogic.gdx.backends.headless.HeadlessApplication;
+import com.badlogic.gdx.backends.headless.HeadlessApplicationConfiguration;
+import se.wastedtime.steering.simulation.HeadlessSimulation;
+import se.wastedtime.steering.simulation.SimulationClock;
+
+/**
+ * Runs the simulation without a window, arguments: [agents] [ticks] [tickRate] [seed]
+ */
+public class HeadlessLauncher {
+	public static void main (String[] arg) {
+		int agents = arg.length > 0 ? Integer.parseInt(arg[0]) : 1000;
+		int ticks = arg.length > 1 ? Integer.parseInt(arg[1]) : 10000;
+		int tickRate = arg.length > 2 ? Integer.parseInt(arg[2]) : SimulationClock.DEFAULT_TICK_RATE;
+		long seed = arg.length > 3 ? Long.parseLong(arg[3]) : 0L;
+
+		HeadlessApplicationConfiguration config = new HeadlessApplicationConfiguration();
+		new HeadlessApplication(new HeadlessSimulation("maps/first.tmx", agents, ticks, tickRate, seed), config);
+	}
+}
@@ -0,0 +1,23 @@
+package se.wastedtime.steering.desktop;
+
+import com.badlogic.gdx.backends.headless.HeadlessApplication;
+import com.badlogic.gdx.backends.headless.HeadlessApplicationConfiguration;
+import com.badlogic.gdx.files.FileHandle;
+import se.wastedtime.steering.simulation.Replay;
+import se.wastedtime.steering.simulation.ReplayRunner;
+
+import java.io.IOException;
+
+/**
+ * Replays a recording without a window and checks it for desyncs, arguments: replayFile
+ */
+public class ReplayLauncher {
+	public static void main (String[] arg) throws IOException {
+		if (arg.length < 1)
+			throw new IllegalArgumentException("Usage: ReplayLauncher replayFile");
+		Replay replay = Replay.read(new FileHandle(arg[0]));
+
+		HeadlessApplicationConfiguration config = new HeadlessApplicationConfiguration();
+		new HeadlessApplication(new ReplayRunner(replay), config);
+	}
+}